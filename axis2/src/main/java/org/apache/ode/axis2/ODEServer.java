@@ -30,6 +30,7 @@ import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 
 import javax.servlet.ServletConfig;
@@ -55,14 +56,18 @@ import org.apache.ode.axis2.deploy.DeploymentPoller;
 import org.apache.ode.axis2.service.DeploymentWebService;
 import org.apache.ode.axis2.service.ManagementService;
 import org.apache.ode.axis2.util.ClusterUrlTransformer;
+import org.apache.ode.axis2.util.NonBlockingHttpClient;
 import org.apache.ode.bpel.clapi.ClusterManager;
 import org.apache.ode.bpel.clapi.ClusterMemberListener;
 import org.apache.ode.bpel.clapi.ClusterProcessStore;
 import org.apache.ode.bpel.connector.BpelServerConnector;
 import org.apache.ode.bpel.dao.BpelDAOConnectionFactory;
 import org.apache.ode.bpel.eapi.AbstractExtensionBundle;
+import org.apache.ode.bpel.engine.AsyncEventPersister;
+import org.apache.ode.bpel.engine.EventListenerQueue;
 import org.apache.ode.bpel.engine.BpelServerImpl;
 import org.apache.ode.bpel.engine.CountLRUDehydrationPolicy;
+import org.apache.ode.bpel.engine.MemoryBudgetDehydrationPolicy;
 import org.apache.ode.bpel.engine.cron.CronScheduler;
 import org.apache.ode.bpel.extvar.jdbc.JdbcExternalVariableModule;
 import org.apache.ode.bpel.iapi.BpelEventListener;
@@ -118,6 +123,9 @@ public class ODEServer {
 
     protected ExecutorService _executorService;
 
+    /** Times out replies that are sent asynchronously, see {@link ODEService#isAsyncReply}. */
+    protected ScheduledExecutorService _timeoutExecutor;
+
     protected Scheduler _scheduler;
 
     protected CronScheduler _cronScheduler;
@@ -136,6 +144,7 @@ public class ODEServer {
 
     protected MultiThreadedHttpConnectionManager httpConnectionManager;
     protected IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+    protected NonBlockingHttpClient nonBlockingHttpClient;
     
     public Runnable txMgrCreatedCallback;
 
@@ -421,6 +430,15 @@ public class ODEServer {
                     __log.error("Unable to shut down HTTP connection manager.", t);
                 }
             }
+            if (nonBlockingHttpClient != null) {
+                __log.debug("shutting down non-blocking HTTP client.");
+                try {
+                    nonBlockingHttpClient.shutdown();
+                    nonBlockingHttpClient = null;
+                } catch(Throwable t) {
+                    __log.error("Unable to shut down non-blocking HTTP client.", t);
+                }
+            }
             if (idleConnectionTimeoutThread != null) {
                 __log.debug("shutting down Idle Connection Timeout Thread.");
                 try {
@@ -441,6 +459,10 @@ public class ODEServer {
                 _executorService.shutdownNow();
                 _executorService = null;
             }
+            if (_timeoutExecutor != null) {
+                _timeoutExecutor.shutdownNow();
+                _timeoutExecutor = null;
+            }
 
             __log.info(__msgs.msgOdeShutdownCompleted());
         } finally {
@@ -569,6 +591,14 @@ public class ODEServer {
         else
             _executorService = Executors.newFixedThreadPool(_odeConfig.getThreadPoolMaxSize(), threadFactory);
 
+        _timeoutExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ODEServer-Timeout");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
         {
             List<String> targets = new ArrayList<String>();
             Collections.addAll(targets, _odeConfig.getProperty("cluster.localRoute.targets", "").split(","));
@@ -590,12 +620,18 @@ public class ODEServer {
 
         _bpelServer.setDaoConnectionFactory(_daoCF);
         _bpelServer.setClusterManagerImpl(_clusterManager);
-        _bpelServer.setInMemDaoConnectionFactory(new BpelDAOConnectionFactoryImpl(_scheduler, _odeConfig.getInMemMexTtl()));
+        _bpelServer.setInMemDaoConnectionFactory(new BpelDAOConnectionFactoryImpl(_scheduler, _odeConfig.getInMemMexTtl(),
+                _odeConfig.getInMemMexCapacity(), _odeConfig.getInMemMexCapacityTimeout()));
         _bpelServer.setEndpointReferenceContext(eprContext);
         _bpelServer.setMessageExchangeContext(new MessageExchangeContextImpl(this));
         _bpelServer.setBindingContext(new BindingContextImpl(this));
         _bpelServer.setScheduler(_scheduler);
-        if (_odeConfig.isDehydrationEnabled()) {
+        if (_odeConfig.isDehydrationEnabled() && _odeConfig.getDehydrationBudget() > 0) {
+            MemoryBudgetDehydrationPolicy dehy = new MemoryBudgetDehydrationPolicy();
+            dehy.setBudget(_odeConfig.getDehydrationBudget());
+            dehy.setProcessMaxAge(_odeConfig.getDehydrationMaximumAge());
+            _bpelServer.setDehydrationPolicy(dehy);
+        } else if (_odeConfig.isDehydrationEnabled()) {
             CountLRUDehydrationPolicy dehy = new CountLRUDehydrationPolicy();
             dehy.setProcessMaxAge(_odeConfig.getDehydrationMaximumAge());
             dehy.setProcessMaxCount(_odeConfig.getDehydrationMaximumCount());
@@ -605,6 +641,10 @@ public class ODEServer {
         _bpelServer.setConfigProperties(_odeConfig.getProperties());
         _bpelServer.init();
         _bpelServer.setInstanceThrottledMaximumCount(_odeConfig.getInstanceThrottledMaximumCount());
+        _bpelServer.setInstanceCacheMaximumSize(_odeConfig.getInstanceCacheMaximumSize());
+        _bpelServer.setCorrelationRouteIndexEnabled(_odeConfig.isCorrelationRouteIndexEnabled());
+        _bpelServer.setEventPersistence(AsyncEventPersister.Durability.parse(_odeConfig.getEventPersistence()),
+                _odeConfig.getEventPersistenceQueueSize(), _odeConfig.getEventPersistenceBatchSize());
         _bpelServer.setProcessThrottledMaximumCount(_odeConfig.getProcessThrottledMaximumCount());
         _bpelServer.setProcessThrottledMaximumSize(_odeConfig.getProcessThrottledMaximumSize());
         _bpelServer.setHydrationLazy(_odeConfig.isHydrationLazy());
@@ -644,6 +684,11 @@ public class ODEServer {
 
         idleConnectionTimeoutThread.addConnectionManager(httpConnectionManager);
         idleConnectionTimeoutThread.start();
+
+        // used by the endpoints configured with http.non-blocking; its thread only starts on the first request
+        nonBlockingHttpClient = new NonBlockingHttpClient("ODEServer-NonBlockingHttp", _executorService);
+        nonBlockingHttpClient.setIdleTimeout(idleConnectionTimeout);
+        nonBlockingHttpClient.setMaxResponseSize(Long.parseLong(_odeConfig.getProperty("http.non-blocking.max-response-size", "16777216")));
     }
 
     public ProcessStoreImpl getProcessStore() {
@@ -676,7 +721,9 @@ public class ODEServer {
             for (StringTokenizer tokenizer = new StringTokenizer(listenersStr, ",;"); tokenizer.hasMoreTokens();) {
                 String listenerCN = tokenizer.nextToken();
                 try {
-                    _bpelServer.registerBpelEventListener((BpelEventListener) Class.forName(listenerCN).newInstance());
+                    _bpelServer.registerBpelEventListener((BpelEventListener) Class.forName(listenerCN).newInstance(),
+                            EventListenerQueue.Policy.parse(_odeConfig.getEventListenerDispatch(listenerCN)),
+                            _odeConfig.getEventListenerQueueSize());
                     __log.info(__msgs.msgBpelEventListenerRegistered(listenerCN));
                 } catch (Exception e) {
                     __log.warn("Couldn't register the event listener " + listenerCN + ", the class couldn't be "
@@ -19,8 +19,12 @@
 
 package org.apache.ode.axis2;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.Map;
 
 import javax.transaction.TransactionManager;
@@ -42,7 +46,9 @@ import org.apache.axis2.client.Options;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.description.AxisService;
 import org.apache.axis2.description.TwoChannelAxisOperation;
+import org.apache.axis2.engine.AxisEngine;
 import org.apache.axis2.transport.jms.JMSConstants;
+import org.apache.axis2.util.MessageContextBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.axis2.util.SoapMessageConverter;
@@ -83,9 +89,23 @@ public class ODEService {
     private String _portName;
     private WSAEndpoint _serviceRef;
     private SoapMessageConverter _converter;
+    private ExecutorService _executorService;
+    private ScheduledExecutorService _timeoutExecutor;
 
     public ODEService(AxisService axisService, ProcessConf pconf, QName serviceName, String portName, BpelServer server,
                       TransactionManager txManager) throws AxisFault {
+        this(axisService, pconf, serviceName, portName, server, txManager, null, null);
+    }
+
+    /**
+     * @param executorService sends the replies that are not waited for, see {@link #isAsyncReply(MessageContext)}
+     * @param timeoutExecutor times out these replies
+     */
+    public ODEService(AxisService axisService, ProcessConf pconf, QName serviceName, String portName, BpelServer server,
+                      TransactionManager txManager, ExecutorService executorService,
+                      ScheduledExecutorService timeoutExecutor) throws AxisFault {
+        _executorService = executorService;
+        _timeoutExecutor = timeoutExecutor;
         _axisService = axisService;
         _server = server;
         _txManager = txManager;
@@ -104,9 +124,20 @@ public class ODEService {
 
     public void onAxisMessageExchange(MessageContext msgContext, MessageContext outMsgContext, SOAPFactory soapFactory)
             throws AxisFault {
+        onAxisMessageExchange(msgContext, outMsgContext, soapFactory, false);
+    }
+
+    /**
+     * @param asyncReply if true, don't wait for the response: it's written to outMsgContext and sent with
+     * {@link AxisEngine#send(MessageContext)} from another thread once the process produced it
+     * @return true if the reply is going to be sent asynchronously, false if it's already in outMsgContext
+     */
+    public boolean onAxisMessageExchange(MessageContext msgContext, MessageContext outMsgContext, SOAPFactory soapFactory,
+                                         boolean asyncReply) throws AxisFault {
         boolean success = true;
         MyRoleMessageExchange odeMex = null;
         Future responseFuture = null;
+        AsyncReply reply = null;
         try {
             _txManager.begin();
             if (__log.isDebugEnabled()) __log.debug("Starting transaction.");
@@ -135,6 +166,11 @@ public class ODEService {
                 // Invoke ODE
                 responseFuture = odeMex.invoke(odeRequest);
 
+                if (asyncReply && outMsgContext != null && odeMex.getOperation().getOutput() != null) {
+                    reply = new AsyncReply(odeMex, msgContext, outMsgContext, soapFactory);
+                    if (!odeMex.setResponseListener(reply)) reply = null;
+                }
+
                 __log.debug("Commiting ODE MEX " + odeMex);
                 try {
                     if (__log.isDebugEnabled()) __log.debug("Commiting transaction.");
@@ -165,6 +201,11 @@ public class ODEService {
             }
         }
 
+        if (reply != null && success) {
+            reply.scheduleTimeout(getTimeout());
+            return true;
+        }
+
         if (odeMex.getOperation().getOutput() != null) {
             // Waits for the response to arrive
             try {
@@ -177,51 +218,71 @@ public class ODEService {
             }
 
             if (outMsgContext != null) {
-                SOAPEnvelope envelope = soapFactory.getDefaultEnvelope();
-                outMsgContext.setEnvelope(envelope);
+                onResponse(odeMex, outMsgContext, soapFactory);
+            }
+            if (!success) {
+                throw new OdeFault("Message was either unroutable or timed out!");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the reply to this request can be sent without keeping the receiving thread waiting for it, i.e.
+     * the endpoint enables {@link Properties#PROP_MEX_ASYNC_REPLY} and the reply goes to a WS-Addressing ReplyTo
+     * rather than back on the transport of the request.
+     */
+    public boolean isAsyncReply(MessageContext msgContext) {
+        if (_executorService == null || _timeoutExecutor == null)
+            return false;
+        if (!Boolean.valueOf(_pconf.getEndpointProperties(_serviceRef).get(Properties.PROP_MEX_ASYNC_REPLY)))
+            return false;
+        org.apache.axis2.addressing.EndpointReference replyTo = msgContext.getReplyTo();
+        return replyTo != null && !replyTo.hasAnonymousAddress() && !replyTo.hasNoneAddress();
+    }
 
-                // Hopefully we have a response
-                __log.debug("Handling response for MEX " + odeMex);
-                boolean commit = false;
+    private void onResponse(MyRoleMessageExchange odeMex, MessageContext outMsgContext, SOAPFactory soapFactory)
+            throws AxisFault {
+        SOAPEnvelope envelope = soapFactory.getDefaultEnvelope();
+        outMsgContext.setEnvelope(envelope);
+
+        // Hopefully we have a response
+        __log.debug("Handling response for MEX " + odeMex);
+        boolean commit = false;
+        try {
+            if (__log.isDebugEnabled()) __log.debug("Starting transaction.");
+            _txManager.begin();
+        } catch (Exception ex) {
+            throw new OdeFault("Error starting transaction!", ex);
+        }
+        try {
+            // Refreshing the message exchange
+            odeMex = (MyRoleMessageExchange) _server.getEngine().getMessageExchange(odeMex.getMessageExchangeId());
+            onResponse(odeMex, outMsgContext);
+            commit = true;
+        } catch (AxisFault af) {
+            __log.warn("MEX produced a fault " + odeMex, af);
+            commit = true;
+            throw af;
+        } catch (Exception e) {
+            __log.error("Error processing response for MEX " + odeMex, e);
+            throw new OdeFault("An exception occured when invoking ODE.", e);
+        } finally {
+            odeMex.release(commit);
+            if (commit) {
                 try {
-                    if (__log.isDebugEnabled()) __log.debug("Starting transaction.");
-                    _txManager.begin();
-                } catch (Exception ex) {
-                    throw new OdeFault("Error starting transaction!", ex);
+                    if (__log.isDebugEnabled()) __log.debug("Comitting transaction.");
+                    _txManager.commit();
+                } catch (Exception e) {
+                    throw new OdeFault("Commit failed!", e);
                 }
+            } else {
                 try {
-                    // Refreshing the message exchange
-                    odeMex = (MyRoleMessageExchange) _server.getEngine().getMessageExchange(odeMex.getMessageExchangeId());
-                    onResponse(odeMex, outMsgContext);
-                    commit = true;
-                } catch (AxisFault af) {
-                    __log.warn("MEX produced a fault " + odeMex, af);
-                    commit = true;
-                    throw af;
-                } catch (Exception e) {
-                    __log.error("Error processing response for MEX " + odeMex, e);
-                    throw new OdeFault("An exception occured when invoking ODE.", e);
-                } finally {
-                    odeMex.release(commit);
-                    if (commit) {
-                        try {
-                            if (__log.isDebugEnabled()) __log.debug("Comitting transaction.");
-                            _txManager.commit();
-                        } catch (Exception e) {
-                            throw new OdeFault("Commit failed!", e);
-                        }
-                    } else {
-                        try {
-                            _txManager.rollback();
-                        } catch (Exception ex) {
-                            throw new OdeFault("Rollback failed!", ex);
-                        }
-                    }
+                    _txManager.rollback();
+                } catch (Exception ex) {
+                    throw new OdeFault("Rollback failed!", ex);
                 }
             }
-            if (!success) {
-                throw new OdeFault("Message was either unroutable or timed out!");
-            }
         }
     }
 
@@ -413,4 +474,103 @@ public class ODEService {
 
         return EndpointFactory.createEndpoint(doc.getDocumentElement());
     }
+
+    /**
+     * Sends the reply of a request whose receiving thread didn't wait for it, once the process
+     * produced it or the exchange timed out, whichever comes first.
+     */
+    class AsyncReply implements MyRoleMessageExchange.ResponseListener, Runnable {
+        private final MyRoleMessageExchange _odeMex;
+        private final MessageContext _msgContext;
+        private final MessageContext _outMsgContext;
+        private final SOAPFactory _soapFactory;
+        private final AtomicBoolean _done = new AtomicBoolean();
+        private volatile ScheduledFuture _timeout;
+
+        AsyncReply(MyRoleMessageExchange odeMex, MessageContext msgContext, MessageContext outMsgContext,
+                   SOAPFactory soapFactory) {
+            _odeMex = odeMex;
+            _msgContext = msgContext;
+            _outMsgContext = outMsgContext;
+            _soapFactory = soapFactory;
+        }
+
+        void scheduleTimeout(long timeout) {
+            if (timeout > 0 && !_done.get())
+                _timeout = _timeoutExecutor.schedule(this, timeout, TimeUnit.MILLISECONDS);
+        }
+
+        public void onResponse() {
+            if (!_done.compareAndSet(false, true))
+                return;
+            ScheduledFuture timeout = _timeout;
+            if (timeout != null) timeout.cancel(false);
+            // don't hold the engine thread that delivered the response
+            _executorService.execute(new Runnable() {
+                public void run() {
+                    try {
+                        ODEService.this.onResponse(_odeMex, _outMsgContext, _soapFactory);
+                        send();
+                    } catch (AxisFault af) {
+                        sendFault(af);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Timeout
+         */
+        public void run() {
+            if (_done.get())
+                return;
+            try {
+                // the response won, it is being sent
+                if (!releaseOnTimeout()) return;
+            } catch (Exception e) {
+                __log.error("Error releasing MEX " + _odeMex + " on timeout", e);
+            }
+            if (!_done.compareAndSet(false, true))
+                return;
+            String errorMsg = "Timeout when waiting for response to MEX " + _odeMex;
+            __log.error(errorMsg);
+            sendFault(new OdeFault(errorMsg));
+        }
+
+        /**
+         * Stops waiting for the response and releases the exchange, unless the response is already there.
+         */
+        private boolean releaseOnTimeout() throws Exception {
+            boolean timedOut;
+            boolean commit = false;
+            _txManager.begin();
+            try {
+                MyRoleMessageExchange odeMex = (MyRoleMessageExchange) _server.getEngine().getMessageExchange(_odeMex.getMessageExchangeId());
+                timedOut = odeMex.timeoutResponse();
+                if (timedOut) odeMex.release(false);
+                commit = true;
+            } finally {
+                if (commit) _txManager.commit();
+                else _txManager.rollback();
+            }
+            return timedOut;
+        }
+
+        void send() throws AxisFault {
+            if (__log.isDebugEnabled()) {
+                __log.debug("Reply for " + _msgContext.getAxisService().getName() + "."
+                        + _msgContext.getAxisOperation().getName());
+                __log.debug("Reply message " + _outMsgContext.getEnvelope());
+            }
+            AxisEngine.send(_outMsgContext);
+        }
+
+        void sendFault(AxisFault fault) {
+            try {
+                AxisEngine.sendFault(MessageContextBuilder.createFaultMessageContext(_msgContext, fault));
+            } catch (AxisFault af) {
+                __log.error("Could not send the fault for MEX " + _odeMex, af);
+            }
+        }
+    }
 }
@@ -19,7 +19,12 @@
 
 package org.apache.ode.axis2;
 
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMOutputFormat;
+import org.apache.axiom.om.OMXMLBuilderFactory;
 import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPModelBuilder;
+import org.apache.axis2.Constants;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.addressing.EndpointReference;
 import org.apache.axis2.client.OperationClient;
@@ -31,13 +36,16 @@ import org.apache.axis2.description.*;
 import org.apache.axis2.engine.AxisConfiguration;
 import org.apache.axis2.transport.jms.JMSConstants;
 import org.apache.axis2.transport.http.HTTPConstants;
+import org.apache.axis2.util.JavaUtils;
 import org.apache.axis2.wsdl.WSDLConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.neethi.Policy;
 import org.apache.neethi.PolicyEngine;
 import org.apache.ode.axis2.util.ClusterUrlTransformer;
+import org.apache.ode.axis2.util.NonBlockingHttpClient;
 import org.apache.ode.axis2.util.SoapMessageConverter;
 import org.apache.ode.axis2.util.AxisUtils;
 import org.apache.ode.bpel.engine.BpelServerImpl;
@@ -62,12 +70,16 @@ import javax.wsdl.Definition;
 import javax.wsdl.Fault;
 import javax.wsdl.Operation;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -87,12 +99,16 @@ public class SoapExternalService implements ExternalService {
 
 
     private static ThreadLocal<ServiceClient> _cachedClients = new ThreadLocal<ServiceClient>();
+
+    /** Parses the responses of the non-blocking transport; factories are thread-safe once configured. */
+    private static final XMLInputFactory __inputFactory = XMLInputFactory.newInstance();
     private WatchDog<Map, OptionsObserver> _axisOptionsWatchDog;
     private WatchDog<Long, ServiceFileObserver> _axisServiceWatchDog;
     private ConfigurationContext _configContext;
 
 
     private ExecutorService _executorService;
+    private NonBlockingHttpClient _nonBlockingClient;
     private Definition _definition;
     private QName _serviceName;
     private String _portName;
@@ -107,6 +123,12 @@ public class SoapExternalService implements ExternalService {
 
     public SoapExternalService(ProcessConf pconf, QName serviceName, String portName, ExecutorService executorService,
                                ConfigurationContext configContext, Scheduler sched, BpelServer server, MultiThreadedHttpConnectionManager connManager, ClusterUrlTransformer clusterUrlTransformer) throws AxisFault {
+        this(pconf, serviceName, portName, executorService, configContext, sched, server, connManager, clusterUrlTransformer, null);
+    }
+
+    public SoapExternalService(ProcessConf pconf, QName serviceName, String portName, ExecutorService executorService,
+                               ConfigurationContext configContext, Scheduler sched, BpelServer server, MultiThreadedHttpConnectionManager connManager,
+                               ClusterUrlTransformer clusterUrlTransformer, NonBlockingHttpClient nonBlockingClient) throws AxisFault {
         _definition = pconf.getDefinitionForService(serviceName);
         _serviceName = serviceName;
         _portName = portName;
@@ -118,6 +140,7 @@ public class SoapExternalService implements ExternalService {
         _server = server;
         _pconf = pconf;
         _clusterUrlTransformer = clusterUrlTransformer;
+        _nonBlockingClient = nonBlockingClient;
 
         File fileToWatch = new File(_pconf.getBaseURI().resolve(_serviceName.getLocalPart() + ".axis2"));
         _axisServiceWatchDog = WatchDog.watchFile(fileToWatch, new ServiceFileObserver(fileToWatch));
@@ -188,7 +211,9 @@ public class SoapExternalService implements ExternalService {
             operationOptions.setAction(mctx.getSoapAction());
             operationOptions.setTo(axisEPR);
 
-            if (isTwoWay) {
+            if (isNonBlocking(mctx, operationOptions, axisEPR)) {
+                invokeNonBlocking(odeMex, mctx, operationOptions, axisEPR, isTwoWay);
+            } else if (isTwoWay) {
                 final String mexId = odeMex.getMessageExchangeId();
                 final Operation operation = odeMex.getOperation();
 
@@ -262,6 +287,139 @@ public class SoapExternalService implements ExternalService {
         }
     }
 
+    /**
+     * The non-blocking transport is used for plain HTTP endpoints which asked for it, unless the invocation
+     * needs something only the Axis2 transport provides.
+     * @see org.apache.ode.utils.Properties#PROP_HTTP_NON_BLOCKING
+     */
+    private boolean isNonBlocking(MessageContext mctx, Options options, EndpointReference axisEPR) {
+        if (_nonBlockingClient == null || !JavaUtils.isTrueExplicitly(options.getProperty(Properties.PROP_HTTP_NON_BLOCKING)))
+            return false;
+        if (!axisEPR.getAddress().toLowerCase().startsWith("http:")) return false;
+        if (options.getProperty(HTTPConstants.PROXY) != null || options.getProperty(HTTPConstants.AUTHENTICATE) != null
+                || options.getProperty(Properties.PROP_SECURITY_POLICY) != null) {
+            if (__log.isDebugEnabled()) __log.debug("Proxy, authentication or security policy set, using the blocking transport");
+            return false;
+        }
+        // session headers are added by the Axis2 handler chain
+        return !hasSessionId(mctx.getOptions().getProperty(ODEService.TARGET_SESSION_ENDPOINT))
+                && !hasSessionId(mctx.getOptions().getProperty(ODEService.CALLBACK_SESSION_ENDPOINT));
+    }
+
+    private static boolean hasSessionId(Object endpoint) {
+        return endpoint instanceof WSAEndpoint && ((WSAEndpoint) endpoint).getSessionId() != null;
+    }
+
+    /**
+     * Sends the request with the non-blocking client: no thread waits for the response, it gets processed
+     * on the executor once it's fully received.
+     */
+    private void invokeNonBlocking(final PartnerRoleMessageExchange odeMex, MessageContext mctx, Options options,
+                                   EndpointReference axisEPR, boolean isTwoWay) throws Exception {
+        final NonBlockingHttpClient.Request request = new NonBlockingHttpClient.Request("POST", new URI(axisEPR.getAddress()));
+        String charset = (String) options.getProperty(Constants.Configuration.CHARACTER_SET_ENCODING);
+        if (charset == null) charset = "UTF-8";
+        OMOutputFormat format = new OMOutputFormat();
+        format.setCharSetEncoding(charset);
+        format.setSOAP11(mctx.isSOAP11());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        mctx.getEnvelope().serialize(body, format);
+        request.setBody(body.toByteArray());
+
+        String action = options.getAction() == null ? "" : options.getAction();
+        if (mctx.isSOAP11()) {
+            request.addHeader("Content-Type", "text/xml; charset=" + charset);
+            request.addHeader("SOAPAction", "\"" + action + "\"");
+        } else {
+            request.addHeader("Content-Type", "application/soap+xml; charset=" + charset
+                    + (action.length() > 0 ? "; action=\"" + action + "\"" : ""));
+        }
+        List headers = (List) options.getProperty(HTTPConstants.HTTP_HEADERS);
+        if (headers != null) {
+            for (Object o : headers) {
+                Header h = (Header) o;
+                request.addHeader(h.getName(), h.getValue());
+            }
+        }
+        request.setConnectTimeout(getTimeout(options, HTTPConstants.CONNECTION_TIMEOUT));
+        request.setReadTimeout(getTimeout(options, HTTPConstants.SO_TIMEOUT));
+
+        if (__log.isDebugEnabled()) __log.debug("Sending " + request + " with the non-blocking transport");
+
+        if (isTwoWay) {
+            final String mexId = odeMex.getMessageExchangeId();
+            final Operation operation = odeMex.getOperation();
+
+            // Defer the invoke until the transaction commits.
+            _sched.registerSynchronizer(new Scheduler.Synchronizer() {
+                public void afterCompletion(boolean success) {
+                    // If the TX is rolled back, then we don't send the request.
+                    if (!success) return;
+
+                    _nonBlockingClient.execute(request, new NonBlockingHttpClient.Callback() {
+                        public void completed(NonBlockingHttpClient.Response response) {
+                            try {
+                                MessageContext reply = new MessageContext();
+                                reply.setEnvelope(parseEnvelope(response));
+                                if (__log.isDebugEnabled())
+                                    __log.debug("Service response:\n" + reply.getEnvelope().toString());
+                                reply(mexId, operation, reply, reply.getEnvelope().hasFault());
+                            } catch (Throwable t) {
+                                String errmsg = "Error reading response (mex=" + odeMex + "): " + t.getMessage();
+                                __log.error(errmsg, t);
+                                replyWithFailure(mexId, MessageExchange.FailureType.COMMUNICATION_ERROR, errmsg);
+                            }
+                        }
+
+                        public void failed(IOException e) {
+                            String errmsg = "Error sending message (mex=" + odeMex + "): " + e.getMessage();
+                            __log.error(errmsg, e);
+                            replyWithFailure(mexId, MessageExchange.FailureType.COMMUNICATION_ERROR, errmsg);
+                        }
+                    });
+                }
+
+                public void beforeCompletion() {
+                }
+            });
+            odeMex.replyAsync();
+        } else {
+            _nonBlockingClient.execute(request, new NonBlockingHttpClient.Callback() {
+                public void completed(NonBlockingHttpClient.Response response) {
+                    if (response.getStatusCode() >= 300)
+                        __log.error("Error sending message (mex=" + odeMex + "): " + response.getStatusLine());
+                }
+
+                public void failed(IOException e) {
+                    __log.error("Error sending message (mex=" + odeMex + "): " + e.getMessage(), e);
+                }
+            });
+            odeMex.replyOneWayOk();
+        }
+    }
+
+    private static long getTimeout(Options options, String property) {
+        Object value = options.getProperty(property);
+        if (value instanceof Number) return ((Number) value).longValue();
+        // same default as the Axis2 transport
+        return options.getTimeOutInMilliSeconds();
+    }
+
+    private static SOAPEnvelope parseEnvelope(NonBlockingHttpClient.Response response) throws Exception {
+        int status = response.getStatusCode();
+        // faults come with a 500
+        if ((status < 200 || status >= 300) && status != 500)
+            throw new AxisFault("Transport error: " + response.getStatusLine());
+        if (response.getBody().length == 0)
+            throw new AxisFault("Empty response: " + response.getStatusLine());
+        SOAPModelBuilder builder = OMXMLBuilderFactory.createStAXSOAPModelBuilder(OMAbstractFactory.getMetaFactory(),
+                __inputFactory.createXMLStreamReader(new ByteArrayInputStream(response.getBody())));
+        SOAPEnvelope envelope = builder.getSOAPEnvelope();
+        // the reply is processed in another thread
+        envelope.build();
+        return envelope;
+    }
+
     private ServiceClient getServiceClient() throws AxisFault {
         try {
             // call manually the check procedure
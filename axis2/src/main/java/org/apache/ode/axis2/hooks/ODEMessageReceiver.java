@@ -44,12 +44,24 @@ public class ODEMessageReceiver extends AbstractMessageReceiver {
             if (__log.isDebugEnabled())
                 __log.debug("Received request message for " + msgContext.getAxisService().getName() + "."
                         + msgContext.getAxisOperation().getName());
-            // Client is expecting a response, running in the same thread
+            // Client is expecting a response, running in the same thread unless it goes to a separate ReplyTo
             MessageContext outMsgContext = MessageContextBuilder.createOutMessageContext(msgContext);
             // pass on the endpoint properties for output context
             outMsgContext.getOptions().setParent(_service.getOptions());
             outMsgContext.getOperationContext().addMessageContext(outMsgContext);
-            invokeBusinessLogic(msgContext, outMsgContext);
+            if (_service.isAsyncReply(msgContext)) {
+                // the transport lets go of the request once we return
+                msgContext.getEnvelope().build();
+                if (_service.onAxisMessageExchange(msgContext, outMsgContext, getSOAPFactory(msgContext), true)) {
+                    if (__log.isDebugEnabled())
+                        __log.debug("Reply for " + msgContext.getAxisService().getName() + "."
+                                + msgContext.getAxisOperation().getName() + " will be sent to "
+                                + msgContext.getReplyTo().getAddress());
+                    return;
+                }
+            } else {
+                invokeBusinessLogic(msgContext, outMsgContext);
+            }
             if (__log.isDebugEnabled()) {
                 __log.debug("Reply for " + msgContext.getAxisService().getName() + "."
                         + msgContext.getAxisOperation().getName());
@@ -19,10 +19,16 @@
 
 package org.apache.ode.axis2.httpbinding;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.httpclient.params.HttpParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +37,7 @@ import org.apache.ode.axis2.ODEService;
 import org.apache.ode.utils.Properties;
 import org.apache.ode.axis2.OdeFault;
 import org.apache.ode.axis2.util.ClusterUrlTransformer;
+import org.apache.ode.axis2.util.NonBlockingHttpClient;
 import org.apache.ode.bpel.epr.EndpointFactory;
 import org.apache.ode.bpel.epr.WSAEndpoint;
 import org.apache.ode.bpel.epr.MutableEndpoint;
@@ -52,8 +59,10 @@ import javax.wsdl.Operation;
 import javax.wsdl.Port;
 import javax.wsdl.Service;
 import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -86,9 +95,18 @@ public class HttpExternalService implements ExternalService {
 
     private ClusterUrlTransformer clusterUrlTransformer;
 
+    private NonBlockingHttpClient nonBlockingClient;
+
     public HttpExternalService(ProcessConf pconf, QName serviceName, String portName,
                                ExecutorService executorService, Scheduler scheduler, BpelServer server,
                                MultiThreadedHttpConnectionManager connManager, ClusterUrlTransformer clusterUrlTransformer) throws OdeFault {
+        this(pconf, serviceName, portName, executorService, scheduler, server, connManager, clusterUrlTransformer, null);
+    }
+
+    public HttpExternalService(ProcessConf pconf, QName serviceName, String portName,
+                               ExecutorService executorService, Scheduler scheduler, BpelServer server,
+                               MultiThreadedHttpConnectionManager connManager, ClusterUrlTransformer clusterUrlTransformer,
+                               NonBlockingHttpClient nonBlockingClient) throws OdeFault {
         if (log.isDebugEnabled())
             log.debug("new HTTP External service, service name=[" + serviceName + "]; port name=[" + portName + "]");
         this.portName = portName;
@@ -98,6 +116,7 @@ public class HttpExternalService implements ExternalService {
         this.server = server;
         this.pconf = pconf;
         this.clusterUrlTransformer = clusterUrlTransformer;
+        this.nonBlockingClient = nonBlockingClient;
         Definition definition = pconf.getDefinitionForService(serviceName);
         Service serviceDef = definition.getService(serviceName);
         if (serviceDef == null)
@@ -188,7 +207,9 @@ public class HttpExternalService implements ExternalService {
 
             // execute it
             boolean isTwoWay = odeMex.getMessageExchangePattern() == MessageExchange.MessageExchangePattern.REQUEST_RESPONSE;
-            if (isTwoWay) {
+            if (isNonBlocking(method, params, authenticatePart)) {
+                invokeNonBlocking(method, odeMex, isTwoWay);
+            } else if (isTwoWay) {
                 // two way
                 executionCallable = new HttpExternalService.TwoWayCallable(client, method, odeMex.getMessageExchangeId(), odeMex.getOperation());
                 scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
@@ -224,6 +245,141 @@ public class HttpExternalService implements ExternalService {
         }
     }
 
+    /**
+     * The non-blocking transport is used for plain HTTP endpoints which asked for it, unless the invocation
+     * needs a proxy or authentication, which HttpClient takes care of.
+     * @see org.apache.ode.utils.Properties#PROP_HTTP_NON_BLOCKING
+     */
+    private boolean isNonBlocking(HttpMethod method, HttpParams params, Element authenticatePart) throws URIException {
+        if (nonBlockingClient == null || !"true".equalsIgnoreCase(String.valueOf(params.getParameter(Properties.PROP_HTTP_NON_BLOCKING))))
+            return false;
+        org.apache.commons.httpclient.URI uri = method.getURI();
+        return "http".equalsIgnoreCase(uri.getScheme()) && authenticatePart == null
+                && !ProxyConf.isProxyEnabled(params, uri.getHost());
+    }
+
+    private void invokeNonBlocking(HttpMethod method, PartnerRoleMessageExchange odeMex, boolean isTwoWay) throws IOException {
+        final NonBlockingHttpClient.Request request = toNonBlockingRequest(method);
+        final NonBlockingCallback callback = new NonBlockingCallback(method, request, odeMex.getMessageExchangeId(), odeMex.getOperation(), isTwoWay, 0);
+        if (log.isDebugEnabled()) log.debug("Sending " + request + " with the non-blocking transport");
+        if (isTwoWay) {
+            scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+                public void afterCompletion(boolean success) {
+                    // If the TX is rolled back, then we don't send the request.
+                    if (!success) return;
+                    nonBlockingClient.execute(request, callback);
+                }
+
+                public void beforeCompletion() {
+                }
+            });
+            odeMex.replyAsync();
+        } else {
+            nonBlockingClient.execute(request, callback);
+            odeMex.replyOneWayOk();
+        }
+    }
+
+    private NonBlockingHttpClient.Request toNonBlockingRequest(HttpMethod method) throws IOException {
+        NonBlockingHttpClient.Request request;
+        try {
+            request = new NonBlockingHttpClient.Request(method.getName(), new java.net.URI(method.getURI().getEscapedURI()));
+        } catch (URISyntaxException e) {
+            throw new URIException(e.getMessage());
+        }
+        for (Header h : method.getRequestHeaders()) {
+            request.addHeader(h.getName(), h.getValue());
+        }
+        Object userAgent = method.getParams().getParameter(HttpMethodParams.USER_AGENT);
+        if (userAgent != null && method.getRequestHeader("User-Agent") == null)
+            request.addHeader("User-Agent", userAgent.toString());
+        if (method instanceof EntityEnclosingMethod) {
+            RequestEntity entity = ((EntityEnclosingMethod) method).getRequestEntity();
+            if (entity != null) {
+                if (entity.getContentType() != null && method.getRequestHeader("Content-Type") == null)
+                    request.addHeader("Content-Type", entity.getContentType());
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                entity.writeRequest(body);
+                request.setBody(body.toByteArray());
+            }
+        }
+        // same defaults as HttpClient: no timeout
+        request.setConnectTimeout(intParameter(method.getParams(), HttpConnectionParams.CONNECTION_TIMEOUT, 0));
+        request.setReadTimeout(intParameter(method.getParams(), HttpMethodParams.SO_TIMEOUT, 0));
+        return request;
+    }
+
+    private static int intParameter(HttpParams params, String name, int defaultValue) {
+        Object value = params.getParameter(name);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    /**
+     * Processes the responses of the non-blocking transport like those of HttpClient, following redirections
+     * when the method allows it.
+     */
+    private class NonBlockingCallback implements NonBlockingHttpClient.Callback {
+        final HttpMethod method;
+        final NonBlockingHttpClient.Request request;
+        final String mexId;
+        final Operation operation;
+        final boolean twoWay;
+        final int redirects;
+
+        NonBlockingCallback(HttpMethod method, NonBlockingHttpClient.Request request, String mexId, Operation operation, boolean twoWay, int redirects) {
+            this.method = method;
+            this.request = request;
+            this.mexId = mexId;
+            this.operation = operation;
+            this.twoWay = twoWay;
+            this.redirects = redirects;
+        }
+
+        public void completed(NonBlockingHttpClient.Response response) {
+            ReceivedHttpMethod received;
+            try {
+                received = new ReceivedHttpMethod(method, response);
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Received response for MEX " + mexId);
+                log.debug(HttpHelper.responseToString(received));
+            }
+            int status = received.getStatusCode();
+            if (status >= 300 && status < 400 && method.getFollowRedirects() && followRedirect(received)) return;
+            OneWayCallable processor = twoWay ? new TwoWayCallable(null, received, mexId, operation)
+                    : new OneWayCallable(null, received, mexId, operation);
+            processor.processResponse(status);
+        }
+
+        public void failed(IOException e) {
+            new OneWayCallable(null, method, mexId, operation).processFailure(e);
+        }
+
+        private boolean followRedirect(HttpMethod received) {
+            Header location = received.getResponseHeader("Location");
+            if (location == null || redirects >= intParameter(method.getParams(), HttpClientParams.MAX_REDIRECTS, 100))
+                return false;
+            java.net.URI target;
+            try {
+                target = request.getURI().resolve(location.getValue());
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            if (!"http".equalsIgnoreCase(target.getScheme())) return false;
+            if (log.isDebugEnabled()) log.debug("Following redirection to " + target);
+            NonBlockingHttpClient.Request next = new NonBlockingHttpClient.Request(request.getMethod(), target);
+            for (String[] h : request.getHeaders()) next.addHeader(h[0], h[1]);
+            next.setBody(request.getBody());
+            next.setConnectTimeout(request.getConnectTimeout());
+            next.setReadTimeout(request.getReadTimeout());
+            nonBlockingClient.execute(next, new NonBlockingCallback(method, next, mexId, operation, twoWay, redirects + 1));
+            return true;
+        }
+    }
+
     private class OneWayCallable implements Callable<Void> {
         HttpMethod method;
         String mexId;
@@ -256,28 +412,32 @@ public class HttpExternalService implements ExternalService {
                     log.debug(HttpHelper.responseToString(method));
                 }
                 processResponse(statusCode);
-            } catch (final IOException e) {
-                // ODE MEX needs to be invoked in a TX.
-                try {
-                    scheduler.execTransaction(new Callable<Void>() {
-                        public Void call() throws Exception {
-                            PartnerRoleMessageExchange odeMex = (PartnerRoleMessageExchange) server.getEngine().getMessageExchange(mexId);
-                            String errmsg = "Unable to execute http request : " + e.getMessage();
-                            log.error("[Service: " + serviceName + ", Port: " + portName + ", Operation: " + operation.getName() + "] " + errmsg, e);
-                            odeMex.replyWithFailure(MessageExchange.FailureType.COMMUNICATION_ERROR, errmsg, null);
-                            return null;
-                        }
-                    });
-                } catch (Exception e1) {
-                    String errmsg = "[Service: " + serviceName + ", Port: " + portName + ", Operation: " + operation.getName() + "] Error executing reply transaction; reply will be lost.";
-                    log.error(errmsg, e);
-                }
+            } catch (IOException e) {
+                processFailure(e);
             } finally {
                 method.releaseConnection();
             }
             return null;
         }
 
+        public void processFailure(final IOException e) {
+            // ODE MEX needs to be invoked in a TX.
+            try {
+                scheduler.execTransaction(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        PartnerRoleMessageExchange odeMex = (PartnerRoleMessageExchange) server.getEngine().getMessageExchange(mexId);
+                        String errmsg = "Unable to execute http request : " + e.getMessage();
+                        log.error("[Service: " + serviceName + ", Port: " + portName + ", Operation: " + operation.getName() + "] " + errmsg, e);
+                        odeMex.replyWithFailure(MessageExchange.FailureType.COMMUNICATION_ERROR, errmsg, null);
+                        return null;
+                    }
+                });
+            } catch (Exception e1) {
+                String errmsg = "[Service: " + serviceName + ", Port: " + portName + ", Operation: " + operation.getName() + "] Error executing reply transaction; reply will be lost.";
+                log.error(errmsg, e);
+            }
+        }
+
         public void processResponse(int statusCode) {
             // a one-way message does not care about the response
             try {
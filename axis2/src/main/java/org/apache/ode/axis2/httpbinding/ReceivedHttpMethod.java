@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.axis2.httpbinding;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.StatusLine;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.apache.ode.axis2.util.NonBlockingHttpClient;
+
+/**
+ * Exposes a response received by the {@link NonBlockingHttpClient} as the {@link HttpMethod} that was sent, so
+ * that it can be processed like the responses HttpClient returns.
+ */
+class ReceivedHttpMethod extends HttpMethodBase {
+    private final HttpMethod request;
+    private final StatusLine statusLine;
+    private final byte[] body;
+
+    ReceivedHttpMethod(HttpMethod request, NonBlockingHttpClient.Response response) throws HttpException {
+        this.request = request;
+        this.statusLine = new StatusLine(response.getStatusLine());
+        this.body = response.getBody();
+        for (String[] h : response.getHeaders()) {
+            getResponseHeaderGroup().addHeader(new Header(h[0], h[1]));
+        }
+        setResponseStream(new ByteArrayInputStream(body));
+    }
+
+    public String getName() {
+        return request.getName();
+    }
+
+    public URI getURI() throws URIException {
+        return request.getURI();
+    }
+
+    public String getPath() {
+        return request.getPath();
+    }
+
+    public String getQueryString() {
+        return request.getQueryString();
+    }
+
+    public Header[] getRequestHeaders() {
+        return request.getRequestHeaders();
+    }
+
+    public Header getRequestHeader(String headerName) {
+        return request.getRequestHeader(headerName);
+    }
+
+    public StatusLine getStatusLine() {
+        return statusLine;
+    }
+
+    public int getStatusCode() {
+        return statusLine.getStatusCode();
+    }
+
+    public String getStatusText() {
+        return statusLine.getReasonPhrase();
+    }
+
+    public byte[] getResponseBody() throws IOException {
+        return body;
+    }
+}
@@ -0,0 +1,769 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.axis2.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.nio.DefaultClientIOEventDispatch;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.NHttpConnection;
+import org.apache.http.nio.entity.ConsumingNHttpEntity;
+import org.apache.http.nio.entity.ConsumingNHttpEntityTemplate;
+import org.apache.http.nio.entity.ContentListener;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.AsyncNHttpClientHandler;
+import org.apache.http.nio.protocol.EventListener;
+import org.apache.http.nio.protocol.NHttpRequestExecutionHandler;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestTargetHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP/1.1 client on top of the httpcore-nio reactor. Requests are written and responses read by a single
+ * I/O thread, so an outstanding request does not hold any thread while the remote peer is working on it.
+ * Responses are fully buffered, up to {@link #setMaxResponseSize(long) a maximum size}, and handed to the
+ * {@link Callback} on the executor given at construction.
+ * <p/>
+ * Only plain HTTP is supported: no TLS, proxies, authentication or redirects. Connections are kept alive and
+ * reused per host.
+ */
+public class NonBlockingHttpClient {
+    private static final Logger __log = LoggerFactory.getLogger(NonBlockingHttpClient.class);
+
+    /** Context attribute holding the {@link Connection} of an httpcore connection. */
+    private static final String CONNECTION = "ode.nonblocking.connection";
+
+    private static final Set<String> IDEMPOTENT_METHODS =
+            new HashSet<String>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"));
+
+
+    public interface Callback {
+        void completed(Response response);
+
+        void failed(IOException e);
+    }
+
+    public static class Request {
+        private final String _method;
+        private final URI _uri;
+        private final List<String[]> _headers = new ArrayList<String[]>();
+        private byte[] _body;
+        private long _connectTimeout = 60000;
+        private long _readTimeout = 60000;
+        private boolean _retryable;
+
+        public Request(String method, URI uri) {
+            if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null)
+                throw new IllegalArgumentException("Only absolute http URIs are supported: " + uri);
+            _method = method.toUpperCase();
+            _uri = uri;
+            _retryable = IDEMPOTENT_METHODS.contains(_method);
+        }
+
+        public String getMethod() {
+            return _method;
+        }
+
+        public URI getURI() {
+            return _uri;
+        }
+
+        /**
+         * Host, Content-Length, Transfer-Encoding and Connection are managed by the client and ignored here.
+         */
+        public void addHeader(String name, String value) {
+            _headers.add(new String[] { name, value });
+        }
+
+        public List<String[]> getHeaders() {
+            return _headers;
+        }
+
+        public byte[] getBody() {
+            return _body;
+        }
+
+        public void setBody(byte[] body) {
+            _body = body;
+        }
+
+        public long getConnectTimeout() {
+            return _connectTimeout;
+        }
+
+        public void setConnectTimeout(long connectTimeout) {
+            _connectTimeout = connectTimeout;
+        }
+
+        /**
+         * Maximum inactivity while sending the request or waiting for the response, like SO_TIMEOUT.
+         * Zero or less means no timeout, as for the connection timeout. Timeouts are checked about once a second.
+         */
+        public long getReadTimeout() {
+            return _readTimeout;
+        }
+
+        public void setReadTimeout(long readTimeout) {
+            _readTimeout = readTimeout;
+        }
+
+        /**
+         * Whether the request may be sent again when a kept-alive connection fails after the request
+         * was (partly) written, in which case the server may have received it. True by default for the
+         * idempotent methods only; a request that failed before anything was written is always retried.
+         */
+        public boolean isRetryable() {
+            return _retryable;
+        }
+
+        public void setRetryable(boolean retryable) {
+            _retryable = retryable;
+        }
+
+        public String toString() {
+            return _method + " " + _uri;
+        }
+    }
+
+    public static class Response {
+        private final String _statusLine;
+        private final int _statusCode;
+        private final List<String[]> _headers;
+        private final byte[] _body;
+
+        Response(String statusLine, int statusCode, List<String[]> headers, byte[] body) {
+            _statusLine = statusLine;
+            _statusCode = statusCode;
+            _headers = headers;
+            _body = body;
+        }
+
+        public String getStatusLine() {
+            return _statusLine;
+        }
+
+        public int getStatusCode() {
+            return _statusCode;
+        }
+
+        public List<String[]> getHeaders() {
+            return _headers;
+        }
+
+        /**
+         * @return the value of the first header with the given name, or null
+         */
+        public String getHeader(String name) {
+            for (String[] h : _headers) {
+                if (h[0].equalsIgnoreCase(name)) return h[1];
+            }
+            return null;
+        }
+
+        public byte[] getBody() {
+            return _body;
+        }
+    }
+
+
+    private final Executor _callbackExecutor;
+    private final String _name;
+    private final AtomicInteger _outstanding = new AtomicInteger();
+    private final ConnectionReuseStrategy _reuseStrategy = new DefaultConnectionReuseStrategy();
+    private long _idleTimeout = 30000;
+    private int _maxIdlePerHost = 20;
+    private volatile long _maxResponseSize = 16 * 1024 * 1024;
+
+    // State below is guarded by this.
+
+    private boolean _shutdown;
+    private ConnectingIOReactor _reactor;
+    private Thread _thread;
+    private final Set<Exchange> _active = new HashSet<Exchange>();
+    private final Map<String, LinkedList<Connection>> _idle = new HashMap<String, LinkedList<Connection>>();
+
+    /**
+     * @param name name of the I/O thread
+     * @param callbackExecutor runs the callbacks, they should not be run on the I/O thread
+     */
+    public NonBlockingHttpClient(String name, Executor callbackExecutor) {
+        _name = name;
+        _callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * How long an unused connection is kept open, in ms.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        _idleTimeout = idleTimeout;
+    }
+
+    public void setMaxIdleConnectionsPerHost(int maxIdlePerHost) {
+        _maxIdlePerHost = maxIdlePerHost;
+    }
+
+    /**
+     * Largest response body accepted, in bytes; a request whose response is larger fails. 16MB by default.
+     */
+    public void setMaxResponseSize(long maxResponseSize) {
+        _maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * @return number of requests sent and not yet answered
+     */
+    public int getOutstandingRequests() {
+        return _outstanding.get();
+    }
+
+    /**
+     * Sends a request; returns immediately, the callback gets the response or the error.
+     */
+    public void execute(Request request, Callback callback) {
+        Exchange ex = new Exchange(request, callback);
+        _outstanding.incrementAndGet();
+        Connection idle;
+        synchronized (this) {
+            try {
+                start();
+            } catch (IOException e) {
+                ex.done = true;
+                dispatchFailure(ex, e);
+                return;
+            }
+            _active.add(ex);
+            idle = takeIdle(ex.hostKey);
+            if (idle != null) {
+                ex.reused = true;
+                idle.exchange = ex;
+                // under the lock, or the I/O thread could suspend the output again right after
+                idle.conn.requestOutput();
+            }
+        }
+        if (idle == null) connect(ex);
+    }
+
+    /**
+     * Closes all connections; outstanding requests fail.
+     */
+    public void shutdown() {
+        ConnectingIOReactor reactor;
+        Thread t;
+        synchronized (this) {
+            _shutdown = true;
+            reactor = _reactor;
+            t = _thread;
+        }
+        if (reactor != null) {
+            try {
+                reactor.shutdown(1000);
+            } catch (IOException e) {
+                __log.debug("Error shutting down HTTP client " + _name, e);
+            }
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        failAll();
+    }
+
+    private void start() throws IOException {
+        if (_shutdown) throw new IOException("HTTP client " + _name + " is shut down");
+        if (_reactor != null) return;
+
+        HttpParams params = new BasicHttpParams();
+        params.setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_1);
+        params.setIntParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE, 16 * 1024);
+        params.setBooleanParameter(CoreConnectionPNames.TCP_NODELAY, true);
+
+        BasicHttpProcessor httpProcessor = new BasicHttpProcessor();
+        httpProcessor.addInterceptor(new RequestContent());
+        httpProcessor.addInterceptor(new RequestTargetHost());
+        AsyncNHttpClientHandler handler =
+                new AsyncNHttpClientHandler(httpProcessor, new ExecutionHandler(), _reuseStrategy, params) {
+            public void requestReady(NHttpClientConnection conn) {
+                // httpcore-nio 4.1+ calls this on every writable event while there is nothing to send, which
+                // keeps the connection from ever timing out; execute() requests output again for the next exchange
+                Connection c = connection(conn.getContext());
+                synchronized (NonBlockingHttpClient.this) {
+                    if (c != null && (c.exchange == null || c.exchange.submitted)) {
+                        conn.suspendOutput();
+                        return;
+                    }
+                }
+                super.requestReady(conn);
+            }
+        };
+        handler.setEventListener(new ConnectionListener());
+        final IOEventDispatch dispatch = new DefaultClientIOEventDispatch(handler, params);
+
+        final ConnectingIOReactor reactor = new DefaultConnectingIOReactor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, _name);
+                t.setDaemon(true);
+                return t;
+            }
+        }, params);
+        _thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    reactor.execute(dispatch);
+                } catch (Throwable t) {
+                    __log.error("HTTP client " + _name + " stopped unexpectedly", t);
+                } finally {
+                    synchronized (NonBlockingHttpClient.this) {
+                        _shutdown = true;
+                    }
+                    failAll();
+                }
+            }
+        }, _name + "-reactor");
+        _thread.setDaemon(true);
+        _thread.start();
+        _reactor = reactor;
+    }
+
+    private void connect(Exchange ex) {
+        if (ex.address.isUnresolved()) {
+            fail(ex, new UnknownHostException(ex.address.getHostName()));
+            return;
+        }
+        ConnectingIOReactor reactor;
+        synchronized (this) {
+            reactor = _reactor;
+        }
+        Connection c = new Connection(ex.hostKey, ex.target, ex);
+        try {
+            SessionRequest sr = reactor.connect(ex.address, null, c, _sessionCallback);
+            sr.setConnectTimeout(timeout(ex.request.getConnectTimeout()));
+        } catch (RuntimeException e) {
+            // the reactor is shutting down
+            synchronized (this) {
+                c.exchange = null;
+            }
+            fail(ex, new IOException("Unable to connect to " + ex.address + ": " + e));
+        }
+    }
+
+    /**
+     * Fails an exchange whose connection broke; sends it again on a new connection when that is safe.
+     */
+    private void failed(Exchange ex, IOException e) {
+        boolean retry;
+        synchronized (this) {
+            retry = !_shutdown && !ex.done && ex.reused && !ex.retried && !ex.received
+                    && (!ex.submitted || ex.request.isRetryable()) && !(e instanceof SocketTimeoutException);
+            if (retry) ex.retry();
+        }
+        if (retry) {
+            __log.debug("Kept-alive connection closed, sending " + ex.request + " again");
+            connect(ex);
+        } else {
+            fail(ex, e);
+        }
+    }
+
+    private void fail(Exchange ex, IOException e) {
+        if (finish(ex)) dispatchFailure(ex, e);
+    }
+
+    private void failAll() {
+        List<Exchange> active;
+        synchronized (this) {
+            active = new ArrayList<Exchange>(_active);
+            _idle.clear();
+        }
+        IOException closed = new IOException("HTTP client " + _name + " is shut down");
+        for (Exchange ex : active) fail(ex, closed);
+    }
+
+    /**
+     * @return true if the caller is the one to run the callback of the exchange
+     */
+    private synchronized boolean finish(Exchange ex) {
+        if (ex.done) return false;
+        ex.done = true;
+        _active.remove(ex);
+        return true;
+    }
+
+    private Connection takeIdle(String hostKey) {
+        LinkedList<Connection> l = _idle.get(hostKey);
+        if (l == null) return null;
+        // most recently used first, the oldest ones are the likeliest to be closed by the server
+        Connection c = l.removeLast();
+        if (l.isEmpty()) _idle.remove(hostKey);
+        return c;
+    }
+
+    private boolean release(Connection c) {
+        if (_shutdown) return false;
+        LinkedList<Connection> l = _idle.get(c.hostKey);
+        if (l == null) {
+            l = new LinkedList<Connection>();
+            _idle.put(c.hostKey, l);
+        }
+        if (l.size() >= _maxIdlePerHost) return false;
+        l.add(c);
+        return true;
+    }
+
+    private void removeIdle(Connection c) {
+        LinkedList<Connection> l = _idle.get(c.hostKey);
+        if (l != null && l.remove(c) && l.isEmpty()) _idle.remove(c.hostKey);
+    }
+
+    /**
+     * The handler closes the connection before notifying the listener, so the failure is recorded here.
+     */
+    private synchronized IOException tooLarge(Exchange ex, long max) {
+        IOException e = new IOException("Response to " + ex.request + " exceeds the maximum size of " + max + " bytes");
+        ex.failure = e;
+        return e;
+    }
+
+    private static int timeout(long ms) {
+        return ms <= 0 ? 0 : (int) Math.min(ms, Integer.MAX_VALUE);
+    }
+
+    private static Connection connection(HttpContext context) {
+        return (Connection) context.getAttribute(CONNECTION);
+    }
+
+    private void dispatchFailure(final Exchange ex, final IOException e) {
+        dispatch(ex, new Runnable() {
+            public void run() {
+                ex.callback.failed(e);
+            }
+        });
+    }
+
+    private void dispatch(Exchange ex, final Runnable r) {
+        _outstanding.decrementAndGet();
+        Runnable safe = new Runnable() {
+            public void run() {
+                try {
+                    r.run();
+                } catch (RuntimeException e) {
+                    __log.error("Error in HTTP callback", e);
+                }
+            }
+        };
+        try {
+            _callbackExecutor.execute(safe);
+        } catch (RejectedExecutionException e) {
+            __log.error("Unable to dispatch the response of " + ex.request + ", it will be lost", e);
+        }
+    }
+
+    private final SessionRequestCallback _sessionCallback = new SessionRequestCallback() {
+        public void completed(SessionRequest request) {
+            // the handler takes over
+        }
+
+        public void failed(SessionRequest request) {
+            IOException e = request.getException();
+            connectFailed(request, e != null ? e : new IOException("Unable to connect to " + request.getRemoteAddress()));
+        }
+
+        public void timeout(SessionRequest request) {
+            connectFailed(request, new SocketTimeoutException("Timeout connecting to " + request.getRemoteAddress()));
+        }
+
+        public void cancelled(SessionRequest request) {
+            connectFailed(request, new IOException("HTTP client " + _name + " is shut down"));
+        }
+
+        private void connectFailed(SessionRequest request, IOException e) {
+            Connection c = (Connection) request.getAttachment();
+            Exchange ex;
+            synchronized (NonBlockingHttpClient.this) {
+                ex = c.exchange;
+                c.exchange = null;
+            }
+            if (ex != null) fail(ex, e);
+        }
+    };
+
+    /**
+     * Called by the httpcore handler on the I/O thread.
+     */
+    private class ExecutionHandler implements NHttpRequestExecutionHandler {
+        public void initalizeContext(HttpContext context, Object attachment) {
+            Connection c = (Connection) attachment;
+            c.conn = (NHttpClientConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+            context.setAttribute(CONNECTION, c);
+            context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, c.target);
+        }
+
+        public HttpRequest submitRequest(HttpContext context) {
+            Connection c = connection(context);
+            Exchange ex;
+            synchronized (NonBlockingHttpClient.this) {
+                ex = c.exchange;
+                if (ex == null || ex.submitted) return null;
+                ex.submitted = true;
+            }
+            c.conn.setSocketTimeout(timeout(ex.request.getReadTimeout()));
+            return ex.toHttpRequest();
+        }
+
+        public ConsumingNHttpEntity responseEntity(HttpResponse response, HttpContext context) throws IOException {
+            Exchange ex = received(connection(context));
+            ex.body = new BodyListener(ex, _maxResponseSize, response.getEntity().getContentLength());
+            return new ConsumingNHttpEntityTemplate(response.getEntity(), ex.body);
+        }
+
+        public void handleResponse(HttpResponse response, HttpContext context) throws IOException {
+            Connection c = connection(context);
+            Exchange ex = received(c);
+            boolean keepAlive = _reuseStrategy.keepAlive(response, context);
+            synchronized (NonBlockingHttpClient.this) {
+                c.exchange = null;
+                if (keepAlive) keepAlive = release(c);
+            }
+            if (keepAlive) c.conn.setSocketTimeout(timeout(_idleTimeout));
+            else c.conn.close();
+            if (!finish(ex)) return;
+
+            List<String[]> headers = new ArrayList<String[]>();
+            for (Header h : response.getAllHeaders()) headers.add(new String[] { h.getName(), h.getValue() });
+            byte[] body = ex.body == null ? new byte[0] : ex.body.toByteArray();
+            final Response resp = new Response(response.getStatusLine().toString(),
+                    response.getStatusLine().getStatusCode(), headers, body);
+            final Callback callback = ex.callback;
+            dispatch(ex, new Runnable() {
+                public void run() {
+                    callback.completed(resp);
+                }
+            });
+        }
+
+        public void finalizeContext(HttpContext context) {
+            Connection c = connection(context);
+            if (c == null) return;
+            Exchange ex;
+            synchronized (NonBlockingHttpClient.this) {
+                removeIdle(c);
+                ex = c.exchange;
+                c.exchange = null;
+            }
+            if (ex != null) failed(ex, ex.failure != null ? ex.failure
+                    : new EOFException("Connection closed before the response to " + ex.request + " was complete"));
+        }
+
+        private Exchange received(Connection c) throws IOException {
+            synchronized (NonBlockingHttpClient.this) {
+                if (c.exchange == null) throw new IOException("Unexpected response from " + c.target);
+                c.exchange.received = true;
+                return c.exchange;
+            }
+        }
+    }
+
+    /**
+     * Records why a connection is being closed gracefully (timeouts, protocol errors), the exchange fails with
+     * it in {@link ExecutionHandler#finalizeContext(HttpContext)}. I/O errors shut the connection down before
+     * they reach the listener.
+     */
+    private class ConnectionListener implements EventListener {
+        public void fatalIOException(IOException e, NHttpConnection conn) {
+            failure(conn, e);
+        }
+
+        public void fatalProtocolException(HttpException e, NHttpConnection conn) {
+            failure(conn, new IOException("Invalid response: " + e.getMessage()));
+        }
+
+        public void connectionTimeout(NHttpConnection conn) {
+            failure(conn, new SocketTimeoutException("Read timed out"));
+        }
+
+        public void connectionOpen(NHttpConnection conn) {
+        }
+
+        public void connectionClosed(NHttpConnection conn) {
+        }
+
+        private void failure(NHttpConnection conn, IOException e) {
+            Connection c = connection(conn.getContext());
+            if (c == null) return;
+            synchronized (NonBlockingHttpClient.this) {
+                if (c.exchange != null && c.exchange.failure == null) c.exchange.failure = e;
+            }
+        }
+    }
+
+    /**
+     * Buffers a response body, fails once it exceeds the maximum size. A response whose Content-Length is
+     * already too large fails on its first bytes: failing in {@link ExecutionHandler#responseEntity} would
+     * leave the handler without an entity to feed them to.
+     */
+    private class BodyListener implements ContentListener {
+        private final Exchange _exchange;
+        private final long _max;
+        private final long _length;
+        private final ByteArrayOutputStream _buf = new ByteArrayOutputStream();
+        private final ByteBuffer _chunk = ByteBuffer.allocate(8 * 1024);
+
+        BodyListener(Exchange exchange, long max, long length) {
+            _exchange = exchange;
+            _max = max;
+            _length = length;
+        }
+
+        public void contentAvailable(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+            if (_length > _max) throw tooLarge(_exchange, _max);
+            int n;
+            while ((n = decoder.read(_chunk)) > 0) {
+                if (_buf.size() + n > _max) throw tooLarge(_exchange, _max);
+                _buf.write(_chunk.array(), 0, n);
+                _chunk.clear();
+            }
+        }
+
+        public void finished() {
+        }
+
+        byte[] toByteArray() {
+            return _buf.toByteArray();
+        }
+    }
+
+    /**
+     * An httpcore connection and the exchange it is carrying, if any.
+     */
+    private static class Connection {
+        final String hostKey;
+        final HttpHost target;
+        NHttpClientConnection conn;
+        Exchange exchange;
+
+        Connection(String hostKey, HttpHost target, Exchange exchange) {
+            this.hostKey = hostKey;
+            this.target = target;
+            this.exchange = exchange;
+        }
+    }
+
+    private static class Exchange {
+        final Request request;
+        final Callback callback;
+        final InetSocketAddress address;
+        final String hostKey;
+        final HttpHost target;
+        BodyListener body;
+        IOException failure;
+        boolean reused;
+        boolean submitted;
+        boolean received;
+        boolean retried;
+        boolean done;
+
+        Exchange(Request request, Callback callback) {
+            this.request = request;
+            this.callback = callback;
+            URI uri = request.getURI();
+            int port = uri.getPort() == -1 ? 80 : uri.getPort();
+            // resolved here, so that the I/O thread never blocks on DNS
+            this.address = new InetSocketAddress(uri.getHost(), port);
+            this.hostKey = uri.getHost().toLowerCase() + ":" + port;
+            this.target = new HttpHost(uri.getHost(), uri.getPort());
+        }
+
+        void retry() {
+            body = null;
+            failure = null;
+            reused = false;
+            submitted = false;
+            retried = true;
+        }
+
+        HttpRequest toHttpRequest() {
+            URI uri = request.getURI();
+            String path = uri.getRawPath();
+            if (path == null || path.length() == 0) path = "/";
+            if (uri.getRawQuery() != null) path += "?" + uri.getRawQuery();
+            HttpRequest req;
+            if (request.getBody() != null) {
+                BasicHttpEntityEnclosingRequest withBody =
+                        new BasicHttpEntityEnclosingRequest(request.getMethod(), path, HttpVersion.HTTP_1_1);
+                withBody.setEntity(new NByteArrayEntity(request.getBody()));
+                req = withBody;
+            } else {
+                req = new BasicHttpRequest(request.getMethod(), path, HttpVersion.HTTP_1_1);
+            }
+            for (String[] h : request.getHeaders()) {
+                if ("Host".equalsIgnoreCase(h[0]) || "Content-Length".equalsIgnoreCase(h[0])
+                        || "Transfer-Encoding".equalsIgnoreCase(h[0]) || "Connection".equalsIgnoreCase(h[0]))
+                    continue;
+                req.addHeader(h[0], h[1].replace('\r', ' ').replace('\n', ' '));
+            }
+            return req;
+        }
+    }
+}
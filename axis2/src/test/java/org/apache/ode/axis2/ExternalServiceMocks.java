@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.axis2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.wsdl.Definition;
+import javax.wsdl.Operation;
+
+import org.apache.ode.bpel.engine.MessageImpl;
+import org.apache.ode.bpel.iapi.BpelEngine;
+import org.apache.ode.bpel.iapi.BpelServer;
+import org.apache.ode.bpel.iapi.EndpointReference;
+import org.apache.ode.bpel.iapi.Message;
+import org.apache.ode.bpel.iapi.MessageExchange;
+import org.apache.ode.bpel.iapi.PartnerRoleMessageExchange;
+import org.apache.ode.bpel.iapi.ProcessConf;
+import org.apache.ode.bpel.iapi.Scheduler;
+import org.apache.ode.bpel.memdao.MessageDAOImpl;
+
+/**
+ * Engine-side collaborators of the external services: a process configuration, a scheduler running
+ * transactions inline and keeping the synchronizers until the test commits, and a partner role message
+ * exchange recording how it was replied to.
+ */
+public class ExternalServiceMocks {
+
+    public static ProcessConf processConf(final Definition definition, final URI baseURI, final Map<String, String> endpointProperties) {
+        return (ProcessConf) proxy(ProcessConf.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getDefinitionForService")) return definition;
+                if (method.getName().equals("getBaseURI")) return baseURI;
+                if (method.getName().equals("getEndpointProperties")) return endpointProperties;
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    public static BpelServer server(final MessageExchange mex) {
+        final BpelEngine engine = (BpelEngine) proxy(BpelEngine.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getMessageExchange")) return mex;
+                return defaultValue(proxy, method, args);
+            }
+        });
+        return (BpelServer) proxy(BpelServer.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getEngine")) return engine;
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    public static class MockScheduler implements InvocationHandler {
+        public final Scheduler scheduler = (Scheduler) proxy(Scheduler.class, this);
+        public final List<Scheduler.Synchronizer> synchronizers = new ArrayList<Scheduler.Synchronizer>();
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("execTransaction")) return ((Callable<?>) args[0]).call();
+            if (method.getName().equals("registerSynchronizer")) {
+                synchronized (synchronizers) {
+                    synchronizers.add((Scheduler.Synchronizer) args[0]);
+                }
+                return null;
+            }
+            return defaultValue(proxy, method, args);
+        }
+
+        /**
+         * Completes the transaction the external service was invoked in.
+         */
+        public void complete(boolean success) {
+            List<Scheduler.Synchronizer> synchs;
+            synchronized (synchronizers) {
+                synchs = new ArrayList<Scheduler.Synchronizer>(synchronizers);
+                synchronizers.clear();
+            }
+            for (Scheduler.Synchronizer s : synchs) s.beforeCompletion();
+            for (Scheduler.Synchronizer s : synchs) s.afterCompletion(success);
+        }
+    }
+
+    public static class MockMessageExchange implements InvocationHandler {
+        public final PartnerRoleMessageExchange mex = (PartnerRoleMessageExchange) proxy(PartnerRoleMessageExchange.class, this);
+        public Operation operation;
+        public Message request;
+        public EndpointReference endpoint;
+        public MessageExchange.MessageExchangePattern pattern = MessageExchange.MessageExchangePattern.REQUEST_RESPONSE;
+
+        /** replyAsync, replyOneWayOk, reply, replyWithFault or replyWithFailure */
+        public volatile String replied;
+        public volatile Message response;
+        public volatile MessageExchange.FailureType failureType;
+        private final CountDownLatch _done = new CountDownLatch(1);
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getOperation")) return operation;
+            if (name.equals("getOperationName")) return operation.getName();
+            if (name.equals("getRequest")) return request;
+            if (name.equals("getEndpointReference")) return endpoint;
+            if (name.equals("getMessageExchangeId")) return "mex";
+            if (name.equals("getMessageExchangePattern")) return pattern;
+            if (name.equals("createMessage")) return new MessageImpl(new MessageDAOImpl(null));
+            if (name.startsWith("reply")) {
+                replied = name;
+                if (name.equals("reply")) response = (Message) args[0];
+                if (name.equals("replyWithFault")) response = (Message) args[1];
+                if (name.equals("replyWithFailure")) failureType = (MessageExchange.FailureType) args[0];
+                if (!name.equals("replyAsync")) _done.countDown();
+                return null;
+            }
+            return defaultValue(proxy, method, args);
+        }
+
+        /**
+         * Waits for the final reply: anything but {@link PartnerRoleMessageExchange#replyAsync()}.
+         */
+        public boolean await() throws InterruptedException {
+            return _done.await(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("toString")) return "Mock" + proxy.getClass().getInterfaces()[0].getSimpleName();
+        if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+        if (method.getName().equals("equals")) return proxy == args[0];
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(ExternalServiceMocks.class.getClassLoader(), new Class[] { type }, handler);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.axis2;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.TransactionManager;
+import javax.wsdl.Definition;
+import javax.wsdl.Operation;
+import javax.wsdl.factory.WSDLFactory;
+import javax.wsdl.xml.WSDLReader;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.AxisService;
+import org.apache.ode.bpel.engine.MessageImpl;
+import org.apache.ode.bpel.iapi.MessageExchange;
+import org.apache.ode.bpel.iapi.MyRoleMessageExchange;
+import org.apache.ode.bpel.memdao.MessageDAOImpl;
+import org.apache.ode.utils.DOMUtils;
+
+/**
+ * Replies that are sent without keeping the receiving thread waiting, see {@link ODEService#isAsyncReply(MessageContext)}.
+ */
+public class ODEServiceTest extends TestCase {
+
+    private static final QName HELLO_SERVICE = new QName("http://ode/bpel/unit-test.wsdl", "HelloService");
+
+    private ExecutorService executor;
+    private ScheduledExecutorService timeoutExecutor;
+    private ODEService service;
+    private Operation operation;
+    private MockMyRoleMessageExchange odeMex;
+    private final AtomicInteger commits = new AtomicInteger();
+    private final AtomicInteger rollbacks = new AtomicInteger();
+
+    private final CountDownLatch sent = new CountDownLatch(1);
+    private volatile MessageContext reply;
+    private volatile AxisFault fault;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newSingleThreadExecutor();
+        timeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+
+        WSDLReader reader = WSDLFactory.newInstance().newWSDLReader();
+        reader.setFeature("javax.wsdl.verbose", false);
+        Definition definition = reader.readWSDL(getClass().getResource("/HelloWorld.wsdl").toExternalForm());
+        operation = definition.getPortType(new QName(definition.getTargetNamespace(), "HelloPortType"))
+                .getOperation("hello", null, null);
+
+        odeMex = new MockMyRoleMessageExchange();
+        TransactionManager txManager = (TransactionManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { TransactionManager.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("commit")) commits.incrementAndGet();
+                if (method.getName().equals("rollback")) rollbacks.incrementAndGet();
+                return null;
+            }
+        });
+        service = new ODEService(new AxisService("HelloService"),
+                ExternalServiceMocks.processConf(definition, new File(".").toURI(), Collections.<String, String>emptyMap()),
+                HELLO_SERVICE, "HelloPort", ExternalServiceMocks.server(odeMex.mex), txManager, executor, timeoutExecutor);
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        timeoutExecutor.shutdown();
+        super.tearDown();
+    }
+
+    public void testResponse() throws Exception {
+        ODEService.AsyncReply asyncReply = newAsyncReply();
+        asyncReply.scheduleTimeout(30000);
+        asyncReply.onResponse();
+        assertTrue("Nothing sent", sent.await(30, TimeUnit.SECONDS));
+        assertNull(fault);
+        assertTrue(reply.getEnvelope().toString(), reply.getEnvelope().getBody().toString().contains("pong"));
+        assertEquals(Boolean.TRUE, odeMex.released);
+        assertEquals(1, commits.get());
+
+        // too late
+        asyncReply.run();
+        assertEquals(0, odeMex.timeouts.get());
+        assertEquals(1, commits.get());
+    }
+
+    public void testTimeout() throws Exception {
+        ODEService.AsyncReply asyncReply = newAsyncReply();
+        asyncReply.scheduleTimeout(50);
+        assertTrue("Nothing sent", sent.await(30, TimeUnit.SECONDS));
+        assertNull(reply);
+        assertTrue(fault.getMessage(), fault.getMessage().startsWith("Timeout"));
+        assertEquals(1, odeMex.timeouts.get());
+        // released in its own transaction
+        assertEquals(Boolean.FALSE, odeMex.released);
+        assertEquals(1, commits.get());
+        assertEquals(0, rollbacks.get());
+
+        // the response comes too late
+        asyncReply.onResponse();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertNull(reply);
+    }
+
+    public void testTimeoutAfterResponse() throws Exception {
+        // the engine already delivered the response, the listener is about to get it
+        odeMex.responseReceived = true;
+        ODEService.AsyncReply asyncReply = newAsyncReply();
+        asyncReply.run();
+        assertNull(fault);
+        assertNull(odeMex.released);
+
+        asyncReply.onResponse();
+        assertTrue("Nothing sent", sent.await(30, TimeUnit.SECONDS));
+        assertNull(fault);
+        assertNotNull(reply);
+        assertEquals(Boolean.TRUE, odeMex.released);
+    }
+
+    private ODEService.AsyncReply newAsyncReply() {
+        final MessageContext outMsgContext = new MessageContext();
+        return service.new AsyncReply(odeMex.mex, new MessageContext(), outMsgContext,
+                OMAbstractFactory.getSOAP11Factory()) {
+            void send() {
+                reply = outMsgContext;
+                sent.countDown();
+            }
+
+            void sendFault(AxisFault f) {
+                fault = f;
+                sent.countDown();
+            }
+        };
+    }
+
+    private class MockMyRoleMessageExchange implements InvocationHandler {
+        final MyRoleMessageExchange mex = (MyRoleMessageExchange) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { MyRoleMessageExchange.class }, this);
+        final AtomicInteger timeouts = new AtomicInteger();
+        volatile boolean responseReceived;
+        volatile Boolean released;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+            String name = method.getName();
+            if (name.equals("getMessageExchangeId")) return "mex";
+            if (name.equals("getOperation")) return operation;
+            if (name.equals("getStatus")) return MessageExchange.Status.RESPONSE;
+            if (name.equals("getResponse")) {
+                MessageImpl response = new MessageImpl(new MessageDAOImpl(null));
+                response.setMessage(DOMUtils.stringToDOM("<message><TestPart>pong</TestPart></message>"));
+                return response;
+            }
+            if (name.equals("timeoutResponse")) {
+                timeouts.incrementAndGet();
+                return !responseReceived;
+            }
+            if (name.equals("release")) released = (Boolean) args[0];
+            if (name.equals("toString")) return "MockMyRoleMessageExchange";
+            return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+        }
+    }
+}
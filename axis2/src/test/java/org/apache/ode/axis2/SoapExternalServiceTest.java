@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.axis2;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.wsdl.Definition;
+import javax.wsdl.factory.WSDLFactory;
+import javax.wsdl.xml.WSDLReader;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.ode.axis2.util.ClusterUrlTransformer;
+import org.apache.ode.axis2.util.NonBlockingHttpClient;
+import org.apache.ode.axis2.util.StubHttpServer;
+import org.apache.ode.bpel.engine.MessageImpl;
+import org.apache.ode.bpel.epr.WSAEndpoint;
+import org.apache.ode.bpel.iapi.MessageExchange;
+import org.apache.ode.bpel.memdao.MessageDAOImpl;
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.Properties;
+
+/**
+ * Invocations of a SOAP binding going through the non-blocking transport.
+ */
+public class SoapExternalServiceTest extends TestCase {
+
+    private static final QName HELLO_SERVICE = new QName("http://ode/bpel/unit-test.wsdl", "HelloService");
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private volatile String response;
+
+    private StubHttpServer server;
+    private NonBlockingHttpClient client;
+    private ExecutorService executor;
+    private SoapExternalService service;
+    private ExternalServiceMocks.MockScheduler scheduler;
+    private ExternalServiceMocks.MockMessageExchange odeMex;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StubHttpServer() {
+            protected String respond(String request) {
+                requests.add(request);
+                return response;
+            }
+        };
+        client = new NonBlockingHttpClient("SoapExternalServiceTest", Executors.newSingleThreadExecutor());
+        executor = Executors.newSingleThreadExecutor();
+
+        WSDLReader reader = WSDLFactory.newInstance().newWSDLReader();
+        reader.setFeature("javax.wsdl.verbose", false);
+        Definition definition = reader.readWSDL(getClass().getResource("/HelloWorld.wsdl").toExternalForm());
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(Properties.PROP_HTTP_NON_BLOCKING, "true");
+        scheduler = new ExternalServiceMocks.MockScheduler();
+        odeMex = new ExternalServiceMocks.MockMessageExchange();
+        service = new SoapExternalService(ExternalServiceMocks.processConf(definition, new File(".").toURI(), properties),
+                HELLO_SERVICE, "HelloPort", executor, ConfigurationContextFactory.createEmptyConfigurationContext(),
+                scheduler.scheduler, ExternalServiceMocks.server(odeMex.mex), new MultiThreadedHttpConnectionManager(),
+                new ClusterUrlTransformer(Collections.<String>emptyList(), ""), client);
+
+        odeMex.operation = definition.getPortType(new QName(definition.getTargetNamespace(), "HelloPortType"))
+                .getOperation("hello", null, null);
+        WSAEndpoint epr = new WSAEndpoint((WSAEndpoint) service.getInitialEndpointReference());
+        epr.setUrl(server.uri("/processes/helloWorld").toString());
+        odeMex.endpoint = epr;
+        odeMex.request = new MessageImpl(new MessageDAOImpl(null));
+        odeMex.request.setMessage(DOMUtils.stringToDOM("<message><TestPart>ping</TestPart></message>"));
+    }
+
+    protected void tearDown() throws Exception {
+        service.close();
+        client.shutdown();
+        executor.shutdown();
+        server.close();
+        super.tearDown();
+    }
+
+    public void testTwoWay() throws Exception {
+        response = soapResponse("200 OK", "<ns:helloResponse xmlns:ns=\"http://ode/bpel/unit-test.wsdl\">"
+                + "<TestPart>pong</TestPart></ns:helloResponse>");
+        service.invoke(odeMex.mex);
+        assertEquals("replyAsync", odeMex.replied);
+        // nothing goes out before the transaction commits
+        assertEquals(0, client.getOutstandingRequests());
+        assertTrue(requests.isEmpty());
+
+        scheduler.complete(true);
+        assertTrue("No reply", odeMex.await());
+        assertEquals("reply", odeMex.replied);
+        assertEquals("pong", odeMex.response.getPart("TestPart").getTextContent().trim());
+        assertEquals(1, requests.size());
+        String request = requests.get(0);
+        assertTrue(request, request.startsWith("POST /processes/helloWorld HTTP/1.1\r\n"));
+        assertTrue(request, request.contains("SOAPAction: \"\"\r\n"));
+        assertTrue(request, request.contains("Content-Type: text/xml; charset=UTF-8\r\n"));
+        assertTrue(request, StubHttpServer.body(request).contains("ping"));
+    }
+
+    public void testRollback() throws Exception {
+        response = soapResponse("200 OK", "");
+        service.invoke(odeMex.mex);
+        scheduler.complete(false);
+        assertEquals("replyAsync", odeMex.replied);
+        assertEquals(0, client.getOutstandingRequests());
+        assertEquals(0, server.connections.get());
+    }
+
+    public void testFault() throws Exception {
+        // faults come with a 500 and are not transport errors; this one is not declared by the operation
+        response = soapResponse("500 Internal Server Error", "<soapenv:Fault><faultcode>soapenv:Server</faultcode>"
+                + "<faultstring>boom</faultstring></soapenv:Fault>");
+        service.invoke(odeMex.mex);
+        scheduler.complete(true);
+        assertTrue("No reply", odeMex.await());
+        assertEquals("replyWithFailure", odeMex.replied);
+        assertEquals(MessageExchange.FailureType.OTHER, odeMex.failureType);
+    }
+
+    public void testTransportError() throws Exception {
+        response = "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n";
+        service.invoke(odeMex.mex);
+        scheduler.complete(true);
+        assertTrue("No reply", odeMex.await());
+        assertEquals("replyWithFailure", odeMex.replied);
+        assertEquals(MessageExchange.FailureType.COMMUNICATION_ERROR, odeMex.failureType);
+    }
+
+    public void testConnectionDropped() throws Exception {
+        response = null;
+        service.invoke(odeMex.mex);
+        scheduler.complete(true);
+        assertTrue("No reply", odeMex.await());
+        assertEquals("replyWithFailure", odeMex.replied);
+        assertEquals(MessageExchange.FailureType.COMMUNICATION_ERROR, odeMex.failureType);
+        // a POST which went out is not sent again
+        assertEquals(1, requests.size());
+    }
+
+    public void testOneWay() throws Exception {
+        response = "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n";
+        odeMex.pattern = MessageExchange.MessageExchangePattern.REQUEST_ONLY;
+        service.invoke(odeMex.mex);
+        assertEquals("replyOneWayOk", odeMex.replied);
+        // not deferred to the end of the transaction
+        assertTrue(scheduler.synchronizers.isEmpty());
+        for (int i = 0; i < 300 && client.getOutstandingRequests() > 0; ++i) Thread.sleep(100);
+        assertEquals(0, client.getOutstandingRequests());
+        assertEquals(1, requests.size());
+    }
+
+    private static String soapResponse(String status, String body) {
+        String envelope = "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>"
+                + body + "</soapenv:Body></soapenv:Envelope>";
+        return "HTTP/1.1 " + status + "\r\nContent-Type: text/xml; charset=UTF-8\r\nContent-Length: " + envelope.length()
+                + "\r\n\r\n" + envelope;
+    }
+}
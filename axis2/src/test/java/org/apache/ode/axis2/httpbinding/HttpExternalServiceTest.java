@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.axis2.httpbinding;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.wsdl.Definition;
+import javax.wsdl.factory.WSDLFactory;
+import javax.wsdl.xml.WSDLReader;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.ode.axis2.ExternalServiceMocks;
+import org.apache.ode.axis2.util.ClusterUrlTransformer;
+import org.apache.ode.axis2.util.NonBlockingHttpClient;
+import org.apache.ode.axis2.util.StubHttpServer;
+import org.apache.ode.bpel.engine.MessageImpl;
+import org.apache.ode.bpel.epr.WSAEndpoint;
+import org.apache.ode.bpel.iapi.MessageExchange;
+import org.apache.ode.bpel.memdao.MessageDAOImpl;
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.Properties;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Invocations of an HTTP binding going through the non-blocking transport.
+ */
+public class HttpExternalServiceTest extends TestCase {
+
+    private static final QName DUMMY_SERVICE = new QName("http://ode/bpel/unit-test.wsdl", "DummyService");
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private volatile String response;
+
+    private StubHttpServer server;
+    private NonBlockingHttpClient client;
+    private ExecutorService executor;
+    private HttpExternalService service;
+    private ExternalServiceMocks.MockScheduler scheduler;
+    private ExternalServiceMocks.MockMessageExchange odeMex;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StubHttpServer() {
+            protected String respond(String request) {
+                requests.add(request);
+                return response;
+            }
+        };
+        client = new NonBlockingHttpClient("HttpExternalServiceTest", Executors.newSingleThreadExecutor());
+        executor = Executors.newSingleThreadExecutor();
+
+        URL wsdlURL = getClass().getResource("/http-method-builder.wsdl");
+        WSDLReader wsdlReader = WSDLFactory.newInstance().newWSDLReader();
+        wsdlReader.setFeature("javax.wsdl.verbose", false);
+        Definition definition = wsdlReader.readWSDL(wsdlURL.toURI().toString());
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(Properties.PROP_HTTP_NON_BLOCKING, "true");
+        scheduler = new ExternalServiceMocks.MockScheduler();
+        odeMex = new ExternalServiceMocks.MockMessageExchange();
+        service = new HttpExternalService(ExternalServiceMocks.processConf(definition, new File(".").toURI(), properties),
+                DUMMY_SERVICE, "DummyServiceHttpport", executor, scheduler.scheduler, ExternalServiceMocks.server(odeMex.mex),
+                new MultiThreadedHttpConnectionManager(), new ClusterUrlTransformer(Collections.<String>emptyList(), ""), client);
+
+        odeMex.operation = definition.getService(DUMMY_SERVICE).getPort("DummyServiceHttpport").getBinding()
+                .getBindingOperation("hello", null, null).getOperation();
+        WSAEndpoint epr = new WSAEndpoint((WSAEndpoint) service.getInitialEndpointReference());
+        epr.setUrl(server.uri("/processes/DummyService").toString());
+        odeMex.endpoint = epr;
+        Document doc = DOMUtils.newDocument();
+        Element msgEl = doc.createElementNS(null, "message");
+        doc.appendChild(msgEl);
+        Element partEl = doc.createElementNS(null, "parameters");
+        msgEl.appendChild(partEl);
+        Element helloEl = doc.createElementNS("http://axis2.ode.apache.org", "hello");
+        helloEl.setTextContent("ping");
+        partEl.appendChild(helloEl);
+        odeMex.request = new MessageImpl(new MessageDAOImpl(null));
+        odeMex.request.setMessage(msgEl);
+    }
+
+    protected void tearDown() throws Exception {
+        service.close();
+        client.shutdown();
+        executor.shutdown();
+        server.close();
+        super.tearDown();
+    }
+
+    public void testTwoWay() throws Exception {
+        response = xmlResponse("<helloResponse xmlns=\"http://axis2.ode.apache.org\"><return>pong</return></helloResponse>");
+        service.invoke(odeMex.mex);
+        assertEquals("replyAsync", odeMex.replied);
+        // nothing goes out before the transaction commits
+        assertEquals(0, client.getOutstandingRequests());
+        assertTrue(requests.isEmpty());
+
+        scheduler.complete(true);
+        assertTrue("No reply", odeMex.await());
+        assertEquals("reply", odeMex.replied);
+        assertEquals("pong", odeMex.response.getPart("parameters").getTextContent().trim());
+        assertEquals(1, requests.size());
+        String request = requests.get(0);
+        assertTrue(request, request.startsWith("POST /processes/DummyService/DummyService/hello HTTP/1.1\r\n"));
+        assertTrue(request, StubHttpServer.body(request).contains("ping"));
+    }
+
+    public void testRollback() throws Exception {
+        response = xmlResponse("<helloResponse xmlns=\"http://axis2.ode.apache.org\"/>");
+        service.invoke(odeMex.mex);
+        scheduler.complete(false);
+        assertEquals("replyAsync", odeMex.replied);
+        assertEquals(0, client.getOutstandingRequests());
+        assertEquals(0, server.connections.get());
+    }
+
+    public void testFailure() throws Exception {
+        // the connection is dropped without a response
+        response = null;
+        service.invoke(odeMex.mex);
+        scheduler.complete(true);
+        assertTrue("No reply", odeMex.await());
+        assertEquals("replyWithFailure", odeMex.replied);
+        assertEquals(MessageExchange.FailureType.COMMUNICATION_ERROR, odeMex.failureType);
+        // a POST which went out is not sent again
+        assertEquals(1, requests.size());
+    }
+
+    public void testErrorStatus() throws Exception {
+        response = "HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n\r\n";
+        service.invoke(odeMex.mex);
+        scheduler.complete(true);
+        assertTrue("No reply", odeMex.await());
+        assertEquals("replyWithFailure", odeMex.replied);
+        assertEquals(MessageExchange.FailureType.OTHER, odeMex.failureType);
+    }
+
+    public void testOneWay() throws Exception {
+        response = "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n";
+        odeMex.pattern = MessageExchange.MessageExchangePattern.REQUEST_ONLY;
+        service.invoke(odeMex.mex);
+        assertEquals("replyOneWayOk", odeMex.replied);
+        // not deferred to the end of the transaction
+        assertTrue(scheduler.synchronizers.isEmpty());
+        for (int i = 0; i < 300 && client.getOutstandingRequests() > 0; ++i) Thread.sleep(100);
+        assertEquals(0, client.getOutstandingRequests());
+        assertEquals(1, requests.size());
+    }
+
+    private static String xmlResponse(String body) {
+        return "HTTP/1.1 200 OK\r\nContent-Type: text/xml\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+}
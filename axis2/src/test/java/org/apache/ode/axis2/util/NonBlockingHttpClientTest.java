@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.axis2.util;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class NonBlockingHttpClientTest extends TestCase {
+
+    private static final Executor DIRECT = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private NonBlockingHttpClient client;
+    private StubHttpServer server;
+
+    protected void setUp() throws Exception {
+        client = new NonBlockingHttpClient("NonBlockingHttpClientTest", DIRECT);
+    }
+
+    protected void tearDown() throws Exception {
+        client.shutdown();
+        if (server != null) server.close();
+    }
+
+    /**
+     * The stub holds every response until all requests have been received: they can only complete if
+     * the client has all of them in flight at the same time.
+     */
+    public void testConcurrentRequests() throws Exception {
+        final int count = 300;
+        final CountDownLatch received = new CountDownLatch(count);
+        server = new StubHttpServer() {
+            protected String respond(String request) throws Exception {
+                received.countDown();
+                received.await(30, TimeUnit.SECONDS);
+                return ok(body(request));
+            }
+        };
+        Results results = new Results(count);
+        for (int i = 0; i < count; ++i) {
+            NonBlockingHttpClient.Request req = new NonBlockingHttpClient.Request("POST", server.uri("/echo"));
+            req.setBody(("hello " + i).getBytes("UTF-8"));
+            client.execute(req, results.expect("hello " + i));
+        }
+        assertTrue("Requests did not complete", results.await());
+        assertEquals(0, results.errors.get());
+        assertEquals(count, results.ok.get());
+        assertEquals(0, client.getOutstandingRequests());
+    }
+
+    public void testChunkedResponseAndConnectionReuse() throws Exception {
+        server = new StubHttpServer() {
+            protected String respond(String request) {
+                return "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Type: text/plain\r\n\r\n"
+                        + "5\r\nhello\r\n7;ext=1\r\n, world\r\n0\r\nX-Trailer: t\r\n\r\n";
+            }
+        };
+        for (int i = 0; i < 3; ++i) {
+            Results results = new Results(1);
+            client.execute(new NonBlockingHttpClient.Request("GET", server.uri("/chunked?i=" + i)), results.expect("hello, world"));
+            assertTrue(results.await());
+            assertEquals(1, results.ok.get());
+            assertEquals("text/plain", results.last.getHeader("content-type"));
+        }
+        assertEquals(1, server.connections.get());
+    }
+
+    public void testConnectionClosedByServer() throws Exception {
+        server = new StubHttpServer() {
+            protected String respond(String request) {
+                return "HTTP/1.0 200 OK\r\n\r\nuntil the end";
+            }
+        };
+        for (int i = 0; i < 2; ++i) {
+            Results results = new Results(1);
+            client.execute(new NonBlockingHttpClient.Request("GET", server.uri("/")), results.expect("until the end"));
+            assertTrue(results.await());
+            assertEquals(1, results.ok.get());
+        }
+        assertEquals(2, server.connections.get());
+    }
+
+    public void testNoRetryOfWrittenPost() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        server = new StubHttpServer() {
+            protected String respond(String request) {
+                // the second request on a connection is dropped, as by a server closing an idle connection
+                return requests.incrementAndGet() % 2 == 0 ? null : ok("done");
+            }
+        };
+        Results results = new Results(1);
+        client.execute(new NonBlockingHttpClient.Request("POST", server.uri("/")), results.expect("done"));
+        assertTrue(results.await());
+        assertEquals(1, results.ok.get());
+
+        // the partner may have received the POST, it must not be sent twice
+        results = new Results(1);
+        NonBlockingHttpClient.Request post = new NonBlockingHttpClient.Request("POST", server.uri("/"));
+        post.setBody("once".getBytes("UTF-8"));
+        client.execute(post, results.expect("done"));
+        assertTrue(results.await());
+        assertEquals(1, results.errors.get());
+        assertEquals(2, requests.get());
+        assertEquals(1, server.connections.get());
+    }
+
+    public void testRetryOfIdempotentRequest() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        server = new StubHttpServer() {
+            protected String respond(String request) {
+                return requests.incrementAndGet() == 2 ? null : ok("done");
+            }
+        };
+        for (int i = 0; i < 2; ++i) {
+            Results results = new Results(1);
+            client.execute(new NonBlockingHttpClient.Request("GET", server.uri("/")), results.expect("done"));
+            assertTrue(results.await());
+            assertEquals(1, results.ok.get());
+        }
+        // the dropped GET was sent again on a new connection
+        assertEquals(3, requests.get());
+        assertEquals(2, server.connections.get());
+    }
+
+    public void testReadTimeout() throws Exception {
+        server = new StubHttpServer() {
+            protected String respond(String request) throws Exception {
+                Thread.sleep(5000);
+                return ok("late");
+            }
+        };
+        NonBlockingHttpClient.Request req = new NonBlockingHttpClient.Request("GET", server.uri("/slow"));
+        req.setReadTimeout(200);
+        Results results = new Results(1);
+        client.execute(req, results.expect("late"));
+        assertTrue(results.await());
+        assertEquals(1, results.errors.get());
+        assertTrue(results.error instanceof SocketTimeoutException);
+    }
+
+    public void testConnectionRefused() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        int port = ss.getLocalPort();
+        ss.close();
+        Results results = new Results(1);
+        client.execute(new NonBlockingHttpClient.Request("GET", new URI("http://localhost:" + port + "/")), results.expect(""));
+        assertTrue(results.await());
+        assertEquals(1, results.errors.get());
+    }
+
+    public void testMaxResponseSize() throws Exception {
+        server = new StubHttpServer() {
+            protected String respond(String request) {
+                if (request.startsWith("GET /chunked"))
+                    return "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n8\r\n12345678\r\n8\r\n12345678\r\n0\r\n\r\n";
+                return ok("1234567890");
+            }
+        };
+        client.setMaxResponseSize(10);
+        Results results = new Results(1);
+        client.execute(new NonBlockingHttpClient.Request("GET", server.uri("/fits")), results.expect("1234567890"));
+        assertTrue(results.await());
+        assertEquals(1, results.ok.get());
+
+        client.setMaxResponseSize(9);
+        results = new Results(1);
+        client.execute(new NonBlockingHttpClient.Request("GET", server.uri("/length")), results.expect("1234567890"));
+        assertTrue(results.await());
+        assertEquals(1, results.errors.get());
+        assertTrue(results.error.getMessage().indexOf("maximum size") >= 0);
+
+        // without a Content-Length the body is only checked while it is read
+        client.setMaxResponseSize(12);
+        results = new Results(1);
+        client.execute(new NonBlockingHttpClient.Request("GET", server.uri("/chunked")), results.expect("1234567812345678"));
+        assertTrue(results.await());
+        assertEquals(1, results.errors.get());
+        assertTrue(results.error.getMessage().indexOf("maximum size") >= 0);
+        assertEquals(0, client.getOutstandingRequests());
+    }
+
+    public void testRequestHeaders() throws Exception {
+        final StringBuffer received = new StringBuffer();
+        server = new StubHttpServer() {
+            protected String respond(String request) {
+                received.append(request);
+                return ok("");
+            }
+        };
+        NonBlockingHttpClient.Request req = new NonBlockingHttpClient.Request("post", server.uri("/a%20b?x=1"));
+        req.addHeader("SOAPAction", "\"urn:op\"");
+        req.addHeader("Content-Length", "999");
+        req.setBody("abc".getBytes("ISO-8859-1"));
+        Results results = new Results(1);
+        client.execute(req, results.expect(""));
+        assertTrue(results.await());
+        assertEquals(1, results.ok.get());
+        String request = received.toString();
+        assertTrue(request, request.startsWith("POST /a%20b?x=1 HTTP/1.1\r\n"));
+        assertTrue(request, request.indexOf("\r\nHost: localhost:" + server.uri("/").getPort() + "\r\n") > 0);
+        assertTrue(request, request.indexOf("\r\nSOAPAction: \"urn:op\"\r\n") > 0);
+        assertTrue(request, request.indexOf("\r\nContent-Length: 3\r\n") > 0);
+        assertEquals(-1, request.indexOf("999"));
+        assertTrue(request, request.endsWith("\r\n\r\nabc"));
+    }
+
+    private static class Results {
+        final CountDownLatch done;
+        final AtomicInteger ok = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        volatile NonBlockingHttpClient.Response last;
+        volatile IOException error;
+
+        Results(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        NonBlockingHttpClient.Callback expect(final String body) {
+            return new NonBlockingHttpClient.Callback() {
+                public void completed(NonBlockingHttpClient.Response response) {
+                    try {
+                        last = response;
+                        if (body.equals(new String(response.getBody(), "UTF-8"))) ok.incrementAndGet();
+                        else errors.incrementAndGet();
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+
+                public void failed(IOException e) {
+                    error = e;
+                    errors.incrementAndGet();
+                    done.countDown();
+                }
+            };
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(30, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.axis2.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Blocking HTTP server, one thread per connection; supports keep-alive and Content-Length request bodies.
+ */
+public abstract class StubHttpServer {
+    final ServerSocket socket;
+    public final AtomicInteger connections = new AtomicInteger();
+
+    public StubHttpServer() throws IOException {
+        socket = new ServerSocket(0, 1000);
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket s = socket.accept();
+                        connections.incrementAndGet();
+                        Thread t = new Thread(new Runnable() {
+                            public void run() {
+                                serve(s);
+                            }
+                        });
+                        t.setDaemon(true);
+                        t.start();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the raw response to send back, or null to drop the connection without responding
+     */
+    protected abstract String respond(String request) throws Exception;
+
+    public static String ok(String body) {
+        return "HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    public static String body(String request) {
+        return request.substring(request.indexOf("\r\n\r\n") + 4);
+    }
+
+    public URI uri(String path) throws Exception {
+        return new URI("http://localhost:" + socket.getLocalPort() + path);
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void serve(Socket s) {
+        try {
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            String request;
+            while ((request = readRequest(in)) != null) {
+                String response = respond(request);
+                if (response == null) break;
+                out.write(response.getBytes("ISO-8859-1"));
+                out.flush();
+                if (response.startsWith("HTTP/1.0")) break;
+            }
+        } catch (Exception e) {
+            // client went away
+        } finally {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private String readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            buf.write(b);
+            String s = buf.toString("ISO-8859-1");
+            if (s.endsWith("\r\n\r\n")) {
+                int length = 0;
+                for (String line : s.split("\r\n")) {
+                    if (line.toLowerCase().startsWith("content-length:"))
+                        length = Integer.parseInt(line.substring(15).trim());
+                }
+                for (int i = 0; i < length; ++i) buf.write(in.read());
+                return buf.toString("ISO-8859-1");
+            }
+        }
+        return null;
+    }
+}
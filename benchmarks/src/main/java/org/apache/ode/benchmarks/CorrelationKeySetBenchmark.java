@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching correlation keys: {@link CorrelationKeySet#findSubSets()} is called for every
+ * incoming message and every route being checked.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CorrelationKeySetBenchmark {
+
+    /** Number of correlation sets initiated by the message. */
+    @Param({ "1", "3", "6" })
+    public int keys;
+
+    private CorrelationKeySet _keySet;
+    private String _canonical;
+
+    @Setup
+    public void setUp() {
+        _keySet = new CorrelationKeySet();
+        for (int i = 0; i < keys; ++i)
+            _keySet.add(new CorrelationKey("cset" + i, new String[] { "order-" + i, "customer-" + i }));
+        _canonical = _keySet.toCanonicalString();
+    }
+
+    @Benchmark
+    public List<CorrelationKeySet> findSubSets() {
+        return _keySet.findSubSets();
+    }
+
+    @Benchmark
+    public CorrelationKeySet restore() {
+        return new CorrelationKeySet(_canonical);
+    }
+}
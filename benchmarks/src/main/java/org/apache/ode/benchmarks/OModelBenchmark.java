@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ode.bpel.compiler.BpelC;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.bpel.obj.serde.DeSerializer;
+import org.apache.ode.bpel.obj.serde.OmSerdeFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading compiled processes (.cbp files) in each of the {@link OmSerdeFactory} formats, as
+ * done when a process gets hydrated.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OModelBenchmark {
+
+    @Param({ "HelloWorld2", "TestFlowLinks", "TestForEach" })
+    public String process;
+
+    @Param({ "FORMAT_SERIALIZED_JAVA", "FORMAT_SERIALIZED_JSON", "FORMAT_SERIALIZED_SMILE" })
+    public String format;
+
+    private File _dir;
+    private File _cbp;
+    private OProcess _oprocess;
+    private OmSerdeFactory.SerializeFormat _format;
+
+    @Setup
+    public void setUp() throws Exception {
+        _dir = Processes.copy(process);
+        _format = OmSerdeFactory.SerializeFormat.valueOf(format);
+        _oprocess = BpelC.newBpelCompiler().compile2OProcess(Processes.find(_dir, ".bpel"), 0);
+        _cbp = new File(_dir, process + ".cbp");
+        OutputStream out = new FileOutputStream(_cbp);
+        try {
+            new DeSerializer().serialize(out, _oprocess, _format);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Processes.delete(_dir);
+    }
+
+    @Benchmark
+    public OProcess load() throws Exception {
+        return new DeSerializer(_cbp).deserialize();
+    }
+
+    @Benchmark
+    public int store() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        new DeSerializer().serialize(out, _oprocess, _format);
+        return out.size();
+    }
+}
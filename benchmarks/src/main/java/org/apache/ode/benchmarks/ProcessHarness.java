@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.benchmarks;
+
+import java.io.File;
+
+import org.apache.ode.bpel.engine.BpelServerImpl;
+import org.apache.ode.bpel.iapi.ProcessStore;
+import org.apache.ode.scheduler.simple.SimpleScheduler;
+import org.apache.ode.test.BPELTestAbstract;
+
+/**
+ * Runs test processes the way the bpel-test unit tests do: in-memory processes on an
+ * embedded server, invoked with the requests of their test.properties.
+ */
+public class ProcessHarness extends BPELTestAbstract {
+
+    public void start() throws Exception {
+        setUp();
+    }
+
+    public void stop() throws Exception {
+        tearDown();
+    }
+
+    /**
+     * Deploy the process found in the directory and prepare its test invocations.
+     */
+    public void deploy(File deployDir) throws Exception {
+        setup(deployDir);
+        doDeployments();
+        checkFailure();
+    }
+
+    /**
+     * Send the test requests and check the responses.
+     */
+    public void invoke() throws Exception {
+        doInvokes();
+        checkFailure();
+    }
+
+    public BpelServerImpl getServer() {
+        return _server;
+    }
+
+    public SimpleScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public ProcessStore getStore() {
+        return store;
+    }
+
+    @Override
+    protected long getWaitBeforeInvokeTimeout() {
+        return 0;
+    }
+}
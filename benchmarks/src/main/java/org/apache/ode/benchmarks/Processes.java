@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Locates the test processes of bpel-test, which the benchmarks use as workload.
+ */
+public class Processes {
+
+    /** Directory holding the BPEL 2.0 test processes. */
+    public static final String PROCESSES_PROPERTY = "ode.benchmarks.processes";
+
+    private Processes() {
+    }
+
+    public static File getDirectory() {
+        File dir = new File(System.getProperty(PROCESSES_PROPERTY, "bpel-test/src/test/resources/bpel/2.0"));
+        if (!dir.isDirectory())
+            throw new IllegalStateException("Test processes not found in " + dir.getAbsolutePath()
+                    + ", set the " + PROCESSES_PROPERTY + " system property.");
+        return dir;
+    }
+
+    /**
+     * Copy a test process to a temporary directory, so that it can be compiled and deployed
+     * without touching the sources.
+     * @param name name of the process directory, like HelloWorld2
+     */
+    public static File copy(String name) throws IOException {
+        File source = new File(getDirectory(), name);
+        if (!source.isDirectory())
+            throw new IllegalArgumentException("Unknown test process " + name);
+        File target = File.createTempFile("ode-benchmark-", "");
+        target.delete();
+        target = new File(target, name);
+        FileUtils.copyDirectory(source, target);
+        return target;
+    }
+
+    /**
+     * @return the first file of the directory with the given extension
+     */
+    public static File find(File dir, String extension) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(extension))
+                    return f;
+            }
+        }
+        throw new IllegalStateException("No " + extension + " file in " + dir);
+    }
+
+    public static void delete(File dir) {
+        FileUtils.deleteQuietly(dir.getParentFile());
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.benchmarks;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.common.FaultException;
+import org.apache.ode.bpel.compiler.BpelC;
+import org.apache.ode.bpel.explang.EvaluationContext;
+import org.apache.ode.bpel.explang.EvaluationException;
+import org.apache.ode.bpel.obj.OBase;
+import org.apache.ode.bpel.obj.OExpression;
+import org.apache.ode.bpel.obj.OExpressionLanguage;
+import org.apache.ode.bpel.obj.OLink;
+import org.apache.ode.bpel.obj.OMessageVarType;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.bpel.obj.OScope;
+import org.apache.ode.bpel.runtime.ExpressionLanguageRuntimeRegistry;
+import org.apache.ode.utils.DOMUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Evaluation of the expressions of a compiled test process by the XPath 1.0 (Jaxen) or
+ * XPath 2.0 (Saxon) runtime, depending on the expression language of the process. Variables
+ * are read as empty instances of their types. The XPath 2.0 runtime is measured with and without
+ * its cache of compiled expressions.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XPathBenchmark implements EvaluationContext {
+
+    /** TestAssignActivity1 uses XPath 1.0, the others XPath 2.0. */
+    @Param({ "TestAssignActivity1", "TestSubTreeAssign", "TestXPathNamespace1" })
+    public String process;
+
+    /**
+     * Whether the XPath 2.0 runtime reuses compiled expressions, read once by the runtime class;
+     * each combination of parameters runs in its own JVM.
+     */
+    @Param({ "true", "false" })
+    public String cacheExpressions;
+
+    private File _dir;
+    private OProcess _oprocess;
+    private ExpressionLanguageRuntimeRegistry _registry;
+    private final List<OExpression> _expressions = new ArrayList<OExpression>();
+    private final Map<String, Node> _variables = new HashMap<String, Node>();
+    private Document _doc;
+
+    @Setup
+    public void setUp() throws Exception {
+        System.setProperty("org.apache.ode.xpath20.cacheExpressions", cacheExpressions);
+        _dir = Processes.copy(process);
+        _oprocess = BpelC.newBpelCompiler().compile2OProcess(Processes.find(_dir, ".bpel"), 0);
+        _registry = new ExpressionLanguageRuntimeRegistry();
+        for (OExpressionLanguage elang : _oprocess.getExpressionLanguages())
+            _registry.registerRuntime(elang);
+        _doc = DOMUtils.newDocument();
+
+        // only keep what can be evaluated without a running instance
+        for (OBase child : _oprocess.getChildren()) {
+            if (!(child instanceof OExpression))
+                continue;
+            OExpression expr = (OExpression) child;
+            try {
+                _registry.evaluateAsString(expr, this);
+                _expressions.add(expr);
+            } catch (Exception e) {
+                // skipped
+            }
+        }
+        if (_expressions.isEmpty())
+            throw new IllegalStateException("No expression of " + process + " can be evaluated");
+    }
+
+    @TearDown
+    public void tearDown() {
+        _registry.close();
+        Processes.delete(_dir);
+    }
+
+    @Benchmark
+    public int evaluate() throws Exception {
+        int length = 0;
+        for (OExpression expr : _expressions) {
+            String value = _registry.evaluateAsString(expr, this);
+            if (value != null)
+                length += value.length();
+        }
+        return length;
+    }
+
+    public Node readVariable(OScope.Variable variable, OMessageVarType.Part part) throws FaultException {
+        String key = part == null ? variable.getName() : variable.getName() + "." + part.getName();
+        Node value = _variables.get(key);
+        if (value == null) {
+            if (part != null) {
+                value = part.getType().newInstance(_doc);
+            } else if (variable.getType() instanceof OMessageVarType) {
+                Element message = _doc.createElementNS(null, "message");
+                for (OMessageVarType.Part p : ((OMessageVarType) variable.getType()).getParts().values()) {
+                    Element partElement = _doc.createElementNS(null, p.getName());
+                    partElement.appendChild(p.getType().newInstance(_doc));
+                    message.appendChild(partElement);
+                }
+                value = message;
+            } else {
+                value = variable.getType().newInstance(_doc);
+            }
+            _variables.put(key, value);
+        }
+        return value;
+    }
+
+    public Node getPartData(Element message, OMessageVarType.Part part) throws FaultException {
+        return DOMUtils.findChildByName(message, new QName(null, part.getName()));
+    }
+
+    public String readMessageProperty(OScope.Variable variable, OProcess.OProperty property) throws FaultException {
+        return "value";
+    }
+
+    public boolean isLinkActive(OLink olink) throws FaultException {
+        return true;
+    }
+
+    public Node getRootNode() {
+        return null;
+    }
+
+    public Node evaluateQuery(Node root, OExpression expr) throws FaultException, EvaluationException {
+        return root;
+    }
+
+    public Long getProcessId() {
+        return Long.valueOf(1);
+    }
+
+    public QName getProcessQName() {
+        return _oprocess.getQName();
+    }
+
+    public boolean narrowTypes() {
+        return true;
+    }
+
+    public URI getBaseResourceURI() {
+        return _dir.toURI();
+    }
+
+    public Node getPropertyValue(QName propertyName) {
+        return null;
+    }
+
+    public Date getCurrentEventDateTime() {
+        return new Date();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ode.utils.BinaryXmlCodec;
+import org.apache.ode.utils.DOMUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+/**
+ * Converting variables and messages between DOM and their stored forms: text through
+ * {@link DOMUtils} and the binary format of {@link BinaryXmlCodec}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XmlBenchmark {
+
+    /** Number of line items in the message. */
+    @Param({ "10", "1000" })
+    public int items;
+
+    private Element _element;
+    private String _text;
+    private byte[] _binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuffer buf = new StringBuffer();
+        buf.append("<message><order xmlns=\"urn:ode:benchmark\" xmlns:c=\"urn:ode:benchmark:common\" id=\"4711\">");
+        buf.append("<c:customer><c:name>ACME Corporation</c:name><c:country>US</c:country></c:customer>");
+        for (int i = 0; i < items; ++i) {
+            buf.append("<item sku=\"SKU-").append(i).append("\" quantity=\"").append(i % 7 + 1).append("\">");
+            buf.append("<description>Item number ").append(i).append(" &amp; its description</description>");
+            buf.append("<price currency=\"USD\">").append(i * 3 + 0.99).append("</price>");
+            buf.append("</item>");
+        }
+        buf.append("</order></message>");
+        _text = buf.toString();
+        _element = DOMUtils.stringToDOM(_text);
+        _binary = BinaryXmlCodec.encode(_element);
+    }
+
+    @Benchmark
+    public String domToString() {
+        return DOMUtils.domToString(_element);
+    }
+
+    @Benchmark
+    public Element stringToDOM() throws Exception {
+        return DOMUtils.stringToDOM(_text);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return BinaryXmlCodec.encode(_element);
+    }
+
+    @Benchmark
+    public Element binaryDecode() {
+        return BinaryXmlCodec.decode(_binary);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.benchmarks.ProcessHarness;
+import org.apache.ode.benchmarks.Processes;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.apache.ode.bpel.memdao.ProcessInstanceDaoImpl;
+import org.apache.ode.jacob.soup.ReplacementMap;
+import org.apache.ode.jacob.vpu.ExecutionQueueImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing and reading the execution state ("soup") of an instance, as done by
+ * {@link BpelRuntimeContextImpl} at the end and start of every transaction of a persistent
+ * instance, with each {@link ExecutionStateCodec}. The state is the one of a real instance
+ * of TestCorrelation, waiting for its second message.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecutionStateBenchmark {
+
+    @Param({ "serialized", "deflate" })
+    public String codec;
+
+    private ProcessHarness _harness;
+    private File _deployDir;
+    private ExecutionStateCodec _codec;
+    private ExecutionQueueImpl _soup;
+    private ReplacementMap _replacementMap;
+    private byte[] _state;
+
+    @Setup
+    public void setUp() throws Exception {
+        _codec = "deflate".equals(codec) ? ExecutionStateCodec.DEFLATE : ExecutionStateCodec.SERIALIZED;
+        _deployDir = Processes.copy("TestCorrelation");
+        // only send the message that creates the instance
+        new File(_deployDir, "test2.properties").delete();
+
+        _harness = new ProcessHarness();
+        _harness.start();
+        _harness.deploy(_deployDir);
+        final QName pid = _harness.getStore().getProcesses().get(0);
+        Thread invoker = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    _harness.invoke();
+                } catch (Throwable t) {
+                    // no response is coming, the instance is left waiting
+                }
+            }
+        });
+        invoker.setDaemon(true);
+        invoker.start();
+
+        final Contexts contexts = _harness.getServer().getContexts();
+        long timeout = System.currentTimeMillis() + 30000;
+        while (_soup == null) {
+            if (System.currentTimeMillis() > timeout)
+                throw new IllegalStateException("No instance of " + pid + " got created");
+            Thread.sleep(50);
+            _soup = contexts.scheduler.execTransaction(new Callable<ExecutionQueueImpl>() {
+                public ExecutionQueueImpl call() throws Exception {
+                    ProcessDAO process = contexts.inMemDao.getConnection().getProcess(pid);
+                    if (process == null)
+                        return null;
+                    for (ProcessInstanceDAO instance : process.getActiveInstances()) {
+                        Object soup = ((ProcessInstanceDaoImpl) instance).getSoup();
+                        if (soup != null)
+                            return (ExecutionQueueImpl) soup;
+                    }
+                    return null;
+                }
+            });
+        }
+        _replacementMap = _harness.getServer()._engine.getProcess(pid).getReplacementMap(pid);
+        _state = _codec.encode(write());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _harness.stop();
+        Processes.delete(_deployDir);
+    }
+
+    @Benchmark
+    public byte[] store() throws Exception {
+        return _codec.encode(write());
+    }
+
+    @Benchmark
+    public ExecutionQueueImpl load() throws Exception {
+        ExecutionQueueImpl soup = new ExecutionQueueImpl(null);
+        soup.setReplacementMap(_replacementMap);
+        soup.read(new ByteArrayInputStream(ExecutionStateCodec.decodeState(_state)));
+        return soup;
+    }
+
+    private byte[] write() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(10000);
+        _soup.write(bos);
+        bos.close();
+        return bos.toByteArray();
+    }
+}
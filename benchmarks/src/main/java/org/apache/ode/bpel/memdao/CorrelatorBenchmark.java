@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.memdao;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.apache.ode.bpel.dao.MessageExchangeDAO;
+import org.apache.ode.bpel.dao.MessageRouteDAO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routing an inbound message on the in-memory correlator while many instances are waiting on it,
+ * each on its own correlation key. The cost per message should not depend on the number of
+ * waiting instances.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CorrelatorBenchmark {
+
+    /** Number of instances waiting on the correlator, and of messages queued on it. */
+    @Param({ "100", "10000", "100000" })
+    public int waiting;
+
+    private CorrelatorDaoImpl _correlator;
+    private CorrelationKeySet[] _keys;
+    private CorrelationKeySet _unknown;
+    private MessageExchangeDAO _mex;
+    private int _next;
+
+    @Setup
+    public void setUp() {
+        BpelDAOConnectionImpl conn = new BpelDAOConnectionImpl(new HashMap<QName, ProcessDaoImpl>(), null, 0) {
+            public void defer(Runnable runnable) {
+                // no transaction here
+                runnable.run();
+            }
+        };
+        QName pid = new QName("urn:benchmarks", "Correlator");
+        ProcessDaoImpl process = new ProcessDaoImpl(conn, new HashMap<QName, ProcessDaoImpl>(), pid, pid, "benchmark", 0);
+        _correlator = new CorrelatorDaoImpl("pl.op", conn);
+
+        _keys = new CorrelationKeySet[waiting];
+        for (int i = 0; i < waiting; ++i) {
+            _keys[i] = keySet("order", "order-" + i);
+            _correlator.addRoute("route-" + i, new ProcessInstanceDaoImpl(conn, process, _correlator), 0, _keys[i], "one");
+            _correlator.enqueueMessage(new MessageExchangeDAOImpl('M', "queued-" + i), keySet("customer", "customer-" + i));
+        }
+        _unknown = keySet("order", "unknown");
+        _mex = new MessageExchangeDAOImpl('M', "benchmark");
+    }
+
+    @Benchmark
+    public List<MessageRouteDAO> findRoute() {
+        CorrelationKeySet keys = _keys[_next++ % waiting];
+        return _correlator.findRoute(keys);
+    }
+
+    /**
+     * A new instance checking for a message that isn't there.
+     */
+    @Benchmark
+    public MessageExchangeDAO dequeueMissing() {
+        return _correlator.dequeueMessage(_unknown);
+    }
+
+    /**
+     * A message arriving before its instance, picked up once the instance starts.
+     */
+    @Benchmark
+    public MessageExchangeDAO enqueueAndDequeue() {
+        _correlator.enqueueMessage(_mex, _unknown);
+        return _correlator.dequeueMessage(_unknown);
+    }
+
+    private static CorrelationKeySet keySet(String cset, String value) {
+        CorrelationKeySet keySet = new CorrelationKeySet();
+        keySet.add(new CorrelationKey(cset, new String[] { value }));
+        return keySet;
+    }
+}
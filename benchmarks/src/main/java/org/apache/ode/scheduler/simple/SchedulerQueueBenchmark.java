@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.scheduler.simple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The "todo" queue of {@link SimpleScheduler}: the priority queue of {@link SchedulerThread}
+ * against the {@link TimingWheelSchedulerThread}, with more or less tasks already waiting in the
+ * queue as on a loaded server.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SchedulerQueueBenchmark implements TaskRunner {
+
+    @Param({ "heap", "wheel" })
+    public String queue;
+
+    /** Tasks enqueued per operation. */
+    @Param({ "1000" })
+    public int tasks;
+
+    /** Tasks due later that are already in the queue when the benchmark starts. */
+    @Param({ "0", "10000", "100000", "1000000" })
+    public int pending;
+
+    private SchedulerQueue _todo;
+
+    private volatile CountDownLatch _done;
+
+    @Setup
+    public void setUp() {
+        _todo = "wheel".equals(queue) ? new TimingWheelSchedulerThread(this) : new SchedulerThread(this);
+        // spread over a day, starting well after the end of the run; the wheel takes them in on
+        // its first pass, during warmup
+        long start = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(2);
+        long spread = TimeUnit.DAYS.toMillis(1);
+        for (int i = 0; i < pending; ++i)
+            _todo.enqueue(new Task(start + i * spread / pending));
+        _todo.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        _todo.stop();
+    }
+
+    public void runTask(Task task) {
+        CountDownLatch done = _done;
+        if (done != null)
+            done.countDown();
+    }
+
+    /**
+     * Tasks due in the near future which get cancelled before running, like the jobs of
+     * instances that complete before their timeout.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void enqueueAndCancel() {
+        long due = System.currentTimeMillis() + 60000;
+        List<Task> enqueued = new ArrayList<Task>(tasks);
+        for (int i = 0; i < tasks; ++i) {
+            Task task = new Task(due + i);
+            _todo.enqueue(task);
+            enqueued.add(task);
+        }
+        for (Task task : enqueued)
+            _todo.dequeue(task);
+    }
+
+    /**
+     * Tasks due now, from enqueueing the first one to running the last one.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void dispatch() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(tasks);
+        _done = done;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < tasks; ++i)
+            _todo.enqueue(new Task(now));
+        done.await();
+        _done = null;
+    }
+}
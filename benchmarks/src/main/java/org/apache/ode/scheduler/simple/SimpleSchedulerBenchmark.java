@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.scheduler.simple;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.ode.bpel.iapi.Scheduler;
+import org.apache.ode.bpel.iapi.Scheduler.JobInfo;
+import org.apache.ode.bpel.iapi.Scheduler.JobProcessor;
+import org.apache.ode.bpel.iapi.Scheduler.JobProcessorException;
+import org.apache.ode.utils.GUID;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scheduling jobs with {@link SimpleScheduler} and waiting for them to be processed, against
+ * an in-memory H2 database.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SimpleSchedulerBenchmark implements JobProcessor {
+
+    @Param({ "false", "true" })
+    public boolean timingWheel;
+
+    /** Jobs scheduled per operation, all in the same transaction. */
+    @Param({ "100" })
+    public int jobs;
+
+    private GeronimoTransactionManager _txm;
+
+    private SimpleScheduler _scheduler;
+
+    private volatile CountDownLatch _done;
+
+    @Setup
+    public void setUp() throws Exception {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:" + new GUID().toString() + ";DB_CLOSE_DELAY=-1");
+        ds.setUser("sa");
+        Connection c = ds.getConnection();
+        try {
+            c.createStatement().executeUpdate(readSchema());
+        } finally {
+            c.close();
+        }
+
+        Properties conf = new Properties();
+        conf.setProperty("ode.scheduler.timingWheel", String.valueOf(timingWheel));
+        _txm = new GeronimoTransactionManager();
+        _scheduler = new SimpleScheduler("n1", new JdbcDelegate(ds), conf);
+        _scheduler.setJobProcessor(this);
+        _scheduler.setTransactionManager(_txm);
+        _scheduler.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        _scheduler.shutdown();
+    }
+
+    public void onScheduledJob(JobInfo jobInfo) throws JobProcessorException {
+        CountDownLatch done = _done;
+        if (done != null)
+            done.countDown();
+    }
+
+    @Benchmark
+    public void persistedJobs() throws Exception {
+        run(new Callable<Void>() {
+            public Void call() throws Exception {
+                Date now = new Date();
+                for (int i = 0; i < jobs; ++i)
+                    _scheduler.schedulePersistedJob(newDetails(), now);
+                return null;
+            }
+        });
+    }
+
+    @Benchmark
+    public void volatileJobs() throws Exception {
+        run(new Callable<Void>() {
+            public Void call() throws Exception {
+                for (int i = 0; i < jobs; ++i)
+                    _scheduler.scheduleVolatileJob(true, newDetails());
+                return null;
+            }
+        });
+    }
+
+    private void run(Callable<Void> schedule) throws Exception {
+        CountDownLatch done = new CountDownLatch(jobs);
+        _done = done;
+        _scheduler.execTransaction(schedule);
+        if (!done.await(60, TimeUnit.SECONDS))
+            throw new IllegalStateException(done.getCount() + " jobs were not processed");
+        _done = null;
+    }
+
+    private static Scheduler.JobDetails newDetails() {
+        Scheduler.JobDetails details = new Scheduler.JobDetails();
+        details.setType(Scheduler.JobType.INVOKE_INTERNAL);
+        return details;
+    }
+
+    private static String readSchema() throws Exception {
+        InputStream in = SimpleSchedulerBenchmark.class.getResourceAsStream("/simplesched-h2.sql");
+        if (in == null)
+            throw new IllegalStateException("simplesched-h2.sql is not on the classpath");
+        try {
+            StringBuffer sql = new StringBuffer();
+            int v;
+            while ((v = in.read()) != -1)
+                sql.append((char) v);
+            return sql.toString();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.common;
+
+/**
+ * Fixed-width hash of canonical correlation keys and correlation property values, stored next to
+ * them by the DAOs so that lookups can use a narrow index. Different values may have the same
+ * hash, lookups match the hash first and then compare the value itself.
+ *
+ * The hashes are persisted: the function must never change.
+ */
+public final class CorrelationKeyHash {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private CorrelationKeyHash() {
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the UTF-16 code units of a value.
+     * @return the hash, or <code>null</code> for a <code>null</code> value
+     */
+    public static Long hash(String value) {
+        if (value == null)
+            return null;
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -47,6 +47,18 @@ public interface MyRoleMessageExchange extends MessageExchange {
         QUEUED
     }
 
+    /**
+     * Notified when the response to a request-response invocation is available.
+     */
+    public interface ResponseListener {
+        /**
+         * Called once the transaction that produced the response, fault or failure
+         * has committed. This happens on an engine thread, lengthy work should be
+         * handed off to another thread.
+         */
+        void onResponse();
+    }
+
     /**
      * Get the correlation state of the the invocation. An invocation will
      * either create a new process instance, match an existing instance, or be
@@ -72,6 +84,26 @@ public interface MyRoleMessageExchange extends MessageExchange {
     @SuppressWarnings("unchecked")
     Future invoke(Message request);
 
+    /**
+     * Get notified when the response to the last {@link #invoke(Message)} is
+     * available, instead of blocking a thread on the returned {@link Future}.
+     * Should be called in the transaction of the invocation.
+     *
+     * @param listener listener to notify
+     * @return <code>false</code> if there is no pending response to wait for, the
+     *         listener will not be notified
+     */
+    boolean setResponseListener(ResponseListener listener);
+
+    /**
+     * Stop waiting for the response to the last {@link #invoke(Message)}: if it
+     * comes later, it is dropped and the {@link ResponseListener} isn't notified.
+     *
+     * @return <code>false</code> if the response is already there, the listener
+     *         is or will be notified
+     */
+    boolean timeoutResponse();
+
     /**
      * Complete the message, exchange: indicates that the client has receive the
      * response (if any).
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.common;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CorrelationKeyHashTest {
+    @Test
+    public void testNull() throws Exception {
+        assertNull(CorrelationKeyHash.hash(null));
+    }
+
+    /**
+     * Hashes are stored in the database, they must not change between versions.
+     */
+    @Test
+    public void testStableValues() throws Exception {
+        assertEquals(-3750763034362895579L, CorrelationKeyHash.hash("").longValue());
+        assertEquals(-171330462279542129L, CorrelationKeyHash.hash("1~a~b").longValue());
+        assertEquals(-3051804815545631070L, CorrelationKeyHash.hash("@2[1~a~b],[2~b~c]").longValue());
+    }
+
+    @Test
+    public void testHighByte() throws Exception {
+        assertFalse(CorrelationKeyHash.hash("\u0141").equals(CorrelationKeyHash.hash("A")));
+        assertEquals(CorrelationKeyHash.hash(new CorrelationKey("1~a~b").toCanonicalString()),
+                CorrelationKeyHash.hash("1~a~b"));
+    }
+}
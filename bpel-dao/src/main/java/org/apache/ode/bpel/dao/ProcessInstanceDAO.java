@@ -24,6 +24,7 @@ import org.w3c.dom.Element;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
@@ -86,6 +87,19 @@ public interface ProcessInstanceDAO {
      */
     void setExecutionState(byte[] execState);
 
+    /**
+     * Append a delta to the instance execution state. Deltas are kept, in order, until the
+     * execution state is set again with {@link #setExecutionState(byte[])}, which discards them.
+     * @param delta opaque execution state delta
+     */
+    void appendExecutionStateDelta(byte[] delta);
+
+    /**
+     * Get the deltas appended to the execution state since it was last set.
+     * @return the deltas, in the order they were appended (never <code>null</code>)
+     */
+    List<byte[]> getExecutionStateDeltas();
+
     /**
      * Get the process.
      *
@@ -49,6 +49,15 @@ public interface XmlDataDAO {
    */
   public Node get();
 
+  /**
+   * Retrieve the variable data in serialized form, if it hasn't been parsed yet. Lets
+   * callers that only need a small part of a large value avoid building a DOM.
+   *
+   * @return the XML text of an element value, or <b>null</b> if the value isn't an
+   *         element, has already been parsed or is only available as a DOM
+   */
+  public String getUnparsedData();
+
   /**
    * Remove the object from the data store.
    */
@@ -84,12 +84,18 @@ public class OdeConfigProperties {
 
     public static final String PROP_MEX_INMEM_TTL = "mex.inmem.ttl";
 
+    public static final String PROP_MEX_INMEM_CAPACITY = "mex.inmem.capacity";
+
+    public static final String PROP_MEX_INMEM_CAPACITY_TIMEOUT = "mex.inmem.capacity.timeout";
+
     public static final String PROP_PROCESS_DEHYDRATION = "process.dehydration";
 
     public static final String PROP_PROCESS_DEHYDRATION_MAXIMUM_AGE = "process.dehydration.maximum.age";
 
     public static final String PROP_PROCESS_DEHYDRATION_MAXIMUM_COUNT = "process.dehydration.maximum.count";
 
+    public static final String PROP_PROCESS_DEHYDRATION_BUDGET = "process.dehydration.budget";
+
     public static final String PROP_PROCESS_HYDRATION_LAZY = "process.hydration.lazy";
 
     public static final String PROP_PROCESS_HYDRATION_LAZY_MINIMUM_SIZE = "process.hydration.lazy.minimum.size";
@@ -100,6 +106,20 @@ public class OdeConfigProperties {
 
     public static final String PROP_PROCESS_INSTANCE_THROTTLED_MAXIMUM_COUNT = "process.instance.throttled.maximum.count";
 
+    public static final String PROP_PROCESS_INSTANCE_CACHE_MAXIMUM_SIZE = "process.instance.cache.maximum.size";
+
+    public static final String PROP_CORRELATION_ROUTE_INDEX = "correlation.route.index";
+
+    public static final String PROP_EVENT_LISTENERS_DISPATCH = "event.listeners.dispatch";
+
+    public static final String PROP_EVENT_LISTENERS_QUEUE_SIZE = "event.listeners.queue.size";
+
+    public static final String PROP_EVENT_PERSISTENCE = "event.persistence";
+
+    public static final String PROP_EVENT_PERSISTENCE_QUEUE_SIZE = "event.persistence.queue.size";
+
+    public static final String PROP_EVENT_PERSISTENCE_BATCH_SIZE = "event.persistence.batch.size";
+
     public static final String PROP_DAOCF = "dao.factory";
 
     public static final String PROP_MIGRATION_TRANSACTION_TIMEOUT = "migration.transaction.timeout";
@@ -321,6 +341,20 @@ public class OdeConfigProperties {
         return Long.valueOf(getProperty(PROP_MEX_INMEM_TTL, ""+10*60*1000));
     }
 
+    /**
+     * @return maximum number of in-memory message exchanges, 0 for no limit
+     */
+    public int getInMemMexCapacity() {
+        return Integer.valueOf(getProperty(PROP_MEX_INMEM_CAPACITY, "0"));
+    }
+
+    /**
+     * @return how long an in-memory invocation waits for room when the message exchanges are at capacity, in milliseconds
+     */
+    public long getInMemMexCapacityTimeout() {
+        return Long.valueOf(getProperty(PROP_MEX_INMEM_CAPACITY_TIMEOUT, "5000"));
+    }
+
     public boolean isDehydrationEnabled() {
         return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_DEHYDRATION, "false"));
     }
@@ -333,6 +367,13 @@ public class OdeConfigProperties {
         return Integer.valueOf(getProperty(PROP_PROCESS_DEHYDRATION_MAXIMUM_COUNT, ""+1000));
     }
 
+    /**
+     * @return heap budget, in bytes, for hydrated processes; 0 to dehydrate by process count instead
+     */
+    public long getDehydrationBudget() {
+        return Long.valueOf(getProperty(PROP_PROCESS_DEHYDRATION_BUDGET, "0"));
+    }
+
     public boolean isHydrationLazy() {
         return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_HYDRATION_LAZY, "true"));
     }
@@ -349,6 +390,54 @@ public class OdeConfigProperties {
         return Integer.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_INSTANCE_THROTTLED_MAXIMUM_COUNT, String.valueOf(Integer.MAX_VALUE)));
     }
 
+    /**
+     * @return maximum total size, in bytes of serialized state, of the instances kept hydrated between
+     * transactions; 0 disables the cache
+     */
+    public long getInstanceCacheMaximumSize() {
+        return Long.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_INSTANCE_CACHE_MAXIMUM_SIZE, "0"));
+    }
+
+    /**
+     * @return whether the correlation keys of message routes are indexed in memory; only safe when no
+     * other node shares the database without the cluster manager
+     */
+    public boolean isCorrelationRouteIndexEnabled() {
+        return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_CORRELATION_ROUTE_INDEX, "false"));
+    }
+
+    /**
+     * @param listenerClass class name of the event listener
+     * @return how events are passed to the listener: "sync" (by the engine thread), "block" (queued, waiting
+     * for room in the queue) or "drop" (queued, dropped when the queue is full). Defaults to the value
+     * of {@link #PROP_EVENT_LISTENERS_DISPATCH} when not set for the listener class.
+     */
+    public String getEventListenerDispatch(String listenerClass) {
+        String dispatch = getProperty(PROP_EVENT_LISTENERS_DISPATCH + "." + listenerClass);
+        return dispatch != null ? dispatch : getProperty(PROP_EVENT_LISTENERS_DISPATCH, "sync");
+    }
+
+    public int getEventListenerQueueSize() {
+        return Integer.valueOf(getProperty(OdeConfigProperties.PROP_EVENT_LISTENERS_QUEUE_SIZE, "1000"));
+    }
+
+    /**
+     * @return when BPEL events are persisted: "transaction" (in the instance transaction), "after-commit"
+     * (queued once the transaction committed, waiting for room) or "best-effort" (queued once the transaction
+     * committed, dropped when the queue is full)
+     */
+    public String getEventPersistence() {
+        return getProperty(OdeConfigProperties.PROP_EVENT_PERSISTENCE, "transaction");
+    }
+
+    public int getEventPersistenceQueueSize() {
+        return Integer.valueOf(getProperty(OdeConfigProperties.PROP_EVENT_PERSISTENCE_QUEUE_SIZE, "10000"));
+    }
+
+    public int getEventPersistenceBatchSize() {
+        return Integer.valueOf(getProperty(OdeConfigProperties.PROP_EVENT_PERSISTENCE_BATCH_SIZE, "100"));
+    }
+
     public long getProcessThrottledMaximumSize() {
         return Long.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_HYDRATION_THROTTLED_MAXIMUM_SIZE, String.valueOf(Long.MAX_VALUE)));
     }
@@ -51,6 +51,17 @@ public class DeSerializer {
 		this.cbpFile = cbpFile;
 	}
 
+	/**
+	 * Constructor to create deserializer to deserialize the content of a cbp file
+	 * that has already been read or mapped into memory.
+	 * @param cbpFile the serialized compiled cbp file, upgraded processes are written back to it
+	 * @param is the content of the cbp file, closed once deserialized
+	 */
+	public DeSerializer(File cbpFile, InputStream is) {
+		this(is);
+		this.cbpFile = cbpFile;
+	}
+
 	DeSerializer(InputStream is) {
 		this.is = new BufferedInputStream(is);
 		deserializeHeader();
@@ -84,6 +84,13 @@ public class JaxpFunctionResolver implements XPathFunctionResolver {
         _oxpath = oxpath;
     }
 
+    /**
+     * Rebind the functions resolved so far to another evaluation context.
+     */
+    public void setEvaluationContext(EvaluationContext ectx) {
+        _ectx = ectx;
+    }
+
     public XPathFunction resolveFunction(QName functionName, int arity) {
         if (__log.isDebugEnabled()) {
             __log.debug("Resolving function " + functionName);
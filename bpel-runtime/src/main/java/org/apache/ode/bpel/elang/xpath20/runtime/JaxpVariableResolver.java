@@ -62,6 +62,10 @@ public class JaxpVariableResolver implements XPathVariableResolver {
         _config = config;
     }
 
+    public void setEvaluationContext(EvaluationContext ectx) {
+        _ectx = ectx;
+    }
+
     public Object resolveVariable(QName variableName) {
         if (__log.isDebugEnabled()) {
             __log.debug("Resolving variable " + variableName);
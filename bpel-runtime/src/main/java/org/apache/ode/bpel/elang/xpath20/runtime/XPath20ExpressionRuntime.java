@@ -24,6 +24,10 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerFactory;
@@ -74,8 +78,25 @@ public class XPath20ExpressionRuntime implements ExpressionLanguageRuntime {
     /** Class-level logger. */
     private static final Logger __log = LoggerFactory.getLogger(XPath20ExpressionRuntime.class);
     
+    /** Set to false to compile expressions on every evaluation. */
+    private static final boolean CACHE_EXPRESSIONS =
+        !"false".equalsIgnoreCase(System.getProperty("org.apache.ode.xpath20.cacheExpressions"));
+
+    /** Maximum number of compiled copies of an expression kept once their evaluation is done. */
+    private static final int MAX_CACHED_EXPRESSIONS =
+        Integer.getInteger("org.apache.ode.xpath20.maxCachedExpressions", 8);
+
     private final XPathFactory _xpf = new XPathFactoryImpl();
 
+    /**
+     * Compiled expressions of the process, by expression id. A compiled expression is bound to
+     * the evaluation context through its resolvers, so each one is only used by a thread at a time.
+     */
+    private final ConcurrentMap<Integer, Queue<CompiledExpression>> _compiledExpressions =
+        new ConcurrentHashMap<Integer, Queue<CompiledExpression>>();
+
+    private volatile int _maxCached = Math.max(1, MAX_CACHED_EXPRESSIONS);
+
     public XPath20ExpressionRuntime(){
     }
 
@@ -232,17 +253,14 @@ public class XPath20ExpressionRuntime implements ExpressionLanguageRuntime {
     }
 
     private Object evaluate(OExpression cexp, EvaluationContext ctx, QName type) throws FaultException, EvaluationException {
+        CompiledExpression compiled = null;
         try {
             OXPath20ExpressionBPEL20 oxpath20 = ((OXPath20ExpressionBPEL20) cexp);
 
-            JaxpFunctionResolver funcResolver = new JaxpFunctionResolver(ctx, oxpath20);
-            JaxpVariableResolver varResolver = new JaxpVariableResolver(ctx, oxpath20, ((XPathFactoryImpl) _xpf).getConfiguration());
-            XPath xpe = _xpf.newXPath();
-            xpe.setXPathFunctionResolver(funcResolver);
-            xpe.setXPathVariableResolver(varResolver);
-            xpe.setNamespaceContext(oxpath20.getNamespaceCtx());
-            String xpath = ((OXPath10Expression)cexp).getXpath();
-            XPathExpression expr = xpe.compile(xpath);
+            compiled = checkout(oxpath20);
+            compiled.bind(ctx);
+            String xpath = oxpath20.getXpath();
+            XPathExpression expr = compiled.expr;
             Node contextNode = ctx.getRootNode();
             if (contextNode == null) {
                 contextNode = DOMUtils.newDocument();
@@ -298,6 +316,81 @@ public class XPath20ExpressionRuntime implements ExpressionLanguageRuntime {
         } catch (Throwable t) {
              __log.debug("Could not evaluate expression because of ", t);
             throw new EvaluationException("Error while executing an XPath expression: ", t);
+        } finally {
+            if (compiled != null)
+                release(compiled);
+        }
+    }
+
+    private CompiledExpression checkout(OXPath20ExpressionBPEL20 oxpath20) throws XPathExpressionException {
+        if (CACHE_EXPRESSIONS) {
+            Queue<CompiledExpression> pool = _compiledExpressions.get(oxpath20.getId());
+            CompiledExpression compiled = pool == null ? null : pool.poll();
+            // ids are only unique within a compiled process, make sure it's the same expression
+            if (compiled != null && compiled.oxpath == oxpath20)
+                return compiled;
+        }
+
+        JaxpFunctionResolver funcResolver = new JaxpFunctionResolver(null, oxpath20);
+        JaxpVariableResolver varResolver = new JaxpVariableResolver(null, oxpath20, ((XPathFactoryImpl) _xpf).getConfiguration());
+        XPath xpe = _xpf.newXPath();
+        xpe.setXPathFunctionResolver(funcResolver);
+        xpe.setXPathVariableResolver(varResolver);
+        xpe.setNamespaceContext(oxpath20.getNamespaceCtx());
+        XPathExpression expr = xpe.compile(oxpath20.getXpath());
+        return new CompiledExpression(oxpath20, funcResolver, varResolver, expr);
+    }
+
+    private void release(CompiledExpression compiled) {
+        compiled.bind(null);
+        if (!CACHE_EXPRESSIONS || compiled.oxpath.getId() == 0)
+            return;
+        Queue<CompiledExpression> pool = _compiledExpressions.get(compiled.oxpath.getId());
+        if (pool == null) {
+            Queue<CompiledExpression> created = new ArrayBlockingQueue<CompiledExpression>(_maxCached);
+            pool = _compiledExpressions.putIfAbsent(compiled.oxpath.getId(), created);
+            if (pool == null)
+                pool = created;
+        }
+        // past the peak concurrency the pool is sized for, leave the extra copy to the garbage collector
+        pool.offer(compiled);
+    }
+
+    /**
+     * Sets the maximum number of compiled copies of an expression kept in the pool.
+     */
+    void setMaxCachedExpressions(int maxCached) {
+        _maxCached = Math.max(1, maxCached);
+    }
+
+    /**
+     * @return number of compiled copies of an expression waiting in the pool
+     */
+    int getPooledCount(OExpression cexp) {
+        Queue<CompiledExpression> pool = _compiledExpressions.get(cexp.getId());
+        return pool == null ? 0 : pool.size();
+    }
+
+    /**
+     * An expression compiled with its resolvers, which get bound to the evaluation context.
+     */
+    private static class CompiledExpression {
+        final OXPath20ExpressionBPEL20 oxpath;
+        final JaxpFunctionResolver funcResolver;
+        final JaxpVariableResolver varResolver;
+        final XPathExpression expr;
+
+        CompiledExpression(OXPath20ExpressionBPEL20 oxpath, JaxpFunctionResolver funcResolver,
+                           JaxpVariableResolver varResolver, XPathExpression expr) {
+            this.oxpath = oxpath;
+            this.funcResolver = funcResolver;
+            this.varResolver = varResolver;
+            this.expr = expr;
+        }
+
+        void bind(EvaluationContext ctx) {
+            funcResolver.setEvaluationContext(ctx);
+            varResolver.setEvaluationContext(ctx);
         }
     }
 }
@@ -18,6 +18,7 @@
  */
 package org.apache.ode.bpel.elang.xquery10.runtime;
 
+import java.io.Closeable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URI;
@@ -28,7 +29,12 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerFactory;
@@ -86,7 +92,7 @@ import org.w3c.dom.Text;
  * XQuery 1.0 Expression Language run-time subsytem. Saxon implementation.
  */
 @SuppressWarnings("deprecation")
-public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
+public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime, Closeable {
     static final short NODE_TYPE = 1;
     static final short NODESET_TYPE = 2;
     static final short STRING_TYPE = 3;
@@ -96,6 +102,28 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
     /** Class-level logger. */
     private static final Logger __log = LoggerFactory.getLogger(XQuery10ExpressionRuntime.class);
 
+    /** Set to false to prepare expressions on a new connection for every evaluation. */
+    private static final boolean POOL_EXPRESSIONS =
+        !"false".equalsIgnoreCase(System.getProperty("org.apache.ode.xquery10.poolExpressions"));
+
+    /** Maximum number of prepared copies of an expression kept once their evaluation is done. */
+    private static final int MAX_POOLED_EXPRESSIONS =
+        Integer.getInteger("org.apache.ode.xquery10.maxPooledExpressions", 8);
+
+    /**
+     * Prepared expressions of the process, by expression id. Each one has its own connection and
+     * Saxon configuration, and is only used by a thread at a time.
+     */
+    private final ConcurrentMap<Integer, Queue<PreparedQuery>> _preparedQueries =
+        new ConcurrentHashMap<Integer, Queue<PreparedQuery>>();
+
+    private volatile int _maxPooled = Math.max(1, MAX_POOLED_EXPRESSIONS);
+
+    /** Prepared expressions whose connection is still open, pooled or being evaluated. */
+    private final AtomicInteger _open = new AtomicInteger();
+
+    private volatile boolean _closed;
+
     /**
      * Creates a new XQuery10ExpressionRuntime object.
      */
@@ -334,106 +362,41 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
      */
     private Object evaluate(OExpression cexp, EvaluationContext ctx, QName type)
         throws FaultException, EvaluationException {
+        PreparedQuery query = null;
+        boolean executed = false;
         try {
             OXQuery10ExpressionBPEL20 oxquery10 = ((OXQuery10ExpressionBPEL20) cexp);
 
-            XQDataSource xqds = new SaxonXQDataSource();
-            XQConnection xqconn = xqds.getConnection();
-
-            Configuration configuration = ((SaxonXQConnection) xqconn).getConfiguration();
-            configuration.setAllNodesUntyped(true);
-            configuration.setHostLanguage(Configuration.XQUERY);
-
-            XQStaticContext staticEnv = xqconn.getStaticContext();
-
-            NSContext nsContext = oxquery10.getNamespaceCtx();
-            Set<String> prefixes = nsContext.getPrefixes();
-            for (String prefix : prefixes) {
-                String uri = nsContext.getNamespaceURI(prefix);
-                staticEnv.declareNamespace(prefix, uri);
-            }
-
-            configuration.setSchemaValidationMode(Validation.SKIP);
-            xqconn.setStaticContext(staticEnv);
-
-            // Prepare expression, for starters
-            String xquery = oxquery10.getXquery().replaceFirst(
-                    Constants.XQUERY_FUNCTION_HANDLER_COMPILER,
-                    Constants.XQUERY_FUNCTION_HANDLER_RUNTIME);
-            XQPreparedExpression exp = xqconn.prepareExpression(xquery);
-
-            JaxpFunctionResolver funcResolver = new JaxpFunctionResolver(ctx,
-                    oxquery10);
-            JaxpVariableResolver variableResolver = new JaxpVariableResolver(ctx,
-                    oxquery10, configuration);
-            // Bind external variables to runtime values
-            for (QName variable : exp.getAllUnboundExternalVariables()) {
-                // Evaluate referenced variable
-                Object value = variableResolver.resolveVariable(variable);
-
-                 if (value instanceof Value) {
-                     SaxonXQConnection saxonConn = (SaxonXQConnection) xqconn;
-                     try {
-                         Item item = ((Value) value).asItem();
-                         if (item == null) {
-                             exp.bindSequence(variable, xqconn.createSequence(Collections.EMPTY_LIST.iterator()));
-                         } else {
-                             XQItem item2 = new SaxonXQItem(item, saxonConn);
-                             exp.bindItem(variable, item2);
-                         }
-                     } catch (XPathException e) {
-                         __log.warn("", e);
-                     }
-                 } else {
-
-                     if (value instanceof Date) {
-                         Date d = (Date) value;
-                         value = org.apache.ode.utils.ISO8601DateParser.format(d);
-                     }
-
-                     // Figure out type of variable
-                     XQSequenceType xqType = getItemType(xqconn, value);
-
-                     // Saxon doesn't like binding sequences to variables
-                     if (value instanceof Node) {
-                         // a node is a node-list, but the inverse isn't true.
-                         // so, if the value is truly a node, leave it alone.
-                     } else if (value instanceof NodeList) {
-                         // So extract the first item from the node list
-                         NodeList nodeList = (NodeList) value;
-                         ArrayList nodeArray = new ArrayList();
-                         for (int i = 0; i < nodeList.getLength(); i++) {
-                             nodeArray.add(nodeList.item(i));
-                         }
-                         value = xqconn.createSequence(nodeArray.iterator());
-                     }
-
-                     // Bind value with external variable
-                     if (value != null && xqType != null) {
-                         if (value instanceof XQSequence) {
-                             exp.bindSequence(variable, (XQSequence) value);
-                         } else {
-                             if (xqType instanceof XQItemType) {
-                                 exp.bindObject(variable, value, (XQItemType) xqType);
-                             }
-                         }
-                     }
-                  }
+            query = checkout(oxquery10);
+            query.bind(ctx);
+            if (!bindVariables(query) && query.reused) {
+                // a variable left unbound must not keep the value of an earlier evaluation
+                discard(query);
+                query = prepare(oxquery10);
+                query.bind(ctx);
+                bindVariables(query);
             }
 
             // Set context node
             Node contextNode = (ctx.getRootNode() == null)
                 ? DOMUtils.newDocument() : ctx.getRootNode();
             contextNode.setUserData(XQuery10BpelFunctions.USER_DATA_KEY_FUNCTION_RESOLVER,
-                funcResolver, null);
-            exp.bindItem(XQConstants.CONTEXT_ITEM,
-                xqconn.createItemFromNode(contextNode, xqconn.createNodeType()));
-
-            // Execute query
-            XQResultSequence result = exp.executeQuery();
-
-            // Cast Saxon result to Java result
-            Object evalResult = getResultValue(type, result);
+                query.funcResolver, null);
+            Object evalResult;
+            try {
+                query.exp.bindItem(XQConstants.CONTEXT_ITEM,
+                    query.conn.createItemFromNode(contextNode, query.conn.createNodeType()));
+
+                // Execute query
+                XQResultSequence result = query.exp.executeQuery();
+
+                // Cast Saxon result to Java result
+                evalResult = getResultValue(type, result);
+                result.close();
+                executed = true;
+            } finally {
+                contextNode.setUserData(XQuery10BpelFunctions.USER_DATA_KEY_FUNCTION_RESOLVER, null, null);
+            }
 
             if ((evalResult != null) && __log.isDebugEnabled()) {
                 __log.debug("Expression " + cexp.toString() +
@@ -468,9 +431,192 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
         } catch (WrappedResolverException wre) {
             __log.debug("Could not evaluate expression because of ", wre);
             throw (FaultException) wre.getCause();
+        } finally {
+            if (query != null) {
+                // don't reuse an expression left in an unknown state by a failure
+                if (executed) release(query);
+                else discard(query);
+            }
+        }
+    }
+
+    /**
+     * Binds the external variables of a prepared expression to their runtime values.
+     *
+     * @return false if some variable could not be bound
+     */
+    private boolean bindVariables(PreparedQuery query) throws XQException {
+        XQConnection xqconn = query.conn;
+        XQPreparedExpression exp = query.exp;
+        boolean allBound = true;
+        for (QName variable : exp.getAllExternalVariables()) {
+            // Evaluate referenced variable
+            Object value = query.variableResolver.resolveVariable(variable);
+
+            if (value instanceof Value) {
+                SaxonXQConnection saxonConn = (SaxonXQConnection) xqconn;
+                try {
+                    Item item = ((Value) value).asItem();
+                    if (item == null) {
+                        exp.bindSequence(variable, xqconn.createSequence(Collections.EMPTY_LIST.iterator()));
+                    } else {
+                        XQItem item2 = new SaxonXQItem(item, saxonConn);
+                        exp.bindItem(variable, item2);
+                    }
+                } catch (XPathException e) {
+                    __log.warn("", e);
+                    allBound = false;
+                }
+            } else {
+
+                if (value instanceof Date) {
+                    Date d = (Date) value;
+                    value = org.apache.ode.utils.ISO8601DateParser.format(d);
+                }
+
+                // Figure out type of variable
+                XQSequenceType xqType = getItemType(xqconn, value);
+
+                // Saxon doesn't like binding sequences to variables
+                if (value instanceof Node) {
+                    // a node is a node-list, but the inverse isn't true.
+                    // so, if the value is truly a node, leave it alone.
+                } else if (value instanceof NodeList) {
+                    // So extract the first item from the node list
+                    NodeList nodeList = (NodeList) value;
+                    ArrayList nodeArray = new ArrayList();
+                    for (int i = 0; i < nodeList.getLength(); i++) {
+                        nodeArray.add(nodeList.item(i));
+                    }
+                    value = xqconn.createSequence(nodeArray.iterator());
+                }
+
+                // Bind value with external variable
+                if (value != null && xqType != null && value instanceof XQSequence) {
+                    exp.bindSequence(variable, (XQSequence) value);
+                } else if (value != null && xqType instanceof XQItemType) {
+                    exp.bindObject(variable, value, (XQItemType) xqType);
+                } else {
+                    allBound = false;
+                }
+            }
+        }
+        return allBound;
+    }
+
+    private PreparedQuery checkout(OXQuery10ExpressionBPEL20 oxquery10) throws XQException {
+        if (POOL_EXPRESSIONS) {
+            Queue<PreparedQuery> pool = _preparedQueries.get(oxquery10.getId());
+            PreparedQuery query = pool == null ? null : pool.poll();
+            // ids are only unique within a compiled process, make sure it's the same expression
+            if (query != null && query.oxquery == oxquery10) {
+                query.reused = true;
+                return query;
+            }
+            if (query != null)
+                discard(query);
+        }
+        return prepare(oxquery10);
+    }
+
+    private PreparedQuery prepare(OXQuery10ExpressionBPEL20 oxquery10) throws XQException {
+        XQDataSource xqds = new SaxonXQDataSource();
+        XQConnection xqconn = xqds.getConnection();
+
+        Configuration configuration = ((SaxonXQConnection) xqconn).getConfiguration();
+        configuration.setAllNodesUntyped(true);
+        configuration.setHostLanguage(Configuration.XQUERY);
+
+        XQStaticContext staticEnv = xqconn.getStaticContext();
+
+        NSContext nsContext = oxquery10.getNamespaceCtx();
+        Set<String> prefixes = nsContext.getPrefixes();
+        for (String prefix : prefixes) {
+            String uri = nsContext.getNamespaceURI(prefix);
+            staticEnv.declareNamespace(prefix, uri);
+        }
+
+        configuration.setSchemaValidationMode(Validation.SKIP);
+        xqconn.setStaticContext(staticEnv);
+
+        // Prepare expression, for starters
+        String xquery = oxquery10.getXquery().replaceFirst(
+                Constants.XQUERY_FUNCTION_HANDLER_COMPILER,
+                Constants.XQUERY_FUNCTION_HANDLER_RUNTIME);
+        XQPreparedExpression exp;
+        try {
+            exp = xqconn.prepareExpression(xquery);
+        } catch (XQException e) {
+            xqconn.close();
+            throw e;
+        }
+
+        JaxpFunctionResolver funcResolver = new JaxpFunctionResolver(null, oxquery10);
+        JaxpVariableResolver variableResolver = new JaxpVariableResolver(null, oxquery10, configuration);
+        _open.incrementAndGet();
+        return new PreparedQuery(oxquery10, xqconn, exp, funcResolver, variableResolver);
+    }
+
+    private void release(PreparedQuery query) {
+        query.bind(null);
+        if (!POOL_EXPRESSIONS || _closed || query.oxquery.getId() == 0) {
+            discard(query);
+            return;
+        }
+        Queue<PreparedQuery> pool = _preparedQueries.get(query.oxquery.getId());
+        if (pool == null) {
+            Queue<PreparedQuery> created = new ArrayBlockingQueue<PreparedQuery>(_maxPooled);
+            pool = _preparedQueries.putIfAbsent(query.oxquery.getId(), created);
+            if (pool == null)
+                pool = created;
+        }
+        // past the peak concurrency the pool is sized for, don't keep yet another connection
+        if (!pool.offer(query))
+            discard(query);
+        // the process may have been dehydrated in the meantime
+        if (_closed)
+            close();
+    }
+
+    private void discard(PreparedQuery query) {
+        query.close();
+        _open.decrementAndGet();
+    }
+
+    /**
+     * Closes the pooled connections, when the process goes away.
+     */
+    public void close() {
+        _closed = true;
+        for (Queue<PreparedQuery> pool : _preparedQueries.values()) {
+            PreparedQuery query;
+            while ((query = pool.poll()) != null)
+                discard(query);
         }
     }
 
+    /**
+     * Sets the maximum number of prepared copies of an expression kept in the pool.
+     */
+    void setMaxPooledExpressions(int maxPooled) {
+        _maxPooled = Math.max(1, maxPooled);
+    }
+
+    /**
+     * @return number of prepared copies of an expression waiting in the pool
+     */
+    int getPooledCount(OExpression cexp) {
+        Queue<PreparedQuery> pool = _preparedQueries.get(cexp.getId());
+        return pool == null ? 0 : pool.size();
+    }
+
+    /**
+     * @return number of prepared expressions whose connection hasn't been closed
+     */
+    int getOpenCount() {
+        return _open.get();
+    }
+
     /**
      * Return opaque object embedded in XQuery Item
      *
@@ -642,4 +788,40 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
         }
         return resultValue;
     }
+
+    /**
+     * A prepared expression with its connection, and the resolvers that get bound to the
+     * evaluation context.
+     */
+    private static class PreparedQuery {
+        final OXQuery10ExpressionBPEL20 oxquery;
+        final XQConnection conn;
+        final XQPreparedExpression exp;
+        final JaxpFunctionResolver funcResolver;
+        final JaxpVariableResolver variableResolver;
+        boolean reused;
+
+        PreparedQuery(OXQuery10ExpressionBPEL20 oxquery, XQConnection conn, XQPreparedExpression exp,
+                      JaxpFunctionResolver funcResolver, JaxpVariableResolver variableResolver) {
+            this.oxquery = oxquery;
+            this.conn = conn;
+            this.exp = exp;
+            this.funcResolver = funcResolver;
+            this.variableResolver = variableResolver;
+        }
+
+        void bind(EvaluationContext ctx) {
+            funcResolver.setEvaluationContext(ctx);
+            variableResolver.setEvaluationContext(ctx);
+        }
+
+        void close() {
+            try {
+                exp.close();
+                conn.close();
+            } catch (XQException e) {
+                __log.debug("Error closing XQuery connection", e);
+            }
+        }
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.dao.BpelDAOConnection;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.apache.ode.bpel.evt.ProcessInstanceEvent;
+import org.apache.ode.bpel.iapi.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists BPEL events outside of the instance transactions. Events are queued in a bounded
+ * buffer and a background thread writes them in batches, one transaction per batch, so that
+ * the inserts get batched by the DAO layer and the instance transactions don't pay for them.
+ *
+ * Events are only queued once the instance transaction committed, those of rolled back
+ * transactions are dropped; the writer never sees an instance its transaction hasn't committed.
+ * With {@link Durability#AFTER_COMMIT} the committing thread waits for room in the buffer when
+ * it's full, with {@link Durability#BEST_EFFORT} the events are dropped instead. Queued events
+ * are lost if the server dies.
+ */
+public class AsyncEventPersister extends BoundedWorkQueue<AsyncEventPersister.Entry> implements AsyncEventPersisterMBean {
+
+    private static final Logger __log = LoggerFactory.getLogger(AsyncEventPersister.class);
+
+    public enum Durability {
+        /** Events are inserted in the instance transaction, nothing is queued. */
+        TRANSACTION,
+        /** Events of committed transactions are queued, producers block when the queue is full. */
+        AFTER_COMMIT,
+        /** Events of committed transactions are queued, and dropped when the queue is full. */
+        BEST_EFFORT;
+
+        /**
+         * @param name "transaction", "after-commit" or "best-effort"
+         */
+        public static Durability parse(String name) {
+            if (name == null || name.trim().length() == 0)
+                return TRANSACTION;
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final Contexts _contexts;
+    private final Durability _durability;
+
+    private final AtomicLong _failed = new AtomicLong();
+    private final AtomicLong _batches = new AtomicLong();
+
+    public AsyncEventPersister(Contexts contexts, Durability durability, int queueSize, int batchSize) {
+        super("ODE-EventPersister", queueSize, batchSize);
+        if (durability == Durability.TRANSACTION)
+            throw new IllegalArgumentException("Transactional events are not queued");
+        _contexts = contexts;
+        _durability = durability;
+    }
+
+    /**
+     * Queue an event of the given instance, in the transaction that generated it.
+     */
+    public void persist(ProcessInstanceEvent event, ProcessInstanceDAO instance) {
+        final Entry entry = new Entry(event, instance.getInstanceId(), instance.getProcess().getProcessId());
+        _contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+            public void afterCompletion(boolean success) {
+                if (!success) return;
+                if (_durability == Durability.BEST_EFFORT) offer(entry);
+                else put(entry);
+            }
+
+            public void beforeCompletion() {
+            }
+        });
+    }
+
+    protected void process(List<Entry> batch) {
+        write(batch);
+    }
+
+    private void write(final List<Entry> batch) {
+        try {
+            _contexts.scheduler.execTransaction(new Callable<Void>() {
+                public Void call() throws Exception {
+                    insert(batch);
+                    return null;
+                }
+            });
+            _batches.incrementAndGet();
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                __log.error("Could not persist BPEL event " + batch.get(0).event, e);
+                _failed.incrementAndGet();
+                return;
+            }
+            // don't lose the whole batch for one bad event
+            __log.warn("Could not persist a batch of " + batch.size() + " BPEL events, retrying one by one.", e);
+            for (Entry entry : batch) {
+                List<Entry> single = new ArrayList<Entry>(1);
+                single.add(entry);
+                write(single);
+            }
+        }
+    }
+
+    private void insert(List<Entry> batch) {
+        BpelDAOConnection conn = _contexts.dao.getConnection();
+        Map<Long, ProcessInstanceDAO> instances = new HashMap<Long, ProcessInstanceDAO>();
+        Map<QName, ProcessDAO> processes = new HashMap<QName, ProcessDAO>();
+        for (Entry entry : batch) {
+            ProcessInstanceDAO instance = instances.get(entry.iid);
+            if (instance == null && !instances.containsKey(entry.iid)) {
+                instance = conn.getInstance(entry.iid);
+                instances.put(entry.iid, instance);
+            }
+            ProcessDAO process;
+            if (instance != null) {
+                process = instance.getProcess();
+            } else {
+                // the instance has been cleaned up meanwhile
+                process = processes.get(entry.pid);
+                if (process == null && !processes.containsKey(entry.pid)) {
+                    process = conn.getProcess(entry.pid);
+                    processes.put(entry.pid, process);
+                }
+            }
+            conn.insertBpelEvent(entry.event, process, instance);
+        }
+    }
+
+    public String getDurability() {
+        return _durability.toString();
+    }
+
+    public long getWrittenCount() {
+        return getProcessedCount() - _failed.get();
+    }
+
+    public long getBatchCount() {
+        return _batches.get();
+    }
+
+    public long getFailedCount() {
+        return _failed.get();
+    }
+
+    public void resetStatistics() {
+        super.resetStatistics();
+        _batches.set(0);
+        _failed.set(0);
+    }
+
+    static class Entry {
+        final ProcessInstanceEvent event;
+        final Long iid;
+        final QName pid;
+
+        Entry(ProcessInstanceEvent event, Long iid, QName pid) {
+            this.event = event;
+            this.iid = iid;
+            this.pid = pid;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+/**
+ * JMX view of the BPEL event queue maintained by {@link AsyncEventPersister}.
+ */
+public interface AsyncEventPersisterMBean {
+
+    /** When queued events are considered produced, see {@link AsyncEventPersister.Durability}. */
+    String getDurability();
+
+    /** Maximum number of events waiting to be written. */
+    int getQueueCapacity();
+
+    /** Number of events currently waiting to be written. */
+    int getQueuedCount();
+
+    /** Highest number of events that were waiting to be written at once. */
+    int getMaxQueuedCount();
+
+    /** Number of events queued. */
+    long getEnqueuedCount();
+
+    /** Number of events written to the database. */
+    long getWrittenCount();
+
+    /** Number of transactions used to write the events. */
+    long getBatchCount();
+
+    /** Number of events dropped because the queue was full. */
+    long getDroppedCount();
+
+    /** Number of events that could not be written. */
+    long getFailedCount();
+
+    /** Number of times a committing transaction had to wait for room in the queue. */
+    long getBlockedCount();
+
+    /** Total time (in milliseconds) committing transactions waited for room in the queue. */
+    long getBlockedTime();
+
+    void resetStatistics();
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue drained by a single background thread, in batches of up to a given size. When the
+ * queue is full, producers either wait for room ({@link #put(Object)}) or drop the element
+ * ({@link #offer(Object)}). Keeps the queueing statistics its subclasses expose through JMX.
+ */
+abstract class BoundedWorkQueue<E> {
+
+    private static final Logger __log = LoggerFactory.getLogger(BoundedWorkQueue.class);
+
+    private final String _name;
+    private final int _batchSize;
+    private final ArrayBlockingQueue<E> _queue;
+
+    private volatile Thread _worker;
+    private volatile boolean _running;
+
+    private final AtomicLong _enqueued = new AtomicLong();
+    private final AtomicLong _processed = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _blocked = new AtomicLong();
+    private final AtomicLong _blockedTime = new AtomicLong();
+    private volatile int _maxQueued;
+
+    /**
+     * @param name name of the worker thread
+     * @param queueSize maximum number of elements waiting to be processed
+     * @param batchSize maximum number of elements passed to {@link #process(List)} at once
+     */
+    BoundedWorkQueue(String name, int queueSize, int batchSize) {
+        _name = name;
+        _batchSize = Math.max(1, batchSize);
+        _queue = new ArrayBlockingQueue<E>(Math.max(1, queueSize));
+    }
+
+    /**
+     * Process a batch of queued elements, in the order they were queued. Called by the worker thread.
+     */
+    protected abstract void process(List<E> batch);
+
+    public synchronized void start() {
+        if (_running)
+            return;
+        _running = true;
+        _worker = new Thread(new Runnable() {
+            public void run() {
+                processLoop();
+            }
+        }, _name);
+        _worker.setDaemon(true);
+        _worker.start();
+    }
+
+    /**
+     * Stop the worker once it processed the elements already queued.
+     */
+    public synchronized void stop() {
+        if (!_running)
+            return;
+        _running = false;
+        Thread worker = _worker;
+        _worker = null;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!_queue.isEmpty())
+            __log.warn(_queue.size() + " queued elements were not processed by " + _name + " before stopping.");
+    }
+
+    /**
+     * Queue an element, or drop it if the queue is full.
+     * @return whether the element was queued
+     */
+    boolean offer(E element) {
+        if (_queue.offer(element)) {
+            queued();
+            return true;
+        }
+        _dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Queue an element, waiting for room while the worker is running.
+     * @return whether the element was queued, it's dropped if the worker stopped
+     */
+    boolean put(E element) {
+        if (_queue.offer(element)) {
+            queued();
+            return true;
+        }
+        if (!_running) {
+            _dropped.incrementAndGet();
+            return false;
+        }
+        _blocked.incrementAndGet();
+        long start = System.currentTimeMillis();
+        try {
+            while (!_queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+                if (!_running) {
+                    _dropped.incrementAndGet();
+                    return false;
+                }
+            }
+            queued();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            _dropped.incrementAndGet();
+            return false;
+        } finally {
+            _blockedTime.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    private void queued() {
+        _enqueued.incrementAndGet();
+        int size = _queue.size();
+        if (size > _maxQueued) _maxQueued = size;
+    }
+
+    private void processLoop() {
+        List<E> batch = new ArrayList<E>(_batchSize);
+        while (true) {
+            try {
+                E first = _queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) batch.add(first);
+            } catch (InterruptedException e) {
+                // only stop() ends the loop
+            }
+            _queue.drainTo(batch, _batchSize - batch.size());
+            if (batch.isEmpty()) {
+                if (!_running) return;
+                continue;
+            }
+            try {
+                process(batch);
+            } catch (RuntimeException e) {
+                __log.error(_name + " failed to process " + batch.size() + " queued elements.", e);
+            } finally {
+                _processed.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    public int getQueueCapacity() {
+        return _queue.size() + _queue.remainingCapacity();
+    }
+
+    public int getQueuedCount() {
+        return _queue.size();
+    }
+
+    public int getMaxQueuedCount() {
+        return _maxQueued;
+    }
+
+    public long getEnqueuedCount() {
+        return _enqueued.get();
+    }
+
+    /** Number of elements passed to {@link #process(List)}. */
+    long getProcessedCount() {
+        return _processed.get();
+    }
+
+    public long getDroppedCount() {
+        return _dropped.get();
+    }
+
+    public long getBlockedCount() {
+        return _blocked.get();
+    }
+
+    public long getBlockedTime() {
+        return _blockedTime.get();
+    }
+
+    public void resetStatistics() {
+        _maxQueued = _queue.size();
+        _enqueued.set(0);
+        _processed.set(0);
+        _dropped.set(0);
+        _blocked.set(0);
+        _blockedTime.set(0);
+    }
+}
@@ -119,6 +119,18 @@ public class BpelEngineImpl implements BpelEngine {
 
     final Contexts _contexts;
 
+    /** Soups of recently executed instances. */
+    final SoupCache _soupCache = new SoupCache();
+
+    /** Compiled process models, shared by the processes loaded from the same cbp content. */
+    final OModelCache _omodelCache = new OModelCache();
+
+    /** Correlation keys of the message routes, by process and correlator. */
+    final CorrelationRouteIndex _routeIndex = new CorrelationRouteIndex();
+
+    /** Writes the BPEL events outside of the instance transactions, null to insert them in the transaction. */
+    AsyncEventPersister _eventPersister;
+
     private final Map<QName, Long> _hydratedSizes = new HashMap<QName, Long>();
     private final Map<QName, Long> _unhydratedSizes = new HashMap<QName, Long>();
 
@@ -133,6 +145,13 @@ public class BpelEngineImpl implements BpelEngine {
 
     }
 
+    /**
+     * @return the local instance lock manager, or null when instance locks are handled by the cluster manager
+     */
+    InstanceLockManager getInstanceLockManager() {
+        return _instanceLockManager instanceof InstanceLockManager ? (InstanceLockManager) _instanceLockManager : null;
+    }
+
     public SharedEndpoints getSharedEndpoints() {
         return _sharedEps;
     }
@@ -325,6 +344,7 @@ public class BpelEngineImpl implements BpelEngine {
 
             // release the resources held by this process
             p.dehydrate();
+            _routeIndex.removeAll(p.getPID());
             // update the process footprints list
             _hydratedSizes.remove(p.getPID());
         }
@@ -430,6 +450,13 @@ public class BpelEngineImpl implements BpelEngine {
     }
 
     public void acquireInstanceLock(final Long iid) {
+        acquireInstanceLock(iid, null);
+    }
+
+    /**
+     * @param processId process of the instance, used to keep track of the contention by process
+     */
+    public void acquireInstanceLock(final Long iid, QName processId) {
         // We lock the instance to prevent concurrent transactions and prevent unnecessary rollbacks,
         // Note that we don't want to wait too long here to get our lock, since we are likely holding
         // on to scheduler's locks of various sorts.
@@ -448,6 +475,8 @@ public class BpelEngineImpl implements BpelEngine {
             throw new Scheduler.JobProcessorException(true);
         } catch (org.apache.ode.bpel.engine.InstanceLockManager.TimeoutException e) {
             __log.debug("Instance " + iid + " is busy, rescheduling job.");
+            if (_instanceLockManager instanceof InstanceLockManager)
+                ((InstanceLockManager) _instanceLockManager).recordContention(processId);
             throw new Scheduler.JobProcessorException(true);
         }
     }
@@ -457,7 +486,7 @@ public class BpelEngineImpl implements BpelEngine {
 
         if( __log.isTraceEnabled() ) __log.trace("[JOB] onScheduledJob " + jobInfo + "" + we.getInstanceId());
 
-        acquireInstanceLock(we.getInstanceId());
+        acquireInstanceLock(we.getInstanceId(), we.getProcessId());
 
         // DONT PUT CODE HERE-need this method real tight in a try/catch block, we need to handle
         // all types of failure here, the scheduler is not going to know how to handle our errors,
@@ -623,8 +652,17 @@ public class BpelEngineImpl implements BpelEngine {
     void fireEvent(BpelEvent event) {
         // Note that the eventListeners list is a copy-on-write array, so need
         // to mess with synchronization.
+        boolean snapshot = false;
         for (org.apache.ode.bpel.iapi.BpelEventListener l : _contexts.eventListeners) {
-            l.onEvent(event);
+            EventListenerQueue queue = _contexts.eventListenerQueues.isEmpty() ? null : _contexts.eventListenerQueues.get(l);
+            if (queue != null) {
+                // queued listeners read the event from another thread, while the instance keeps on changing its DOM
+                if (!snapshot) {
+                    EventListenerQueue.snapshot(event);
+                    snapshot = true;
+                }
+                queue.dispatch(event);
+            } else l.onEvent(event);
         }
     }
 
@@ -739,6 +777,22 @@ public class BpelEngineImpl implements BpelEngine {
         return _instanceThrottledMaximumCount;
     }
 
+    public void setInstanceCacheMaximumSize(long instanceCacheMaximumSize) {
+        _soupCache.setMaximumSize(instanceCacheMaximumSize);
+    }
+
+    public long getInstanceCacheMaximumSize() {
+        return _soupCache.getMaximumSize();
+    }
+
+    public void setCorrelationRouteIndexEnabled(boolean enabled) {
+        _routeIndex.setEnabled(enabled);
+    }
+
+    public boolean isCorrelationRouteIndexEnabled() {
+        return _routeIndex.isEnabled();
+    }
+
     public void setProcessThrottledMaximumCount(
             int hydrationThrottledMaximumCount) {
         this._processThrottledMaximumCount = hydrationThrottledMaximumCount;
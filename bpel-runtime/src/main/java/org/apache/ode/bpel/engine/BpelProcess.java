@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.wsdl.Fault;
 import javax.xml.namespace.QName;
@@ -38,11 +39,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.agents.memory.SizingAgent;
 import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.common.FaultException;
 import org.apache.ode.bpel.common.ProcessState;
 import org.apache.ode.bpel.dao.BpelDAOConnection;
 import org.apache.ode.bpel.dao.CorrelatorDAO;
 import org.apache.ode.bpel.dao.MessageExchangeDAO;
+import org.apache.ode.bpel.dao.MessageRouteDAO;
 import org.apache.ode.bpel.dao.ProcessDAO;
 import org.apache.ode.bpel.dao.ProcessInstanceDAO;
 import org.apache.ode.bpel.engine.PartnerLinkMyRoleImpl.RoutingInfo;
@@ -62,6 +65,7 @@ import org.apache.ode.bpel.iapi.PartnerRoleChannel;
 import org.apache.ode.bpel.iapi.PartnerRoleMessageExchange;
 import org.apache.ode.bpel.iapi.ProcessConf;
 import org.apache.ode.bpel.iapi.ProcessConf.CLEANUP_CATEGORY;
+import org.apache.ode.bpel.iapi.Scheduler;
 import org.apache.ode.bpel.iapi.Scheduler.JobDetails;
 import org.apache.ode.bpel.iapi.Scheduler.JobType;
 import org.apache.ode.bpel.intercept.InstanceCountThrottler;
@@ -72,7 +76,6 @@ import org.apache.ode.bpel.obj.OExpressionLanguage;
 import org.apache.ode.bpel.obj.OMessageVarType;
 import org.apache.ode.bpel.obj.OPartnerLink;
 import org.apache.ode.bpel.obj.OProcess;
-import org.apache.ode.bpel.obj.serde.DeSerializer;
 import org.apache.ode.bpel.runtime.BpelRuntimeContext;
 import org.apache.ode.bpel.runtime.ExpressionLanguageRuntimeRegistry;
 import org.apache.ode.bpel.runtime.InvalidProcessException;
@@ -121,6 +124,10 @@ public class BpelProcess {
     private boolean _hydratedOnce = false;
     /** Last time the process was used. */
     private volatile long _lastUsed;
+    /** Number of times the process was used, for the dehydration policies. */
+    private final AtomicLong _useCount = new AtomicLong();
+    /** Number of times the process was hydrated. */
+    private final AtomicLong _hydrationCount = new AtomicLong();
 
     BpelEngineImpl _engine;
     ClassLoader _classLoader = getClass().getClassLoader();
@@ -145,9 +152,10 @@ public class BpelProcess {
     public static final QName PROP_SVG = new QName("SVG");
     public static final QName PROP_LAZY_HYDRATE = new QName("process.hydration.lazy");
     public static final QName PROP_MAX_INSTANCES = new QName("process.instance.throttled.maximum.count");
+    public static final QName PROP_HYDRATION_PINNED = new QName("process.hydration.pinned");
 
     // The ratio of in-memory vs serialized size of compiled bpel object.
-    private static final int PROCESS_MEMORY_TO_SERIALIZED_SIZE_RATIO = 5;
+    static final int PROCESS_MEMORY_TO_SERIALIZED_SIZE_RATIO = 5;
 
     public BpelProcess(ProcessConf conf) {
         _pid = conf.getProcessId();
@@ -387,7 +395,7 @@ public class BpelProcess {
                       return true;
                   } else if (routing.messageRoute != null) {
                       // Found a route, hitting it
-                      _engine.acquireInstanceLock(routing.messageRoute.getTargetInstance().getInstanceId());
+                      _engine.acquireInstanceLock(routing.messageRoute.getTargetInstance().getInstanceId(), getPID());
                       target.invokeInstance(mex, routing);
                       return true;
                   }
@@ -645,22 +653,118 @@ public class BpelProcess {
                 .getConnection().getProcess(_pid);
     }
 
+    private boolean isRouteIndexed() {
+        return _engine._routeIndex.isEnabled() && _engine._contexts.clusterManager == null && !_pconf.isTransient();
+    }
+
+    /**
+     * Find the routes matching a message, looking them up in the correlation route index first, when
+     * enabled: no query when no route matches, a query on the matching key only otherwise.
+     */
+    List<MessageRouteDAO> findRoute(CorrelatorDAO correlator, CorrelationKeySet keySet) {
+        if (!isRouteIndexed())
+            return correlator.findRoute(keySet);
+
+        List<CorrelationKeySet> subSets = keySet.findSubSets();
+        List<String> keys = new ArrayList<String>(subSets.size());
+        for (CorrelationKeySet subSet : subSets)
+            keys.add(subSet.toCanonicalString());
+        List<String> found = _engine._routeIndex.find(_pid, correlator.getCorrelatorId(), keys);
+        if (found == null) {
+            if (_engine._routeIndex.startLoading(_pid, correlator.getCorrelatorId()))
+                loadRoutes(correlator.getCorrelatorId());
+            return correlator.findRoute(keySet);
+        }
+        if (found.isEmpty()) {
+            if (__log.isDebugEnabled())
+                __log.debug("No route indexed for " + keySet + " on correlator " + correlator.getCorrelatorId());
+            return null;
+        }
+        if (found.size() == 1)
+            return correlator.findRoute(subSets.get(keys.indexOf(found.get(0))), true);
+        return correlator.findRoute(keySet);
+    }
+
+    /**
+     * Read the routes already registered on a correlator, in a transaction of its own so that no route
+     * committed before it started can be missed.
+     */
+    private void loadRoutes(final String correlatorId) {
+        final CorrelationRouteIndex index = _engine._routeIndex;
+        try {
+            _engine._contexts.scheduler.execIsolatedTransaction(new Callable<Void>() {
+                public Void call() throws Exception {
+                    try {
+                        List<CorrelationRouteIndex.Route> routes = new ArrayList<CorrelationRouteIndex.Route>();
+                        CorrelatorDAO correlator = getProcessDAO().getCorrelator(correlatorId);
+                        if (correlator != null) {
+                            for (MessageRouteDAO route : correlator.getAllRoutes()) {
+                                routes.add(new CorrelationRouteIndex.Route(route.getTargetInstance().getInstanceId(),
+                                        route.getGroupId(), route.getCorrelationKeySet().toCanonicalString()));
+                            }
+                        }
+                        index.loaded(_pid, correlatorId, routes);
+                    } catch (Exception e) {
+                        __log.warn("Could not index the routes of correlator " + correlatorId + " for process " + _pid, e);
+                        index.loadFailed(_pid, correlatorId);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            __log.warn("Could not index the routes of correlator " + correlatorId + " for process " + _pid, e);
+            index.loadFailed(_pid, correlatorId);
+        }
+    }
+
+    /**
+     * Index a route registered by an instance; it's indexed before the transaction commits, so that
+     * it can't be missed, and removed if it rolls back.
+     */
+    void routeAdded(final String correlatorId, final Long iid, final String groupId, CorrelationKeySet keySet) {
+        if (!isRouteIndexed())
+            return;
+        final CorrelationRouteIndex.Route route = new CorrelationRouteIndex.Route(iid, groupId, keySet.toCanonicalString());
+        _engine._contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+            public void beforeCompletion() {
+                _engine._routeIndex.add(_pid, correlatorId, route);
+            }
+            public void afterCompletion(boolean success) {
+                if (!success)
+                    _engine._routeIndex.remove(_pid, iid, groupId);
+            }
+        });
+    }
+
+    /**
+     * Remove the routes of a route group from the index, once the transaction removing them commits.
+     */
+    void routesRemoved(final Long iid, final String groupId) {
+        if (!isRouteIndexed())
+            return;
+        _engine._contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+            public void beforeCompletion() {
+            }
+            public void afterCompletion(boolean success) {
+                if (success)
+                    _engine._routeIndex.remove(_pid, iid, groupId);
+            }
+        });
+    }
+
     static String genCorrelatorId(OPartnerLink plink, String opName) {
         return plink.getName() + "." + opName;
     }
 
     /**
-     * De-serialize the compiled process representation from a stream.
+     * De-serialize the compiled process representation, or reuse the model cached by the engine.
      *
-     * @param is
-     *            input stream
+     * @param file
+     *            compiled process
      * @return process information from configuration database
      */
     private OProcess deserializeCompiledProcess(File file) throws Exception {
-        OProcess compiledProcess;
-        DeSerializer deserializer = new DeSerializer(file);
-        compiledProcess = deserializer.deserialize();
-        return compiledProcess;
+        return _engine._omodelCache.load(file);
     }
 
     /**
@@ -805,9 +909,13 @@ public class BpelProcess {
             // notify the listeners
             _engine.fireEvent(event);
 
-            if (instanceDao != null && !event.isEventPersistingCancelled())
-                instanceDao.insertBpelEvent(event);
-            else
+            if (instanceDao != null && !event.isEventPersistingCancelled()) {
+                AsyncEventPersister persister = _engine._eventPersister;
+                if (persister != null && !isInMemory())
+                    persister.persist(event, instanceDao);
+                else
+                    instanceDao.insertBpelEvent(event);
+            } else
                 __log.debug("Couldn't find instance to save event, no event generated!");
         }
     }
@@ -894,6 +1002,14 @@ public class BpelProcess {
         return _lastUsed;
     }
 
+    public long getUseCount() {
+        return _useCount.get();
+    }
+
+    public long getHydrationCount() {
+        return _hydrationCount.get();
+    }
+
     QName getProcessType() {
         return _pconf.getType();
     }
@@ -908,6 +1024,7 @@ public class BpelProcess {
     /** Keep track of the time the process was last used. */
     private final void markused() {
         _lastUsed = System.currentTimeMillis();
+        _useCount.incrementAndGet();
     }
 
     /** Create a version-appropriate runtime context. */
@@ -934,7 +1051,8 @@ public class BpelProcess {
 
         private void doDehydrate() {
             if (_oprocess != null) {
-                _oprocess.dehydrate();
+                // dehydrated by the model cache unless other versions share it or it stays cached
+                _engine._omodelCache.release(_oprocess);
                 _oprocess = null;
             }
             if (_myRoles != null) {
@@ -956,12 +1074,19 @@ public class BpelProcess {
 //            if (_partnerEprs != null) {
 //                _partnerEprs.clear();
 //            }
+            if (_replacementMap != null) {
+                _engine._soupCache.removeAll(_replacementMap);
+            }
             _replacementMap = null;
+            if (_expLangRuntimeRegistry != null) {
+                _expLangRuntimeRegistry.close();
+            }
             _expLangRuntimeRegistry = null;
         }
 
         private void doHydrate() {
             markused();
+            _hydrationCount.incrementAndGet();
             if (__log.isDebugEnabled()) {
                 __log.debug("Rehydrating process " + _pconf.getProcessId());
             }
@@ -1239,6 +1364,13 @@ public class BpelProcess {
         return getProcessProperty(PROP_LAZY_HYDRATE) != null;
     }
 
+    /**
+     * @return true if the process should stay hydrated whatever the dehydration policy
+     */
+    public boolean isHydrationPinned() {
+        return Boolean.valueOf(getProcessProperty(PROP_HYDRATION_PINNED, "false"));
+    }
+
     public int getInstanceMaximumCount() {
         return Integer.valueOf(getProcessProperty(PROP_MAX_INSTANCES, Integer.toString(_engine.getInstanceThrottledMaximumCount())));
     }
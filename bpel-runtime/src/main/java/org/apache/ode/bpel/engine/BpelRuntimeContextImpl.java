@@ -26,7 +26,9 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.wsdl.Operation;
 import javax.xml.namespace.QName;
@@ -97,6 +99,7 @@ import org.apache.ode.bpel.runtime.channels.PickResponse;
 import org.apache.ode.bpel.runtime.channels.TimerResponse;
 import org.apache.ode.jacob.JacobRunnable;
 import org.apache.ode.jacob.ProcessUtil;
+import org.apache.ode.jacob.soup.ReplacementMap;
 import org.apache.ode.jacob.vpu.ExecutionQueueImpl;
 import org.apache.ode.jacob.vpu.JacobVPU;
 import org.apache.ode.utils.DOMUtils;
@@ -124,6 +127,23 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
     /** JACOB ExecutionQueue (state) */
     protected ExecutionQueueImpl _soup;
 
+    /** Persistence of the serialized soup */
+    private ExecutionStateJournal _journal;
+
+    private ReplacementMap _replacementMap;
+
+    /** Serialized soup last written by this context, to be cached once committed */
+    private byte[] _cachedState;
+
+    private boolean _cacheSynchronizerRegistered;
+
+    /**
+     * Variables written during this transaction and not flushed to their DAO yet, by scope instance
+     * and name. Persistent DAOs serialize on every write, so values are kept as live DOMs until the
+     * end of {@link #execute()}, or until a partner is invoked as it may read them from the DAOs.
+     */
+    private final Map<String, DirtyVariable> _dirtyVariables = new LinkedHashMap<String, DirtyVariable>();
+
     private MyRoleMessageExchangeImpl _instantiatingMessageExchange;
 
     protected OutstandingRequestManager _outstandingRequests;
@@ -148,8 +168,9 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         _vpu = new JacobVPU();
         _vpu.registerExtension(BpelRuntimeContext.class, this);
 
+        _replacementMap = _bpelProcess.getReplacementMap(dao.getProcess().getProcessId());
         _soup = new ExecutionQueueImpl(null);
-        _soup.setReplacementMap(_bpelProcess.getReplacementMap(dao.getProcess().getProcessId()));
+        _soup.setReplacementMap(_replacementMap);
         _outstandingRequests = null;
         _imaManager = new IMAManager2();
         _vpu.setContext(_soup);
@@ -162,13 +183,20 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
                 _vpu.setContext(_soup);
             }
         } else {
-            byte[] daoState = dao.getExecutionState();
+            _journal = new ExecutionStateJournal(dao);
+            byte[] daoState = _journal.load();
             if (daoState != null) {
-                ByteArrayInputStream iis = new ByteArrayInputStream(daoState);
-                try {
-                    _soup.read(iis);
-                } catch (Exception ex) {
-                    throw new RuntimeException(ex);
+                ExecutionQueueImpl cached = _bpelProcess._engine._soupCache.take(_iid, _replacementMap, daoState);
+                if (cached != null) {
+                    _soup = cached;
+                    _vpu.setContext(_soup);
+                } else {
+                    ByteArrayInputStream iis = new ByteArrayInputStream(daoState);
+                    try {
+                        _soup.read(iis);
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
                 }
                 _imaManager = (IMAManager2) _soup.getGlobalData();
             }
@@ -208,6 +236,9 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         if (var == null) {
             return false;
         }
+        if (_dirtyVariables.containsKey(dirtyKey(var.scopeInstance, var.declaration.getName()))) {
+            return true;
+        }
         ScopeDAO scopeDAO = _dao.getScope(var.scopeInstance);
         XmlDataDAO dataDAO = scopeDAO.getVariable(var.declaration.getName());
         return !dataDAO.isNull();
@@ -398,6 +429,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
             Selector selector = selectors[i];
 
             correlator.addRoute(ProcessUtil.exportChannel(pickResponseChannel), _dao, i, selector.correlationKeySet, selector.route);
+            _bpelProcess.routeAdded(correlator.getCorrelatorId(), _dao.getInstanceId(), pickResponseChannelStr, selector.correlationKeySet);
             scheduleCorrelatorMatcher(correlator.getCorrelatorId(), selector.correlationKeySet);
 
             if (BpelProcess.__log.isDebugEnabled()) {
@@ -456,10 +488,21 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
      *             in case of selection or other fault
      */
     public String readProperty(VariableInstance variable, OProcess.OProperty property) throws FaultException {
-        Node varData = readVariable(variable.scopeInstance, variable.declaration.getName(), false);
-
         OProcess.OPropertyAlias alias = property.getAlias(variable.declaration.getType());
-        String val = _bpelProcess.extractProperty((Element) varData, Collections.EMPTY_MAP, alias, variable.declaration.getDescription());
+
+        // Simple aliases on variables that haven't been parsed yet don't need a DOM
+        String val = null;
+        if (!_dirtyVariables.containsKey(dirtyKey(variable.scopeInstance, variable.declaration.getName()))) {
+            XmlDataDAO dataDAO = _dao.getScope(variable.scopeInstance).getVariable(variable.declaration.getName());
+            String unparsed = dataDAO == null ? null : dataDAO.getUnparsedData();
+            if (unparsed != null)
+                val = StreamingPropertyExtractor.extract(unparsed, alias);
+        }
+
+        if (val == null) {
+            Node varData = readVariable(variable.scopeInstance, variable.declaration.getName(), false);
+            val = _bpelProcess.extractProperty((Element) varData, Collections.EMPTY_MAP, alias, variable.declaration.getDescription());
+        }
 
         if (BpelProcess.__log.isTraceEnabled()) {
             BpelProcess.__log.trace("readPropertyAlias(variable=" + variable + ", alias=" + alias + ") = "
@@ -497,12 +540,23 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
 
 
     public Node readVariable(Long scopeInstanceId, String varname, boolean forWriting) throws FaultException {
+        DirtyVariable dirty = _dirtyVariables.get(dirtyKey(scopeInstanceId, varname));
+        if (dirty != null)
+            return dirty.value;
         ScopeDAO scopedao = _dao.getScope(scopeInstanceId);
         XmlDataDAO var = scopedao.getVariable(varname);
         return (var == null || var.isNull()) ? null : var.get();
     }
 
     public Node writeVariable(VariableInstance variable, Node changes) {
+        if (!_bpelProcess.isInMemory()) {
+            // the persistent DAOs keep the node they're given, so this is what reads would return
+            String key = dirtyKey(variable.scopeInstance, variable.declaration.getName());
+            DirtyVariable dirty = _dirtyVariables.get(key);
+            if (dirty == null) _dirtyVariables.put(key, new DirtyVariable(variable, changes));
+            else dirty.value = changes;
+            return changes;
+        }
         ScopeDAO scopeDAO = _dao.getScope(variable.scopeInstance);
         XmlDataDAO dataDAO = scopeDAO.getVariable(variable.declaration.getName());
         dataDAO.set(changes);
@@ -694,6 +748,8 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
      */
     public String invoke(int aid, PartnerLinkInstance partnerLink, Operation operation, Element outgoingMessage,
                          InvokeResponse channel) throws FaultException {
+        // the partner may be a process (or an IL) reading the instance data in this transaction
+        flushVariables();
 
         PartnerLinkDAO plinkDAO = fetchPartnerLinkDAO(partnerLink);
         // The target (partner endpoint) -- if it has not been explicitly
@@ -914,9 +970,12 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         long maxTime = System.currentTimeMillis() + _maxReductionTimeMs;
         boolean canReduce = true;
         assert _outstandingRequests == null && _imaManager != null;
+        // the soup no longer matches what was written
+        _cachedState = null;
         while (ProcessState.canExecute(_dao.getState()) && System.currentTimeMillis() < maxTime && canReduce && !_forceFlush) {
             canReduce = _vpu.execute();
         }
+        flushVariables();
         _dao.setLastActiveTime(new Date());
         if (!ProcessState.isFinished(_dao.getState())) {
             if (__log.isDebugEnabled()) __log.debug("Setting execution state on instance " + _iid);
@@ -933,7 +992,10 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
                 } catch (Exception ex) {
                     throw new RuntimeException(ex);
                 }
-                _dao.setExecutionState(bos.toByteArray());
+                byte[] state = bos.toByteArray();
+                if (_journal == null) _journal = new ExecutionStateJournal(_dao);
+                _journal.store(state);
+                cacheSoup(state);
             }
 
             if (ProcessState.canExecute(_dao.getState()) && canReduce) {
@@ -957,6 +1019,59 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         }
     }
 
+    /**
+     * Write the variables modified since the last flush to their DAO, once each, along with their
+     * properties.
+     */
+    private void flushVariables() {
+        if (_dirtyVariables.isEmpty())
+            return;
+        for (DirtyVariable dirty : _dirtyVariables.values()) {
+            VariableInstance variable = dirty.variable;
+            XmlDataDAO dataDAO = _dao.getScope(variable.scopeInstance).getVariable(variable.declaration.getName());
+            dataDAO.set(dirty.value);
+            writeProperties(variable, dirty.value, dataDAO);
+        }
+        if (__log.isDebugEnabled())
+            __log.debug("Flushed " + _dirtyVariables.size() + " variable(s) of instance " + _iid);
+        _dirtyVariables.clear();
+    }
+
+    private static String dirtyKey(Long scopeInstanceId, String varname) {
+        return scopeInstanceId + "/" + varname;
+    }
+
+    private static class DirtyVariable {
+        final VariableInstance variable;
+        Node value;
+
+        DirtyVariable(VariableInstance variable, Node value) {
+            this.variable = variable;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Keep the soup hydrated once the transaction commits, the next transaction on the instance can
+     * then skip deserializing it.
+     */
+    private void cacheSoup(byte[] state) {
+        final SoupCache cache = _bpelProcess._engine._soupCache;
+        if (!cache.isEnabled())
+            return;
+        if (!_cacheSynchronizerRegistered) {
+            _bpelProcess._engine._contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+                public void afterCompletion(boolean success) {
+                    if (success && _cachedState != null) cache.put(_iid, _replacementMap, _soup, _cachedState);
+                }
+                public void beforeCompletion() {
+                }
+            });
+            _cacheSynchronizerRegistered = true;
+        }
+        _cachedState = state;
+    }
+
     public void inputMsgMatch(final String responsechannel, final int idx, MyRoleMessageExchangeImpl mex) {
         // if we have a message match, this instance should be marked
         // active if it isn't already
@@ -989,6 +1104,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         // In case this is a pick event, we remove routes,
         // and cancel the outstanding requests.
         _dao.getProcess().removeRoutes(timerResponseChannel, _dao);
+        _bpelProcess.routesRemoved(_dao.getInstanceId(), timerResponseChannel);
         _imaManager.cancel(timerResponseChannel, true);
 
         // Ignore timer events after the process is finished.
@@ -1012,6 +1128,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         // receive/reply association.
         final String id = ProcessUtil.exportChannel(timerResponseChannel);
         _dao.getProcess().removeRoutes(id, _dao);
+        _bpelProcess.routesRemoved(_dao.getInstanceId(), id);
         _imaManager.cancel(id, true);
 
         _vpu.inject(new JacobRunnable() {
@@ -1450,6 +1567,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
                 __log.debug("Removing routes for GroupID: {} Instance: {}",mroute.getGroupId(),_dao.getInstanceId());
                 // We have a match, so we can get rid of the routing entries.
                 correlator.removeRoutes(mroute.getGroupId(), _dao);
+                _bpelProcess.routesRemoved(_dao.getInstanceId(), mroute.getGroupId());
             }
 
             // Selecting first route to proceed, other matching entries are ignored
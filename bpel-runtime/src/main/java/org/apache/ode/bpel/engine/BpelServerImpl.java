@@ -18,6 +18,7 @@
  */
 package org.apache.ode.bpel.engine;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -26,11 +27,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
 import javax.xml.namespace.QName;
 
 import org.slf4j.Logger;
@@ -44,6 +48,7 @@ import org.apache.ode.bpel.eapi.AbstractExtensionBundle;
 import org.apache.ode.bpel.engine.cron.CronScheduler;
 import org.apache.ode.bpel.engine.migration.MigrationHandler;
 import org.apache.ode.bpel.evar.ExternalVariableModule;
+import org.apache.ode.bpel.evtproc.EventJournalListener;
 import org.apache.ode.bpel.evt.BpelEvent;
 import org.apache.ode.bpel.iapi.BindingContext;
 import org.apache.ode.bpel.iapi.BpelEngine;
@@ -60,7 +65,9 @@ import org.apache.ode.bpel.iapi.Scheduler.JobProcessorException;
 import org.apache.ode.bpel.iapi.Scheduler.MapSerializableRunnable;
 import org.apache.ode.bpel.iapi.Scheduler.Synchronizer;
 import org.apache.ode.bpel.intercept.MessageExchangeInterceptor;
+import org.apache.ode.bpel.memdao.BpelDAOConnectionFactoryImpl;
 import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.utils.jmx.SimpleMBean;
 import org.apache.ode.utils.msg.MessageBundle;
 import org.apache.ode.utils.stl.CollectionsX;
 import org.apache.ode.utils.stl.MemberOfFunction;
@@ -112,6 +119,11 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
     private int _migrationTransactionTimeout;
     private Thread processDefReaper;
 
+    private AsyncEventPersister _eventPersister;
+
+    /** Names under which this server registered its MBeans (lock statistics, stores, queues...). */
+    private final Map<Object, ObjectName> _mbeanNames = new ConcurrentHashMap<Object, ObjectName>();
+
     BpelEngineImpl _engine;
     protected BpelDatabase _db;
 
@@ -164,8 +176,12 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                 throw new RuntimeException("An error occurred while migrating your database to a newer version of the server. Please make sure that the required migration scripts have been executed before starting the server.");
             }
 
+            if (_eventPersister != null)
+                _eventPersister.start();
             _state = State.RUNNING;
             __log.info(__msgs.msgServerStarted());
+            if (_dehydrationPolicy instanceof MemoryBudgetDehydrationPolicy)
+                ((MemoryBudgetDehydrationPolicy) _dehydrationPolicy).setModelCache(_engine._omodelCache);
             if (_dehydrationPolicy != null) {
                 processDefReaper = new Thread(new ProcessDefReaper(), "Dehydrator");
                 processDefReaper.setDaemon(true);
@@ -195,8 +211,33 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
      * @param listener
      */
     public void registerBpelEventListener(BpelEventListener listener) {
+        registerBpelEventListener(listener, EventListenerQueue.Policy.SYNC, 0);
+    }
+
+    /**
+     * Register a global listener to receive {@link BpelEvent}s from all
+     * processes. Unless the policy is {@link EventListenerQueue.Policy#SYNC},
+     * events are queued and passed to the listener by a dedicated thread. The
+     * {@link EventJournalListener} is always synchronous: it must see the events
+     * before they are persisted and in the transaction that fired them.
+     * @param listener
+     * @param policy how the events are passed to the listener
+     * @param queueSize maximum number of events waiting for the listener
+     */
+    public void registerBpelEventListener(BpelEventListener listener, EventListenerQueue.Policy policy, int queueSize) {
         // Do not synchronize, eventListeners is copy-on-write array.
+        if (policy != EventListenerQueue.Policy.SYNC && listener instanceof EventJournalListener) {
+            __log.warn("The event journal can only receive events synchronously, ignoring the " + policy + " dispatch policy.");
+            policy = EventListenerQueue.Policy.SYNC;
+        }
         listener.startup(_configProperties);
+        if (policy != EventListenerQueue.Policy.SYNC) {
+            EventListenerQueue queue = new EventListenerQueue(listener, policy, queueSize);
+            queue.start();
+            _contexts.eventListenerQueues.put(listener, queue);
+            registerMBean(queue, SimpleMBean.createObjectName("org.apache.ode",
+                    new String[] { "type", "EventListenerQueue", "name", ObjectName.quote(queue.getListenerClass()) }));
+        }
         _contexts.eventListeners.add(listener);
     }
 
@@ -207,12 +248,17 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
      */
     public void unregisterBpelEventListener(BpelEventListener listener) {
         // Do not synchronize, eventListeners is copy-on-write array.
+        _contexts.eventListeners.remove(listener);
+        EventListenerQueue queue = _contexts.eventListenerQueues.remove(listener);
+        if (queue != null) {
+            // let the listener get the events already queued
+            queue.stop();
+            unregisterMBean(queue);
+        }
         try {
             listener.shutdown();
         } catch (Exception e) {
             __log.warn("Stopping BPEL event listener " + listener.getClass().getName() + " failed, nevertheless it has been unregistered.", e);
-        } finally {
-            _contexts.eventListeners.remove(listener);
         }
     }
 
@@ -236,6 +282,9 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                 processDefReaper.interrupt();
                 processDefReaper = null;
             }
+            // write the queued events while transactions can still be run
+            if (_eventPersister != null)
+                _eventPersister.stop();
             _contexts.scheduler.stop();
             _engine = null;
             _state = State.INIT;
@@ -257,11 +306,73 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
             _state = State.INIT;
 
             _engine = createBpelEngineImpl(_contexts);
+            registerLockManagerMBean();
+            registerMexStoreMBean();
+            registerDehydrationPolicyMBean();
         } finally {
             _mngmtLock.writeLock().unlock();
         }
     }
 
+    private void registerLockManagerMBean() {
+        InstanceLockManager lockManager = _engine.getInstanceLockManager();
+        if (lockManager != null)
+            registerMBean(lockManager, mbeanName("InstanceLockManager"));
+    }
+
+    private void registerMexStoreMBean() {
+        if (_contexts.inMemDao instanceof BpelDAOConnectionFactoryImpl)
+            registerMBean(((BpelDAOConnectionFactoryImpl) _contexts.inMemDao).getMessageExchangeStore(),
+                    mbeanName("InMemMessageExchangeStore"));
+    }
+
+    private void registerDehydrationPolicyMBean() {
+        if (_dehydrationPolicy instanceof MemoryBudgetDehydrationPolicyMBean)
+            registerMBean(_dehydrationPolicy, mbeanName("DehydrationPolicy"));
+    }
+
+    private void unregisterEventPersister() {
+        if (_eventPersister == null)
+            return;
+        _eventPersister.stop();
+        unregisterMBean(_eventPersister);
+        _eventPersister = null;
+    }
+
+    private static ObjectName mbeanName(String type) {
+        return SimpleMBean.createObjectName("org.apache.ode", new String[] { "type", type });
+    }
+
+    /**
+     * Register an MBean with the platform MBean server, unless another server of the JVM already did.
+     */
+    private void registerMBean(Object mbean, ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            _mbeanNames.put(mbean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            __log.debug("MBean " + name + " already registered by another server.");
+        } catch (Exception e) {
+            __log.warn("Couldn't register the MBean " + name + ".", e);
+        }
+    }
+
+    private void unregisterMBean(Object mbean) {
+        ObjectName name = _mbeanNames.remove(mbean);
+        if (name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            __log.warn("Couldn't unregister the MBean " + name + ".", e);
+        }
+    }
+
+    private void unregisterMBeans() {
+        for (Object mbean : _mbeanNames.keySet())
+            unregisterMBean(mbean);
+    }
+
     // enable extensibility
     protected BpelEngineImpl createBpelEngineImpl(Contexts contexts) {
         return new BpelEngineImpl(contexts);
@@ -272,6 +383,8 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         try {
             stop();
             unregisterBpelEventListeners();
+            unregisterEventPersister();
+            unregisterMBeans();
 
             _db = null;
             _engine = null;
@@ -591,6 +704,30 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         _engine.setInstanceThrottledMaximumCount(instanceThrottledMaximumCount);
     }
 
+    public void setInstanceCacheMaximumSize(long instanceCacheMaximumSize) {
+        _engine.setInstanceCacheMaximumSize(instanceCacheMaximumSize);
+    }
+
+    public void setCorrelationRouteIndexEnabled(boolean enabled) {
+        _engine.setCorrelationRouteIndexEnabled(enabled);
+    }
+
+    /**
+     * Configure how BPEL events get persisted. Unless the durability is
+     * {@link AsyncEventPersister.Durability#TRANSACTION}, events are queued and written
+     * in batches by a background thread while the server is running.
+     */
+    public void setEventPersistence(AsyncEventPersister.Durability durability, int queueSize, int batchSize) {
+        unregisterEventPersister();
+        if (durability != AsyncEventPersister.Durability.TRANSACTION) {
+            _eventPersister = new AsyncEventPersister(_contexts, durability, queueSize, batchSize);
+            registerMBean(_eventPersister, mbeanName("AsyncEventPersister"));
+            if (_state == State.RUNNING)
+                _eventPersister.start();
+        }
+        _engine._eventPersister = _eventPersister;
+    }
+
     /**
      * A polled runnable instance that implements this interface will be set
      * with the contexts before the run() method is called.
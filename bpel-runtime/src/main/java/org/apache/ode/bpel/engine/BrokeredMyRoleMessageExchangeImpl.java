@@ -80,6 +80,19 @@ public class BrokeredMyRoleMessageExchangeImpl
         return myFuture;
     }
 
+    /**
+     * Listen to the response of the template, which also provides my response
+     */
+    @Override
+    public boolean setResponseListener(ResponseListener listener) {
+        return template.setResponseListener(listener);
+    }
+
+    @Override
+    public boolean timeoutResponse() {
+        return template.timeoutResponse();
+    }
+
     /**
      * Use the EPR of one of the subscribers as my EPR
      *
@@ -65,6 +65,9 @@ public class Contexts {
     /** Global event listeners. Must be copy-on-write!!! */
     final List<BpelEventListener> eventListeners = new CopyOnWriteArrayList<BpelEventListener>();
 
+    /** Queues of the event listeners that don't get their events from the engine thread. */
+    final Map<BpelEventListener, EventListenerQueue> eventListenerQueues = new ConcurrentHashMap<BpelEventListener, EventListenerQueue>();
+
     /** Mapping from external variable engine identifier to the engine implementation. */
     final HashMap<QName, ExternalVariableModule> externalVariableEngines = new HashMap<QName, ExternalVariableModule>();
     
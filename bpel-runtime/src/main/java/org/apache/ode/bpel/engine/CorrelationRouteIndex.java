@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node-local index of the correlation keys message routes are registered with, by process and
+ * correlator, so that messages that don't match any route don't have to look for one in the
+ * database, and those that do only look for the key that matches.
+ *
+ * The index may have keys that no longer have a route, which is harmless as the database is
+ * always checked before routing a message, but must never miss a key that has one. Routes are
+ * therefore added before the transaction that registers them commits and removed after, and a
+ * correlator is only used once the routes already in the database have been loaded. Routes added
+ * while loading are kept, so a load never loses them.
+ */
+class CorrelationRouteIndex {
+    private static final Logger __log = LoggerFactory.getLogger(CorrelationRouteIndex.class);
+
+    /** Maximum number of routes indexed for a process, above which its correlators are no longer indexed. */
+    static final int DEFAULT_MAXIMUM_ROUTES = Integer.getInteger("org.apache.ode.correlation.routeIndex.maximumRoutes", 100000);
+
+    private final ConcurrentHashMap<QName, ProcessRoutes> _processes = new ConcurrentHashMap<QName, ProcessRoutes>();
+
+    private final int _maximumRoutes;
+
+    private volatile boolean _enabled;
+
+    CorrelationRouteIndex() {
+        this(DEFAULT_MAXIMUM_ROUTES);
+    }
+
+    CorrelationRouteIndex(int maximumRoutes) {
+        _maximumRoutes = maximumRoutes;
+    }
+
+    void setEnabled(boolean enabled) {
+        _enabled = enabled;
+        if (!enabled)
+            _processes.clear();
+    }
+
+    boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Find the keys some route is registered with on a correlator.
+     * @param keys canonical correlation keys
+     * @return the keys that have a route, or <code>null</code> if the correlator isn't loaded
+     */
+    List<String> find(QName pid, String correlatorId, List<String> keys) {
+        ProcessRoutes routes = _processes.get(pid);
+        if (routes == null)
+            return null;
+        synchronized (routes) {
+            CorrelatorRoutes correlator = routes.correlators.get(correlatorId);
+            if (correlator == null || correlator.state != CorrelatorRoutes.LOADED)
+                return null;
+            List<String> found = new ArrayList<String>(1);
+            for (String key : keys) {
+                if (correlator.keys.containsKey(key))
+                    found.add(key);
+            }
+            return found;
+        }
+    }
+
+    /**
+     * @return true if the routes of the correlator should be loaded by the caller, who must then call
+     * {@link #loaded} or {@link #loadFailed}
+     */
+    boolean startLoading(QName pid, String correlatorId) {
+        ProcessRoutes routes = getRoutes(pid);
+        synchronized (routes) {
+            CorrelatorRoutes correlator = routes.getCorrelator(correlatorId);
+            if (correlator.state != CorrelatorRoutes.NEW)
+                return false;
+            correlator.state = CorrelatorRoutes.LOADING;
+            return true;
+        }
+    }
+
+    /**
+     * Add the routes read from the database to those registered since the correlator started loading.
+     */
+    void loaded(QName pid, String correlatorId, Collection<Route> loaded) {
+        ProcessRoutes routes = getRoutes(pid);
+        synchronized (routes) {
+            CorrelatorRoutes correlator = routes.getCorrelator(correlatorId);
+            if (correlator.state != CorrelatorRoutes.LOADING)
+                return;
+            for (Route route : loaded)
+                routes.add(correlatorId, route);
+            if (routes.size > _maximumRoutes) {
+                routes.overflow();
+                __log.info("Too many message routes for process " + pid + ", correlation routes no longer indexed");
+            } else {
+                correlator.state = CorrelatorRoutes.LOADED;
+                if (__log.isDebugEnabled())
+                    __log.debug("Indexed " + loaded.size() + " routes of correlator " + correlatorId + " for process " + pid);
+            }
+        }
+    }
+
+    void loadFailed(QName pid, String correlatorId) {
+        ProcessRoutes routes = getRoutes(pid);
+        synchronized (routes) {
+            CorrelatorRoutes correlator = routes.getCorrelator(correlatorId);
+            if (correlator.state == CorrelatorRoutes.LOADING)
+                correlator.state = CorrelatorRoutes.NEW;
+        }
+    }
+
+    void add(QName pid, String correlatorId, Route route) {
+        ProcessRoutes routes = getRoutes(pid);
+        synchronized (routes) {
+            if (routes.overflowed)
+                return;
+            routes.add(correlatorId, route);
+            if (routes.size > _maximumRoutes) {
+                routes.overflow();
+                __log.info("Too many message routes for process " + pid + ", correlation routes no longer indexed");
+            }
+        }
+    }
+
+    /**
+     * Remove the routes of a route group, from all the correlators of the process.
+     */
+    void remove(QName pid, Long iid, String groupId) {
+        ProcessRoutes routes = _processes.get(pid);
+        if (routes == null)
+            return;
+        synchronized (routes) {
+            routes.remove(iid, groupId);
+        }
+    }
+
+    void removeAll(QName pid) {
+        _processes.remove(pid);
+    }
+
+    private ProcessRoutes getRoutes(QName pid) {
+        ProcessRoutes routes = _processes.get(pid);
+        if (routes == null) {
+            ProcessRoutes created = new ProcessRoutes();
+            routes = _processes.putIfAbsent(pid, created);
+            if (routes == null)
+                routes = created;
+        }
+        return routes;
+    }
+
+    /**
+     * A route, as registered by a pick or receive.
+     */
+    static class Route {
+        final Long iid;
+        final String groupId;
+        final String key;
+
+        Route(Long iid, String groupId, String key) {
+            this.iid = iid;
+            this.groupId = groupId;
+            this.key = key;
+        }
+    }
+
+    private static class ProcessRoutes {
+        final Map<String, CorrelatorRoutes> correlators = new HashMap<String, CorrelatorRoutes>();
+        /** Correlators and keys of each route group, by instance id and group id. */
+        final Map<GroupKey, List<String[]>> groups = new HashMap<GroupKey, List<String[]>>();
+        int size;
+        boolean overflowed;
+
+        CorrelatorRoutes getCorrelator(String correlatorId) {
+            CorrelatorRoutes correlator = correlators.get(correlatorId);
+            if (correlator == null) {
+                correlator = new CorrelatorRoutes();
+                if (overflowed)
+                    correlator.state = CorrelatorRoutes.OVERFLOWED;
+                correlators.put(correlatorId, correlator);
+            }
+            return correlator;
+        }
+
+        void add(String correlatorId, Route route) {
+            GroupKey group = new GroupKey(route.iid, route.groupId);
+            List<String[]> registrations = groups.get(group);
+            if (registrations == null) {
+                registrations = new ArrayList<String[]>(2);
+                groups.put(group, registrations);
+            }
+            for (String[] registration : registrations) {
+                // same route read back from the database
+                if (registration[0].equals(correlatorId) && registration[1].equals(route.key))
+                    return;
+            }
+            registrations.add(new String[] { correlatorId, route.key });
+            getCorrelator(correlatorId).add(route.key);
+            ++size;
+        }
+
+        void remove(Long iid, String groupId) {
+            List<String[]> registrations = groups.remove(new GroupKey(iid, groupId));
+            if (registrations == null)
+                return;
+            for (String[] registration : registrations) {
+                CorrelatorRoutes correlator = correlators.get(registration[0]);
+                if (correlator != null)
+                    correlator.remove(registration[1]);
+                --size;
+            }
+        }
+
+        void overflow() {
+            overflowed = true;
+            groups.clear();
+            size = 0;
+            for (CorrelatorRoutes correlator : correlators.values()) {
+                correlator.keys.clear();
+                correlator.state = CorrelatorRoutes.OVERFLOWED;
+            }
+        }
+    }
+
+    private static class CorrelatorRoutes {
+        static final int NEW = 0;
+        static final int LOADING = 1;
+        static final int LOADED = 2;
+        static final int OVERFLOWED = 3;
+
+        int state = NEW;
+        /** Number of routes by canonical correlation key. */
+        final Map<String, int[]> keys = new HashMap<String, int[]>();
+
+        void add(String key) {
+            int[] count = keys.get(key);
+            if (count == null)
+                keys.put(key, new int[] { 1 });
+            else
+                ++count[0];
+        }
+
+        void remove(String key) {
+            int[] count = keys.get(key);
+            if (count != null && --count[0] == 0)
+                keys.remove(key);
+        }
+    }
+
+    private static class GroupKey {
+        final Long iid;
+        final String groupId;
+
+        GroupKey(Long iid, String groupId) {
+            this.iid = iid;
+            this.groupId = groupId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof GroupKey))
+                return false;
+            GroupKey other = (GroupKey) obj;
+            return iid.equals(other.iid) && groupId.equals(other.groupId);
+        }
+
+        @Override
+        public int hashCode() {
+            return iid.hashCode() * 31 + groupId.hashCode();
+        }
+    }
+}
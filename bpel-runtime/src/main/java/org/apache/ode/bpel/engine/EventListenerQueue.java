@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.bpel.evt.VariableModificationEvent;
+import org.apache.ode.bpel.iapi.BpelEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+
+/**
+ * Decouples a {@link BpelEventListener} from the engine: fired events are put in a bounded
+ * queue and a dedicated thread passes them to the listener, so a slow listener doesn't
+ * slow down the instance transactions (or the other listeners).
+ *
+ * The listener gets the events in the order they were fired, but possibly after the
+ * transaction that fired them completed, including transactions that were rolled back.
+ * Disabling the persistence of an event from a queued listener has no effect, and the new
+ * value of a variable modification is a copy taken when the event was fired.
+ */
+public class EventListenerQueue extends BoundedWorkQueue<EventListenerQueue.Entry> implements EventListenerQueueMBean {
+
+    private static final Logger __log = LoggerFactory.getLogger(EventListenerQueue.class);
+
+    public enum Policy {
+        /** Events are passed to the listener by the engine thread, nothing is queued. */
+        SYNC,
+        /** Events are queued, the engine waits when the queue is full. */
+        BLOCK,
+        /** Events are queued and dropped when the queue is full. */
+        DROP;
+
+        /**
+         * @param name "sync", "block" or "drop"
+         */
+        public static Policy parse(String name) {
+            if (name == null || name.trim().length() == 0)
+                return SYNC;
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private final BpelEventListener _listener;
+    private final Policy _policy;
+
+    private final AtomicLong _failed = new AtomicLong();
+    private final AtomicLong _totalLag = new AtomicLong();
+    private volatile long _lastLag;
+    private volatile long _maxLag;
+
+    public EventListenerQueue(BpelEventListener listener, Policy policy, int queueSize) {
+        super("ODE-EventListener-" + listener.getClass().getSimpleName(), queueSize, 1);
+        if (policy == Policy.SYNC)
+            throw new IllegalArgumentException("Synchronous listeners are not queued");
+        _listener = listener;
+        _policy = policy;
+    }
+
+    public BpelEventListener getListener() {
+        return _listener;
+    }
+
+    /**
+     * Detach the event from the live state of the instance before it is queued: the new value
+     * of a {@link VariableModificationEvent} is the variable's DOM, which the instance keeps on
+     * modifying once the event was fired.
+     */
+    static void snapshot(BpelEvent event) {
+        if (event instanceof VariableModificationEvent) {
+            VariableModificationEvent modification = (VariableModificationEvent) event;
+            Node value = modification.getNewValue();
+            if (value != null)
+                modification.setNewValue(value.cloneNode(true));
+        }
+    }
+
+    /**
+     * Queue an event for the listener, waiting for room or dropping it depending on the policy.
+     */
+    public void dispatch(BpelEvent event) {
+        Entry entry = new Entry(event, System.nanoTime());
+        if (_policy == Policy.DROP) offer(entry);
+        else put(entry);
+    }
+
+    protected void process(List<Entry> batch) {
+        for (Entry entry : batch) {
+            long lag = (System.nanoTime() - entry.fired) / 1000000L;
+            _lastLag = lag;
+            if (lag > _maxLag) _maxLag = lag;
+            _totalLag.addAndGet(lag);
+            try {
+                _listener.onEvent(entry.event);
+            } catch (RuntimeException e) {
+                __log.warn("BPEL event listener " + _listener.getClass().getName() + " failed on event " + entry.event, e);
+                _failed.incrementAndGet();
+            }
+        }
+    }
+
+    public String getListenerClass() {
+        return _listener.getClass().getName();
+    }
+
+    public String getPolicy() {
+        return _policy.toString();
+    }
+
+    public long getDispatchedCount() {
+        return getProcessedCount();
+    }
+
+    public long getFailedCount() {
+        return _failed.get();
+    }
+
+    public long getLastLag() {
+        return _lastLag;
+    }
+
+    public long getMaxLag() {
+        return _maxLag;
+    }
+
+    public double getAverageLag() {
+        long dispatched = getDispatchedCount();
+        return dispatched == 0 ? 0 : (double) _totalLag.get() / dispatched;
+    }
+
+    public void resetStatistics() {
+        super.resetStatistics();
+        _failed.set(0);
+        _totalLag.set(0);
+        _lastLag = 0;
+        _maxLag = 0;
+    }
+
+    static class Entry {
+        final BpelEvent event;
+        final long fired;
+
+        Entry(BpelEvent event, long fired) {
+            this.event = event;
+            this.fired = fired;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+/**
+ * JMX view of the events queued for one {@link org.apache.ode.bpel.iapi.BpelEventListener},
+ * see {@link EventListenerQueue}.
+ */
+public interface EventListenerQueueMBean {
+
+    /** Class of the listener the events are dispatched to. */
+    String getListenerClass();
+
+    /** What happens when the queue is full, see {@link EventListenerQueue.Policy}. */
+    String getPolicy();
+
+    /** Maximum number of events waiting to be dispatched. */
+    int getQueueCapacity();
+
+    /** Number of events currently waiting to be dispatched. */
+    int getQueuedCount();
+
+    /** Highest number of events that were waiting to be dispatched at once. */
+    int getMaxQueuedCount();
+
+    /** Number of events queued. */
+    long getEnqueuedCount();
+
+    /** Number of events passed to the listener. */
+    long getDispatchedCount();
+
+    /** Number of events dropped because the queue was full. */
+    long getDroppedCount();
+
+    /** Number of events the listener failed on. */
+    long getFailedCount();
+
+    /** Number of times the engine had to wait for room in the queue. */
+    long getBlockedCount();
+
+    /** Total time (in milliseconds) the engine waited for room in the queue. */
+    long getBlockedTime();
+
+    /** Time (in milliseconds) between the last event being fired and being passed to the listener. */
+    long getLastLag();
+
+    /** Highest time (in milliseconds) between an event being fired and being passed to the listener. */
+    long getMaxLag();
+
+    /** Average time (in milliseconds) between an event being fired and being passed to the listener. */
+    double getAverageLag();
+
+    void resetStatistics();
+}
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Storage encoding of the execution state of an instance, that is the JACOB soup as serialized by
+ * the VPU.
+ *
+ * Encoded states start with a header giving the codec they were written with, so the codec can be
+ * changed without migrating instances. The {@link #SERIALIZED} codec stores the soup unchanged and
+ * without header, like previous versions did; states without header are always read with it.
+ *
+ * The codec used for writing is set with the <code>org.apache.ode.executionState.codec</code> system
+ * property: either the name of a built-in codec ("serialized" or "deflate") or the class name of a
+ * custom implementation.
+ */
+public abstract class ExecutionStateCodec {
+    private static final Logger __log = LoggerFactory.getLogger(ExecutionStateCodec.class);
+
+    public static final String CODEC_PROPERTY = "org.apache.ode.executionState.codec";
+
+    /** Java serialization streams start with 0xACED, so they can't be mistaken for a header. */
+    private static final byte MAGIC_0 = (byte) 0x0d;
+    private static final byte MAGIC_1 = (byte) 0xe5;
+
+    private static final int HEADER_LENGTH = 3;
+
+    public static final ExecutionStateCodec SERIALIZED = new SerializedCodec();
+
+    public static final ExecutionStateCodec DEFLATE = new DeflateCodec();
+
+    private static final ExecutionStateCodec[] __codecs = new ExecutionStateCodec[256];
+
+    private static final ExecutionStateCodec __default;
+
+    static {
+        register(SERIALIZED);
+        register(DEFLATE);
+        __default = createDefault(System.getProperty(CODEC_PROPERTY));
+    }
+
+    /**
+     * @return identifier of the codec, written in the header of the states it encodes
+     */
+    public abstract int getId();
+
+    /**
+     * Encode the serialized soup.
+     * @param state serialized soup
+     * @param out output to append the encoded state to, after the header
+     */
+    protected abstract void encode(byte[] state, ByteArrayOutputStream out) throws IOException;
+
+    /**
+     * Decode a state encoded by this codec.
+     * @param data encoded state
+     * @param offset offset of the encoded state, past the header
+     * @return the serialized soup
+     */
+    protected abstract byte[] decode(byte[] data, int offset) throws IOException;
+
+    /**
+     * Encode the serialized soup, with a header for the codec.
+     */
+    public byte[] encode(byte[] state) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(state.length / 2 + HEADER_LENGTH);
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(getId());
+        try {
+            encode(state, out);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not encode execution state with codec " + this, e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the serialized soup with the configured codec.
+     */
+    public static byte[] encodeState(byte[] state) {
+        return __default.encode(state);
+    }
+
+    /**
+     * Decode a state written by any codec.
+     * @return the serialized soup
+     */
+    public static byte[] decodeState(byte[] data) {
+        if (data.length < HEADER_LENGTH || data[0] != MAGIC_0 || data[1] != MAGIC_1)
+            return data;
+
+        ExecutionStateCodec codec = __codecs[data[2] & 0xff];
+        if (codec == null)
+            throw new IllegalStateException("Unknown execution state codec " + (data[2] & 0xff));
+        try {
+            return codec.decode(data, HEADER_LENGTH);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not decode execution state with codec " + codec, e);
+        }
+    }
+
+    public static ExecutionStateCodec getDefault() {
+        return __default;
+    }
+
+    private static void register(ExecutionStateCodec codec) {
+        int id = codec.getId();
+        if (id < 0 || id >= __codecs.length)
+            throw new IllegalArgumentException("Invalid execution state codec id " + id + " for " + codec);
+        if (__codecs[id] != null && __codecs[id].getClass() != codec.getClass())
+            throw new IllegalArgumentException("Execution state codec id " + id + " of " + codec + " is already used by " + __codecs[id]);
+        __codecs[id] = codec;
+    }
+
+    private static ExecutionStateCodec createDefault(String name) {
+        if (name == null || name.length() == 0 || "serialized".equals(name))
+            return SERIALIZED;
+        if ("deflate".equals(name))
+            return DEFLATE;
+        try {
+            ExecutionStateCodec codec = (ExecutionStateCodec) Class.forName(name, true, ExecutionStateCodec.class.getClassLoader()).newInstance();
+            register(codec);
+            __log.info("Using execution state codec " + codec);
+            return codec;
+        } catch (Exception e) {
+            __log.error("Could not create execution state codec " + name + ", execution states will be stored serialized.", e);
+            return SERIALIZED;
+        }
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "[" + getId() + "]";
+    }
+
+    /**
+     * Soup as serialized by the VPU.
+     */
+    static final class SerializedCodec extends ExecutionStateCodec {
+        public int getId() {
+            return 0;
+        }
+
+        /**
+         * No header, so that states stay readable by previous versions.
+         */
+        public byte[] encode(byte[] state) {
+            return state;
+        }
+
+        protected void encode(byte[] state, ByteArrayOutputStream out) {
+            out.write(state, 0, state.length);
+        }
+
+        protected byte[] decode(byte[] data, int offset) {
+            byte[] state = new byte[data.length - offset];
+            System.arraycopy(data, offset, state, 0, state.length);
+            return state;
+        }
+    }
+
+    /**
+     * Deflated soup. The compressor is primed with the class and field names found in most soups,
+     * most of a serialized soup being class descriptors.
+     */
+    static final class DeflateCodec extends ExecutionStateCodec {
+        /** Never change this, states written with it would not inflate; use a new codec id instead. */
+        private static final byte[] DICTIONARY = ascii(
+                "java.util.ArrayListjava.util.HashMapjava.util.HashSetjava.util.LinkedHashMapjava.util.LinkedList"
+                + "java.lang.Integerjava.lang.Longjava.lang.Numberjava.lang.Booleanjava.util.Date"
+                + "javax.xml.namespace.QNamenamespaceURIlocalPartprefix"
+                + "org.apache.ode.bpel.engine.ReplacementMapImpl$OBaseReplacementImpl"
+                + "org.apache.ode.bpel.engine.IMAManager2$Entryorg.apache.ode.bpel.engine.IMAManager2$RequestIdTuple"
+                + "org.apache.ode.bpel.engine.IMAManager2org.apache.ode.bpel.common.CorrelationKeySet"
+                + "org.apache.ode.bpel.common.CorrelationKeyorg.apache.ode.bpel.runtime.Selector"
+                + "org.apache.ode.bpel.runtime.VariableInstanceorg.apache.ode.bpel.runtime.PartnerLinkInstance"
+                + "org.apache.ode.bpel.runtime.CorrelationSetInstanceorg.apache.ode.bpel.runtime.ScopeFrame"
+                + "org.apache.ode.bpel.runtime.LinkFrameorg.apache.ode.bpel.runtime.LinkInfo"
+                + "org.apache.ode.bpel.runtime.ActivityInfoorg.apache.ode.bpel.runtime.ChildInfo"
+                + "org.apache.ode.bpel.runtime.InstanceGlobalsorg.apache.ode.bpel.runtime.CompensationHandler"
+                + "org.apache.ode.bpel.runtime.BpelJacobRunnableorg.apache.ode.bpel.runtime.ACTIVITY"
+                + "org.apache.ode.bpel.runtime.ACTIVITYGUARDorg.apache.ode.bpel.runtime.SCOPEACT"
+                + "org.apache.ode.bpel.runtime.SCOPEorg.apache.ode.bpel.runtime.SEQUENCE"
+                + "org.apache.ode.bpel.runtime.FLOWorg.apache.ode.bpel.runtime.PICK"
+                + "org.apache.ode.bpel.runtime.WHILEorg.apache.ode.bpel.runtime.FOREACH"
+                + "org.apache.ode.bpel.runtime.EH_EVENTorg.apache.ode.bpel.runtime.EH_ALARM"
+                + "org.apache.ode.bpel.runtime.PROCESSorg.apache.ode.bpel.runtime.channels."
+                + "org.apache.ode.jacob.ChannelListenerorg.apache.ode.jacob.JacobRunnable"
+                + "org.apache.ode.jacob.vpu.ChannelFrameorg.apache.ode.jacob.vpu.ExecutionQueueImpl"
+                + "_selfself_scopeFrame_linkFrame_activityInfo_childrenchildren_oscope_oactivity"
+                + "_variables_correlationSets_partnerLinks_globals_parentparent_compensationChannel"
+                + "_terminationChannel_faultChannel_parentChannelscopeInstanceIdcorrelationKeySet"
+                + "idxmessageExchangeoneWaydeclarationnamecorrelationKeyrid");
+
+        private final int _level = Integer.getInteger("org.apache.ode.executionState.deflateLevel", Deflater.BEST_SPEED);
+
+        public int getId() {
+            return 1;
+        }
+
+        protected void encode(byte[] state, ByteArrayOutputStream out) {
+            writeLength(out, state.length);
+            Deflater deflater = new Deflater(_level);
+            try {
+                deflater.setDictionary(DICTIONARY);
+                deflater.setInput(state);
+                deflater.finish();
+                byte[] buf = new byte[Math.min(Math.max(state.length / 2, 512), 65536)];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        protected byte[] decode(byte[] data, int offset) throws IOException {
+            int length = ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                    | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            byte[] state = new byte[length];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, offset + 4, data.length - offset - 4);
+                int pos = 0;
+                while (pos < length) {
+                    int n = inflater.inflate(state, pos, length - pos);
+                    if (n == 0) {
+                        if (inflater.needsDictionary()) {
+                            inflater.setDictionary(DICTIONARY);
+                        } else if (inflater.finished() || inflater.needsInput()) {
+                            throw new IOException("Truncated execution state, expected " + length + " bytes but got " + pos);
+                        }
+                    }
+                    pos += n;
+                }
+            } catch (DataFormatException e) {
+                IOException ioe = new IOException("Corrupted execution state");
+                ioe.initCause(e);
+                throw ioe;
+            } finally {
+                inflater.end();
+            }
+            return state;
+        }
+
+        private static byte[] ascii(String s) {
+            try {
+                return s.getBytes("US-ASCII");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private static void writeLength(ByteArrayOutputStream out, int length) {
+            out.write(length >>> 24);
+            out.write(length >>> 16);
+            out.write(length >>> 8);
+            out.write(length);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental persistence of the execution state (the serialized JACOB soup) of a process instance.
+ *
+ * Instead of writing the whole state at the end of each transaction, only its difference with the
+ * state that was loaded is appended to the instance as a delta. The full state gets written again,
+ * discarding the deltas, once there are more than <code>org.apache.ode.executionState.maxDeltas</code>
+ * of them or once they add up to more than <code>org.apache.ode.executionState.compactThreshold</code>
+ * percent of the full state, so that loading an instance never replays a long journal. Journaling is
+ * disabled by default (maxDeltas is 0); deltas left by a previous configuration are still applied.
+ *
+ * Full states are stored with the configured {@link ExecutionStateCodec}, deltas are computed on the
+ * serialized soup.
+ */
+public class ExecutionStateJournal {
+    private static final Logger __log = LoggerFactory.getLogger(ExecutionStateJournal.class);
+
+    static final int MAX_DELTAS = Integer.getInteger("org.apache.ode.executionState.maxDeltas", 0);
+
+    static final int COMPACT_THRESHOLD = Integer.getInteger("org.apache.ode.executionState.compactThreshold", 50);
+
+    /** Size of the blocks of the previous state that the delta can refer to. */
+    static final int BLOCK_SIZE = 16;
+
+    private static final int HASH_BASE = 0x01000193;
+
+    private static final byte OP_END = 0;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_INSERT = 2;
+
+    private final ProcessInstanceDAO _dao;
+
+    /** Serialized soup, as currently persisted; only kept when journaling. */
+    private byte[] _state;
+
+    private int _deltas;
+
+    private long _deltaBytes;
+
+    public ExecutionStateJournal(ProcessInstanceDAO dao) {
+        _dao = dao;
+    }
+
+    /**
+     * Read the execution state of the instance, applying the deltas appended since it was last written.
+     * @return the serialized soup, or <code>null</code>
+     */
+    public byte[] load() {
+        byte[] base = _dao.getExecutionState();
+        if (base == null)
+            return null;
+
+        byte[] state = ExecutionStateCodec.decodeState(base);
+        List<byte[]> deltas = _dao.getExecutionStateDeltas();
+        for (byte[] delta : deltas) {
+            state = patch(state, delta);
+            _deltaBytes += delta.length;
+        }
+        _deltas = deltas.size();
+        if (MAX_DELTAS > 0)
+            _state = state;
+        return state;
+    }
+
+    /**
+     * Persist a new execution state for the instance, either as a delta or as a full write.
+     * @param state the serialized soup
+     */
+    public void store(byte[] state) {
+        if (MAX_DELTAS <= 0 || _state == null || _deltas >= MAX_DELTAS) {
+            writeFully(state);
+            return;
+        }
+        if (Arrays.equals(state, _state))
+            return;
+
+        byte[] delta = diff(_state, state);
+        if ((_deltaBytes + delta.length) * 100 > (long) state.length * COMPACT_THRESHOLD) {
+            writeFully(state);
+            return;
+        }
+
+        if (__log.isDebugEnabled())
+            __log.debug("Appending execution state delta of " + delta.length + " bytes (full state is " + state.length + " bytes)");
+        _dao.appendExecutionStateDelta(delta);
+        _state = state;
+        _deltas++;
+        _deltaBytes += delta.length;
+    }
+
+    private void writeFully(byte[] state) {
+        _dao.setExecutionState(ExecutionStateCodec.encodeState(state));
+        _state = null;
+        _deltas = 0;
+        _deltaBytes = 0;
+    }
+
+    /**
+     * Compute a delta turning <code>source</code> into <code>target</code>. The delta is made of copies
+     * of ranges of the source, found by looking up the rolling hash of the target in an index of the
+     * source blocks, and of inserts for the bytes in between.
+     */
+    static byte[] diff(byte[] source, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeInt(out, target.length);
+
+        int[] index = null;
+        int mask = 0;
+        if (source.length >= BLOCK_SIZE && target.length >= BLOCK_SIZE) {
+            int blocks = source.length / BLOCK_SIZE;
+            index = new int[Integer.highestOneBit(blocks) << 2];
+            mask = index.length - 1;
+            // index the first occurrence of each block
+            for (int b = blocks - 1; b >= 0; --b)
+                index[spread(hash(source, b * BLOCK_SIZE)) & mask] = b * BLOCK_SIZE + 1;
+        }
+
+        int pending = 0;
+        int pos = 0;
+        if (index != null) {
+            int pow = 1;
+            for (int i = 1; i < BLOCK_SIZE; ++i)
+                pow *= HASH_BASE;
+
+            int h = hash(target, 0);
+            while (pos + BLOCK_SIZE <= target.length) {
+                int candidate = index[spread(h) & mask] - 1;
+                if (candidate >= 0 && regionMatches(source, candidate, target, pos, BLOCK_SIZE)) {
+                    int start = pos;
+                    int from = candidate;
+                    while (from > 0 && start > pending && source[from - 1] == target[start - 1]) {
+                        --from;
+                        --start;
+                    }
+                    int end = pos + BLOCK_SIZE;
+                    int fromEnd = candidate + BLOCK_SIZE;
+                    while (end < target.length && fromEnd < source.length && source[fromEnd] == target[end]) {
+                        ++end;
+                        ++fromEnd;
+                    }
+
+                    writeInsert(out, target, pending, start);
+                    out.write(OP_COPY);
+                    writeInt(out, from);
+                    writeInt(out, end - start);
+                    pos = pending = end;
+                    if (pos + BLOCK_SIZE <= target.length)
+                        h = hash(target, pos);
+                    continue;
+                }
+                if (pos + BLOCK_SIZE < target.length)
+                    h = (h - (target[pos] & 0xff) * pow) * HASH_BASE + (target[pos + BLOCK_SIZE] & 0xff);
+                ++pos;
+            }
+        }
+        writeInsert(out, target, pending, target.length);
+        out.write(OP_END);
+        return out.toByteArray();
+    }
+
+    /**
+     * Apply a delta computed by {@link #diff(byte[], byte[])}.
+     */
+    static byte[] patch(byte[] source, byte[] delta) {
+        int[] cursor = new int[1];
+        byte[] target = new byte[readInt(delta, cursor)];
+        int pos = 0;
+        try {
+            for (;;) {
+                byte op = delta[cursor[0]++];
+                if (op == OP_END)
+                    break;
+                if (op == OP_COPY) {
+                    int from = readInt(delta, cursor);
+                    int length = readInt(delta, cursor);
+                    System.arraycopy(source, from, target, pos, length);
+                    pos += length;
+                } else if (op == OP_INSERT) {
+                    int length = readInt(delta, cursor);
+                    System.arraycopy(delta, cursor[0], target, pos, length);
+                    cursor[0] += length;
+                    pos += length;
+                } else {
+                    throw new IllegalArgumentException("Corrupted execution state delta, unknown operation " + op);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Corrupted execution state delta", e);
+        }
+        if (pos != target.length)
+            throw new IllegalArgumentException("Corrupted execution state delta, expected " + target.length + " bytes but got " + pos);
+        return target;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; ++i)
+            h = h * HASH_BASE + (data[i] & 0xff);
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (a[aOffset + i] != b[bOffset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to > from) {
+            out.write(OP_INSERT);
+            writeInt(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    /** Unsigned variable-length int, 7 bits per byte. */
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readInt(byte[] data, int[] cursor) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[cursor[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
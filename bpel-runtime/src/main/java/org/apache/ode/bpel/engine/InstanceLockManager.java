@@ -22,11 +22,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.clapi.ClusterLock;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+import javax.xml.namespace.QName;
 
 /**
  *
@@ -35,13 +42,39 @@ import java.util.concurrent.locks.Lock;
  * Mechanism for obtaining instance-level locks. Very simple implementation at the moment, that is only valid
  * for a single processing node. To move to multi-processor setup we'll need to implement this lock in the database.
  *
+ * Each locked instance gets its own lock, so locking distinct instances never contends on a shared monitor.
+ * Locks are not reentrant and may be released by a thread other than the one that acquired them. Locks
+ * are dropped from the table once nobody holds or waits for them.
+ *
  * @author Maciej Szefler - m s z e f l e r @ g m a i l . c o m
  */
-public class InstanceLockManager implements ClusterLock<Long> {
+public class InstanceLockManager implements ClusterLock<Long>, InstanceLockManagerMBean {
     private static final Logger __log = LoggerFactory.getLogger(InstanceLockManager.class);
 
-    private final Lock _mutex = new java.util.concurrent.locks.ReentrantLock();
-    private final Map<Long, InstanceInfo> _locks = new HashMap<Long,InstanceInfo>();
+    /** Upper bounds (in milliseconds) of the lock wait time histogram buckets, the last bucket is unbounded. */
+    static final long[] WAIT_TIME_BUCKETS = { 1, 10, 100, 1000, 10000 };
+
+    private final ConcurrentMap<Long, InstanceLock> _locks = new ConcurrentHashMap<Long, InstanceLock>();
+
+    private final boolean _fair;
+
+    private final AtomicLong _acquired = new AtomicLong();
+    private final AtomicLong _contended = new AtomicLong();
+    private final AtomicLong _timeouts = new AtomicLong();
+    private final AtomicLong _totalWaitTime = new AtomicLong();
+    private final AtomicLongArray _waitTimes = new AtomicLongArray(WAIT_TIME_BUCKETS.length + 1);
+    private final ConcurrentMap<QName, AtomicLong> _processContention = new ConcurrentHashMap<QName, AtomicLong>();
+
+    public InstanceLockManager() {
+        this(Boolean.getBoolean("org.apache.ode.instanceLock.fair"));
+    }
+
+    /**
+     * @param fair whether waiting threads are granted the lock in arrival order
+     */
+    public InstanceLockManager(boolean fair) {
+        _fair = fair;
+    }
 
     public void lock(Long key) {
         // Noting to do here.
@@ -54,35 +87,37 @@ public class InstanceLockManager implements ClusterLock<Long> {
         if (__log.isDebugEnabled())
             __log.debug(thrd + ": lock(iid=" + iid + ", time=" + time + tu+")");
 
-        InstanceInfo li;
-
-        _mutex.lock();
+        InstanceLock li = reference(iid);
+        boolean granted = false;
         try {
-
-            while (true) {
-                li = _locks.get(iid);
-                if (li == null) {
-                    li = new InstanceInfo(iid, Thread.currentThread());
-                    _locks.put(iid, li);
-                    if (__log.isDebugEnabled())
-                        __log.debug(thrd + ": lock(iid=" + iid + ", time=" + time + tu+")-->GRANTED");
-                    return;
-                } else {
+            if (li.tryAcquire(1)) {
+                granted = true;
+            } else {
+                _contended.incrementAndGet();
+                if (__log.isDebugEnabled())
+                    __log.debug(thrd + ": lock(iid=" + iid + ", time=" + time + tu+")-->WAITING");
+
+                long start = System.nanoTime();
+                try {
+                    granted = li.tryAcquireNanos(1, tu.toNanos(time));
+                } finally {
+                    recordWait(System.nanoTime() - start);
+                }
+                if (!granted) {
+                    _timeouts.incrementAndGet();
                     if (__log.isDebugEnabled())
-                        __log.debug(thrd + ": lock(iid=" + iid + ", time=" + time + tu+")-->WAITING(held by " + li.acquierer + ")");
-
-                    if (!li.available.await(time, tu)) {
-                        if (__log.isDebugEnabled())
-                            __log.debug(thrd + ": lock(iid=" + iid + ", time=" + time + tu+")-->TIMEOUT (held by " + li.acquierer + ")");
-                        throw new TimeoutException();
-                    }
+                        __log.debug(thrd + ": lock(iid=" + iid + ", time=" + time + tu+")-->TIMEOUT");
+                    throw new TimeoutException();
                 }
             }
-
+            _acquired.incrementAndGet();
+            if (__log.isDebugEnabled())
+                __log.debug(thrd + ": lock(iid=" + iid + ", time=" + time + tu+")-->GRANTED");
         } finally {
-            _mutex.unlock();
+            // the holder keeps its reference until unlock()
+            if (!granted)
+                release(iid, li);
         }
-
     }
 
     public void unlock(Long iid)  {
@@ -92,22 +127,12 @@ public class InstanceLockManager implements ClusterLock<Long> {
         if (__log.isDebugEnabled())
             __log.debug(thrd + ": unlock(iid=" + iid + ")");
 
-        _mutex.lock();
-        try {
-            InstanceInfo li = _locks.get(iid);
-            if (li == null)
-                throw new IllegalStateException("Instance not locked, cannot unlock!");
-
-            _locks.remove(iid);
-
-            // Note, that we have to signall all threads, because new holder will create a new
-            // instance of "available" condition variable, so all the waiters need to try again
-            li.available.signalAll();
-
-        } finally {
-            _mutex.unlock();
-        }
+        InstanceLock li = _locks.get(iid);
+        if (li == null)
+            throw new IllegalStateException("Instance not locked, cannot unlock!");
 
+        li.release(1);
+        release(iid, li);
     }
 
     public boolean tryLock(Long key) {
@@ -124,6 +149,116 @@ public class InstanceLockManager implements ClusterLock<Long> {
         // Noting to do here.
     }
 
+    /**
+     * Get the lock of an instance, creating it if needed, and take a reference on it so that it stays
+     * in the table.
+     */
+    private InstanceLock reference(Long iid) {
+        while (true) {
+            InstanceLock li = _locks.get(iid);
+            if (li == null) {
+                InstanceLock created = new InstanceLock(iid);
+                li = _locks.putIfAbsent(iid, created);
+                if (li == null)
+                    li = created;
+            }
+            if (li.reference())
+                return li;
+            // the lock is being dropped from the table, make sure it's gone before trying again
+            _locks.remove(iid, li);
+        }
+    }
+
+    private void release(Long iid, InstanceLock li) {
+        if (li.dereference())
+            _locks.remove(iid, li);
+    }
+
+    private void recordWait(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        _totalWaitTime.addAndGet(millis);
+        int bucket = 0;
+        while (bucket < WAIT_TIME_BUCKETS.length && millis >= WAIT_TIME_BUCKETS[bucket])
+            ++bucket;
+        _waitTimes.incrementAndGet(bucket);
+    }
+
+    /**
+     * Record that a job or message for an instance of the given process could not get the instance
+     * lock and had to be retried later.
+     */
+    void recordContention(QName processId) {
+        if (processId == null) return;
+        AtomicLong count = _processContention.get(processId);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = _processContention.putIfAbsent(processId, created);
+            if (count == null)
+                count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    public boolean isFair() {
+        return _fair;
+    }
+
+    public int getLockedInstanceCount() {
+        int count = 0;
+        for (InstanceLock li : _locks.values()) {
+            if (li.isLocked())
+                ++count;
+        }
+        return count;
+    }
+
+    public long getAcquiredCount() {
+        return _acquired.get();
+    }
+
+    public long getContendedCount() {
+        return _contended.get();
+    }
+
+    public long getTimeoutCount() {
+        return _timeouts.get();
+    }
+
+    public long getTotalWaitTime() {
+        return _totalWaitTime.get();
+    }
+
+    public long[] getWaitTimeHistogram() {
+        long[] histogram = new long[_waitTimes.length()];
+        for (int i = 0; i < histogram.length; ++i)
+            histogram[i] = _waitTimes.get(i);
+        return histogram;
+    }
+
+    public String[] getWaitTimeBuckets() {
+        String[] buckets = new String[WAIT_TIME_BUCKETS.length + 1];
+        for (int i = 0; i < WAIT_TIME_BUCKETS.length; ++i)
+            buckets[i] = "<" + WAIT_TIME_BUCKETS[i] + "ms";
+        buckets[WAIT_TIME_BUCKETS.length] = ">=" + WAIT_TIME_BUCKETS[WAIT_TIME_BUCKETS.length - 1] + "ms";
+        return buckets;
+    }
+
+    public String[] getProcessContention() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<QName, AtomicLong> entry : _processContention.entrySet())
+            result.add(entry.getKey() + "=" + entry.getValue().get());
+        return result.toArray(new String[result.size()]);
+    }
+
+    public void resetStatistics() {
+        _acquired.set(0);
+        _contended.set(0);
+        _timeouts.set(0);
+        _totalWaitTime.set(0);
+        for (int i = 0; i < _waitTimes.length(); ++i)
+            _waitTimes.set(i, 0);
+        _processContention.clear();
+    }
 
     @Override
     public String toString() {
@@ -131,29 +266,58 @@ public class InstanceLockManager implements ClusterLock<Long> {
     }
 
     /**
-     * Information about the lock state for a particular instance.
-     * @author Maciej Szefler - m s z e f l e r @ g m a i l . c o m
+     * Lock for a particular instance. The synchronizer state is 1 while the instance is locked, 0 otherwise.
      */
-    private class InstanceInfo {
+    private class InstanceLock extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 1L;
+
         final long iid;
 
-        /** Thread that acquired the lock. */
-        final Thread acquierer;
+        /** Holder and waiters; once it drops to zero the lock is retired (-1) and can't be referenced anymore. */
+        private final AtomicInteger _references = new AtomicInteger();
+
+        InstanceLock(long iid) {
+            this.iid = iid;
+        }
 
-        /** Condition-Variable indicating that the lock has become available. */
-        Condition available = _mutex.newCondition();
+        boolean reference() {
+            while (true) {
+                int refs = _references.get();
+                if (refs < 0)
+                    return false;
+                if (_references.compareAndSet(refs, refs + 1))
+                    return true;
+            }
+        }
 
+        /**
+         * @return true if the lock got retired and should be removed from the table
+         */
+        boolean dereference() {
+            return _references.decrementAndGet() == 0 && _references.compareAndSet(0, -1);
+        }
 
-        InstanceInfo(long iid, Thread t) {
-            this.iid = iid;
-            this.acquierer = t;
+        boolean isLocked() {
+            return getState() != 0;
+        }
+
+        @Override
+        protected boolean tryAcquire(int arg) {
+            if (_fair && hasQueuedThreads() && getFirstQueuedThread() != Thread.currentThread())
+                return false;
+            return compareAndSetState(0, 1);
+        }
+
+        @Override
+        protected boolean tryRelease(int arg) {
+            if (!compareAndSetState(1, 0))
+                throw new IllegalStateException("Instance not locked, cannot unlock!");
+            return true;
         }
 
         @Override
         public String toString() {
-            return "{Lock for Instance #" + iid +", acquired by " +  acquierer + "}";
+            return "{Lock for Instance #" + iid + (isLocked() ? ", locked" : "") + "}";
         }
     }
 }
-
-
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+/**
+ * JMX view of the instance lock statistics maintained by {@link InstanceLockManager}.
+ */
+public interface InstanceLockManagerMBean {
+
+    /** Whether waiting threads are granted instance locks in arrival order. */
+    boolean isFair();
+
+    /** Number of instances currently locked. */
+    int getLockedInstanceCount();
+
+    /** Number of instance locks granted. */
+    long getAcquiredCount();
+
+    /** Number of lock requests that had to wait because the instance was already locked. */
+    long getContendedCount();
+
+    /** Number of lock requests that gave up waiting. */
+    long getTimeoutCount();
+
+    /** Total time (in milliseconds) spent waiting for instance locks. */
+    long getTotalWaitTime();
+
+    /** Number of contended lock requests by wait time, see {@link #getWaitTimeBuckets()}. */
+    long[] getWaitTimeHistogram();
+
+    /** Labels of the wait time histogram buckets. */
+    String[] getWaitTimeBuckets();
+
+    /** Number of jobs and messages rescheduled because their instance was locked, as "process id=count". */
+    String[] getProcessContention();
+
+    void resetStatistics();
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dehydration policy keeping the estimated size of hydrated processes ({@link BpelProcess#sizeOf()})
+ * under a heap budget.
+ *
+ * When the budget is exceeded, processes are picked for dehydration in the spirit of W-TinyLFU:
+ * <ul>
+ * <li>the most recently used processes, up to a small fraction of the budget, form a window that
+ * is spared so that a newly hydrated process isn't dehydrated before it had a chance to be used;</li>
+ * <li>the other processes go by their use frequency per byte, the frequencies being halved
+ * periodically so that processes that stopped being used eventually lose their advantage;</li>
+ * <li>the window only gets dehydrated, least recently used first, if the rest wasn't enough.</li>
+ * </ul>
+ * Processes pinned with the <code>process.hydration.pinned</code> property, or through JMX, are
+ * never dehydrated but count toward the budget. Processes unused for longer than the maximum age,
+ * if any, are dehydrated regardless of the budget.
+ *
+ * The model of a dehydrated process stays in the engine's {@link OModelCache} until the garbage
+ * collector reclaims it, so those cached models count toward the budget too. They are the coldest
+ * of all and are evicted first, before any process is dehydrated; the model of a process dehydrated
+ * by a check is only seen in the cache by the next one.
+ */
+public class MemoryBudgetDehydrationPolicy implements DehydrationPolicy, MemoryBudgetDehydrationPolicyMBean {
+
+    private static final Logger __log = LoggerFactory.getLogger(MemoryBudgetDehydrationPolicy.class);
+
+    /** Heap budget for hydrated processes */
+    private volatile long _budget = 256L * 1024 * 1024;
+    /** Maximum age of a process before it is dehydrated, disabled if 0 */
+    private long _processMaxAge = 0;
+    /** Part of the budget reserved to the most recently used processes */
+    private double _windowRatio = 0.1;
+    /** Number of checks after which use frequencies are halved */
+    private int _frequencyHalfLife = 6;
+
+    private final Map<QName, ProcessStats> _stats = new HashMap<QName, ProcessStats>();
+    private final Map<String, Boolean> _pinned = new ConcurrentHashMap<String, Boolean>();
+    private int _checks;
+    private OModelCache _modelCache;
+
+    private volatile long _residentBytes;
+    private volatile long _cachedModelBytes;
+    private volatile String[] _residentProcesses = new String[0];
+    private volatile long _hydrationCount;
+    private volatile long _dehydrationCount;
+    private volatile double _hydrationRate;
+    private volatile double _dehydrationRate;
+    private long _lastCheck;
+
+    public List<BpelProcess> markForDehydration(List<BpelProcess> runningProcesses) {
+        long now = System.currentTimeMillis();
+        if (++_checks % _frequencyHalfLife == 0) {
+            for (Iterator<ProcessStats> i = _stats.values().iterator(); i.hasNext();) {
+                ProcessStats stats = i.next();
+                stats.frequency /= 2;
+                // forget about processes that aren't used anymore
+                if (stats.frequency < 1 && !stats.resident) i.remove();
+            }
+        }
+
+        long hydrations = 0;
+        long resident = 0;
+        List<ProcessStats> candidates = new ArrayList<ProcessStats>();
+        for (ProcessStats stats : _stats.values())
+            stats.resident = false;
+        for (BpelProcess process : runningProcesses) {
+            ProcessStats stats = _stats.get(process.getPID());
+            if (stats == null) {
+                stats = new ProcessStats(process);
+                _stats.put(process.getPID(), stats);
+            }
+            stats.process = process;
+            stats.resident = true;
+            stats.lastUsed = process.getLastUsed();
+            long uses = process.getUseCount();
+            stats.frequency += uses - stats.uses;
+            stats.uses = uses;
+            long hydrationCount = process.getHydrationCount();
+            if (hydrationCount != stats.hydrations || stats.size <= 0) {
+                // sizing may be costly, only done once per hydration
+                hydrations += hydrationCount - stats.hydrations;
+                stats.hydrations = hydrationCount;
+                stats.size = Math.max(process.sizeOf(), 1);
+            }
+            resident += stats.size;
+            if (!process.isHydrationPinned() && !_pinned.containsKey(process.getPID().toString()))
+                candidates.add(stats);
+        }
+
+        List<BpelProcess> ripped = new ArrayList<BpelProcess>();
+        if (_processMaxAge > 0) {
+            for (Iterator<ProcessStats> i = candidates.iterator(); i.hasNext();) {
+                ProcessStats stats = i.next();
+                if (now - stats.lastUsed > _processMaxAge) {
+                    resident -= rip(stats, ripped);
+                    i.remove();
+                }
+            }
+        }
+
+        long cached = 0;
+        if (_modelCache != null) {
+            cached = _modelCache.getUnusedBytes();
+            if (resident + cached > _budget)
+                cached -= _modelCache.evictUnused(resident + cached - _budget);
+        }
+
+        long budget = _budget - cached;
+        if (resident > budget) {
+            // most recently used first
+            Collections.sort(candidates, new Comparator<ProcessStats>() {
+                public int compare(ProcessStats s1, ProcessStats s2) {
+                    return s1.lastUsed > s2.lastUsed ? -1 : (s1.lastUsed < s2.lastUsed ? 1 : 0);
+                }
+            });
+            long windowBudget = (long) (budget * _windowRatio);
+            long windowSize = 0;
+            int window = 0;
+            while (window < candidates.size() && windowSize + candidates.get(window).size <= windowBudget)
+                windowSize += candidates.get(window++).size;
+
+            List<ProcessStats> main = new ArrayList<ProcessStats>(candidates.subList(window, candidates.size()));
+            Collections.sort(main, new Comparator<ProcessStats>() {
+                public int compare(ProcessStats s1, ProcessStats s2) {
+                    double d1 = s1.frequency / s1.size;
+                    double d2 = s2.frequency / s2.size;
+                    if (d1 != d2) return d1 < d2 ? -1 : 1;
+                    return s1.lastUsed < s2.lastUsed ? -1 : (s1.lastUsed > s2.lastUsed ? 1 : 0);
+                }
+            });
+            for (int i = 0; i < main.size() && resident > budget; ++i)
+                resident -= rip(main.get(i), ripped);
+            for (int i = window - 1; i >= 0 && resident > budget; --i)
+                resident -= rip(candidates.get(i), ripped);
+            if (resident > budget)
+                __log.warn("Hydrated processes still use " + resident + " bytes and cached models " + cached
+                        + " bytes after dehydration, over the budget of " + _budget + " bytes; are too many processes pinned?");
+        }
+
+        List<String> residentProcesses = new ArrayList<String>();
+        for (ProcessStats stats : _stats.values()) {
+            if (stats.resident) residentProcesses.add(stats.pid + "=" + stats.size);
+            // don't keep processes around
+            stats.process = null;
+        }
+        _residentProcesses = residentProcesses.toArray(new String[residentProcesses.size()]);
+        _residentBytes = resident;
+        _cachedModelBytes = cached;
+        _hydrationCount += hydrations;
+        _dehydrationCount += ripped.size();
+        if (_lastCheck > 0 && now > _lastCheck) {
+            _hydrationRate = hydrations * 60000.0 / (now - _lastCheck);
+            _dehydrationRate = ripped.size() * 60000.0 / (now - _lastCheck);
+        }
+        _lastCheck = now;
+        if (__log.isDebugEnabled())
+            __log.debug("Hydrated processes use " + resident + " bytes and cached models " + cached + " bytes of "
+                    + _budget + ", dehydrating " + ripped.size());
+        return ripped;
+    }
+
+    private static long rip(ProcessStats stats, List<BpelProcess> ripped) {
+        ripped.add(stats.process);
+        stats.resident = false;
+        return stats.size;
+    }
+
+    /**
+     * @param modelCache cache of the engine, whose unused models count toward the budget
+     */
+    void setModelCache(OModelCache modelCache) {
+        _modelCache = modelCache;
+    }
+
+    public long getBudget() {
+        return _budget;
+    }
+
+    public void setBudget(long budget) {
+        _budget = budget;
+    }
+
+    public void setProcessMaxAge(long processMaxAge) {
+        _processMaxAge = processMaxAge;
+    }
+
+    /**
+     * @param windowRatio part of the budget kept for the most recently used processes
+     */
+    public void setWindowRatio(double windowRatio) {
+        _windowRatio = windowRatio;
+    }
+
+    /**
+     * @param checks number of checks after which use frequencies are halved
+     */
+    public void setFrequencyHalfLife(int checks) {
+        _frequencyHalfLife = Math.max(checks, 1);
+    }
+
+    public long getResidentBytes() {
+        return _residentBytes;
+    }
+
+    public long getCachedModelBytes() {
+        return _cachedModelBytes;
+    }
+
+    public int getResidentProcessCount() {
+        return _residentProcesses.length;
+    }
+
+    public String[] getResidentProcesses() {
+        return _residentProcesses;
+    }
+
+    public long getHydrationCount() {
+        return _hydrationCount;
+    }
+
+    public long getDehydrationCount() {
+        return _dehydrationCount;
+    }
+
+    public double getHydrationRate() {
+        return _hydrationRate;
+    }
+
+    public double getDehydrationRate() {
+        return _dehydrationRate;
+    }
+
+    public String[] getPinnedProcesses() {
+        return _pinned.keySet().toArray(new String[0]);
+    }
+
+    public void pinProcess(String pid) {
+        _pinned.put(pid, Boolean.TRUE);
+    }
+
+    public void unpinProcess(String pid) {
+        _pinned.remove(pid);
+    }
+
+    private static class ProcessStats {
+        final QName pid;
+        BpelProcess process;
+        boolean resident;
+        long lastUsed;
+        long uses;
+        double frequency;
+        long hydrations;
+        long size;
+
+        ProcessStats(BpelProcess process) {
+            this.pid = process.getPID();
+        }
+    }
+}
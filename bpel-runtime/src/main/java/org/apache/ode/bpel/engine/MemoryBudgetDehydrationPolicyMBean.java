@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+/**
+ * JMX view of the {@link MemoryBudgetDehydrationPolicy}.
+ */
+public interface MemoryBudgetDehydrationPolicyMBean {
+
+    /** Heap budget (in bytes) for hydrated processes. */
+    long getBudget();
+
+    void setBudget(long budget);
+
+    /** Estimated size (in bytes) of the processes hydrated at the last check. */
+    long getResidentBytes();
+
+    /** Estimated size (in bytes) of the cached models of dehydrated processes after the last check. */
+    long getCachedModelBytes();
+
+    /** Number of processes hydrated at the last check. */
+    int getResidentProcessCount();
+
+    /** Hydrated processes at the last check, as "process id=bytes". */
+    String[] getResidentProcesses();
+
+    /** Number of process hydrations seen by the policy. */
+    long getHydrationCount();
+
+    /** Number of processes dehydrated by the policy. */
+    long getDehydrationCount();
+
+    /** Hydrations per minute between the last two checks. */
+    double getHydrationRate();
+
+    /** Dehydrations per minute between the last two checks. */
+    double getDehydrationRate();
+
+    /** Processes pinned through {@link #pinProcess(String)}. */
+    String[] getPinnedProcesses();
+
+    /**
+     * Keep a process hydrated, whatever the budget.
+     * @param pid process id, in the <code>{namespace}name-version</code> form
+     */
+    void pinProcess(String pid);
+
+    void unpinProcess(String pid);
+}
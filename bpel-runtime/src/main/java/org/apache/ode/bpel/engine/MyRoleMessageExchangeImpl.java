@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -57,7 +58,7 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
 
     protected BpelProcess _process;
 
-    protected static Map<String, ResponseCallback> _waitingCallbacks =
+    protected static ConcurrentMap<String, ResponseCallback> _waitingCallbacks =
             new ConcurrentHashMap<String, ResponseCallback>();
 
     public MyRoleMessageExchangeImpl(BpelProcess process, BpelEngineImpl engine, MessageExchangeDAO mexdao) {
@@ -162,6 +163,17 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
         }
     }
 
+    public boolean setResponseListener(ResponseListener listener) {
+        ResponseCallback callback = _waitingCallbacks.get(getClientId());
+        return callback != null && callback.setListener(listener);
+    }
+
+    public boolean timeoutResponse() {
+        String cid = getClientId();
+        ResponseCallback callback = _waitingCallbacks.get(cid);
+        return callback != null && callback.timeout(cid);
+    }
+
     public void complete() {
     }
 
@@ -248,8 +260,10 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
             if (callback != null) {
                 callback.waitResponse(timeout);
                 _done = true;
-                if (callback._timedout)
+                if (callback._timedout) {
+                    _waitingCallbacks.remove(_clientId, callback);
                     throw new TimeoutException("Message exchange " + this + " timed out(" + timeout + " ms) when waiting for a response!");
+                }
             }
             return null;
         }
@@ -271,7 +285,16 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
                 __log.debug("Received myrole mex response callback");
                 if( success ) {
                     ResponseCallback callback = _waitingCallbacks.remove(cid);
-                    if (callback != null) callback.responseReceived();
+                    if (callback != null && callback.responseReceived()) {
+                        ResponseListener listener = callback.getListener();
+                        if (listener != null) {
+                            try {
+                                listener.onResponse();
+                            } catch (RuntimeException e) {
+                                __log.error("Error notifying the response listener of mex " + cid, e);
+                            }
+                        }
+                    }
                 } else {
                     __log.warn("Transaction is rolled back on sending back the response.");
                 }
@@ -285,6 +308,19 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
     static class ResponseCallback {
         private boolean _timedout;
         private boolean _waiting = true;
+        private ResponseListener _listener;
+
+        synchronized boolean setListener(ResponseListener listener) {
+            if (!_waiting || _timedout) {
+                return false;
+            }
+            _listener = listener;
+            return true;
+        }
+
+        synchronized ResponseListener getListener() {
+            return _listener;
+        }
 
         synchronized boolean responseReceived() {
             if (_timedout) {
@@ -307,5 +343,19 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
             }
             _timedout = _waiting;
         }
+
+        /**
+         * Gives up waiting for the response: it will be ignored when it comes and the listener won't be notified.
+         * @return <code>false</code> if the response was received first
+         */
+        synchronized boolean timeout(String clientId) {
+            if (!_waiting) {
+                return false;
+            }
+            _timedout = true;
+            _listener = null;
+            _waitingCallbacks.remove(clientId, this);
+            return true;
+        }
     }
 }
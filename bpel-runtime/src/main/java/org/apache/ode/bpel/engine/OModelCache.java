@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.obj.OBase;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.bpel.obj.serde.DeSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of the compiled process models of the node, so that re-hydrating a process doesn't have to
+ * deserialize its cbp file again as long as its model is still in memory.
+ *
+ * Models are keyed by the digest of the content of their cbp file. The file is read into the heap
+ * in one go and closed before deserializing, as the deserializer may write an upgraded model back to
+ * it. The cache only holds soft references: a hydrated process keeps its model reachable, and a
+ * dehydrated process {@link #release(OProcess) releases} it to the garbage collector, which reclaims
+ * it under memory pressure. Models are shared and must be treated as immutable once loaded. The
+ * qualified names of the models are interned, so that the message, element and schema types that
+ * all the versions of a process refer to use the same names.
+ *
+ * Unused models still take heap until the garbage collector gets to them, the
+ * {@link MemoryBudgetDehydrationPolicy} accounts for them with {@link #getUnusedBytes()} and
+ * {@link #evictUnused(long) evicts} them before dehydrating processes.
+ */
+class OModelCache {
+    private static final Logger __log = LoggerFactory.getLogger(OModelCache.class);
+
+    private final Map<String, Entry> _entries = new HashMap<String, Entry>();
+
+    private final ReferenceQueue<OProcess> _cleared = new ReferenceQueue<OProcess>();
+
+    /** Models of hydrated processes, with their number of processes; guarded by this. */
+    private final Map<OProcess, int[]> _inUse = new IdentityHashMap<OProcess, int[]>();
+
+    private final WeakHashMap<QName, WeakReference<QName>> _qnames = new WeakHashMap<QName, WeakReference<QName>>();
+
+    private final AtomicLong _hits = new AtomicLong();
+
+    private final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * Get the model of a compiled process, to be {@link #release(OProcess) released} once the process
+     * is dehydrated.
+     * @param cbpFile compiled process
+     * @return the cached model if one was loaded from the same content, otherwise the deserialized model
+     */
+    OProcess load(File cbpFile) throws IOException {
+        byte[] content = read(cbpFile);
+        String key = digest(content);
+
+        synchronized (this) {
+            purge();
+            Entry entry = _entries.get(key);
+            OProcess cached = entry == null ? null : entry.get();
+            if (cached != null) {
+                _hits.incrementAndGet();
+                if (__log.isDebugEnabled())
+                    __log.debug("Reusing the cached model of " + cbpFile);
+                return acquire(cached);
+            }
+        }
+
+        _misses.incrementAndGet();
+        OProcess oprocess = new DeSerializer(cbpFile, new ByteArrayInputStream(content)).deserialize();
+        intern(oprocess);
+
+        synchronized (this) {
+            Entry entry = _entries.get(key);
+            OProcess cached = entry == null ? null : entry.get();
+            // another thread may have loaded the same content in the meantime
+            if (cached != null)
+                return acquire(cached);
+            _entries.put(key, new Entry(key, oprocess, estimateSize(content), _cleared));
+            return acquire(oprocess);
+        }
+    }
+
+    /**
+     * Release the model of a dehydrated process. A model that is still cached is left to the garbage
+     * collector, as processes may hydrate it again; one that is no longer cached is
+     * {@link OProcess#dehydrate() dehydrated} right away once no process uses it.
+     */
+    void release(OProcess oprocess) {
+        synchronized (this) {
+            int[] users = _inUse.get(oprocess);
+            // not loaded through the cache, or still used by another process
+            if (users == null || --users[0] > 0)
+                return;
+            _inUse.remove(oprocess);
+            Entry entry = find(oprocess);
+            if (entry != null) {
+                entry.released = System.currentTimeMillis();
+                return;
+            }
+        }
+        oprocess.dehydrate();
+    }
+
+    /**
+     * @return the number of cached models that no hydrated process uses, they are only kept by soft
+     *         references
+     */
+    synchronized int getUnusedCount() {
+        purge();
+        int unused = 0;
+        for (Entry entry : _entries.values()) {
+            OProcess oprocess = entry.get();
+            if (oprocess != null && !_inUse.containsKey(oprocess))
+                ++unused;
+        }
+        return unused;
+    }
+
+    /**
+     * @return the estimated size (in bytes) of the cached models that no hydrated process uses
+     */
+    synchronized long getUnusedBytes() {
+        purge();
+        long bytes = 0;
+        for (Entry entry : _entries.values()) {
+            OProcess oprocess = entry.get();
+            if (oprocess != null && !_inUse.containsKey(oprocess))
+                bytes += entry.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * Drop cached models that no hydrated process uses, the least recently released first, instead
+     * of waiting for the garbage collector.
+     * @param bytes estimated size to free
+     * @return the estimated size of the models dropped
+     */
+    long evictUnused(long bytes) {
+        List<OProcess> evicted = new ArrayList<OProcess>();
+        long freed = 0;
+        synchronized (this) {
+            purge();
+            List<Entry> unused = new ArrayList<Entry>();
+            for (Entry entry : _entries.values()) {
+                OProcess oprocess = entry.get();
+                if (oprocess != null && !_inUse.containsKey(oprocess))
+                    unused.add(entry);
+            }
+            Collections.sort(unused, new Comparator<Entry>() {
+                public int compare(Entry e1, Entry e2) {
+                    return e1.released < e2.released ? -1 : (e1.released > e2.released ? 1 : 0);
+                }
+            });
+            for (int i = 0; i < unused.size() && freed < bytes; ++i) {
+                Entry entry = unused.get(i);
+                OProcess oprocess = entry.get();
+                _entries.remove(entry.key);
+                if (oprocess != null) {
+                    evicted.add(oprocess);
+                    freed += entry.size;
+                }
+            }
+        }
+        for (OProcess oprocess : evicted)
+            oprocess.dehydrate();
+        return freed;
+    }
+
+    long getHits() {
+        return _hits.get();
+    }
+
+    long getMisses() {
+        return _misses.get();
+    }
+
+    synchronized int size() {
+        purge();
+        return _entries.size();
+    }
+
+    /**
+     * Forget the cached models; those in use are dehydrated once released.
+     */
+    synchronized void clear() {
+        _entries.clear();
+        synchronized (_qnames) {
+            _qnames.clear();
+        }
+    }
+
+    /**
+     * Replace the qualified names held by the model with their interned instances.
+     */
+    private void intern(OProcess oprocess) {
+        internFields(oprocess);
+        List<OBase> children = oprocess.getChildren();
+        if (children != null) {
+            for (OBase child : children)
+                internFields(child);
+        }
+        internKeys(oprocess.getMessageTypes());
+        internKeys(oprocess.getElementTypes());
+        internKeys(oprocess.getXsdTypes());
+    }
+
+    private void internFields(OBase obase) {
+        Map<String, Object> fields = obase.getFieldContainer();
+        if (fields == null)
+            return;
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (field.getValue() instanceof QName)
+                field.setValue(intern((QName) field.getValue()));
+        }
+    }
+
+    private <V> void internKeys(Map<QName, V> map) {
+        if (map == null || map.isEmpty())
+            return;
+        // an equal key already in the map isn't replaced by put
+        Map<QName, V> interned = new HashMap<QName, V>(map.size() * 2);
+        for (Map.Entry<QName, V> e : map.entrySet())
+            interned.put(intern(e.getKey()), e.getValue());
+        map.clear();
+        map.putAll(interned);
+    }
+
+    QName intern(QName qname) {
+        if (qname == null)
+            return null;
+        synchronized (_qnames) {
+            WeakReference<QName> ref = _qnames.get(qname);
+            QName interned = ref == null ? null : ref.get();
+            if (interned == null) {
+                _qnames.put(qname, new WeakReference<QName>(qname));
+                interned = qname;
+            }
+            return interned;
+        }
+    }
+
+    private OProcess acquire(OProcess oprocess) {
+        int[] users = _inUse.get(oprocess);
+        if (users == null)
+            _inUse.put(oprocess, new int[] { 1 });
+        else
+            ++users[0];
+        return oprocess;
+    }
+
+    private Entry find(OProcess oprocess) {
+        for (Entry entry : _entries.values()) {
+            if (entry.get() == oprocess)
+                return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Drop the entries of the models reclaimed by the garbage collector.
+     */
+    private void purge() {
+        Entry entry;
+        while ((entry = (Entry) _cleared.poll()) != null) {
+            if (_entries.get(entry.key) == entry)
+                _entries.remove(entry.key);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Compiled process " + file + " is too large");
+            byte[] content = new byte[(int) length];
+            raf.readFully(content);
+            return content;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Same estimate as {@link BpelProcess#getEstimatedHydratedSize()}, sizing the model itself would
+     * take the sizing agent and walk the whole graph.
+     */
+    private static long estimateSize(byte[] content) {
+        return (long) content.length * BpelProcess.PROCESS_MEMORY_TO_SERIALIZED_SIZE_RATIO;
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(content);
+            return new BigInteger(1, md.digest()).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry extends SoftReference<OProcess> {
+        final String key;
+        /** Estimated size of the model */
+        final long size;
+        /** Last time no process used the model anymore; guarded by the cache. */
+        long released;
+
+        Entry(String key, OProcess oprocess, long size, ReferenceQueue<OProcess> queue) {
+            super(oprocess, queue);
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
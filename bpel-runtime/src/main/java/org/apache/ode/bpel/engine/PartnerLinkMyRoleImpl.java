@@ -151,7 +151,7 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         //Avoid searching for message route when enqueue is enabled. It is only when no message route is found, enqueue will be enabled.
         if(!enqueue) {
             // Try to find a route for one of our keys.
-            List<MessageRouteDAO> messageRoutes = correlator.findRoute(keySet);
+            List<MessageRouteDAO> messageRoutes = _process.findRoute(correlator, keySet);
             if (messageRoutes != null && messageRoutes.size() > 0) {
                 for (MessageRouteDAO messageRoute : messageRoutes) {
                     __log.debug("INPUTMSG: " + correlatorId + ": ckeySet " + messageRoute.getCorrelationKeySet() + " route is to " + messageRoute);
@@ -220,7 +220,7 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         if (mex.getDAO().getCreateTime() == null)
             mex.getDAO().setCreateTime(instance.getCurrentEventDateTime());
 
-        _process._engine.acquireInstanceLock(newInstance.getInstanceId());
+        _process._engine.acquireInstanceLock(newInstance.getInstanceId(), _process.getPID());
         instance.execute();
     }
 
@@ -241,6 +241,7 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         // Kill the route so some new message does not get routed to
         // same process instance.
         routing.correlator.removeRoutes(routing.messageRoute.getGroupId(), instanceDao);
+        _process.routesRemoved(instanceDao.getInstanceId(), routing.messageRoute.getGroupId());
 
         // send process instance event
         CorrelationMatchEvent evt = new CorrelationMatchEvent(new QName(process2.getOProcess().getTargetNamespace(),
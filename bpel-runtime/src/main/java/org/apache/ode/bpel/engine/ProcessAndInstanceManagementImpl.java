@@ -80,7 +80,9 @@ import org.apache.ode.bpel.evt.ScopeFaultEvent;
 import org.apache.ode.bpel.evt.VariableEvent;
 import org.apache.ode.bpel.evt.VariableModificationEvent;
 import org.apache.ode.bpel.evtproc.ActivityStateDocumentBuilder;
+import org.apache.ode.bpel.evtproc.BpelEventReader;
 import org.apache.ode.bpel.iapi.BpelEngineException;
+import org.apache.ode.bpel.iapi.BpelEventListener;
 import org.apache.ode.bpel.iapi.BpelServer;
 import org.apache.ode.bpel.iapi.EndpointReference;
 import org.apache.ode.bpel.iapi.ProcessConf;
@@ -615,11 +617,15 @@ public class ProcessAndInstanceManagementImpl implements InstanceManagement, Pro
         final InstanceFilter ifilter = new InstanceFilter(instanceFilter, null, 0);
         final BpelEventFilter efilter = new BpelEventFilter(eventFilter, 0);
 
-        List<Date> tline = dbexec(new BpelDatabase.Callable<List<Date>>() {
-            public List<Date> run(BpelDAOConnection session) throws Exception {
-                return session.bpelEventTimelineQuery(ifilter, efilter);
-            }
-        });
+        BpelEventReader reader = getEventReader();
+        List<Date> tline = reader == null ? null : reader.bpelEventTimelineQuery(ifilter, efilter);
+        if (tline == null) {
+            tline = dbexec(new BpelDatabase.Callable<List<Date>>() {
+                public List<Date> run(BpelDAOConnection session) throws Exception {
+                    return session.bpelEventTimelineQuery(ifilter, efilter);
+                }
+            });
+        }
 
         ArrayList<String> ret = new ArrayList<String>(tline.size());
         CollectionsX.transform(ret, tline, new UnaryFunction<Date, String>() {
@@ -635,6 +641,15 @@ public class ProcessAndInstanceManagementImpl implements InstanceManagement, Pro
         final BpelEventFilter efilter = new BpelEventFilter(eventFilter, maxCount);
         EventInfoListDocument eid = EventInfoListDocument.Factory.newInstance();
         final TEventInfoList eil = eid.addNewEventInfoList();
+        BpelEventReader reader = getEventReader();
+        List<BpelEvent> journaled = reader == null ? null : reader.bpelEventQuery(ifilter, efilter);
+        if (journaled != null) {
+            for (BpelEvent event : journaled) {
+                TEventInfo tei = eil.addNewEventInfo();
+                fillEventInfo(tei, event);
+            }
+            return eid;
+        }
         dbexec(new BpelDatabase.Callable<Object>() {
             public Object run(BpelDAOConnection session) throws Exception {
                 List<BpelEvent> events = session.bpelEventQuery(ifilter, efilter);
@@ -648,6 +663,17 @@ public class ProcessAndInstanceManagementImpl implements InstanceManagement, Pro
         return eid;
     }
 
+    /**
+     * @return the first registered event listener that keeps the events instead of the database, if any
+     */
+    private BpelEventReader getEventReader() {
+        for (BpelEventListener l : _server.getContexts().eventListeners) {
+            if (l instanceof BpelEventReader && ((BpelEventReader) l).isExclusive())
+                return (BpelEventReader) l;
+        }
+        return null;
+    }
+
     public ActivityExtInfoListDocument getExtensibilityElements(QName pid, Integer[] aids) {
         ActivityExtInfoListDocument aeild = ActivityExtInfoListDocument.Factory.newInstance();
         TActivitytExtInfoList taeil = aeild.addNewActivityExtInfoList();
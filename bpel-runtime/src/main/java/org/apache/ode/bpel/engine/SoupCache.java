@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.ode.jacob.soup.ReplacementMap;
+import org.apache.ode.jacob.vpu.ExecutionQueueImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of the soups of recently executed instances, so that an instance executed again shortly
+ * after doesn't have to deserialize its execution state.
+ *
+ * A soup is taken out of the cache by the runtime context of its instance, while the instance is
+ * locked, and put back once the transaction that executed it has committed. It is only reused if
+ * its serialized form is the execution state read from the database and if it was read with the
+ * same process model, so that changes made by another node, rolled back transactions or process
+ * re-hydrations can't be missed. The cache is bounded by the total size of the serialized soups it
+ * holds, least recently used soups are evicted first.
+ */
+class SoupCache {
+    private static final Logger __log = LoggerFactory.getLogger(SoupCache.class);
+
+    private final LinkedHashMap<Long, Entry> _entries = new LinkedHashMap<Long, Entry>(64, 0.75f, true);
+
+    private volatile long _maximumSize;
+
+    private long _size;
+
+    void setMaximumSize(long maximumSize) {
+        _maximumSize = maximumSize;
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    long getMaximumSize() {
+        return _maximumSize;
+    }
+
+    boolean isEnabled() {
+        return _maximumSize > 0;
+    }
+
+    /**
+     * Take the soup of an instance out of the cache.
+     * @param iid instance id
+     * @param replacementMap replacement map of the process model the instance is executed with
+     * @param state serialized soup, as read from the database
+     * @return the soup, or <code>null</code> if it isn't cached or is stale
+     */
+    synchronized ExecutionQueueImpl take(Long iid, ReplacementMap replacementMap, byte[] state) {
+        Entry entry = _entries.remove(iid);
+        if (entry == null)
+            return null;
+        _size -= entry.state.length;
+        if (entry.replacementMap != replacementMap || !Arrays.equals(entry.state, state)) {
+            if (__log.isDebugEnabled())
+                __log.debug("Cached soup of instance " + iid + " is stale");
+            return null;
+        }
+        return entry.soup;
+    }
+
+    /**
+     * Put the soup of an instance in the cache.
+     * @param state the serialized soup, as written to the database
+     */
+    synchronized void put(Long iid, ReplacementMap replacementMap, ExecutionQueueImpl soup, byte[] state) {
+        if (state.length > _maximumSize)
+            return;
+        Entry previous = _entries.put(iid, new Entry(replacementMap, soup, state));
+        if (previous != null)
+            _size -= previous.state.length;
+        _size += state.length;
+        evict();
+    }
+
+    synchronized void remove(Long iid) {
+        Entry entry = _entries.remove(iid);
+        if (entry != null)
+            _size -= entry.state.length;
+    }
+
+    /**
+     * Remove the soups that were read with a replacement map, once its process model is released.
+     */
+    synchronized void removeAll(ReplacementMap replacementMap) {
+        for (Iterator<Entry> it = _entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.replacementMap == replacementMap) {
+                _size -= entry.state.length;
+                it.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return _entries.size();
+    }
+
+    private void evict() {
+        for (Iterator<Entry> it = _entries.values().iterator(); _size > _maximumSize && it.hasNext(); ) {
+            _size -= it.next().state.length;
+            it.remove();
+        }
+    }
+
+    private static class Entry {
+        final ReplacementMap replacementMap;
+        final ExecutionQueueImpl soup;
+        final byte[] state;
+
+        Entry(ReplacementMap replacementMap, ExecutionQueueImpl soup, byte[] state) {
+            this.replacementMap = replacementMap;
+            this.soup = soup;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.ode.bpel.elang.xpath10.obj.OXPath10ExpressionBPEL20;
+import org.apache.ode.bpel.obj.OElementVarType;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.utils.NSContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads property values straight from the serialized form of a variable, without building its DOM.
+ *
+ * Only handles property aliases that select a single element with text content through a plain path of
+ * child elements (as in <code>tns:order/tns:id</code>). Whenever the alias or the data is anything more
+ * involved, {@link #extract(String, OProcess.OPropertyAlias)} returns null and the property should be
+ * read from the DOM as usual, which also takes care of reporting selection failures.
+ */
+class StreamingPropertyExtractor {
+    private static final Logger __log = LoggerFactory.getLogger(StreamingPropertyExtractor.class);
+
+    private static final Pattern STEP = Pattern.compile("(?:([A-Za-z_][\\w.\\-]*):)?([A-Za-z_][\\w.\\-]*)");
+
+    private static final XMLInputFactory __inputFactory = XMLInputFactory.newInstance();
+    static {
+        __inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        __inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    private StreamingPropertyExtractor() {
+    }
+
+    /**
+     * @param xml serialized variable value
+     * @param alias property alias for the variable type
+     * @return the property value, or null if it must be read from the DOM
+     */
+    static String extract(String xml, OProcess.OPropertyAlias alias) {
+        if (alias.getHeader() != null)
+            return null;
+
+        // elements leading to the root of the alias, only their first occurrence is considered
+        List<QName> path = new ArrayList<QName>();
+        if (alias.getPart() != null) {
+            path.add(new QName(null, alias.getPart().getName()));
+            if (alias.getPart().getType() instanceof OElementVarType)
+                path.add(((OElementVarType) alias.getPart().getType()).getElementType());
+        }
+        int fixed = path.size();
+        if (alias.getLocation() != null && !parseLocation(alias.getLocation(), path))
+            return null;
+
+        try {
+            XMLStreamReader reader = __inputFactory.createXMLStreamReader(new StringReader(xml));
+            try {
+                return extract(reader, path, fixed);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            if (__log.isDebugEnabled())
+                __log.debug("Couldn't stream property " + alias.getDescription() + ", reading it from the DOM.", e);
+            return null;
+        }
+    }
+
+    private static String extract(XMLStreamReader reader, List<QName> path, int fixed) throws XMLStreamException {
+        String result = null;
+        // depth of the current element, the document element being at depth 1
+        int depth = 0;
+        // number of path elements matched by the current element and its ancestors
+        int matched = 0;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                ++depth;
+                if (depth == 1) {
+                    if (path.isEmpty())
+                        return readText(reader);
+                } else if (matched == depth - 2 && reader.getName().equals(path.get(matched))) {
+                    ++matched;
+                    if (matched == path.size()) {
+                        if (result != null)
+                            return null; // several nodes selected
+                        result = readText(reader);
+                        if (result == null || matched == fixed)
+                            return result;
+                        // readText consumed the end of the element
+                        --depth;
+                        --matched;
+                    }
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (matched == depth - 1) {
+                    --matched;
+                    if (matched < fixed)
+                        return result; // left the part or element holding the alias root
+                }
+                --depth;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read the text content of the current element.
+     * @return the text, or null if the element has anything else than text in it
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuffer text = new StringBuffer();
+        while (true) {
+            switch (reader.next()) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                text.append(reader.getText());
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                return text.toString();
+            default:
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Add the steps of a location expression to a path.
+     * @return false if the expression is not a plain path of child elements
+     */
+    private static boolean parseLocation(Object location, List<QName> path) {
+        // the BPEL4WS 1.1 query semantics are different, leave them alone
+        if (!(location instanceof OXPath10ExpressionBPEL20))
+            return false;
+        OXPath10ExpressionBPEL20 expr = (OXPath10ExpressionBPEL20) location;
+        String xpath = expr.getXpath();
+        NSContext nsctx = expr.getNamespaceCtx();
+        if (xpath == null || nsctx == null)
+            return false;
+
+        String[] steps = xpath.trim().split("/", -1);
+        for (int i = 0; i < steps.length; ++i) {
+            String step = steps[i].trim();
+            if (i == 0 && ".".equals(step) && steps.length > 1)
+                continue;
+            Matcher m = STEP.matcher(step);
+            if (!m.matches())
+                return false;
+            String prefix = m.group(1);
+            String ns;
+            if (prefix == null) {
+                // unprefixed names might get a default namespace depending on the expression language
+                if (nsctx.getNamespaceURI("") != null && nsctx.getNamespaceURI("").length() > 0)
+                    return false;
+                ns = null;
+            } else {
+                ns = nsctx.getNamespaceURI(prefix);
+                if (ns == null || ns.length() == 0)
+                    return false;
+            }
+            path.add(new QName(ns, m.group(2)));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine.migration;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.ode.bpel.common.CorrelationKeyHash;
+import org.apache.ode.bpel.dao.BpelDAOConnection;
+import org.apache.ode.bpel.engine.BpelProcess;
+
+/**
+ * Fills the correlation key hash columns of message routes and correlation set properties
+ * created before they were introduced. The hash can't be computed in SQL, so this goes row
+ * by row over JDBC. Tables of the DAO implementation that isn't used are just skipped.
+ */
+public class CorrelationKeyHashMigration implements Migration {
+    private static final Logger __log = LoggerFactory.getLogger(CorrelationKeyHashMigration.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    /** Table, primary key column, value column and hash column, for both DAO implementations. */
+    private static final String[][] COLUMNS = {
+        { "ODE_MESSAGE_ROUTE", "MESSAGE_ROUTE_ID", "CORRELATION_KEY", "CORRELATION_KEY_HASH" },
+        { "ODE_CORSET_PROP", "ID", "PROP_VALUE", "PROP_VALUE_HASH" },
+        { "BPEL_SELECTORS", "ID", "CORRELATION_KEY", "CORRELATION_KEY_HASH" },
+        { "BPEL_CORRELATION_PROP", "ID", "VALUE", "VALUE_HASH" }
+    };
+
+    private final DataSource _dataSource;
+
+    public CorrelationKeyHashMigration(DataSource dataSource) {
+        _dataSource = dataSource;
+    }
+
+    public boolean migrate(Set<BpelProcess> registeredProcesses, BpelDAOConnection connection) {
+        Connection conn = null;
+        try {
+            conn = _dataSource.getConnection();
+            for (String[] c : COLUMNS) {
+                if (!hasColumn(conn, c[0], c[3])) {
+                    __log.debug("No column " + c[3] + " in " + c[0] + ", skipping.");
+                    continue;
+                }
+                int count = fillHashes(conn, c[0], c[1], c[2], c[3]);
+                __log.debug("Filled " + count + " hashes in " + c[0] + "." + c[3]);
+            }
+            return true;
+        } catch (SQLException e) {
+            __log.error("Error filling the correlation key hashes", e);
+            return false;
+        } finally {
+            try {
+                if (conn != null) conn.close();
+            } catch (SQLException e) {
+                __log.debug("Error closing connection", e);
+            }
+        }
+    }
+
+    private boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData md = conn.getMetaData();
+        // identifiers may be stored in upper or lower case depending on the database
+        String[][] names = { { table, column }, { table.toLowerCase(), column.toLowerCase() } };
+        for (String[] n : names) {
+            ResultSet rs = md.getColumns(null, null, n[0], n[1]);
+            try {
+                if (rs.next()) return true;
+            } finally {
+                rs.close();
+            }
+        }
+        return false;
+    }
+
+    private int fillHashes(Connection conn, String table, String id, String value, String hash) throws SQLException {
+        PreparedStatement select = conn.prepareStatement("SELECT " + id + ", " + value + " FROM " + table
+                + " WHERE " + hash + " IS NULL AND " + value + " IS NOT NULL");
+        PreparedStatement update = conn.prepareStatement("UPDATE " + table + " SET " + hash + " = ? WHERE " + id + " = ?");
+        int count = 0;
+        try {
+            ResultSet rs = select.executeQuery();
+            try {
+                while (rs.next()) {
+                    update.setLong(1, CorrelationKeyHash.hash(rs.getString(2)));
+                    update.setObject(2, rs.getObject(1));
+                    update.addBatch();
+                    if (++count % BATCH_SIZE == 0) update.executeBatch();
+                }
+            } finally {
+                rs.close();
+            }
+            if (count % BATCH_SIZE != 0) update.executeBatch();
+        } finally {
+            select.close();
+            update.close();
+        }
+        return count;
+    }
+}
@@ -20,6 +20,7 @@
 package org.apache.ode.bpel.engine.migration;
 
 import org.apache.ode.bpel.engine.BpelProcess;
+import org.apache.ode.bpel.engine.ExecutionStateJournal;
 import org.apache.ode.bpel.engine.OutstandingRequestManager;
 import org.apache.ode.bpel.engine.ReplacementMapImpl;
 import org.apache.ode.bpel.dao.BpelDAOConnection;
@@ -168,7 +169,7 @@ public class CorrelationKeySetMigration implements Migration {
             ExecutionQueueImpl._classDescriptors.put("[Lorg.apache.ode.bpel.runtime.Selector;", osc);
 
             soup.setReplacementMap(new ReplacementMapImpl(oprocess));
-            ByteArrayInputStream iis = new ByteArrayInputStream(instance.getExecutionState());
+            ByteArrayInputStream iis = new ByteArrayInputStream(new ExecutionStateJournal(instance).load());
             soup.read(iis);
             return soup;
         } catch (Exception e) {
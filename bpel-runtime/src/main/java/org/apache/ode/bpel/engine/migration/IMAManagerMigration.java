@@ -30,6 +30,7 @@ import org.apache.ode.bpel.dao.BpelDAOConnection;
 import org.apache.ode.bpel.dao.ProcessDAO;
 import org.apache.ode.bpel.dao.ProcessInstanceDAO;
 import org.apache.ode.bpel.engine.BpelProcess;
+import org.apache.ode.bpel.engine.ExecutionStateJournal;
 import org.apache.ode.bpel.engine.IMAManager;
 import org.apache.ode.bpel.engine.IMAManager2;
 import org.apache.ode.jacob.vpu.ExecutionQueueImpl;
@@ -57,7 +58,7 @@ public class IMAManagerMigration implements Migration {
                     } else {
                         ExecutionQueueImpl soup = new ExecutionQueueImpl(this.getClass().getClassLoader());
                         soup.setReplacementMap(process.getReplacementMap(processDao.getProcessId()));
-                        soup.read(new ByteArrayInputStream(instance.getExecutionState()));
+                        soup.read(new ByteArrayInputStream(new ExecutionStateJournal(instance).load()));
                         Object data = soup.getGlobalData();
                         if (data instanceof IMAManager) {
                             IMAManager imaOld = (IMAManager) data;
@@ -42,7 +42,7 @@ import org.apache.ode.bpel.engine.Contexts;
 public class MigrationHandler {
     private static final Logger __log = LoggerFactory.getLogger(MigrationHandler.class);
 
-    public static final int CURRENT_SCHEMA_VERSION = 7;
+    public static final int CURRENT_SCHEMA_VERSION = 8;
 
 
     private Contexts _contexts;
@@ -59,6 +59,9 @@ public class MigrationHandler {
 
     public MigrationHandler(Contexts _contexts) {
         this._contexts = _contexts;
+        // needs the datasource, the hashes are filled over plain JDBC
+        migrationLinks.add(new MigrationLink(7, 8, new Migration[] {
+                new CorrelationKeyHashMigration(_contexts.dao.getDataSource()) } ));
     }
 
     public boolean migrate(final Set<BpelProcess> registeredProcesses, int migrationTransactionTimeout) {
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.evtproc;
+
+import java.util.Date;
+import java.util.List;
+
+import org.apache.ode.bpel.common.BpelEventFilter;
+import org.apache.ode.bpel.common.InstanceFilter;
+import org.apache.ode.bpel.evt.BpelEvent;
+
+/**
+ * Implemented by event listeners that keep the events they receive, to answer event queries
+ * of the management API instead of the database.
+ */
+public interface BpelEventReader {
+
+    /**
+     * @return whether the events are kept by this reader instead of the database; only then can it
+     * answer the event queries, otherwise it may not have all the events the database has
+     */
+    boolean isExclusive();
+
+    /**
+     * @return the events matching the filters, null if the filters can't be evaluated by this reader
+     */
+    List<BpelEvent> bpelEventQuery(InstanceFilter ifilter, BpelEventFilter efilter);
+
+    /**
+     * @return the times of the events matching the filters, null if the filters can't be evaluated by this reader
+     */
+    List<Date> bpelEventTimelineQuery(InstanceFilter ifilter, BpelEventFilter efilter);
+}
@@ -0,0 +1,542 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.evtproc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.common.BpelEventFilter;
+import org.apache.ode.bpel.common.Filter;
+import org.apache.ode.bpel.common.InstanceFilter;
+import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.bpel.evt.ProcessInstanceEvent;
+import org.apache.ode.utils.SerializableUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only store of process instance events, kept in memory-mapped segment files of a
+ * directory. Segments are written one after the other; once there are more than the maximum,
+ * the oldest segment gets unmapped and deleted, which is how events are cleaned up.
+ *
+ * Each record holds the time, instance id, type and process of the event, followed by the
+ * serialized event and a checksum, so that queries can filter records without deserializing
+ * them. For each segment a sparse index keeps the offset of the first record of every instance
+ * and, every {@link #INDEX_INTERVAL} records, the latest time seen so far; queries on instances
+ * or on a time range only scan the part of the segments that can match.
+ */
+public class EventJournal {
+
+    private static final Logger __log = LoggerFactory.getLogger(EventJournal.class);
+
+    static final String SEGMENT_SUFFIX = ".events";
+
+    /** Number of records between two entries of the time index. */
+    static final int INDEX_INTERVAL = 64;
+
+    private final File _dir;
+    private final int _segmentSize;
+    private final int _maxSegments;
+
+    /** Segments from oldest to newest; the last one is the one being written. Guarded by this. */
+    private final LinkedList<Segment> _segments = new LinkedList<Segment>();
+
+    private long _nextSeq;
+
+    private boolean _closed;
+
+    public EventJournal(File dir, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < 1024 || maxSegments < 1)
+            throw new IllegalArgumentException("Invalid event journal, segment size=" + segmentSize + " segments=" + maxSegments);
+        _dir = dir;
+        _segmentSize = segmentSize;
+        _maxSegments = maxSegments;
+        if (!_dir.isDirectory() && !_dir.mkdirs())
+            throw new IOException("Could not create the event journal directory " + _dir);
+        recover();
+    }
+
+    /**
+     * Append an event to the journal.
+     */
+    public void append(ProcessInstanceEvent event) throws IOException {
+        byte[] body = encode(event);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        int length = body.length + 4;
+        synchronized (this) {
+            if (_closed)
+                throw new IOException("Event journal " + _dir + " is closed");
+            Segment segment = _segments.isEmpty() ? null : _segments.getLast();
+            // keep room for the end marker
+            if (segment == null || segment.buf.capacity() - segment.end < length + 8)
+                segment = roll(length + 8);
+            ByteBuffer buf = segment.buf;
+            int offset = segment.end;
+            buf.position(offset);
+            buf.putInt(length);
+            buf.put(body);
+            buf.putInt((int) crc.getValue());
+            segment.indexRecord(offset, event.getTimestamp().getTime(), event.getProcessInstanceId());
+            segment.end = offset + 4 + length;
+        }
+    }
+
+    /**
+     * @param limit maximum number of events to return, 0 for no limit
+     * @return events matching the query, in the order they were written
+     */
+    public List<BpelEvent> read(Query query, int limit) {
+        final List<BpelEvent> events = new ArrayList<BpelEvent>();
+        scan(query, limit, new RecordHandler() {
+            public void record(ByteBuffer buf, long time, int payloadLength) {
+                byte[] payload = new byte[payloadLength];
+                buf.get(payload);
+                events.add((BpelEvent) SerializableUtils.toObject(payload, BpelEvent.class.getClassLoader()));
+            }
+        });
+        return events;
+    }
+
+    /**
+     * @return times of the events matching the query, in the order they were written
+     */
+    public List<Date> timeline(Query query) {
+        final List<Date> times = new ArrayList<Date>();
+        scan(query, 0, new RecordHandler() {
+            public void record(ByteBuffer buf, long time, int payloadLength) {
+                times.add(new Date(time));
+            }
+        });
+        return times;
+    }
+
+    public synchronized void close() {
+        if (_closed)
+            return;
+        _closed = true;
+        if (!_segments.isEmpty())
+            _segments.getLast().buf.force();
+        for (Segment segment : _segments)
+            segment.retire(false);
+        _segments.clear();
+    }
+
+    int getSegmentCount() {
+        synchronized (this) {
+            return _segments.size();
+        }
+    }
+
+    private interface RecordHandler {
+        /**
+         * @param buf positioned at the beginning of the serialized event
+         */
+        void record(ByteBuffer buf, long time, int payloadLength);
+    }
+
+    private void scan(Query query, int limit, RecordHandler handler) {
+        // find out which part of each segment to read while nothing moves, read without holding the lock;
+        // the segments being read stay mapped until the scan is over
+        List<Segment> segments = new ArrayList<Segment>();
+        List<ByteBuffer> views = new ArrayList<ByteBuffer>();
+        synchronized (this) {
+            for (Segment segment : _segments) {
+                int start = segment.startOffset(query);
+                if (start >= 0 && start < segment.end) {
+                    ByteBuffer view = segment.buf.duplicate();
+                    view.limit(segment.end);
+                    view.position(start);
+                    views.add(view);
+                    segment.readers++;
+                    segments.add(segment);
+                }
+            }
+        }
+        try {
+            int count = 0;
+            for (ByteBuffer view : views) {
+                while (view.remaining() >= 4) {
+                    int length = view.getInt();
+                    int next = view.position() + length;
+                    long time = view.getLong();
+                    long iid = view.getLong();
+                    String type = readString(view);
+                    String pid = readString(view);
+                    String name = readString(view);
+                    int payloadLength = view.getInt();
+                    if (query.matches(time, iid, type, pid, name)) {
+                        handler.record(view, time, payloadLength);
+                        if (limit > 0 && ++count >= limit)
+                            return;
+                    }
+                    view.position(next);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                for (Segment segment : segments)
+                    segment.doneReading();
+            }
+        }
+    }
+
+    private Segment roll(int minimumSize) throws IOException {
+        if (!_segments.isEmpty())
+            _segments.getLast().buf.force();
+        File file = new File(_dir, String.format("%020d", _nextSeq++) + SEGMENT_SUFFIX);
+        Segment segment = new Segment(file, map(file, Math.max(_segmentSize, minimumSize), true));
+        _segments.add(segment);
+        while (_segments.size() > _maxSegments)
+            _segments.removeFirst().retire(true);
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        File[] files = _dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+        for (int i = 0; i < files.length; ++i) {
+            File file = files[i];
+            String name = file.getName();
+            try {
+                _nextSeq = Math.max(_nextSeq, Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) + 1);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            boolean last = i == files.length - 1;
+            Segment segment = new Segment(file, map(file, (int) file.length(), last));
+            segment.recover(last);
+            _segments.add(segment);
+        }
+        while (_segments.size() > _maxSegments)
+            _segments.removeFirst().retire(true);
+    }
+
+    static MappedByteBuffer map(File file, int size, boolean writable) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            if (writable && raf.length() < size)
+                raf.setLength(size);
+            // the mapping stays valid once the channel is closed
+            return raf.getChannel().map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Release a mapping right away rather than once the buffer is collected: until then the file stays
+     * open, and can't be deleted on Windows. There's no API for this, so it's only done when the JVM
+     * lets us.
+     */
+    private static void unmap(MappedByteBuffer buf) {
+        try {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buf);
+            } catch (NoSuchMethodException e) {
+                // before Java 9, direct buffers have their own cleaner
+                Method cleanerMethod = buf.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            if (__log.isDebugEnabled())
+                __log.debug("Could not unmap an event journal segment, it will be once garbage collected", e);
+        }
+    }
+
+    static byte[] encode(ProcessInstanceEvent event) throws IOException {
+        byte[] payload = SerializableUtils.toBytes(event);
+        QName pid = event.getProcessId();
+        QName name = event.getProcessName();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(payload.length + 128);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeLong(event.getTimestamp().getTime());
+        out.writeLong(event.getProcessInstanceId() == null ? -1 : event.getProcessInstanceId());
+        writeString(out, BpelEvent.eventName(event));
+        writeString(out, pid == null ? "" : pid.toString());
+        writeString(out, name == null ? "" : name.toString());
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xffff];
+        buf.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class Segment {
+        final File file;
+        final MappedByteBuffer buf;
+        /** Offset of the end of the last record. */
+        int end;
+        int records;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        /** Offset of the first record of each instance. */
+        final HashMap<Long, Integer> firstRecords = new HashMap<Long, Integer>();
+        /** Pairs of (latest time of the records before, offset), every INDEX_INTERVAL records. */
+        final ArrayList<long[]> timeIndex = new ArrayList<long[]>();
+        /** Scans reading the mapping, guarded by the journal like the fields below. */
+        int readers;
+        boolean retired;
+        boolean delete;
+
+        Segment(File file, MappedByteBuffer buf) {
+            this.file = file;
+            this.buf = buf;
+        }
+
+        /**
+         * The segment is no longer part of the journal: unmap it, and delete its file if asked,
+         * once no scan reads it anymore.
+         */
+        void retire(boolean delete) {
+            this.retired = true;
+            this.delete = delete;
+            if (readers == 0)
+                release();
+        }
+
+        void doneReading() {
+            if (--readers == 0 && retired)
+                release();
+        }
+
+        private void release() {
+            unmap(buf);
+            if (delete && !file.delete())
+                __log.warn("Could not delete event journal segment " + file);
+        }
+
+        void indexRecord(int offset, long time, Long iid) {
+            if (records++ % INDEX_INTERVAL == 0)
+                timeIndex.add(new long[] { maxTime, offset });
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            Long key = iid == null ? Long.valueOf(-1) : iid;
+            if (!firstRecords.containsKey(key))
+                firstRecords.put(key, offset);
+        }
+
+        /**
+         * @return offset from where the segment may contain records matching the query, -1 if none
+         */
+        int startOffset(Query query) {
+            if (records == 0 || query.from > maxTime || query.to < minTime)
+                return -1;
+            int start = 0;
+            if (query.iids != null) {
+                start = Integer.MAX_VALUE;
+                for (Long iid : query.iids) {
+                    Integer first = firstRecords.get(iid);
+                    if (first != null) start = Math.min(start, first);
+                }
+                if (start == Integer.MAX_VALUE)
+                    return -1;
+            }
+            if (query.from != Long.MIN_VALUE) {
+                // last entry whose previous records are all too old
+                for (int i = timeIndex.size() - 1; i >= 0; --i) {
+                    long[] entry = timeIndex.get(i);
+                    if (entry[0] < query.from) {
+                        start = Math.max(start, (int) entry[1]);
+                        break;
+                    }
+                }
+            }
+            return start;
+        }
+
+        /**
+         * Rebuild the index from the records of the file, stopping at the first incomplete record.
+         */
+        void recover(boolean writable) {
+            ByteBuffer view = buf.duplicate();
+            CRC32 crc = new CRC32();
+            int offset = 0;
+            while (view.capacity() - offset >= 8) {
+                view.position(offset);
+                int length = view.getInt();
+                if (length <= 4 || length > view.capacity() - offset - 4)
+                    break;
+                byte[] body = new byte[length - 4];
+                view.get(body);
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != view.getInt())
+                    break;
+                ByteBuffer header = ByteBuffer.wrap(body);
+                long time = header.getLong();
+                long iid = header.getLong();
+                indexRecord(offset, time, iid);
+                offset += 4 + length;
+            }
+            end = offset;
+            if (writable && end < buf.capacity()) {
+                // get rid of what remains of a partial write, new records go there
+                buf.position(end);
+                while (buf.hasRemaining()) buf.put((byte) 0);
+            } else if (end < buf.capacity() && view.capacity() - end >= 4 && buf.getInt(end) != 0) {
+                __log.warn("Ignoring the end of corrupted event journal segment " + file + " from offset " + end);
+            }
+        }
+    }
+
+    /**
+     * Criteria on the records of the journal.
+     */
+    public static class Query {
+        Set<Long> iids;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        Pattern type;
+        Set<String> pids;
+        boolean pidsNegative;
+        Pattern name;
+        Pattern namespace;
+
+        /**
+         * @return a query equivalent to the given filters, null if they use criteria not kept in the journal
+         * (instance status, dates and properties)
+         */
+        public static Query create(InstanceFilter ifilter, BpelEventFilter efilter) {
+            Query query = new Query();
+            if (ifilter != null) {
+                if (ifilter.getStatusFilter() != null || ifilter.getStartedDateFilter() != null
+                        || ifilter.getLastActiveDateFilter() != null
+                        || (ifilter.getPropertyValuesFilter() != null && !ifilter.getPropertyValuesFilter().isEmpty()))
+                    return null;
+                if (ifilter.getIidFilter() != null && !ifilter.getIidFilter().isEmpty()) {
+                    query.iids = new HashSet<Long>();
+                    for (String iid : ifilter.getIidFilter())
+                        query.iids.add(Long.valueOf(iid));
+                }
+                if (ifilter.getPidFilter() != null && !ifilter.getPidFilter().isEmpty()) {
+                    query.pids = new HashSet<String>(ifilter.getPidFilter());
+                    query.pidsNegative = ifilter.arePidsNegative();
+                }
+                query.name = wildcard(ifilter.getNameFilter());
+                query.namespace = wildcard(ifilter.getNamespaceFilter());
+            }
+            if (efilter != null) {
+                query.type = wildcard(efilter.getTypeFilter());
+                for (Filter.Restriction<Date> r : efilter.getTimestampFilter())
+                    query.restrictTime(r.op, r.value.getTime());
+            }
+            return query;
+        }
+
+        void restrictTime(String op, long time) {
+            if (op.startsWith("=")) {
+                from = Math.max(from, time);
+                to = Math.min(to, time);
+            } else if (op.startsWith("<=")) {
+                to = Math.min(to, time);
+            } else if (op.startsWith(">=")) {
+                from = Math.max(from, time);
+            } else if (op.startsWith("<")) {
+                to = Math.min(to, time - 1);
+            } else if (op.startsWith(">")) {
+                from = Math.max(from, time + 1);
+            }
+        }
+
+        boolean matches(long time, long iid, String eventType, String pid, String processName) {
+            if (time < from || time > to)
+                return false;
+            if (iids != null && !iids.contains(iid))
+                return false;
+            if (type != null && !type.matcher(eventType).matches())
+                return false;
+            if (pids != null && pids.contains(pid) == pidsNegative)
+                return false;
+            if (name != null || namespace != null) {
+                QName qname = processName.length() == 0 ? new QName("") : QName.valueOf(processName);
+                if (name != null && !name.matcher(qname.getLocalPart()).matches())
+                    return false;
+                if (namespace != null && !namespace.matcher(qname.getNamespaceURI()).matches())
+                    return false;
+            }
+            return true;
+        }
+
+        private static Pattern wildcard(String filter) {
+            if (filter == null)
+                return null;
+            String[] parts = filter.split("\\*", -1);
+            StringBuffer regex = new StringBuffer();
+            for (int i = 0; i < parts.length; ++i) {
+                if (i > 0) regex.append(".*");
+                regex.append(Pattern.quote(parts[i]));
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.evtproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ode.bpel.common.BpelEventFilter;
+import org.apache.ode.bpel.common.InstanceFilter;
+import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.bpel.evt.ProcessInstanceEvent;
+import org.apache.ode.bpel.iapi.BpelEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps process instance events in an {@link EventJournal} on the file system, and answers the
+ * event queries of the management API from it when exclusive. To use it add the following lines to your
+ * ode-xxx.properties file:
+ * <code>
+ * ode-axis2.event.listeners=org.apache.ode.bpel.evtproc.EventJournalListener
+ * eventjournal.directory=/var/lib/ode/events
+ * eventjournal.segmentSize=16777216
+ * eventjournal.maxSegments=64
+ * eventjournal.exclusive=true
+ * </code>
+ * With eventjournal.exclusive the events are no longer inserted in the database, and the event
+ * queries are answered from the journal; otherwise they still go to the database, as the journal
+ * doesn't have the events from before it was enabled nor those of pruned segments. Listeners get
+ * the events when they occur, so the journal also has the events of transactions that rolled back.
+ * The journal is always passed the events by the engine thread, whatever the configured dispatch
+ * policy.
+ */
+public class EventJournalListener implements BpelEventListener, BpelEventReader {
+    private static final Logger __log = LoggerFactory.getLogger(EventJournalListener.class);
+
+    static final String DIRECTORY_KEY = "eventjournal.directory";
+    static final String SEGMENT_SIZE_KEY = "eventjournal.segmentSize";
+    static final String MAX_SEGMENTS_KEY = "eventjournal.maxSegments";
+    static final String EXCLUSIVE_KEY = "eventjournal.exclusive";
+
+    private volatile EventJournal _journal;
+    private boolean _exclusive;
+
+    public void onEvent(BpelEvent bpelEvent) {
+        EventJournal journal = _journal;
+        if (journal == null || !(bpelEvent instanceof ProcessInstanceEvent))
+            return;
+        try {
+            journal.append((ProcessInstanceEvent) bpelEvent);
+            if (_exclusive)
+                bpelEvent.disableEventPersisting();
+        } catch (IOException e) {
+            __log.error("Could not write event " + bpelEvent + " to the event journal.", e);
+        }
+    }
+
+    public void startup(Properties configProperties) {
+        if (configProperties == null)
+            configProperties = new Properties();
+        String dir = configProperties.getProperty(DIRECTORY_KEY);
+        if (dir == null || dir.trim().length() == 0)
+            throw new IllegalArgumentException("The " + DIRECTORY_KEY + " property is required by the event journal.");
+        int segmentSize = Integer.parseInt(configProperties.getProperty(SEGMENT_SIZE_KEY, "" + 16 * 1024 * 1024));
+        int maxSegments = Integer.parseInt(configProperties.getProperty(MAX_SEGMENTS_KEY, "64"));
+        _exclusive = Boolean.valueOf(configProperties.getProperty(EXCLUSIVE_KEY, "false"));
+        try {
+            _journal = new EventJournal(new File(dir), segmentSize, maxSegments);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open the event journal in " + dir, e);
+        }
+    }
+
+    public boolean isExclusive() {
+        return _exclusive;
+    }
+
+    public void shutdown() {
+        EventJournal journal = _journal;
+        _journal = null;
+        if (journal != null)
+            journal.close();
+    }
+
+    public List<BpelEvent> bpelEventQuery(InstanceFilter ifilter, BpelEventFilter efilter) {
+        EventJournal journal = _journal;
+        EventJournal.Query query = EventJournal.Query.create(ifilter, efilter);
+        if (journal == null || query == null)
+            return null;
+        return journal.read(query, efilter == null ? 0 : efilter.limit);
+    }
+
+    public List<Date> bpelEventTimelineQuery(InstanceFilter ifilter, BpelEventFilter efilter) {
+        EventJournal journal = _journal;
+        EventJournal.Query query = EventJournal.Query.create(ifilter, efilter);
+        if (journal == null || query == null)
+            return null;
+        return journal.timeline(query);
+    }
+}
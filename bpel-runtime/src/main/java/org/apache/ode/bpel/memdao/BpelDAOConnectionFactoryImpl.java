@@ -45,6 +45,22 @@ public class BpelDAOConnectionFactoryImpl implements BpelDAOConnectionFactory {
         _mexTtl = ttl;
     }
 
+    /**
+     * @param capacity maximum number of in-memory message exchanges, 0 for no limit
+     * @param capacityTimeout how long to wait for room when the message exchanges store is full, in milliseconds
+     */
+    public BpelDAOConnectionFactoryImpl(Scheduler sched, long ttl, int capacity, long capacityTimeout) {
+        this(sched, ttl);
+        BpelDAOConnectionImpl._mexStore.setCapacity(capacity, capacityTimeout);
+    }
+
+    /**
+     * @return the store of in-memory message exchanges, shared by all factories
+     */
+    public MessageExchangeStore getMessageExchangeStore() {
+        return BpelDAOConnectionImpl._mexStore;
+    }
+
     public BpelDAOConnection getConnection() {
         return new BpelDAOConnectionImpl(__StateStore, _scheduler, _mexTtl);
     }
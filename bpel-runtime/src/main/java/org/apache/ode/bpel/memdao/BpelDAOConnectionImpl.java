@@ -49,7 +49,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -63,10 +62,8 @@ class BpelDAOConnectionImpl implements BpelDAOConnection {
     private List<BpelEvent> _events = new LinkedList<BpelEvent>();
     long _mexTtl;
 
-    private static Map<String,MessageExchangeDAO> _mexStore = Collections.synchronizedMap(new HashMap<String,MessageExchangeDAO>());
-    protected static Map<String, Long> _mexAge = new ConcurrentHashMap<String, Long>();
+    static final MessageExchangeStore _mexStore = new MessageExchangeStore();
     private static AtomicLong counter = new AtomicLong(Long.MAX_VALUE / 2);
-    private static volatile long _lastRemoval = 0;
 
     BpelDAOConnectionImpl(Map<QName, ProcessDaoImpl> store, Scheduler scheduler, long mexTtl) {
         _store = store;
@@ -197,28 +194,13 @@ class BpelDAOConnectionImpl implements BpelDAOConnection {
     public MessageExchangeDAO createMessageExchange(char dir) {
         final String id = Long.toString(counter.getAndIncrement());
         MessageExchangeDAO mex = new MessageExchangeDAOImpl(dir,id);
-        long now = System.currentTimeMillis();
-        _mexStore.put(id,mex);
-        _mexAge.put(id, now);
-
-        if (now > _lastRemoval + (_mexTtl / 10)) {
-            _lastRemoval = now;
-            Object[] oldMexs = _mexAge.keySet().toArray();
-            for (int i=oldMexs.length-1; i>0; i--) {
-                String oldMex = (String) oldMexs[i];
-                Long age = _mexAge.get(oldMex);
-                if (age != null && now-age > _mexTtl) {
-                    removeMessageExchange(oldMex);
-                    _mexAge.remove(oldMex);
-                }
-            }
-        }
+        // expires the message exchanges that exceeded their time-to-live as well
+        _mexStore.put(id, mex, _mexTtl);
 
         // Removing right away on rollback
         onRollback(new Runnable() {
             public void run() {
                 removeMessageExchange(id);
-                _mexAge.remove(id);
             }
         });
 
@@ -345,7 +327,6 @@ class BpelDAOConnectionImpl implements BpelDAOConnection {
         MessageExchangeDAO mex = _mexStore.remove(mexId);
         if (mex == null)
             __log.warn("Couldn't find mex " + mexId + " for cleanup.");
-        _mexAge.remove(mexId);
     }
 
     public void defer(final Runnable runnable) {
@@ -25,24 +25,65 @@ import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.dao.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A very simple, in-memory implementation of the {@link CorrelatorDAO} interface.
+ *
+ * Routes and queued messages are indexed by the canonical form of their correlation keys, so that
+ * matching an inbound message or a new instance only looks at the entries sharing a key with it
+ * instead of scanning everything waiting on the correlator:
+ * <ul>
+ * <li>a route matches a message when all its keys are in the message key set, it is indexed under
+ * one of its keys (or under the empty key set) and candidates are collected for each key of the
+ * message;</li>
+ * <li>a queued message matches an instance when the instance key set is a subset of the message
+ * key set, it is indexed under each of its keys and candidates are looked up by one key of the
+ * instance.</li>
+ * </ul>
  */
 class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
     private static final Logger __log = LoggerFactory.getLogger(CorrelatorDaoImpl.class);
 
+    /** Index entry of the routes and messages with an empty correlation key set. */
+    private static final String NO_KEY = "";
+
+    private static final Comparator<MessageRouteDaoImpl> ROUTE_ORDER = new Comparator<MessageRouteDaoImpl>() {
+        public int compare(MessageRouteDaoImpl o1, MessageRouteDaoImpl o2) {
+            return o1._seq < o2._seq ? -1 : (o1._seq == o2._seq ? 0 : 1);
+        }
+    };
+
     private String _correlatorId;
-    private List<MsgQueueEntry> _messages;
-    private List<MessageRouteDaoImpl> _routes;
+    /** Queued messages, in arrival order. */
+    private Set<MsgQueueEntry> _messages;
+    /** Routes, in the order they were added. */
+    private Set<MessageRouteDaoImpl> _routes;
+    /** Queued messages by each key of their key set, in arrival order. */
+    private Map<String, Set<MsgQueueEntry>> _messagesByKey;
+    /** Routes by the first key of their key set. */
+    private Map<String, Set<MessageRouteDaoImpl>> _routesByKey;
+    /** Routes with an opaque key set and a route="all" policy, which also match messages without keys. */
+    private Set<MessageRouteDaoImpl> _opaqueAllRoutes;
+    private Map<ProcessInstanceDaoImpl, List<MessageRouteDaoImpl>> _routesByInstance;
+    private long _routeSeq;
     private BpelDAOConnectionImpl _conn;
 
     CorrelatorDaoImpl(String correlatorId, BpelDAOConnectionImpl conn) {
-        _messages = new ArrayList<MsgQueueEntry>();
-        _routes = new ArrayList<MessageRouteDaoImpl>();
+        _messages = new LinkedHashSet<MsgQueueEntry>();
+        _routes = new LinkedHashSet<MessageRouteDaoImpl>();
+        _messagesByKey = new HashMap<String, Set<MsgQueueEntry>>();
+        _routesByKey = new HashMap<String, Set<MessageRouteDaoImpl>>();
+        _opaqueAllRoutes = new LinkedHashSet<MessageRouteDaoImpl>();
+        _routesByInstance = new HashMap<ProcessInstanceDaoImpl, List<MessageRouteDaoImpl>>();
         _correlatorId = correlatorId;
         _conn = conn;
     }
@@ -51,12 +92,15 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         if (__log.isDebugEnabled()) {
             __log.debug("dequeueEarliest: MATCHING correlationKey=" + instanceKeySet);
         }
-        for (Iterator<MsgQueueEntry> i = _messages.iterator(); i.hasNext();) {
-            MsgQueueEntry mqe = i.next();
-            CorrelationKeySet aKeySet = mqe.keySet;
-            if (aKeySet.isRoutableTo(instanceKeySet, false)) {
-                i.remove();
-                return mqe.message;
+        // any message able to match has all the instance keys, the first one is enough to narrow them down
+        Iterator<CorrelationKey> keys = instanceKeySet.iterator();
+        Set<MsgQueueEntry> candidates = keys.hasNext() ? _messagesByKey.get(keys.next().toCanonicalString()) : _messages;
+        if (candidates != null) {
+            for (MsgQueueEntry mqe : candidates) {
+                if (mqe.keySet.isRoutableTo(instanceKeySet, false)) {
+                    unindex(mqe);
+                    return mqe.message;
+                }
             }
         }
         if (__log.isDebugEnabled()) {
@@ -95,7 +139,7 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         }
 
         MsgQueueEntry mqe = new MsgQueueEntry(mex, keySet);
-        _messages.add(mqe);
+        index(mqe);
     }
 
     public void addRoute(String routeId,ProcessInstanceDAO target, int idx, CorrelationKeySet keySet, String routePolicy) {
@@ -103,10 +147,11 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
             __log.debug("addRoute: target=" + target + " correlationKeySet=" + keySet);
         }
 
-        final MessageRouteDaoImpl mr = new MessageRouteDaoImpl((ProcessInstanceDaoImpl)target, routeId, keySet, idx, routePolicy);
+        final MessageRouteDaoImpl mr = new MessageRouteDaoImpl(this, (ProcessInstanceDaoImpl)target, routeId, keySet, idx, routePolicy);
         _conn.defer(new Runnable() {
             public void run() {
-                _routes.add(mr);
+                mr._seq = _routeSeq++;
+                index(mr);
             }
         });
     }
@@ -116,14 +161,101 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
     }
 
     void _removeRoutes(String routeGroupId, ProcessInstanceDaoImpl target) {
-        for (Iterator<MessageRouteDaoImpl> i = _routes.iterator(); i.hasNext();) {
-            MessageRouteDaoImpl we = i.next();
-            if ((we._groupId.equals(routeGroupId) || routeGroupId == null) && we._instance == target) {
-                i.remove();
+        List<MessageRouteDaoImpl> routes = _routesByInstance.get(target);
+        if (routes == null)
+            return;
+        for (MessageRouteDaoImpl we : new ArrayList<MessageRouteDaoImpl>(routes)) {
+            if (we._groupId.equals(routeGroupId) || routeGroupId == null) {
+                unindex(we);
             }
         }
     }
 
+    /**
+     * Change the key set of a route, keeping the indexes up to date.
+     */
+    void setRouteKeySet(MessageRouteDaoImpl route, CorrelationKeySet keySet) {
+        if (_routes.contains(route)) {
+            unindex(route);
+            route._ckeySet = keySet;
+            index(route);
+        } else {
+            // not added yet
+            route._ckeySet = keySet;
+        }
+    }
+
+    private void index(MessageRouteDaoImpl route) {
+        assert route._ckeySet != null;
+        _routes.add(route);
+        add(_routesByKey, firstKey(route._ckeySet), route);
+        if (isOpaqueAll(route))
+            _opaqueAllRoutes.add(route);
+        List<MessageRouteDaoImpl> routes = _routesByInstance.get(route._instance);
+        if (routes == null) {
+            routes = new ArrayList<MessageRouteDaoImpl>(2);
+            _routesByInstance.put(route._instance, routes);
+        }
+        routes.add(route);
+    }
+
+    private void unindex(MessageRouteDaoImpl route) {
+        _routes.remove(route);
+        remove(_routesByKey, firstKey(route._ckeySet), route);
+        _opaqueAllRoutes.remove(route);
+        List<MessageRouteDaoImpl> routes = _routesByInstance.get(route._instance);
+        if (routes != null) {
+            routes.remove(route);
+            if (routes.isEmpty())
+                _routesByInstance.remove(route._instance);
+        }
+    }
+
+    private void index(MsgQueueEntry mqe) {
+        _messages.add(mqe);
+        for (CorrelationKey ckey : keys(mqe.keySet))
+            add(_messagesByKey, ckey.toCanonicalString(), mqe);
+    }
+
+    private void unindex(MsgQueueEntry mqe) {
+        _messages.remove(mqe);
+        for (CorrelationKey ckey : keys(mqe.keySet))
+            remove(_messagesByKey, ckey.toCanonicalString(), mqe);
+    }
+
+    private static boolean isOpaqueAll(MessageRouteDaoImpl route) {
+        return "all".equals(route.getRoute()) && route._ckeySet.isOpaque();
+    }
+
+    private static String firstKey(CorrelationKeySet keySet) {
+        Iterator<CorrelationKey> keys = keySet.iterator();
+        return keys.hasNext() ? keys.next().toCanonicalString() : NO_KEY;
+    }
+
+    private static Collection<CorrelationKey> keys(CorrelationKeySet keySet) {
+        if (keySet == null)
+            return Collections.emptyList();
+        List<CorrelationKey> keys = new ArrayList<CorrelationKey>();
+        for (Iterator<CorrelationKey> i = keySet.iterator(); i.hasNext();)
+            keys.add(i.next());
+        return keys;
+    }
+
+    private static <T> void add(Map<String, Set<T>> index, String key, T value) {
+        Set<T> entries = index.get(key);
+        if (entries == null) {
+            entries = new LinkedHashSet<T>(2);
+            index.put(key, entries);
+        }
+        entries.add(value);
+    }
+
+    private static <T> void remove(Map<String, Set<T>> index, String key, T value) {
+        Set<T> entries = index.get(key);
+        if (entries != null && entries.remove(value) && entries.isEmpty())
+            index.remove(key);
+    }
+
     /**
      * @see java.lang.Object#toString()
      */
@@ -154,8 +286,11 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         }
 
         public void setCorrelationKey(CorrelationKey ckey) {
+            boolean queued = _messages.contains(this);
+            if (queued) unindex(this);
             keySet = new CorrelationKeySet();
             keySet.add(ckey);
+            if (queued) index(this);
         }
     }
 
@@ -171,7 +306,17 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
 
         __log.debug("findRoute: keySet={}",correlationKeySet);
 
-        for (MessageRouteDaoImpl route : _routes) {
+        // a route can only match if its first key is one of the message keys, or if it has no key
+        List<MessageRouteDaoImpl> candidates = new ArrayList<MessageRouteDaoImpl>();
+        collect(candidates, _routesByKey.get(NO_KEY));
+        for (Iterator<CorrelationKey> i = correlationKeySet.iterator(); i.hasNext();)
+            collect(candidates, _routesByKey.get(i.next().toCanonicalString()));
+        if (correlationKeySet.isEmpty())
+            collect(candidates, _opaqueAllRoutes);
+        if (candidates.size() > 1)
+            Collections.sort(candidates, ROUTE_ORDER);
+
+        for (MessageRouteDaoImpl route : candidates) {
             assert route._ckeySet != null;
 
             if(correlationKeySet.isRoutableTo(route._ckeySet, "all".equals(route.getRoute()))) {
@@ -188,4 +333,9 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
 
         return routes;
     }
+
+    private static void collect(List<MessageRouteDaoImpl> candidates, Set<MessageRouteDaoImpl> routes) {
+        if (routes != null)
+            candidates.addAll(routes);
+    }
 }
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.memdao;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ode.bpel.dao.MessageExchangeDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Message exchanges of in-memory processes, by id.
+ *
+ * Lookups and updates go through a concurrent map, so that invocations of in-memory processes
+ * don't contend on a single monitor. Message exchanges are also filed in generations by expiration
+ * time, each covering a fixed slice of time: expiring them only takes the generations that are
+ * entirely in the past, instead of looking at the age of every message exchange.
+ *
+ * The store may be bounded; once full, new message exchanges wait for room for a while and are
+ * refused if none was made.
+ */
+public class MessageExchangeStore implements MessageExchangeStoreMBean {
+
+    private static final Logger __log = LoggerFactory.getLogger(MessageExchangeStore.class);
+
+    static final long DEFAULT_GENERATION = 1000;
+
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+
+    /** Entries by generation of their expiration time. Released entries are skipped on expiration. */
+    private final ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<Entry>> _generations =
+            new ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<Entry>>();
+
+    private final long _generation;
+
+    /** Last generation that expired. */
+    private final AtomicLong _expiredGeneration = new AtomicLong(Long.MIN_VALUE);
+
+    private final AtomicInteger _live = new AtomicInteger();
+    private final AtomicLong _created = new AtomicLong();
+    private final AtomicLong _released = new AtomicLong();
+    private final AtomicLong _expired = new AtomicLong();
+    private final AtomicLong _blocked = new AtomicLong();
+    private final AtomicLong _rejected = new AtomicLong();
+
+    private volatile int _capacity;
+    private volatile long _capacityTimeout;
+
+    /** Threads waiting for room, only notified when there are some. */
+    private final AtomicInteger _waiting = new AtomicInteger();
+    private final Object _room = new Object();
+
+    public MessageExchangeStore() {
+        this(DEFAULT_GENERATION);
+    }
+
+    MessageExchangeStore(long generation) {
+        if (generation <= 0)
+            throw new IllegalArgumentException("Invalid generation length: " + generation);
+        _generation = generation;
+    }
+
+    /**
+     * @param capacity maximum number of message exchanges, 0 for no limit
+     * @param timeout how long to wait for room when full, in milliseconds
+     */
+    public void setCapacity(int capacity, long timeout) {
+        _capacity = capacity;
+        _capacityTimeout = timeout;
+        wakeup();
+    }
+
+    /**
+     * Add a message exchange, waiting for room if the store is full.
+     *
+     * @param ttl time-to-live of the message exchange, in milliseconds
+     * @throws IllegalStateException if the store was still full after the capacity timeout
+     */
+    public void put(String id, MessageExchangeDAO mex, long ttl) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        reserve(id);
+
+        Entry entry = new Entry(id, mex, now + ttl);
+        Entry replaced = _entries.put(id, entry);
+        if (replaced != null) {
+            // same id added twice, keep a single slot
+            replaced.release();
+            _live.decrementAndGet();
+            wakeup();
+        }
+        _created.incrementAndGet();
+        file(entry);
+    }
+
+    public MessageExchangeDAO get(String id) {
+        Entry entry = _entries.get(id);
+        return entry == null ? null : entry.mex;
+    }
+
+    /**
+     * @return the message exchange that was removed, <b>null</b> if it wasn't in the store
+     */
+    public MessageExchangeDAO remove(String id) {
+        Entry entry = _entries.remove(id);
+        if (entry == null)
+            return null;
+        MessageExchangeDAO mex = entry.release();
+        _live.decrementAndGet();
+        _released.incrementAndGet();
+        wakeup();
+        return mex;
+    }
+
+    public void expire() {
+        expire(System.currentTimeMillis());
+    }
+
+    /**
+     * Discard the entries of the generations that are over. Only one thread does it at a time, and
+     * at most once per generation.
+     */
+    void expire(long now) {
+        long current = now / _generation;
+        long last = _expiredGeneration.get();
+        if (current <= last || !_expiredGeneration.compareAndSet(last, current))
+            return;
+
+        int count = 0;
+        Map.Entry<Long, ConcurrentLinkedQueue<Entry>> generation;
+        while ((generation = _generations.firstEntry()) != null && generation.getKey() < current) {
+            if (!_generations.remove(generation.getKey(), generation.getValue()))
+                continue;
+            Entry entry;
+            while ((entry = generation.getValue().poll()) != null) {
+                if (!entry.removed && _entries.remove(entry.id, entry)) {
+                    entry.release();
+                    _live.decrementAndGet();
+                    _expired.incrementAndGet();
+                    ++count;
+                }
+            }
+        }
+        if (count > 0) {
+            if (__log.isDebugEnabled()) __log.debug("Expired " + count + " in-memory message exchange(s).");
+            wakeup();
+        }
+    }
+
+    private void file(Entry entry) {
+        Long key = entry.expiration / _generation;
+        while (true) {
+            ConcurrentLinkedQueue<Entry> generation = _generations.get(key);
+            if (generation == null) {
+                ConcurrentLinkedQueue<Entry> created = new ConcurrentLinkedQueue<Entry>();
+                generation = _generations.putIfAbsent(key, created);
+                if (generation == null) generation = created;
+            }
+            generation.offer(entry);
+            // the generation may have expired concurrently, file the entry again in that case;
+            // expiring an entry twice is harmless
+            if (_generations.get(key) == generation)
+                return;
+        }
+    }
+
+    private void reserve(String id) {
+        if (tryReserve())
+            return;
+
+        _blocked.incrementAndGet();
+        long deadline = System.currentTimeMillis() + _capacityTimeout;
+        _waiting.incrementAndGet();
+        try {
+            while (!tryReserve()) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    _rejected.incrementAndGet();
+                    throw new IllegalStateException("Can't create in-memory message exchange " + id
+                            + ", the store is full (" + _capacity + " message exchanges).");
+                }
+                expire(now);
+                synchronized (_room) {
+                    try {
+                        // bounded wait, room may be made between the check and the wait
+                        _room.wait(Math.min(deadline - now, 10));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        _rejected.incrementAndGet();
+                        throw new IllegalStateException("Interrupted while waiting for room for in-memory message exchange " + id);
+                    }
+                }
+            }
+        } finally {
+            _waiting.decrementAndGet();
+        }
+    }
+
+    private boolean tryReserve() {
+        int capacity = _capacity;
+        if (_live.incrementAndGet() <= capacity || capacity <= 0)
+            return true;
+        _live.decrementAndGet();
+        return false;
+    }
+
+    private void wakeup() {
+        if (_waiting.get() > 0) {
+            synchronized (_room) {
+                _room.notifyAll();
+            }
+        }
+    }
+
+    public int getLiveCount() {
+        return _live.get();
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    public long getCreatedCount() {
+        return _created.get();
+    }
+
+    public long getReleasedCount() {
+        return _released.get();
+    }
+
+    public long getExpiredCount() {
+        return _expired.get();
+    }
+
+    public long getBlockedCount() {
+        return _blocked.get();
+    }
+
+    public long getRejectedCount() {
+        return _rejected.get();
+    }
+
+    /**
+     * Entries stay in their generation until it expires, they let go of their message exchange as
+     * soon as they're out of the store.
+     */
+    private static class Entry {
+        final String id;
+        volatile MessageExchangeDAO mex;
+        final long expiration;
+        volatile boolean removed;
+
+        Entry(String id, MessageExchangeDAO mex, long expiration) {
+            this.id = id;
+            this.mex = mex;
+            this.expiration = expiration;
+        }
+
+        MessageExchangeDAO release() {
+            MessageExchangeDAO released = mex;
+            removed = true;
+            mex = null;
+            return released;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.memdao;
+
+/**
+ * Management interface of the {@link MessageExchangeStore} of in-memory processes.
+ */
+public interface MessageExchangeStoreMBean {
+
+    /**
+     * @return number of message exchanges currently in the store
+     */
+    int getLiveCount();
+
+    /**
+     * @return maximum number of message exchanges in the store, 0 when unbounded
+     */
+    int getCapacity();
+
+    long getCreatedCount();
+
+    /**
+     * @return number of message exchanges released by the engine or removed on rollback
+     */
+    long getReleasedCount();
+
+    /**
+     * @return number of message exchanges discarded because they exceeded their time-to-live
+     */
+    long getExpiredCount();
+
+    /**
+     * @return number of message exchanges that had to wait for room in the store
+     */
+    long getBlockedCount();
+
+    /**
+     * @return number of message exchanges refused because the store stayed full
+     */
+    long getRejectedCount();
+
+    /**
+     * Discard the message exchanges that exceeded their time-to-live now.
+     */
+    void expire();
+}
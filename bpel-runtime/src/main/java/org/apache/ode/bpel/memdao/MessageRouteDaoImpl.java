@@ -28,13 +28,17 @@ import org.apache.ode.bpel.dao.ProcessInstanceDAO;
  * A very simple, in-memory implementation of the {@link MessageRouteDAO} interface.
  */
 class MessageRouteDaoImpl extends DaoBaseImpl implements MessageRouteDAO {
+    final CorrelatorDaoImpl _correlator;
     ProcessInstanceDaoImpl _instance;
     String _groupId;
     CorrelationKeySet _ckeySet;
     int _idx;
     String _route;
+    /** Order in which the route was added to its correlator. */
+    long _seq;
 
-    MessageRouteDaoImpl(ProcessInstanceDaoImpl owner, String groupId, CorrelationKeySet ckeySet, int idx, String routePolicy) {
+    MessageRouteDaoImpl(CorrelatorDaoImpl correlator, ProcessInstanceDaoImpl owner, String groupId, CorrelationKeySet ckeySet, int idx, String routePolicy) {
+        _correlator = correlator;
         _instance = owner;
         _groupId = groupId;
         _ckeySet = ckeySet;
@@ -63,8 +67,9 @@ class MessageRouteDaoImpl extends DaoBaseImpl implements MessageRouteDAO {
     }
 
     public void setCorrelationKey(CorrelationKey key) {
-        _ckeySet = new CorrelationKeySet();
-        _ckeySet.add(key);
+        CorrelationKeySet keySet = new CorrelationKeySet();
+        keySet.add(key);
+        _correlator.setRouteKeySet(this, keySet);
     }
 
     public CorrelationKey getCorrelationKey() {
@@ -72,6 +77,6 @@ class MessageRouteDaoImpl extends DaoBaseImpl implements MessageRouteDAO {
     }
 
     public void setCorrelationKeySet(CorrelationKeySet keySet) {
-        _ckeySet = keySet;
+        _correlator.setRouteKeySet(this, keySet);
     }
 }
@@ -134,6 +134,14 @@ public class ProcessInstanceDaoImpl extends DaoBaseImpl implements ProcessInstan
         throw new IllegalStateException("In-memory instances are never serialized");
     }
 
+    public void appendExecutionStateDelta(byte[] delta) {
+        throw new IllegalStateException("In-memory instances are never serialized");
+    }
+
+    public List<byte[]> getExecutionStateDeltas() {
+        throw new IllegalStateException("In-memory instances are never serialized");
+    }
+
     public Object getSoup() {
         return _soup;
     }
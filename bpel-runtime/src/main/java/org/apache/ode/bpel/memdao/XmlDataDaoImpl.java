@@ -66,6 +66,14 @@ class XmlDataDaoImpl extends DaoBaseImpl implements XmlDataDAO {
         return copy;
     }
 
+    /**
+     * @see XmlDataDAO#getUnparsedData()
+     */
+    public String getUnparsedData() {
+        // always kept as a DOM
+        return null;
+    }
+
     /**
      * @see XmlDataDAO#remove()
      */
@@ -26,8 +26,12 @@ import org.apache.ode.bpel.explang.ExpressionLanguageRuntime;
 import org.apache.ode.bpel.obj.OExpression;
 import org.apache.ode.bpel.obj.OExpressionLanguage;
 import org.apache.ode.utils.xsd.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Node;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
@@ -38,6 +42,8 @@ import java.util.Map;
  * a given expression to the appropriate language runtime.
  */
 public class ExpressionLanguageRuntimeRegistry  {
+  private static final Logger __log = LoggerFactory.getLogger(ExpressionLanguageRuntimeRegistry.class);
+
   private final Map<OExpressionLanguage, ExpressionLanguageRuntime> _runtimes =
     new HashMap<OExpressionLanguage, ExpressionLanguageRuntime>();
 
@@ -92,6 +98,21 @@ public class ExpressionLanguageRuntimeRegistry  {
     return findRuntime(cexp).evaluateAsDuration(cexp, ctx);
   }
 
+  /**
+   * Releases whatever the runtimes keep for the process, such as prepared expressions.
+   */
+  public void close() {
+    for (ExpressionLanguageRuntime elangRT : _runtimes.values()) {
+      if (elangRT instanceof Closeable) {
+        try {
+          ((Closeable) elangRT).close();
+        } catch (IOException e) {
+          __log.warn("Error closing expression language runtime " + elangRT, e);
+        }
+      }
+    }
+  }
+
   private ExpressionLanguageRuntime findRuntime(OExpression cexp) {
     return _runtimes.get(cexp.getExpressionLanguage());
   }
@@ -27,9 +27,17 @@ import static org.junit.Assert.fail;
 
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.namespace.QName;
 
@@ -240,6 +248,72 @@ public class XPath20ExpressionRuntimeTest implements EvaluationContext {
         assertEquals(0, retVal.getElementsByTagNameNS("http://foobar", "empty").getLength());
     }
 
+    @Test
+    public void testCompiledExpressionReuse() throws Exception {
+        OXPath20ExpressionBPEL20 exp = compile("$foo");
+        for (int i = 0; i < 3; ++i)
+            assertSame(_vars.get("foo"), _runtime.evaluateNode(exp, this));
+        // a single copy, compiled by the first evaluation and reused by the next ones
+        assertEquals(1, _runtime.getPooledCount(exp));
+    }
+
+    @Test
+    public void testConcurrentEvaluations() throws Exception {
+        OXPath20ExpressionBPEL20 exp = compile("$foo");
+        evaluateConcurrently(exp, 4);
+        // no compiled expression was shared, they all went back to the pool
+        assertEquals(4, _runtime.getPooledCount(exp));
+    }
+
+    @Test
+    public void testBoundedPool() throws Exception {
+        _runtime.setMaxCachedExpressions(2);
+        OXPath20ExpressionBPEL20 exp = compile("$foo");
+        evaluateConcurrently(exp, 4);
+        // the copies past the bound are dropped
+        assertEquals(2, _runtime.getPooledCount(exp));
+        assertSame(_vars.get("foo"), _runtime.evaluateNode(exp, this));
+        assertEquals(2, _runtime.getPooledCount(exp));
+    }
+
+    private void evaluateConcurrently(final OXPath20ExpressionBPEL20 exp, int threads) throws Exception {
+        // every evaluation is held in the variable resolver until all of them have started
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < threads; ++i) {
+                final ThreadContext ctx = new ThreadContext(barrier);
+                results.add(exec.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        // each evaluation must see the variable of its own context
+                        return _runtime.evaluateNode(exp, ctx) == ctx.value;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results)
+                assertTrue(result.get(30, TimeUnit.SECONDS));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReleaseOnFailure() throws Exception {
+        OXPath20ExpressionBPEL20 exp = compile("$foo");
+        ThreadContext failing = new ThreadContext(null);
+        failing.value = null;
+        try {
+            _runtime.evaluateNode(exp, failing);
+            fail("Evaluation of an unknown variable should fail");
+        } catch (FaultException expected) {
+        }
+        assertEquals(1, _runtime.getPooledCount(exp));
+        // the released expression is unbound from the failed evaluation
+        assertSame(_vars.get("foo"), _runtime.evaluateNode(exp, this));
+        assertEquals(1, _runtime.getPooledCount(exp));
+    }
+
     public Node readVariable(Variable variable, Part part) throws FaultException {
         return _vars.get(variable.getName());
     }
@@ -303,4 +377,74 @@ public class XPath20ExpressionRuntimeTest implements EvaluationContext {
     public Date getCurrentEventDateTime() {
         return null;
     }
+
+    /**
+     * Evaluation context of a single thread, with its own value for every variable.
+     */
+    private class ThreadContext implements EvaluationContext {
+        private final CyclicBarrier _barrier;
+        Node value;
+
+        ThreadContext(CyclicBarrier barrier) {
+            _barrier = barrier;
+            value = _vardoc.createElementNS("http://foobar", "value");
+        }
+
+        public Node readVariable(Variable variable, Part part) throws FaultException {
+            if (_barrier != null) {
+                try {
+                    _barrier.await(30, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (value == null)
+                throw new FaultException(new QName("http://foobar", "failed"));
+            return value;
+        }
+
+        public Node getPartData(Element message, Part part) throws FaultException {
+            return null;
+        }
+
+        public String readMessageProperty(Variable variable, OProperty property) throws FaultException {
+            return null;
+        }
+
+        public boolean isLinkActive(OLink olink) throws FaultException {
+            return false;
+        }
+
+        public Node getRootNode() {
+            return null;
+        }
+
+        public Node evaluateQuery(Node root, OExpression expr) throws FaultException {
+            return null;
+        }
+
+        public Long getProcessId() {
+            return null;
+        }
+
+        public boolean narrowTypes() {
+            return true;
+        }
+
+        public URI getBaseResourceURI() {
+            return null;
+        }
+
+        public Node getPropertyValue(QName propertyName) {
+            return null;
+        }
+
+        public QName getProcessQName() {
+            return null;
+        }
+
+        public Date getCurrentEventDateTime() {
+            return null;
+        }
+    }
 }
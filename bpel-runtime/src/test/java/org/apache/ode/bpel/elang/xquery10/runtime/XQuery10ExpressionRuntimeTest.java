@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.elang.xquery10.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.common.FaultException;
+import org.apache.ode.bpel.compiler.BpelCompiler20;
+import org.apache.ode.bpel.compiler.bom.Expression;
+import org.apache.ode.bpel.elang.xpath20.runtime.MockCompilerContext;
+import org.apache.ode.bpel.elang.xquery10.compiler.XQuery10ExpressionCompilerBPEL20;
+import org.apache.ode.bpel.explang.EvaluationContext;
+import org.apache.ode.bpel.obj.OExpression;
+import org.apache.ode.bpel.obj.OExpressionLanguage;
+import org.apache.ode.bpel.obj.OLink;
+import org.apache.ode.bpel.obj.OMessageVarType.Part;
+import org.apache.ode.bpel.obj.OProcess.OProperty;
+import org.apache.ode.bpel.obj.OScope.Variable;
+import org.apache.ode.bpel.runtime.ExpressionLanguageRuntimeRegistry;
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.Namespaces;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class XQuery10ExpressionRuntimeTest {
+
+    private XQuery10ExpressionRuntime _runtime;
+    private XQuery10ExpressionCompilerBPEL20 _compiler;
+    private MockCompilerContext _cc;
+    private Document _vardoc;
+
+    @Before
+    public void setUp() throws Exception {
+        _cc = new MockCompilerContext();
+        _cc.registerElementVar("foo", new QName("http://foobar", "value"));
+        _compiler = new XQuery10ExpressionCompilerBPEL20();
+        _compiler.setCompilerContext(_cc);
+        _runtime = new XQuery10ExpressionRuntime();
+        _runtime.initialize(new HashMap());
+        _vardoc = DOMUtils.newDocument();
+    }
+
+    @Test
+    public void testPreparedQueryReuse() throws Exception {
+        OExpression exp = compile("string($foo)");
+        Context ctx = new Context(null);
+        for (int i = 0; i < 3; ++i)
+            assertEquals(ctx.text, _runtime.evaluateAsString(exp, ctx));
+        // a single copy, prepared by the first evaluation and reused by the next ones
+        assertEquals(1, _runtime.getPooledCount(exp));
+        assertEquals(1, _runtime.getOpenCount());
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        _runtime.setMaxPooledExpressions(2);
+        final OExpression exp = compile("string($foo)");
+        final int threads = 4;
+        // every evaluation is held in the variable resolver until all of them have started
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < threads; ++i) {
+                final Context ctx = new Context(barrier);
+                results.add(exec.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        // each evaluation must see the variable of its own context
+                        return ctx.text.equals(_runtime.evaluateAsString(exp, ctx));
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results)
+                assertTrue(result.get(30, TimeUnit.SECONDS));
+        } finally {
+            exec.shutdownNow();
+        }
+        // the copies past the pool size got their connection closed
+        assertEquals(2, _runtime.getPooledCount(exp));
+        assertEquals(2, _runtime.getOpenCount());
+    }
+
+    @Test
+    public void testClosedOnFailure() throws Exception {
+        OExpression exp = compile("string($foo)");
+        Context ctx = new Context(null);
+        _runtime.evaluateNode(exp, ctx);
+        ctx.fail = true;
+        try {
+            _runtime.evaluateNode(exp, ctx);
+            fail("Evaluation of a failing variable should fail");
+        } catch (FaultException expected) {
+        }
+        // the query left in an unknown state isn't put back in the pool
+        assertEquals(0, _runtime.getPooledCount(exp));
+        assertEquals(0, _runtime.getOpenCount());
+        ctx.fail = false;
+        assertEquals(ctx.text, _runtime.evaluateAsString(exp, ctx));
+        assertEquals(1, _runtime.getPooledCount(exp));
+    }
+
+    @Test
+    public void testRegistryCloseReleasesPool() throws Exception {
+        Map<String, String> properties = new HashMap<String, String>(_compiler.getProperties());
+        properties.put("runtime-class", TrackedRuntime.class.getName());
+        OExpressionLanguage elang = new OExpressionLanguage(_cc.getOProcess(), properties);
+        elang.setExpressionLanguageUri(BpelCompiler20.OASIS_EXPLANG_XQUERY_1_0);
+        ExpressionLanguageRuntimeRegistry registry = new ExpressionLanguageRuntimeRegistry();
+        registry.registerRuntime(elang);
+        XQuery10ExpressionRuntime runtime = TrackedRuntime.last;
+
+        OExpression exp = compile("string($foo)");
+        exp.setExpressionLanguage(elang);
+        Context ctx = new Context(null);
+        assertEquals(ctx.text, registry.evaluateAsString(exp, ctx));
+        assertEquals(1, runtime.getPooledCount(exp));
+
+        registry.close();
+        assertEquals(0, runtime.getPooledCount(exp));
+        assertEquals(0, runtime.getOpenCount());
+        // evaluations still work once closed, they just don't pool anymore
+        assertEquals(ctx.text, registry.evaluateAsString(exp, ctx));
+        assertEquals(0, runtime.getPooledCount(exp));
+        assertEquals(0, runtime.getOpenCount());
+    }
+
+    private OExpression compile(String xquery) {
+        Document doc = DOMUtils.newDocument();
+        Element e = doc.createElementNS(null, "expression");
+        doc.appendChild(e);
+        e.appendChild(doc.createTextNode(xquery));
+        Expression exp = new Expression(e);
+        exp.getNamespaceContext().register("tns", "http://foobar");
+        exp.getNamespaceContext().register("xs", Namespaces.XML_SCHEMA);
+        return _compiler.compile(exp);
+    }
+
+    /**
+     * Runtime instantiated by the registry, kept at hand to look at its pool.
+     */
+    public static class TrackedRuntime extends XQuery10ExpressionRuntime {
+        static volatile TrackedRuntime last;
+
+        public TrackedRuntime() {
+            last = this;
+        }
+    }
+
+    /**
+     * Evaluation context of a single thread, with its own value for every variable.
+     */
+    private class Context implements EvaluationContext {
+        private final CyclicBarrier _barrier;
+        final String text;
+        final Node value;
+        volatile boolean fail;
+
+        Context(CyclicBarrier barrier) {
+            _barrier = barrier;
+            text = "value-" + System.identityHashCode(this);
+            value = _vardoc.createElementNS("http://foobar", "value");
+            value.appendChild(_vardoc.createTextNode(text));
+        }
+
+        public Node readVariable(Variable variable, Part part) throws FaultException {
+            if (fail)
+                throw new FaultException(new QName("http://foobar", "failed"));
+            if (_barrier != null) {
+                try {
+                    _barrier.await(30, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return value;
+        }
+
+        public Node getPartData(Element message, Part part) throws FaultException {
+            return null;
+        }
+
+        public String readMessageProperty(Variable variable, OProperty property) throws FaultException {
+            return null;
+        }
+
+        public boolean isLinkActive(OLink olink) throws FaultException {
+            return false;
+        }
+
+        public Node getRootNode() {
+            return null;
+        }
+
+        public Node evaluateQuery(Node root, OExpression expr) throws FaultException {
+            return null;
+        }
+
+        public Long getProcessId() {
+            return null;
+        }
+
+        public boolean narrowTypes() {
+            return true;
+        }
+
+        public URI getBaseResourceURI() {
+            return null;
+        }
+
+        public Node getPropertyValue(QName propertyName) {
+            return null;
+        }
+
+        public QName getProcessQName() {
+            return null;
+        }
+
+        public Date getCurrentEventDateTime() {
+            return null;
+        }
+    }
+}
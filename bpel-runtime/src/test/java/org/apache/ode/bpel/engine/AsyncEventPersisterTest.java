@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.transaction.TransactionManager;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.ode.bpel.dao.BpelDAOConnection;
+import org.apache.ode.bpel.dao.BpelDAOConnectionFactory;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.bpel.evt.ProcessInstanceStartedEvent;
+import org.apache.ode.scheduler.simple.SimpleScheduler;
+
+public class AsyncEventPersisterTest extends TestCase {
+
+    private static final QName PID = new QName("urn:test", "process-1");
+
+    TransactionManager _txm;
+    Contexts _contexts;
+    ProcessInstanceDAO _instance;
+    final List<BpelEvent> _inserted = Collections.synchronizedList(new ArrayList<BpelEvent>());
+    volatile boolean _failInserts;
+
+    public void testAfterCommit() throws Exception {
+        AsyncEventPersister persister = new AsyncEventPersister(_contexts, AsyncEventPersister.Durability.AFTER_COMMIT, 10, 3);
+        persister.start();
+
+        _txm.begin();
+        persister.persist(new ProcessInstanceStartedEvent(), _instance);
+        _txm.rollback();
+
+        List<BpelEvent> committed = new ArrayList<BpelEvent>();
+        _txm.begin();
+        for (int i = 0; i < 7; ++i) {
+            ProcessInstanceStartedEvent event = new ProcessInstanceStartedEvent();
+            committed.add(event);
+            persister.persist(event, _instance);
+        }
+        assertEquals(0, persister.getEnqueuedCount());
+        _txm.commit();
+
+        persister.stop();
+        assertEquals(committed, _inserted);
+        assertEquals(7, persister.getEnqueuedCount());
+        assertEquals(7, persister.getWrittenCount());
+        assertTrue(persister.getBatchCount() >= 3);
+        assertEquals(0, persister.getDroppedCount());
+    }
+
+    public void testBestEffortDropsWhenFull() throws Exception {
+        AsyncEventPersister persister = new AsyncEventPersister(_contexts, AsyncEventPersister.Durability.BEST_EFFORT, 5, 10);
+        // not started, nothing gets written
+        _txm.begin();
+        for (int i = 0; i < 8; ++i)
+            persister.persist(new ProcessInstanceStartedEvent(), _instance);
+        assertEquals(0, persister.getEnqueuedCount());
+        _txm.commit();
+        assertEquals(5, persister.getEnqueuedCount());
+        assertEquals(3, persister.getDroppedCount());
+        assertEquals(5, persister.getMaxQueuedCount());
+
+        persister.start();
+        persister.stop();
+        assertEquals(5, _inserted.size());
+        assertEquals(0, persister.getQueuedCount());
+    }
+
+    public void testBestEffortRollback() throws Exception {
+        AsyncEventPersister persister = new AsyncEventPersister(_contexts, AsyncEventPersister.Durability.BEST_EFFORT, 5, 10);
+        persister.start();
+        _txm.begin();
+        persister.persist(new ProcessInstanceStartedEvent(), _instance);
+        _txm.rollback();
+
+        ProcessInstanceStartedEvent committed = new ProcessInstanceStartedEvent();
+        _txm.begin();
+        persister.persist(committed, _instance);
+        _txm.commit();
+
+        persister.stop();
+        assertEquals(Collections.singletonList(committed), _inserted);
+        assertEquals(1, persister.getEnqueuedCount());
+        assertEquals(0, persister.getDroppedCount());
+    }
+
+    public void testFailedInsert() throws Exception {
+        AsyncEventPersister persister = new AsyncEventPersister(_contexts, AsyncEventPersister.Durability.BEST_EFFORT, 10, 10);
+        _failInserts = true;
+        _txm.begin();
+        persister.persist(new ProcessInstanceStartedEvent(), _instance);
+        persister.persist(new ProcessInstanceStartedEvent(), _instance);
+        _txm.commit();
+        persister.start();
+        persister.stop();
+        assertEquals(0, persister.getWrittenCount());
+        assertEquals(2, persister.getFailedCount());
+    }
+
+    protected void setUp() throws Exception {
+        _txm = new GeronimoTransactionManager();
+        Properties props = new Properties();
+        props.setProperty("ode.scheduler.immediateTransactionRetryLimit", "0");
+        SimpleScheduler scheduler = new SimpleScheduler("node", null, props);
+        scheduler.setTransactionManager(_txm);
+
+        final ProcessDAO process = (ProcessDAO) proxy(ProcessDAO.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getProcessId".equals(method.getName()) ? PID : null;
+            }
+        });
+        _instance = (ProcessInstanceDAO) proxy(ProcessInstanceDAO.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getInstanceId".equals(method.getName())) return 1L;
+                if ("getProcess".equals(method.getName())) return process;
+                return null;
+            }
+        });
+        final BpelDAOConnection conn = (BpelDAOConnection) proxy(BpelDAOConnection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getInstance".equals(method.getName())) return _instance;
+                if ("insertBpelEvent".equals(method.getName())) {
+                    if (_failInserts) throw new IllegalStateException("insert failed");
+                    assertSame(process, args[1]);
+                    _inserted.add((BpelEvent) args[0]);
+                }
+                return null;
+            }
+        });
+        _contexts = new Contexts();
+        _contexts.scheduler = scheduler;
+        _contexts.dao = (BpelDAOConnectionFactory) proxy(BpelDAOConnectionFactory.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getConnection".equals(method.getName()) ? conn : null;
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(AsyncEventPersisterTest.class.getClassLoader(), new Class[] { type }, handler);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.common.FaultException;
+import org.apache.ode.bpel.common.ProcessState;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.apache.ode.bpel.dao.ScopeDAO;
+import org.apache.ode.bpel.dao.XmlDataDAO;
+import org.apache.ode.bpel.iapi.ProcessConf;
+import org.apache.ode.bpel.obj.OMessageVarType;
+import org.apache.ode.bpel.obj.OPartnerLink;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.bpel.obj.OScope;
+import org.apache.ode.bpel.runtime.PartnerLinkInstance;
+import org.apache.ode.bpel.runtime.VariableInstance;
+import org.apache.ode.jacob.soup.ReplacementMap;
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Variables of persistent processes are buffered during a transaction and written once to their DAO.
+ */
+public class BpelRuntimeContextImplTest extends TestCase {
+    static final QName PID = new QName("urn:test", "proc-1");
+    static final Long SCOPE = 2L;
+
+    /** Writes to the DAOs, in order */
+    final List<String> _writes = new ArrayList<String>();
+    short _state = ProcessState.STATE_ACTIVE;
+    Node _stored;
+
+    OProcess _oprocess;
+    OProcess.OProperty _property;
+    VariableInstance _variable;
+    BpelRuntimeContextImpl _context;
+
+    public void testWritesOncePerTransaction() throws Exception {
+        write("1");
+        write("2");
+        write("3");
+        assertTrue(_writes.isEmpty());
+
+        // the reduction is over (nothing can run while suspended), the state of the instance is stored
+        _state = ProcessState.STATE_SUSPENDED;
+        _context.execute();
+        assertEquals(Arrays.asList("set 3", "setProperty 3", "setExecutionState"), _writes);
+        assertEquals("3", _stored.getTextContent());
+
+        // nothing left to flush
+        _writes.clear();
+        _context.execute();
+        assertEquals(Arrays.asList("setExecutionState"), _writes);
+    }
+
+    public void testReadsSeeBufferedValues() throws Exception {
+        assertFalse(_context.isVariableInitialized(_variable));
+        assertNull(read());
+
+        write("1");
+        assertTrue(_context.isVariableInitialized(_variable));
+        assertEquals("1", read().getTextContent());
+        assertEquals("1", _context.readProperty(_variable, _property));
+
+        Element value = write("2");
+        assertSame(value, read());
+        assertEquals("2", _context.readProperty(_variable, _property));
+        assertTrue(_writes.isEmpty());
+        assertNull(_stored);
+    }
+
+    public void testFlushBeforeInvoke() throws Exception {
+        Element value = write("1");
+        OPartnerLink partnerLink = new OPartnerLink(_oprocess);
+        try {
+            _context.invoke(1, new PartnerLinkInstance(SCOPE, partnerLink), null, null, null);
+            fail();
+        } catch (IllegalStateException expected) {
+            // the partner link DAO is where the invocation starts
+        }
+        assertEquals(Arrays.asList("set 1", "setProperty 1", "getPartnerLink"), _writes);
+        assertSame(value, _stored);
+        assertSame(value, read());
+    }
+
+    private Element write(String text) throws Exception {
+        Element value = DOMUtils.stringToDOM("<message>" + text + "</message>");
+        _context.writeVariable(_variable, value);
+        return value;
+    }
+
+    private Node read() throws FaultException {
+        return _context.readVariable(SCOPE, _variable.declaration.getName(), false);
+    }
+
+    protected void setUp() throws Exception {
+        _oprocess = new OProcess("2.0");
+        OScope scope = new OScope(_oprocess, null);
+        scope.setName("scope");
+        OMessageVarType type = new OMessageVarType(_oprocess, new QName("urn:test", "message"),
+                Collections.<OMessageVarType.Part>emptyList());
+        OScope.Variable declaration = new OScope.Variable(_oprocess, type);
+        declaration.setName("var");
+        declaration.setDeclaringScope(scope);
+        _property = new OProcess.OProperty(_oprocess);
+        _property.setName(new QName("urn:test", "key"));
+        OProcess.OPropertyAlias alias = new OProcess.OPropertyAlias(_oprocess);
+        alias.setVarType(type);
+        _property.getAliases().add(alias);
+        _oprocess.getProperties().add(_property);
+
+        Constructor<VariableInstance> variable = VariableInstance.class.getDeclaredConstructor(Long.class, OScope.Variable.class);
+        variable.setAccessible(true);
+        _variable = variable.newInstance(SCOPE, declaration);
+
+        final XmlDataDAO data = (XmlDataDAO) proxy(XmlDataDAO.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("isNull".equals(method.getName())) return _stored == null;
+                if ("get".equals(method.getName())) return _stored;
+                if ("set".equals(method.getName())) {
+                    _stored = (Node) args[0];
+                    _writes.add("set " + _stored.getTextContent());
+                }
+                if ("setProperty".equals(method.getName())) _writes.add("setProperty " + args[1]);
+                return null;
+            }
+        });
+        final ScopeDAO scopeDAO = (ScopeDAO) proxy(ScopeDAO.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getVariable".equals(method.getName())) return data;
+                if ("getPartnerLink".equals(method.getName())) {
+                    _writes.add("getPartnerLink");
+                    throw new IllegalStateException("invoked");
+                }
+                return null;
+            }
+        });
+        final ProcessDAO processDAO = (ProcessDAO) proxy(ProcessDAO.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getProcessId".equals(method.getName()) ? PID : null;
+            }
+        });
+        ProcessInstanceDAO instanceDAO = (ProcessInstanceDAO) proxy(ProcessInstanceDAO.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getInstanceId".equals(method.getName())) return 1L;
+                if ("getProcess".equals(method.getName())) return processDAO;
+                if ("getScope".equals(method.getName())) return scopeDAO;
+                if ("getState".equals(method.getName())) return _state;
+                if ("setExecutionState".equals(method.getName())) _writes.add("setExecutionState");
+                return null;
+            }
+        });
+
+        TestProcess process = new TestProcess();
+        process._engine = new BpelEngineImpl(new Contexts());
+        _context = new BpelRuntimeContextImpl(process, instanceDAO, null, null);
+    }
+
+    private class TestProcess extends BpelProcess {
+        TestProcess() {
+            super((ProcessConf) proxy(ProcessConf.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return "getProcessId".equals(method.getName()) ? PID : null;
+                }
+            }));
+        }
+
+        public boolean isInMemory() {
+            return false;
+        }
+
+        public ReplacementMap getReplacementMap(QName processName) {
+            return new ReplacementMapImpl(_oprocess);
+        }
+
+        String extractProperty(Element msgData, Map<String, Node> headerParts, OProcess.OPropertyAlias alias, String target) {
+            return msgData.getTextContent();
+        }
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(BpelRuntimeContextImplTest.class.getClassLoader(), new Class[] { type }, handler);
+    }
+}
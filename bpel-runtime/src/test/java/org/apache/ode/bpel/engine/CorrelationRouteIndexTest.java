@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link CorrelationRouteIndex}.
+ */
+public class CorrelationRouteIndexTest extends TestCase {
+
+    private static final QName PID = new QName("urn:test", "process-1");
+
+    private CorrelationRouteIndex _index;
+
+    public void setUp() {
+        _index = new CorrelationRouteIndex(10);
+        _index.setEnabled(true);
+    }
+
+    public void testNotLoaded() {
+        _index.add(PID, "pl.op", route(1L, "g1", "k1"));
+        // the database may have routes the index doesn't know of
+        assertNull(_index.find(PID, "pl.op", keys("k1")));
+        assertTrue(_index.startLoading(PID, "pl.op"));
+        assertFalse(_index.startLoading(PID, "pl.op"));
+        assertNull(_index.find(PID, "pl.op", keys("k1")));
+    }
+
+    public void testLoad() {
+        assertTrue(_index.startLoading(PID, "pl.op"));
+        // registered while loading, not yet visible to the load
+        _index.add(PID, "pl.op", route(2L, "g2", "k2"));
+        _index.loaded(PID, "pl.op", Arrays.asList(route(1L, "g1", "k1"), route(2L, "g2", "k2")));
+
+        assertEquals(keys("k1", "k2"), _index.find(PID, "pl.op", keys("k1", "k2", "k3")));
+        assertEquals(keys(), _index.find(PID, "pl.op", keys("k3")));
+        assertNull(_index.find(PID, "pl.other", keys("k1")));
+    }
+
+    public void testLoadFailed() {
+        assertTrue(_index.startLoading(PID, "pl.op"));
+        _index.loadFailed(PID, "pl.op");
+        assertNull(_index.find(PID, "pl.op", keys("k1")));
+        assertTrue(_index.startLoading(PID, "pl.op"));
+    }
+
+    public void testRemove() {
+        load("pl.op");
+        load("pl.op2");
+        _index.add(PID, "pl.op", route(1L, "g1", "k1"));
+        _index.add(PID, "pl.op2", route(1L, "g1", "k1"));
+        _index.add(PID, "pl.op", route(2L, "g2", "k1"));
+
+        // removes the routes of the group on all correlators
+        _index.remove(PID, 1L, "g1");
+        assertEquals(keys("k1"), _index.find(PID, "pl.op", keys("k1")));
+        assertEquals(keys(), _index.find(PID, "pl.op2", keys("k1")));
+
+        _index.remove(PID, 2L, "g2");
+        assertEquals(keys(), _index.find(PID, "pl.op", keys("k1")));
+    }
+
+    public void testOverflow() {
+        load("pl.op");
+        for (int i = 0; i < 11; ++i)
+            _index.add(PID, "pl.op", route((long) i, "g", "k" + i));
+        assertNull(_index.find(PID, "pl.op", keys("k1")));
+        assertFalse(_index.startLoading(PID, "pl.op"));
+        assertFalse(_index.startLoading(PID, "pl.op2"));
+
+        _index.removeAll(PID);
+        assertTrue(_index.startLoading(PID, "pl.op"));
+    }
+
+    private void load(String correlatorId) {
+        assertTrue(_index.startLoading(PID, correlatorId));
+        _index.loaded(PID, correlatorId, Collections.<CorrelationRouteIndex.Route>emptyList());
+    }
+
+    private static CorrelationRouteIndex.Route route(Long iid, String groupId, String key) {
+        return new CorrelationRouteIndex.Route(iid, groupId, key);
+    }
+
+    private static List<String> keys(String... keys) {
+        return Arrays.asList(keys);
+    }
+}
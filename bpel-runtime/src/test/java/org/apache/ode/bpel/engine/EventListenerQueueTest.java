@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.bpel.evt.ProcessInstanceStartedEvent;
+import org.apache.ode.bpel.evt.VariableModificationEvent;
+import org.apache.ode.bpel.evtproc.EventJournalListener;
+import org.apache.ode.bpel.iapi.BpelEventListener;
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Document;
+
+public class EventListenerQueueTest extends TestCase {
+
+    final List<BpelEvent> _received = Collections.synchronizedList(new ArrayList<BpelEvent>());
+    final CountDownLatch _release = new CountDownLatch(1);
+
+    final BpelEventListener _slowListener = new BpelEventListener() {
+        public void onEvent(BpelEvent bpelEvent) {
+            try {
+                _release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            _received.add(bpelEvent);
+        }
+
+        public void startup(Properties configProperties) {
+        }
+
+        public void shutdown() {
+        }
+    };
+
+    public void testBlockDeliversAllInOrder() throws Exception {
+        final EventListenerQueue queue = new EventListenerQueue(_slowListener, EventListenerQueue.Policy.BLOCK, 2);
+        queue.start();
+        final List<BpelEvent> fired = new ArrayList<BpelEvent>();
+        for (int i = 0; i < 10; ++i)
+            fired.add(new ProcessInstanceStartedEvent());
+
+        Thread engine = new Thread() {
+            public void run() {
+                for (BpelEvent event : fired)
+                    queue.dispatch(event);
+            }
+        };
+        engine.start();
+        Thread.sleep(200);
+        // the listener is stuck, so is the engine once the queue is full
+        assertTrue(engine.isAlive());
+        assertEquals(2, queue.getQueuedCount());
+
+        _release.countDown();
+        engine.join(5000);
+        queue.stop();
+        assertEquals(fired, _received);
+        assertEquals(10, queue.getDispatchedCount());
+        assertEquals(0, queue.getDroppedCount());
+        assertTrue(queue.getBlockedCount() > 0);
+        assertTrue(queue.getMaxLag() >= 100);
+    }
+
+    public void testDropDoesNotWait() throws Exception {
+        EventListenerQueue queue = new EventListenerQueue(_slowListener, EventListenerQueue.Policy.DROP, 2);
+        queue.start();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; ++i)
+            queue.dispatch(new ProcessInstanceStartedEvent());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        // one event is being processed by the listener, two are queued
+        assertTrue(queue.getDroppedCount() >= 7);
+
+        _release.countDown();
+        queue.stop();
+        assertEquals(10 - queue.getDroppedCount(), _received.size());
+        assertEquals(0, queue.getBlockedCount());
+    }
+
+    public void testFailingListener() throws Exception {
+        final CountDownLatch done = new CountDownLatch(2);
+        EventListenerQueue queue = new EventListenerQueue(new BpelEventListener() {
+            public void onEvent(BpelEvent bpelEvent) {
+                done.countDown();
+                throw new IllegalStateException("expected");
+            }
+
+            public void startup(Properties configProperties) {
+            }
+
+            public void shutdown() {
+            }
+        }, EventListenerQueue.Policy.BLOCK, 10);
+        queue.start();
+        queue.dispatch(new ProcessInstanceStartedEvent());
+        queue.dispatch(new ProcessInstanceStartedEvent());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        queue.stop();
+        assertEquals(2, queue.getDispatchedCount());
+        assertEquals(2, queue.getFailedCount());
+    }
+
+    public void testSnapshot() throws Exception {
+        Document doc = DOMUtils.stringToDOM("<value><item>1</item></value>").getOwnerDocument();
+        VariableModificationEvent event = new VariableModificationEvent("var");
+        event.setNewValue(doc.getDocumentElement());
+        EventListenerQueue.snapshot(event);
+
+        // the instance keeps on changing its variable
+        doc.getDocumentElement().getFirstChild().setTextContent("2");
+        assertNotSame(doc.getDocumentElement(), event.getNewValue());
+        assertEquals("1", event.getNewValue().getTextContent());
+
+        EventListenerQueue.snapshot(new VariableModificationEvent("var"));
+        EventListenerQueue.snapshot(new ProcessInstanceStartedEvent());
+    }
+
+    public void testJournalIsSynchronous() throws Exception {
+        File dir = File.createTempFile("ode-journal", "");
+        dir.delete();
+        Properties props = new Properties();
+        props.setProperty("eventjournal.directory", dir.getPath());
+        BpelServerImpl server = new BpelServerImpl();
+        server.setConfigProperties(props);
+        EventJournalListener journal = new EventJournalListener();
+        try {
+            server.registerBpelEventListener(journal, EventListenerQueue.Policy.BLOCK, 10);
+            assertTrue(server.getContexts().eventListeners.contains(journal));
+            assertTrue(server.getContexts().eventListenerQueues.isEmpty());
+        } finally {
+            server.unregisterBpelEventListener(journal);
+            File[] files = dir.listFiles();
+            if (files != null)
+                for (File f : files) f.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ExecutionStateCodec}.
+ */
+public class ExecutionStateCodecTest extends TestCase {
+
+    public void testSerializedIsUnchanged() throws Exception {
+        byte[] state = serializedState();
+        assertSame(state, ExecutionStateCodec.SERIALIZED.encode(state));
+        assertSame(state, ExecutionStateCodec.decodeState(state));
+    }
+
+    public void testDeflate() throws Exception {
+        byte[] state = serializedState();
+        byte[] encoded = ExecutionStateCodec.DEFLATE.encode(state);
+        assertTrue("Encoded state is not smaller: " + encoded.length, encoded.length < state.length / 2);
+        assertTrue(Arrays.equals(state, ExecutionStateCodec.decodeState(encoded)));
+    }
+
+    public void testDeflateEmpty() {
+        byte[] encoded = ExecutionStateCodec.DEFLATE.encode(new byte[0]);
+        assertEquals(0, ExecutionStateCodec.decodeState(encoded).length);
+    }
+
+    public void testTruncated() throws Exception {
+        byte[] encoded = ExecutionStateCodec.DEFLATE.encode(serializedState());
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        try {
+            ExecutionStateCodec.decodeState(truncated);
+            fail("Truncated state should be rejected");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    public void testUnknownCodec() throws Exception {
+        byte[] encoded = ExecutionStateCodec.DEFLATE.encode(serializedState());
+        encoded[2] = (byte) 200;
+        try {
+            ExecutionStateCodec.decodeState(encoded);
+            fail("Unknown codec should be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private byte[] serializedState() throws Exception {
+        HashMap<QName, ArrayList<Object>> state = new HashMap<QName, ArrayList<Object>>();
+        for (int i = 0; i < 50; ++i) {
+            ArrayList<Object> values = new ArrayList<Object>();
+            values.add(Integer.valueOf(i));
+            values.add("value" + i);
+            values.add(Long.valueOf(i));
+            state.put(new QName("urn:ode:test", "name" + i), values);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(state);
+        oos.close();
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ExecutionStateJournal}.
+ */
+public class ExecutionStateJournalTest extends TestCase {
+
+    private Random _random = new Random(0);
+
+    public void testIdentical() {
+        byte[] state = randomBytes(10000);
+        byte[] delta = ExecutionStateJournal.diff(state, state);
+        assertTrue("Delta too large: " + delta.length, delta.length < 16);
+        assertTrue(Arrays.equals(state, ExecutionStateJournal.patch(state, delta)));
+    }
+
+    public void testSmallChanges() {
+        byte[] source = randomBytes(20000);
+        byte[] target = new byte[source.length + 30];
+        // change a few bytes, insert some in the middle and drop some at the end
+        System.arraycopy(source, 0, target, 0, 5000);
+        target[100] ^= 1;
+        target[4321] ^= 1;
+        System.arraycopy(randomBytes(50), 0, target, 5000, 50);
+        System.arraycopy(source, 5000, target, 5050, source.length - 5020);
+
+        byte[] delta = ExecutionStateJournal.diff(source, target);
+        assertTrue("Delta too large: " + delta.length, delta.length < 200);
+        assertTrue(Arrays.equals(target, ExecutionStateJournal.patch(source, delta)));
+    }
+
+    public void testUnrelated() {
+        byte[] source = randomBytes(3000);
+        byte[] target = randomBytes(2000);
+        assertTrue(Arrays.equals(target, ExecutionStateJournal.patch(source, ExecutionStateJournal.diff(source, target))));
+    }
+
+    public void testShort() {
+        byte[] empty = new byte[0];
+        byte[] small = randomBytes(5);
+        byte[] large = randomBytes(100);
+        assertTrue(Arrays.equals(small, ExecutionStateJournal.patch(empty, ExecutionStateJournal.diff(empty, small))));
+        assertTrue(Arrays.equals(empty, ExecutionStateJournal.patch(large, ExecutionStateJournal.diff(large, empty))));
+        assertTrue(Arrays.equals(large, ExecutionStateJournal.patch(small, ExecutionStateJournal.diff(small, large))));
+    }
+
+    public void testRepeatedContent() {
+        byte[] source = new byte[4096];
+        byte[] target = new byte[5000];
+        Arrays.fill(source, (byte) 7);
+        Arrays.fill(target, (byte) 7);
+        target[2500] = 8;
+        byte[] delta = ExecutionStateJournal.diff(source, target);
+        assertTrue("Delta too large: " + delta.length, delta.length < 32);
+        assertTrue(Arrays.equals(target, ExecutionStateJournal.patch(source, delta)));
+    }
+
+    public void testCorrupted() {
+        byte[] source = randomBytes(1000);
+        byte[] delta = ExecutionStateJournal.diff(source, randomBytes(1000));
+        byte[] truncated = new byte[delta.length / 2];
+        System.arraycopy(delta, 0, truncated, 0, truncated.length);
+        try {
+            ExecutionStateJournal.patch(source, truncated);
+            fail("Truncated delta should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        _random.nextBytes(data);
+        return data;
+    }
+}
@@ -82,6 +82,64 @@ public class InstanceLockManagerTest extends TestCase {
 
     }
 
+    public void testUnlockNotLocked() throws Exception {
+        try {
+            _ilm.unlock(1L);
+            fail("Should have failed.");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        _ilm.unlock(1L);
+        try {
+            _ilm.unlock(1L);
+            fail("Should have failed.");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+
+    public void testUnlockFromOtherThread() throws Exception {
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        Thread t = new Thread() {
+            public void run() {
+                _ilm.unlock(1L);
+            }
+        };
+        t.start();
+        t.join(2000);
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+    }
+
+    public void testStatistics() throws Exception {
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        try {
+            _ilm.lock(1L, 10, TimeUnit.MILLISECONDS);
+            fail("Should have timedout.");
+        } catch (InstanceLockManager.TimeoutException te) {
+            // expected
+        }
+        assertEquals(1, _ilm.getLockedInstanceCount());
+        assertEquals(1, _ilm.getAcquiredCount());
+        assertEquals(1, _ilm.getContendedCount());
+        assertEquals(1, _ilm.getTimeoutCount());
+        long waits = 0;
+        for (long count : _ilm.getWaitTimeHistogram())
+            waits += count;
+        assertEquals(1, waits);
+        assertEquals(_ilm.getWaitTimeBuckets().length, _ilm.getWaitTimeHistogram().length);
+
+        _ilm.unlock(1L);
+        assertEquals(0, _ilm.getLockedInstanceCount());
+        _ilm.resetStatistics();
+        assertEquals(0, _ilm.getContendedCount());
+    }
+
+    public void testFairWakeUpQueue() throws Exception {
+        _ilm = new InstanceLockManager(true);
+        testWakeUpQueue();
+    }
+
     private class TThread extends Thread {
         public void run() {
             try {
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.iapi.ProcessConf;
+
+/**
+ * Test case for {@link MemoryBudgetDehydrationPolicy}.
+ */
+public class MemoryBudgetDehydrationPolicyTest extends TestCase {
+
+    private MemoryBudgetDehydrationPolicy _policy;
+    private long _now;
+
+    public void setUp() {
+        _policy = new MemoryBudgetDehydrationPolicy();
+        _policy.setBudget(1000);
+        _policy.setWindowRatio(0.2);
+        _now = System.currentTimeMillis();
+    }
+
+    public void testUnderBudget() {
+        TestProcess p1 = new TestProcess("p1", 400);
+        TestProcess p2 = new TestProcess("p2", 500);
+        assertTrue(check(p1, p2).isEmpty());
+        assertEquals(900, _policy.getResidentBytes());
+        assertEquals(2, _policy.getResidentProcessCount());
+        assertEquals(2, _policy.getHydrationCount());
+    }
+
+    public void testFrequencyPerByte() {
+        TestProcess big = new TestProcess("big", 600).used(10, _now - 3000);
+        TestProcess small = new TestProcess("small", 300).used(10, _now - 2000);
+        TestProcess hot = new TestProcess("hot", 300).used(100, _now - 1000);
+        // same use count, but the big one frees more memory
+        assertEquals(Arrays.asList(big), check(big, small, hot));
+        assertEquals(600, _policy.getResidentBytes());
+        assertEquals(1, _policy.getDehydrationCount());
+    }
+
+    public void testWindow() {
+        TestProcess old = new TestProcess("old", 500).used(50, _now - 2000);
+        TestProcess recent = new TestProcess("recent", 100).used(1, _now);
+        TestProcess other = new TestProcess("other", 500).used(40, _now - 1000);
+        // the recent one is the least used by far, but was just hydrated
+        assertEquals(Arrays.asList(other), check(old, recent, other));
+    }
+
+    public void testPinned() {
+        TestProcess pinned = new TestProcess("pinned", 800).used(1, _now - 2000);
+        pinned.pinned = true;
+        TestProcess jmx = new TestProcess("jmx", 300).used(1, _now - 1000);
+        TestProcess other = new TestProcess("other", 300).used(50, _now - 1000);
+        _policy.pinProcess(jmx.getPID().toString());
+        assertEquals(Arrays.asList(other), check(pinned, jmx, other));
+
+        _policy.unpinProcess(jmx.getPID().toString());
+        assertEquals(Arrays.asList(jmx), check(pinned, jmx));
+    }
+
+    public void testMaxAge() {
+        _policy.setProcessMaxAge(60000);
+        TestProcess stale = new TestProcess("stale", 100).used(1, _now - 120000);
+        TestProcess fresh = new TestProcess("fresh", 100).used(1, _now);
+        assertEquals(Arrays.asList(stale), check(stale, fresh));
+    }
+
+    public void testRehydration() {
+        TestProcess p1 = new TestProcess("p1", 100);
+        check(p1);
+        check(p1);
+        assertEquals(1, _policy.getHydrationCount());
+        p1.hydrations += 2;
+        check(p1);
+        assertEquals(3, _policy.getHydrationCount());
+    }
+
+    public void testCachedModelsEvictedFirst() {
+        TestCache cache = new TestCache(100, 100, 100);
+        _policy.setModelCache(cache);
+        TestProcess p1 = new TestProcess("p1", 400).used(1, _now - 2000);
+        TestProcess p2 = new TestProcess("p2", 500).used(1, _now - 1000);
+        // 300 bytes of cached models over the budget, evicting two of them is enough
+        assertTrue(check(p1, p2).isEmpty());
+        assertEquals(200, cache.evicted);
+        assertEquals(100, _policy.getCachedModelBytes());
+        assertEquals(900, _policy.getResidentBytes());
+    }
+
+    public void testCachedModelsCountTowardBudget() {
+        TestCache cache = new TestCache(100);
+        _policy.setModelCache(cache);
+        TestProcess p1 = new TestProcess("p1", 600).used(1, _now - 2000);
+        TestProcess p2 = new TestProcess("p2", 500).used(10, _now - 1000);
+        // the cached model alone isn't enough
+        assertEquals(Arrays.asList(p1), check(p1, p2));
+        assertEquals(100, cache.evicted);
+        assertEquals(0, _policy.getCachedModelBytes());
+        assertEquals(500, _policy.getResidentBytes());
+    }
+
+    private List<BpelProcess> check(BpelProcess... processes) {
+        return _policy.markForDehydration(new ArrayList<BpelProcess>(Arrays.asList(processes)));
+    }
+
+    private static class TestProcess extends BpelProcess {
+        long size;
+        long lastUsed;
+        long uses;
+        long hydrations = 1;
+        boolean pinned;
+
+        TestProcess(String name, long size) {
+            super(conf(new QName("urn:test", name + "-1")));
+            this.size = size;
+        }
+
+        TestProcess used(long uses, long lastUsed) {
+            this.uses = uses;
+            this.lastUsed = lastUsed;
+            return this;
+        }
+
+        public long sizeOf() {
+            return size;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+        public long getUseCount() {
+            return uses;
+        }
+
+        public long getHydrationCount() {
+            return hydrations;
+        }
+
+        public boolean isHydrationPinned() {
+            return pinned;
+        }
+
+        public String toString() {
+            return getPID().getLocalPart();
+        }
+    }
+
+    private static class TestCache extends OModelCache {
+        final List<Long> unused = new ArrayList<Long>();
+        long evicted;
+
+        TestCache(long... sizes) {
+            for (long size : sizes)
+                unused.add(size);
+        }
+
+        long getUnusedBytes() {
+            long bytes = 0;
+            for (long size : unused)
+                bytes += size;
+            return bytes;
+        }
+
+        long evictUnused(long bytes) {
+            long freed = 0;
+            while (!unused.isEmpty() && freed < bytes)
+                freed += unused.remove(0);
+            evicted += freed;
+            return freed;
+        }
+    }
+
+    private static ProcessConf conf(final QName pid) {
+        return (ProcessConf) Proxy.newProxyInstance(ProcessConf.class.getClassLoader(), new Class[] { ProcessConf.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return "getProcessId".equals(method.getName()) ? pid : null;
+                    }
+                });
+    }
+}
@@ -30,6 +30,7 @@ import junit.framework.TestCase;
 import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
 import org.apache.ode.bpel.dao.MessageExchangeDAO;
 import org.apache.ode.bpel.engine.MyRoleMessageExchangeImpl.ResponseCallback;
+import org.apache.ode.bpel.iapi.MyRoleMessageExchange;
 import org.apache.ode.scheduler.simple.SimpleScheduler;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -90,6 +91,78 @@ public class MyRoleMessageExchangeImplTest extends TestCase {
             new MyRoleMessageExchangeImpl.ResponseFuture("corrId").get(10, TimeUnit.MILLISECONDS);
             fail("Should throw a TimeoutException!!");
         } catch( TimeoutException te ) {}
+        assertFalse(myRoleMexImpl.callbacks().containsKey("corrId"));
+        context.assertIsSatisfied();
+    }
+
+    public void testTimeoutResponse() throws Exception {
+        context.checking(new Expectations() {{
+            atLeast(1).of(mexDao).getCorrelationId(); will(returnValue("corrId"));
+        }});
+
+        final int[] notified = new int[1];
+        myRoleMexImpl.callbacks().put("corrId", new MyRoleMessageExchangeImpl.ResponseCallback());
+        assertTrue(myRoleMexImpl.setResponseListener(new MyRoleMessageExchange.ResponseListener() {
+            public void onResponse() {
+                notified[0]++;
+            }
+        }));
+
+        assertTrue(myRoleMexImpl.timeoutResponse());
+        assertFalse(myRoleMexImpl.callbacks().containsKey("corrId"));
+
+        // the late response is dropped
+        _txm.begin();
+        myRoleMexImpl.responseReceived();
+        _txm.commit();
+        assertEquals(0, notified[0]);
+        assertFalse(myRoleMexImpl.timeoutResponse());
+        context.assertIsSatisfied();
+    }
+
+    public void testTimeoutAfterResponse() throws Exception {
+        context.checking(new Expectations() {{
+            atLeast(1).of(mexDao).getCorrelationId(); will(returnValue("corrId"));
+        }});
+
+        MyRoleMessageExchangeImpl.ResponseCallback callback = new MyRoleMessageExchangeImpl.ResponseCallback();
+        myRoleMexImpl.callbacks().put("corrId", callback);
+        _txm.begin();
+        myRoleMexImpl.responseReceived();
+        _txm.commit();
+
+        assertFalse(myRoleMexImpl.timeoutResponse());
+        // too late for the callback too
+        assertFalse(callback.timeout("corrId"));
+        context.assertIsSatisfied();
+    }
+
+    public void testResponseListener() throws Exception {
+        context.checking(new Expectations() {{
+            atLeast(1).of(mexDao).getCorrelationId(); will(returnValue("corrId"));
+        }});
+
+        final int[] notified = new int[1];
+        MyRoleMessageExchange.ResponseListener listener = new MyRoleMessageExchange.ResponseListener() {
+            public void onResponse() {
+                notified[0]++;
+            }
+        };
+        myRoleMexImpl.callbacks().put("corrId", new MyRoleMessageExchangeImpl.ResponseCallback());
+        assertTrue(myRoleMexImpl.setResponseListener(listener));
+
+        _txm.begin();
+        myRoleMexImpl.responseReceived();
+        _txm.rollback();
+        assertEquals(0, notified[0]);
+
+        _txm.begin();
+        myRoleMexImpl.responseReceived();
+        _txm.commit();
+        assertEquals(1, notified[0]);
+
+        // nothing left to wait for
+        assertFalse(myRoleMexImpl.setResponseListener(listener));
         context.assertIsSatisfied();
     }
 
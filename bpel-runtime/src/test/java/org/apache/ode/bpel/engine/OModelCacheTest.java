@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.obj.OMessageVarType;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.bpel.obj.OScope;
+import org.apache.ode.bpel.obj.OXsdTypeVarType;
+import org.apache.ode.bpel.obj.serde.DeSerializer;
+
+/**
+ * Test case for {@link OModelCache}.
+ */
+public class OModelCacheTest extends TestCase {
+
+    private static final QName MESSAGE_TYPE = new QName("urn:test", "request");
+
+    private static final QName XSD_TYPE = new QName("http://www.w3.org/2001/XMLSchema", "string");
+
+    private OModelCache _cache;
+
+    public void setUp() {
+        _cache = new OModelCache();
+    }
+
+    public void testReload() throws Exception {
+        File cbp = writeProcess("v1");
+        OProcess oprocess = _cache.load(cbp);
+        assertNotNull(oprocess);
+        assertSame(oprocess, _cache.load(cbp));
+        assertEquals(1, _cache.getMisses());
+        assertEquals(1, _cache.getHits());
+    }
+
+    public void testSameContent() throws Exception {
+        File v1 = writeProcess("v1");
+        File copy = File.createTempFile("copy", ".cbp");
+        copy.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(copy);
+        try {
+            out.write(readFully(v1));
+        } finally {
+            out.close();
+        }
+        assertSame(_cache.load(v1), _cache.load(copy));
+        assertEquals(1, _cache.size());
+    }
+
+    public void testInternedAcrossVersions() throws Exception {
+        OProcess v1 = _cache.load(writeProcess("v1"));
+        OProcess v2 = _cache.load(writeProcess("v2"));
+        assertNotSame(v1, v2);
+        assertEquals(2, _cache.size());
+
+        OMessageVarType m1 = v1.getMessageTypes().values().iterator().next();
+        OMessageVarType m2 = v2.getMessageTypes().values().iterator().next();
+        assertSame(m1.getMessageType(), m2.getMessageType());
+        assertSame(m1.getMessageType(), v2.getMessageTypes().keySet().iterator().next());
+
+        OXsdTypeVarType x1 = v1.getXsdTypes().values().iterator().next();
+        OXsdTypeVarType x2 = v2.getXsdTypes().values().iterator().next();
+        assertSame(x1.getXsdType(), x2.getXsdType());
+    }
+
+    public void testReleaseKeepsCachedModel() throws Exception {
+        File cbp = writeProcess("v1");
+        OProcess oprocess = _cache.load(cbp);
+        _cache.release(oprocess);
+        assertFalse(oprocess.getMessageTypes().isEmpty());
+        assertEquals(1, _cache.getUnusedCount());
+        assertSame(oprocess, _cache.load(cbp));
+        assertEquals(0, _cache.getUnusedCount());
+    }
+
+    public void testReleaseDehydratesUncachedModel() throws Exception {
+        File cbp = writeProcess("v1");
+        OProcess oprocess = _cache.load(cbp);
+        assertSame(oprocess, _cache.load(cbp));
+        _cache.clear();
+        _cache.release(oprocess);
+        assertFalse("still used by the other process", oprocess.getMessageTypes().isEmpty());
+        _cache.release(oprocess);
+        assertTrue(oprocess.getMessageTypes().isEmpty());
+    }
+
+    public void testRewrittenFile() throws Exception {
+        File cbp = writeProcess("v1");
+        OProcess v1 = _cache.load(cbp);
+        // the file isn't kept open or mapped, it can be replaced, as by a format upgrade
+        FileOutputStream out = new FileOutputStream(cbp);
+        try {
+            out.write(readFully(writeProcess("v2")));
+        } finally {
+            out.close();
+        }
+        OProcess v2 = _cache.load(cbp);
+        assertNotSame(v1, v2);
+        assertEquals("v2", v2.getProcessName());
+        assertEquals(2, _cache.getMisses());
+    }
+
+    public void testEvictUnused() throws Exception {
+        File f1 = writeProcess("v1");
+        File f2 = writeProcess("v2");
+        OProcess v1 = _cache.load(f1);
+        OProcess v2 = _cache.load(f2);
+        OProcess v3 = _cache.load(writeProcess("v3"));
+        assertEquals(0, _cache.getUnusedBytes());
+        _cache.release(v1);
+        Thread.sleep(10);
+        _cache.release(v2);
+        assertEquals(5 * (f1.length() + f2.length()), _cache.getUnusedBytes());
+
+        // the least recently released first
+        assertEquals(5 * f1.length(), _cache.evictUnused(1));
+        assertTrue(v1.getMessageTypes().isEmpty());
+        assertFalse(v2.getMessageTypes().isEmpty());
+        assertEquals(2, _cache.size());
+        assertEquals(5 * f2.length(), _cache.getUnusedBytes());
+
+        // models in use are never evicted
+        assertEquals(5 * f2.length(), _cache.evictUnused(Long.MAX_VALUE));
+        assertFalse(v3.getMessageTypes().isEmpty());
+        assertEquals(1, _cache.size());
+        assertNotSame(v1, _cache.load(f1));
+    }
+
+    private File writeProcess(String name) throws Exception {
+        OProcess oprocess = new OProcess("2.0");
+        oprocess.setProcessName(name);
+        oprocess.setProcesScope(new OScope(oprocess, null));
+        oprocess.getMessageTypes().put(MESSAGE_TYPE, new OMessageVarType(oprocess,
+                new QName(MESSAGE_TYPE.getNamespaceURI(), MESSAGE_TYPE.getLocalPart()),
+                Collections.<OMessageVarType.Part>emptyList()));
+        OXsdTypeVarType xsdType = new OXsdTypeVarType(oprocess);
+        xsdType.setXsdType(new QName(XSD_TYPE.getNamespaceURI(), XSD_TYPE.getLocalPart()));
+        xsdType.setSimple(true);
+        oprocess.getXsdTypes().put(XSD_TYPE, xsdType);
+
+        File cbp = File.createTempFile("process-" + name, ".cbp");
+        cbp.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(cbp);
+        try {
+            new DeSerializer().serialize(out, oprocess);
+        } finally {
+            out.close();
+        }
+        return cbp;
+    }
+
+    private static byte[] readFully(File file) throws Exception {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] content = new byte[(int) file.length()];
+            in.readFully(content);
+            return content;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.jacob.soup.ReplacementMap;
+import org.apache.ode.jacob.vpu.ExecutionQueueImpl;
+
+/**
+ * Test case for {@link SoupCache}.
+ */
+public class SoupCacheTest extends TestCase {
+
+    private SoupCache _cache;
+
+    private ReplacementMap _rmap;
+
+    public void setUp() {
+        _cache = new SoupCache();
+        _cache.setMaximumSize(100);
+        _rmap = new ReplacementMapImpl(null);
+    }
+
+    public void testTake() {
+        ExecutionQueueImpl soup = new ExecutionQueueImpl(null);
+        _cache.put(1L, _rmap, soup, new byte[] { 1, 2, 3 });
+        assertSame(soup, _cache.take(1L, _rmap, new byte[] { 1, 2, 3 }));
+        // taken soups are not shared
+        assertNull(_cache.take(1L, _rmap, new byte[] { 1, 2, 3 }));
+    }
+
+    public void testStale() {
+        _cache.put(1L, _rmap, new ExecutionQueueImpl(null), new byte[] { 1, 2, 3 });
+        assertNull(_cache.take(1L, _rmap, new byte[] { 1, 2, 4 }));
+        assertEquals(0, _cache.size());
+
+        _cache.put(1L, _rmap, new ExecutionQueueImpl(null), new byte[] { 1, 2, 3 });
+        assertNull(_cache.take(1L, new ReplacementMapImpl(null), new byte[] { 1, 2, 3 }));
+    }
+
+    public void testEviction() {
+        ExecutionQueueImpl soup = new ExecutionQueueImpl(null);
+        _cache.put(1L, _rmap, soup, new byte[40]);
+        _cache.put(2L, _rmap, new ExecutionQueueImpl(null), new byte[40]);
+        // 1 is now the most recently used
+        _cache.put(1L, _rmap, soup, new byte[40]);
+        _cache.put(3L, _rmap, new ExecutionQueueImpl(null), new byte[40]);
+        assertEquals(2, _cache.size());
+        assertNull(_cache.take(2L, _rmap, new byte[40]));
+        assertSame(soup, _cache.take(1L, _rmap, new byte[40]));
+
+        // too large to be cached at all
+        _cache.put(4L, _rmap, new ExecutionQueueImpl(null), new byte[101]);
+        assertNull(_cache.take(4L, _rmap, new byte[101]));
+    }
+
+    public void testRemoveAll() {
+        ReplacementMap other = new ReplacementMapImpl(null);
+        _cache.put(1L, _rmap, new ExecutionQueueImpl(null), new byte[10]);
+        _cache.put(2L, other, new ExecutionQueueImpl(null), new byte[10]);
+        _cache.removeAll(_rmap);
+        assertEquals(1, _cache.size());
+        assertNotNull(_cache.take(2L, other, new byte[10]));
+    }
+
+    public void testDisabled() {
+        _cache.setMaximumSize(0);
+        assertFalse(_cache.isEnabled());
+        _cache.put(1L, _rmap, new ExecutionQueueImpl(null), new byte[] { 1 });
+        assertEquals(0, _cache.size());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.elang.xpath10.obj.OXPath10ExpressionBPEL20;
+import org.apache.ode.bpel.obj.OElementVarType;
+import org.apache.ode.bpel.obj.OMessageVarType;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.utils.NSContext;
+
+public class StreamingPropertyExtractorTest extends TestCase {
+
+    private static final String NS = "urn:test";
+
+    private static final String MESSAGE =
+        "<message><payload><t:order xmlns:t='urn:test'><t:id> 42 </t:id><t:line><t:sku>a</t:sku></t:line>"
+        + "<t:line><t:sku>b</t:sku></t:line><t:note>x<![CDATA[<y>]]></t:note><t:mixed>a<!-- c --></t:mixed>"
+        + "</t:order></payload><other>7</other></message>";
+
+    public void testElementPart() throws Exception {
+        assertEquals(" 42 ", extract(MESSAGE, elementPart(), "t:id"));
+        assertEquals("x<y>", extract(MESSAGE, elementPart(), "./t:note"));
+    }
+
+    public void testTypePart() throws Exception {
+        assertEquals("7", extract(MESSAGE, typePart("other"), null));
+    }
+
+    public void testElementVariable() throws Exception {
+        String order = "<t:order xmlns:t='urn:test'><t:id>42</t:id></t:order>";
+        assertEquals("42", extract(order, null, "t:id"));
+        assertEquals("42", extract("<t:id xmlns:t='urn:test'>42</t:id>", null, null));
+    }
+
+    public void testFallback() throws Exception {
+        // several nodes selected
+        assertNull(extract(MESSAGE, elementPart(), "t:line/t:sku"));
+        // not found
+        assertNull(extract(MESSAGE, elementPart(), "t:missing"));
+        assertNull(extract(MESSAGE, typePart("missing"), null));
+        // not only text
+        assertNull(extract(MESSAGE, elementPart(), "t:line"));
+        assertNull(extract(MESSAGE, elementPart(), "t:mixed"));
+        // not a plain path
+        assertNull(extract(MESSAGE, elementPart(), "t:line[1]/t:sku"));
+        assertNull(extract(MESSAGE, elementPart(), "/t:id"));
+        assertNull(extract(MESSAGE, elementPart(), "u:id"));
+        assertNull(extract(MESSAGE, elementPart(), "t:id/text()"));
+        // not well-formed
+        assertNull(extract("<message><payload>", elementPart(), "t:id"));
+    }
+
+    private String extract(String xml, OMessageVarType.Part part, String location) {
+        OProcess.OPropertyAlias alias = new OProcess.OPropertyAlias();
+        alias.setPart(part);
+        if (location != null) {
+            NSContext nsctx = new NSContext();
+            nsctx.register("t", NS);
+            OXPath10ExpressionBPEL20 expr = new OXPath10ExpressionBPEL20();
+            expr.setXpath(location);
+            expr.setNamespaceCtx(nsctx);
+            alias.setLocation(expr);
+        }
+        return StreamingPropertyExtractor.extract(xml, alias);
+    }
+
+    private OMessageVarType.Part elementPart() {
+        OElementVarType type = new OElementVarType();
+        type.setElementType(new QName(NS, "order"));
+        OMessageVarType.Part part = new OMessageVarType.Part();
+        part.setName("payload");
+        part.setType(type);
+        return part;
+    }
+
+    private OMessageVarType.Part typePart(String name) {
+        OMessageVarType.Part part = new OMessageVarType.Part();
+        part.setName(name);
+        return part;
+    }
+}
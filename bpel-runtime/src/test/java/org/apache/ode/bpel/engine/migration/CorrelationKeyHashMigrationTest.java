@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine.migration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeyHash;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.apache.ode.bpel.dao.BpelDAOConnection;
+import org.apache.ode.bpel.dao.BpelDAOConnectionFactory;
+import org.apache.ode.bpel.engine.BpelProcess;
+import org.apache.ode.bpel.engine.Contexts;
+import org.apache.ode.scheduler.simple.SimpleScheduler;
+import org.apache.ode.utils.GUID;
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * Migrates a populated schema from version 7 to 8, which fills the correlation key hashes.
+ */
+public class CorrelationKeyHashMigrationTest extends TestCase {
+
+    /** More rows than the migration updates in a batch. */
+    private static final int ROWS = 1234;
+
+    JdbcDataSource _ds;
+    Contexts _contexts;
+
+    public void testJpaSchema() throws Exception {
+        execute("create table ODE_MESSAGE_ROUTE (MESSAGE_ROUTE_ID bigint not null, CORRELATION_KEY varchar(255), "
+                + "GROUP_ID varchar(255), ROUTE_INDEX integer, primary key (MESSAGE_ROUTE_ID))",
+                "create table ODE_CORSET_PROP (ID bigint not null, PROP_KEY varchar(255), PROP_VALUE varchar(255), "
+                + "primary key (ID))");
+        Map<Long, String> routes = populate("ODE_MESSAGE_ROUTE", "MESSAGE_ROUTE_ID", "CORRELATION_KEY");
+        Map<Long, String> props = populate("ODE_CORSET_PROP", "ID", "PROP_VALUE");
+        // schema-updates/update06-jpa.sql
+        execute("alter table ODE_MESSAGE_ROUTE add CORRELATION_KEY_HASH bigint",
+                "alter table ODE_CORSET_PROP add PROP_VALUE_HASH bigint");
+
+        assertTrue(new MigrationHandler(_contexts).migrate(Collections.<BpelProcess>emptySet(), 60));
+
+        assertEquals(8, schemaVersion());
+        assertHashes("ODE_MESSAGE_ROUTE", "MESSAGE_ROUTE_ID", "CORRELATION_KEY_HASH", routes);
+        assertHashes("ODE_CORSET_PROP", "ID", "PROP_VALUE_HASH", props);
+    }
+
+    public void testHibernateSchema() throws Exception {
+        execute("create table BPEL_SELECTORS (ID bigint not null, CORRELATION_KEY varchar(255), "
+                + "SELGRPID varchar(255), IDX integer, primary key (ID))",
+                "create table BPEL_CORRELATION_PROP (ID bigint not null, NAME varchar(255), VALUE varchar(255), "
+                + "primary key (ID))");
+        Map<Long, String> selectors = populate("BPEL_SELECTORS", "ID", "CORRELATION_KEY");
+        Map<Long, String> props = populate("BPEL_CORRELATION_PROP", "ID", "VALUE");
+        // schema-updates/update06-hibernate.sql
+        execute("alter table BPEL_SELECTORS add CORRELATION_KEY_HASH bigint",
+                "alter table BPEL_CORRELATION_PROP add VALUE_HASH bigint");
+
+        assertTrue(new MigrationHandler(_contexts).migrate(Collections.<BpelProcess>emptySet(), 60));
+
+        assertEquals(8, schemaVersion());
+        assertHashes("BPEL_SELECTORS", "ID", "CORRELATION_KEY_HASH", selectors);
+        assertHashes("BPEL_CORRELATION_PROP", "ID", "VALUE_HASH", props);
+    }
+
+    public void testCurrentSchemaUntouched() throws Exception {
+        execute("update ODE_SCHEMA_VERSION set VERSION = 8",
+                "create table ODE_MESSAGE_ROUTE (MESSAGE_ROUTE_ID bigint not null, CORRELATION_KEY varchar(255), "
+                + "CORRELATION_KEY_HASH bigint, primary key (MESSAGE_ROUTE_ID))",
+                "insert into ODE_MESSAGE_ROUTE values (1, '1~a', null)");
+
+        assertTrue(new MigrationHandler(_contexts).migrate(Collections.<BpelProcess>emptySet(), 60));
+
+        Map<Long, String> expected = new HashMap<Long, String>();
+        expected.put(1L, null);
+        assertHashes("ODE_MESSAGE_ROUTE", "MESSAGE_ROUTE_ID", "CORRELATION_KEY_HASH", expected);
+    }
+
+    /**
+     * Inserts rows with canonical keys, plus one without any value.
+     *
+     * @return the value of every row, by id
+     */
+    private Map<Long, String> populate(String table, String id, String value) throws Exception {
+        Map<Long, String> values = new HashMap<Long, String>();
+        Connection conn = _ds.getConnection();
+        try {
+            PreparedStatement insert = conn.prepareStatement("insert into " + table + " (" + id + ", " + value
+                    + ") values (?, ?)");
+            for (long i = 0; i < ROWS; ++i) {
+                String key = new CorrelationKeySet()
+                        .add(new CorrelationKey("1", new String[] { "order-" + i }))
+                        .add(new CorrelationKey("2", new String[] { "customer-" + (i % 10), "order-" + i }))
+                        .toCanonicalString();
+                insert.setLong(1, i);
+                insert.setString(2, key);
+                insert.addBatch();
+                values.put(i, key);
+            }
+            insert.setLong(1, ROWS);
+            insert.setString(2, null);
+            insert.addBatch();
+            values.put((long) ROWS, null);
+            insert.executeBatch();
+            insert.close();
+        } finally {
+            conn.close();
+        }
+        return values;
+    }
+
+    private void assertHashes(String table, String id, String hash, Map<Long, String> values) throws Exception {
+        Connection conn = _ds.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("select " + id + ", " + hash + " from " + table);
+            int count = 0;
+            while (rs.next()) {
+                Long expected = CorrelationKeyHash.hash(values.get(rs.getLong(1)));
+                Object actual = rs.getObject(2);
+                assertEquals("Hash of row " + rs.getLong(1), expected, actual == null ? null : rs.getLong(2));
+                ++count;
+            }
+            assertEquals(values.size(), count);
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    private int schemaVersion() throws Exception {
+        Connection conn = _ds.getConnection();
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("select VERSION from ODE_SCHEMA_VERSION");
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void execute(String... sql) throws Exception {
+        Connection conn = _ds.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            for (String s : sql)
+                stmt.execute(s);
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    protected void setUp() throws Exception {
+        _ds = new JdbcDataSource();
+        _ds.setURL("jdbc:h2:mem:" + new GUID().toString() + ";DB_CLOSE_DELAY=-1");
+        _ds.setUser("sa");
+        execute("create table ODE_SCHEMA_VERSION (VERSION integer)",
+                "insert into ODE_SCHEMA_VERSION values (7)");
+
+        SimpleScheduler scheduler = new SimpleScheduler("node", null, new Properties());
+        scheduler.setTransactionManager(new GeronimoTransactionManager());
+        final BpelDAOConnection conn = (BpelDAOConnection) proxy(BpelDAOConnection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+        _contexts = new Contexts();
+        _contexts.scheduler = scheduler;
+        _contexts.dao = (BpelDAOConnectionFactory) proxy(BpelDAOConnectionFactory.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getDataSource".equals(method.getName())) return _ds;
+                return "getConnection".equals(method.getName()) ? conn : null;
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(CorrelationKeyHashMigrationTest.class.getClassLoader(), new Class[] { type }, handler);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.evtproc;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.common.BpelEventFilter;
+import org.apache.ode.bpel.common.InstanceFilter;
+import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.bpel.evt.ProcessInstanceEvent;
+import org.apache.ode.bpel.evt.ProcessInstanceStartedEvent;
+import org.apache.ode.bpel.evt.ProcessTerminationEvent;
+
+public class EventJournalTest extends TestCase {
+
+    private static final long T0 = 1000000000000L;
+
+    File _dir;
+
+    public void testQueries() throws Exception {
+        EventJournal journal = new EventJournal(_dir, 64 * 1024, 10);
+        for (int i = 0; i < 500; ++i)
+            journal.append(event(i % 2 == 0 ? new ProcessInstanceStartedEvent() : new ProcessTerminationEvent(), i % 7, T0 + i * 1000));
+
+        assertEquals(500, journal.read(query(null, null), 0).size());
+        assertEquals(10, journal.read(query(null, null), 10).size());
+
+        List<BpelEvent> events = journal.read(query("iid=3", null), 0);
+        assertEquals(71, events.size());
+        for (BpelEvent event : events)
+            assertEquals(Long.valueOf(3), ((ProcessInstanceEvent) event).getProcessInstanceId());
+
+        events = journal.read(query(null, "type=ProcessTermination* timestamp>=" + iso(T0 + 400 * 1000)), 0);
+        assertEquals(50, events.size());
+        assertEquals(T0 + 401 * 1000, events.get(0).getTimestamp().getTime());
+
+        List<Date> timeline = journal.timeline(query("name=proc* namespace=urn:test", "timestamp<" + iso(T0 + 100 * 1000)));
+        assertEquals(100, timeline.size());
+        assertEquals(0, journal.timeline(query("name=other", null)).size());
+
+        assertNull(EventJournal.Query.create(new InstanceFilter("status=active", null, 0), null));
+        journal.close();
+    }
+
+    public void testRollingAndRecovery() throws Exception {
+        EventJournal journal = new EventJournal(_dir, 8 * 1024, 3);
+        for (int i = 0; i < 200; ++i)
+            journal.append(event(new ProcessInstanceStartedEvent(), i, T0 + i));
+        assertEquals(3, journal.getSegmentCount());
+        int kept = journal.read(query(null, null), 0).size();
+        assertTrue(kept > 0 && kept < 200);
+        journal.close();
+
+        assertEquals(3, _dir.listFiles().length);
+        journal = new EventJournal(_dir, 8 * 1024, 3);
+        List<BpelEvent> events = journal.read(query(null, null), 0);
+        assertEquals(kept, events.size());
+        assertEquals(T0 + 199, events.get(events.size() - 1).getTimestamp().getTime());
+        journal.append(event(new ProcessInstanceStartedEvent(), 1000, T0 + 1000));
+        assertEquals(1, journal.read(query("iid=1000", null), 0).size());
+        journal.close();
+    }
+
+    public void testPartialWrite() throws Exception {
+        EventJournal journal = new EventJournal(_dir, 64 * 1024, 3);
+        for (int i = 0; i < 10; ++i)
+            journal.append(event(new ProcessInstanceStartedEvent(), i, T0 + i));
+        journal.close();
+
+        // corrupt the middle of the last record
+        File segment = _dir.listFiles()[0];
+        int end = 0;
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            int last = 0;
+            int length;
+            while ((length = readInt(raf, end)) > 0) {
+                last = end;
+                end += 4 + length;
+            }
+            raf.seek(last + 30);
+            raf.write(new byte[] { 1, 2, 3 });
+        } finally {
+            raf.close();
+        }
+
+        journal = new EventJournal(_dir, 64 * 1024, 3);
+        assertEquals(9, journal.read(query(null, null), 0).size());
+        journal.append(event(new ProcessInstanceStartedEvent(), 42, T0 + 42));
+        List<BpelEvent> events = journal.read(query(null, null), 0);
+        assertEquals(10, events.size());
+        assertEquals(Long.valueOf(42), ((ProcessInstanceEvent) events.get(9)).getProcessInstanceId());
+        journal.close();
+    }
+
+    public void testRetiredSegmentKeptWhileRead() throws Exception {
+        File file = new File(_dir, "0" + EventJournal.SEGMENT_SUFFIX);
+        EventJournal.Segment segment = new EventJournal.Segment(file, EventJournal.map(file, 1024, true));
+        segment.readers++;
+        segment.retire(true);
+        assertTrue(file.exists());
+        segment.doneReading();
+        assertFalse(file.exists());
+    }
+
+    public void testListenerConfiguration() throws Exception {
+        EventJournalListener listener = new EventJournalListener();
+        try {
+            listener.startup(new Properties());
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // no default directory
+        }
+
+        Properties props = new Properties();
+        props.setProperty(EventJournalListener.DIRECTORY_KEY, _dir.getPath());
+        listener.startup(props);
+        assertFalse(listener.isExclusive());
+        listener.shutdown();
+
+        props.setProperty(EventJournalListener.EXCLUSIVE_KEY, "true");
+        listener.startup(props);
+        assertTrue(listener.isExclusive());
+        listener.shutdown();
+    }
+
+    private static int readInt(RandomAccessFile raf, int offset) throws Exception {
+        raf.seek(offset);
+        return raf.readInt();
+    }
+
+    private static ProcessInstanceEvent event(ProcessInstanceEvent event, long iid, long time) {
+        event.setProcessInstanceId(iid);
+        event.setProcessId(new QName("urn:test", "process-1"));
+        event.setProcessName(new QName("urn:test", "process"));
+        event.setTimestamp(new Date(time));
+        return event;
+    }
+
+    private static EventJournal.Query query(String instanceFilter, String eventFilter) {
+        return EventJournal.Query.create(new InstanceFilter(instanceFilter, null, 0), new BpelEventFilter(eventFilter, 0));
+    }
+
+    /** The filters only have a precision of a second. */
+    private static String iso(long time) {
+        return org.apache.ode.utils.ISO8601DateParser.format(new Date(time));
+    }
+
+    protected void setUp() throws Exception {
+        _dir = File.createTempFile("ode-journal", "");
+        _dir.delete();
+        _dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = _dir.listFiles();
+        if (files != null)
+            for (File f : files) f.delete();
+        _dir.delete();
+    }
+}
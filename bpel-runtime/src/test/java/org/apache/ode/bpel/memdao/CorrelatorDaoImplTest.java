@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.memdao;
+
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.apache.ode.bpel.dao.MessageExchangeDAO;
+import org.apache.ode.bpel.dao.MessageRouteDAO;
+
+/**
+ * Test case for the indexes of {@link CorrelatorDaoImpl}.
+ */
+public class CorrelatorDaoImplTest extends TestCase {
+
+    private BpelDAOConnectionImpl _conn;
+    private ProcessDaoImpl _process;
+    private CorrelatorDaoImpl _correlator;
+    private int _mexId;
+
+    public void setUp() {
+        _conn = new BpelDAOConnectionImpl(new HashMap<QName, ProcessDaoImpl>(), null, 0) {
+            public void defer(Runnable runnable) {
+                runnable.run();
+            }
+        };
+        _process = new ProcessDaoImpl(_conn, new HashMap<QName, ProcessDaoImpl>(), new QName("urn:test", "p"),
+                new QName("urn:test", "p"), "guid", 0);
+        _correlator = new CorrelatorDaoImpl("pl.op", _conn);
+    }
+
+    public void testFindRoute() {
+        ProcessInstanceDaoImpl i1 = instance();
+        ProcessInstanceDaoImpl i2 = instance();
+        ProcessInstanceDaoImpl i3 = instance();
+        _correlator.addRoute("g1", i1, 0, keys("a~1"), "one");
+        _correlator.addRoute("g2", i2, 0, keys("a~1", "b~2"), "one");
+        _correlator.addRoute("g3", i3, 0, keys("b~2"), "one");
+
+        assertRoutes(_correlator.findRoute(keys("a~1")), i1);
+        // first route added wins
+        assertRoutes(_correlator.findRoute(keys("a~1", "b~2")), i1);
+        assertRoutes(_correlator.findRoute(keys("b~2", "c~3")), i3);
+        assertRoutes(_correlator.findRoute(keys("a~2")));
+
+        _correlator._removeRoutes("g1", i1);
+        assertRoutes(_correlator.findRoute(keys("a~1", "b~2")), i2);
+        assertEquals(2, _correlator.getAllRoutes().size());
+    }
+
+    public void testFindAllRoutes() {
+        ProcessInstanceDaoImpl i1 = instance();
+        ProcessInstanceDaoImpl i2 = instance();
+        ProcessInstanceDaoImpl i3 = instance();
+        _correlator.addRoute("g1", i1, 0, keys("b~2"), "all");
+        _correlator.addRoute("g2", i2, 0, keys("a~1"), "all");
+        _correlator.addRoute("g3", i3, 0, keys("-1~x"), "all");
+
+        assertRoutes(_correlator.findRoute(keys("a~1", "b~2")), i1, i2);
+        // opaque routes also take messages without keys
+        assertRoutes(_correlator.findRoute(new CorrelationKeySet()), i3);
+
+        _correlator._removeRoutes(null, i3);
+        assertRoutes(_correlator.findRoute(new CorrelationKeySet()));
+    }
+
+    public void testRouteWithoutKeys() {
+        ProcessInstanceDaoImpl i1 = instance();
+        _correlator.addRoute("g1", i1, 0, new CorrelationKeySet(), "one");
+        assertRoutes(_correlator.findRoute(keys("a~1")), i1);
+        assertRoutes(_correlator.findRoute(new CorrelationKeySet()), i1);
+    }
+
+    public void testChangeRouteKeys() {
+        ProcessInstanceDaoImpl i1 = instance();
+        _correlator.addRoute("g1", i1, 0, keys("a~1"), "one");
+        MessageRouteDAO route = _correlator.getAllRoutes().iterator().next();
+        route.setCorrelationKey(new CorrelationKey("b~2"));
+        assertRoutes(_correlator.findRoute(keys("a~1")));
+        assertRoutes(_correlator.findRoute(keys("b~2")), i1);
+    }
+
+    public void testDequeueMessage() {
+        MessageExchangeDAO m1 = new MessageExchangeDAOImpl('M', "m" + (++_mexId));
+        MessageExchangeDAO m2 = new MessageExchangeDAOImpl('M', "m" + (++_mexId));
+        MessageExchangeDAO m3 = new MessageExchangeDAOImpl('M', "m" + (++_mexId));
+        _correlator.enqueueMessage(m1, keys("a~1", "b~2"));
+        _correlator.enqueueMessage(m2, keys("a~1"));
+        _correlator.enqueueMessage(m3, keys("c~3"));
+
+        assertNull(_correlator.dequeueMessage(keys("a~2")));
+        assertSame(m1, _correlator.dequeueMessage(keys("a~1")));
+        assertNull(_correlator.dequeueMessage(keys("b~2")));
+        assertSame(m2, _correlator.dequeueMessage(keys("a~1")));
+        // an instance without keys takes the earliest message
+        assertSame(m3, _correlator.dequeueMessage(new CorrelationKeySet()));
+        assertTrue(_correlator.getAllMessages().isEmpty());
+    }
+
+    private ProcessInstanceDaoImpl instance() {
+        return new ProcessInstanceDaoImpl(_conn, _process, _correlator);
+    }
+
+    private static CorrelationKeySet keys(String... keys) {
+        CorrelationKeySet keySet = new CorrelationKeySet();
+        for (String key : keys)
+            keySet.add(new CorrelationKey(key));
+        return keySet;
+    }
+
+    private static void assertRoutes(List<MessageRouteDAO> routes, ProcessInstanceDaoImpl... instances) {
+        assertEquals(instances.length, routes.size());
+        for (int i = 0; i < instances.length; ++i)
+            assertSame(instances[i], routes.get(i).getTargetInstance());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.memdao;
+
+import java.lang.ref.WeakReference;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.dao.MessageExchangeDAO;
+
+/**
+ * Test case for {@link MessageExchangeStore}.
+ */
+public class MessageExchangeStoreTest extends TestCase {
+
+    private MessageExchangeStore _store;
+
+    public void setUp() {
+        _store = new MessageExchangeStore(10);
+    }
+
+    public void testPutRemove() {
+        MessageExchangeDAO mex = mex("1");
+        _store.put("1", mex, 60000);
+        assertSame(mex, _store.get("1"));
+        assertEquals(1, _store.getLiveCount());
+
+        assertSame(mex, _store.remove("1"));
+        assertNull(_store.get("1"));
+        assertNull(_store.remove("1"));
+        assertEquals(0, _store.getLiveCount());
+        assertEquals(1, _store.getCreatedCount());
+        assertEquals(1, _store.getReleasedCount());
+    }
+
+    public void testExpire() {
+        long now = System.currentTimeMillis();
+        _store.put("1", mex("1"), 100);
+        _store.put("2", mex("2"), 100);
+        _store.put("3", mex("3"), 60000);
+        _store.remove("2");
+
+        _store.expire(now);
+        assertEquals(2, _store.getLiveCount());
+        // past the generation of the short-lived ones
+        _store.expire(now + 1000);
+        assertNull(_store.get("1"));
+        assertNotNull(_store.get("3"));
+        assertEquals(1, _store.getLiveCount());
+        assertEquals(1, _store.getExpiredCount());
+        assertEquals(1, _store.getReleasedCount());
+    }
+
+    public void testCapacity() throws Exception {
+        _store.setCapacity(1, 50);
+        _store.put("1", mex("1"), 60000);
+        try {
+            _store.put("2", mex("2"), 60000);
+            fail("Store should be full");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, _store.getBlockedCount());
+        assertEquals(1, _store.getRejectedCount());
+
+        // room made while waiting
+        _store.setCapacity(1, 10000);
+        Thread releaser = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                _store.remove("1");
+            }
+        };
+        releaser.start();
+        _store.put("3", mex("3"), 60000);
+        releaser.join();
+        assertNotNull(_store.get("3"));
+        assertEquals(1, _store.getLiveCount());
+        assertEquals(2, _store.getBlockedCount());
+        assertEquals(1, _store.getRejectedCount());
+    }
+
+    /**
+     * Message exchanges that left the store can be collected before their generation expires.
+     */
+    public void testNotRetained() {
+        MessageExchangeDAO mex = mex("1");
+        WeakReference<MessageExchangeDAO> removed = new WeakReference<MessageExchangeDAO>(mex);
+        _store.put("1", mex, 60000);
+        _store.remove("1");
+        mex = mex("2");
+        WeakReference<MessageExchangeDAO> replaced = new WeakReference<MessageExchangeDAO>(mex);
+        _store.put("2", mex, 60000);
+        _store.put("2", mex("2"), 60000);
+        mex = null;
+
+        for (int i = 0; i < 50 && (removed.get() != null || replaced.get() != null); ++i) {
+            System.gc();
+            Thread.yield();
+        }
+        assertNull("Removed message exchange still reachable", removed.get());
+        assertNull("Replaced message exchange still reachable", replaced.get());
+        assertEquals(1, _store.getLiveCount());
+    }
+
+    private static MessageExchangeDAO mex(String id) {
+        return new MessageExchangeDAOImpl('M', id);
+    }
+}
@@ -15,5 +15,6 @@ CREATE TABLE ode_job (
   retryCount int,
   inMem int,
   detailsExt blob(4096),
+  partitionId int,
 
   PRIMARY KEY(jobid))
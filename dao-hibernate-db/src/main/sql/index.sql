@@ -4,6 +4,7 @@ CREATE INDEX IDX_BPEL_CORRELATOR_PROCESS_ID on BPEL_CORRELATOR(PROCESS_ID);
 CREATE INDEX IDX_BPEL_CORRELATOR_MSG_CKEY on BPEL_CORRELATOR_MESSAGE_CKEY (CKEY);
 CREATE INDEX IDX_SELECTOR_SELGRPID on BPEL_SELECTORS (SELGRPID);
 CREATE INDEX IDX_SELECTOR_CKEY on BPEL_SELECTORS (CORRELATION_KEY);
+CREATE INDEX IDX_SELECTOR_CKEY_HASH on BPEL_SELECTORS (CORRELATION_KEY_HASH);
 CREATE INDEX IDX_SELECTOR_CORRELATOR on BPEL_SELECTORS (CORRELATOR);
 CREATE INDEX IDX_SELECTOR_INSTANCE on BPEL_SELECTORS (PIID);
 CREATE INDEX IDX_BPEL_SELECTORS_PROC_TYPE on BPEL_SELECTORS(PROC_TYPE);
@@ -21,6 +22,7 @@ CREATE INDEX IDX_CORR_SET_NAME on BPEL_CORRELATION_SET (CORR_SET_NAME);
 CREATE INDEX IDX_CORR_SET_SCOPE_ID on BPEL_CORRELATION_SET (SCOPE_ID);
 CREATE INDEX IDX_BPEL_INSTANCE_PROCESS_ID on BPEL_INSTANCE (PROCESS_ID);
 CREATE INDEX IDX_BPEL_INSTANCE_STATE on BPEL_INSTANCE (STATE);
+CREATE INDEX IDX_JACOB_STATE_DELTA_PIID on BPEL_JACOB_STATE_DELTA (PIID);
 CREATE INDEX IDX_BPEL_PROCESS_TYPE_NAME on BPEL_PROCESS (type_name);
 CREATE INDEX IDX_BPEL_PROCESS_TYPE_NS on BPEL_PROCESS (type_ns);
 CREATE INDEX IDX_PLINK_VAL_PROCESS_IDX on BPEL_PLINK_VAL (PROCESS);
@@ -32,3 +34,4 @@ CREATE INDEX IDX_VARPROP_VALUE on VAR_PROPERTY (PROP_VALUE);
 CREATE INDEX IDX_MESSAGE_MEX on BPEL_MESSAGE(MEX);
 CREATE INDEX IDX_MESSAGE_EXCHANGE_PIID on BPEL_MESSAGE_EXCHANGE(PIID);
 CREATE INDEX IDX_SCOPE_PIID on BPEL_SCOPE(PIID);
+CREATE INDEX IDX_CORPROP_VALUE_HASH on BPEL_CORRELATION_PROP (VALUE_HASH);
@@ -22,10 +22,12 @@ CREATE TABLE ODE_JOB (
   retryCount int,
   inMem int,
   detailsExt blob(4096),
+  partitionId int,
 
   PRIMARY KEY(jobid),
   INDEX IDX_ODE_JOB_TS(ts),
-  INDEX IDX_ODE_JOB_NODEID(nodeid)
+  INDEX IDX_ODE_JOB_NODEID(nodeid),
+  INDEX IDX_ODE_JOB_PARTITION(nodeid, partitionId, ts)
 );
 
 
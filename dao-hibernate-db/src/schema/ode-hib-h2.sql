@@ -24,12 +24,14 @@ CREATE TABLE ODE_JOB (
   retryCount int,
   inMem int,
   detailsExt blob(4096),
+  partitionId int,
 
   PRIMARY KEY(jobid)
 );
 
 create index IDX_ODE_JOB_TS on ODE_JOB(ts);
 create index IDX_ODE_JOB_NODEID on ODE_JOB(nodeid);
+create index IDX_ODE_JOB_PARTITION on ODE_JOB(nodeid, partitionId, ts);
 
 create table BPEL_ACTIVITY_RECOVERY (ID bigint not null auto_increment, PIID bigint, AID bigint, CHANNEL varchar(255), REASON varchar(255), DATE_TIME timestamp, DETAILS blob(2G), ACTIONS varchar(255), RETRIES integer, INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
 create table BPEL_CORRELATION_PROP (ID bigint not null auto_increment, NAME varchar(255), NAMESPACE varchar(255), VALUE varchar(255), CORR_SET_ID bigint, INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
@@ -38,7 +40,8 @@ create table BPEL_CORRELATOR (ID bigint not null auto_increment, CID varchar(255
 create table BPEL_CORRELATOR_MESSAGE_CKEY (ID bigint not null auto_increment, CKEY varchar(255), CORRELATOR_MESSAGE_ID bigint, INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
 create table BPEL_EVENT (ID bigint not null auto_increment, IID bigint, PID bigint, TSTAMP timestamp, TYPE varchar(255), DETAIL clob, DATA blob(2G), SID bigint, INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
 create table BPEL_FAULT (ID bigint not null auto_increment, FAULTNAME varchar(255), DATA blob(2G), EXPLANATION varchar(4000), LINE_NUM integer, AID integer, INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
-create table BPEL_INSTANCE (ID bigint not null auto_increment, INSTANTIATING_CORRELATOR bigint, FAULT bigint, JACOB_STATE_DATA blob(2G), PREVIOUS_STATE smallint, PROCESS_ID bigint, STATE smallint, LAST_ACTIVE_DT timestamp, SEQUENCE bigint, FAILURE_COUNT integer, FAILURE_DT timestamp, INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
+create table BPEL_INSTANCE (ID bigint not null auto_increment, INSTANTIATING_CORRELATOR bigint, FAULT bigint, JACOB_STATE_DATA blob(2G), JACOB_STATE_DELTAS integer, PREVIOUS_STATE smallint, PROCESS_ID bigint, STATE smallint, LAST_ACTIVE_DT timestamp, SEQUENCE bigint, FAILURE_COUNT integer, FAILURE_DT timestamp, INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
+create table BPEL_JACOB_STATE_DELTA (ID bigint not null auto_increment, PIID bigint, SEQ integer, DATA blob(2G), INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
 create table BPEL_MESSAGE (ID bigint not null auto_increment, MEX bigint, TYPE varchar(255), MESSAGE_DATA blob(2G), MESSAGE_HEADER blob(2G), INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
 create table BPEL_MESSAGE_EXCHANGE (ID bigint not null auto_increment, PORT_TYPE varchar(255), CHANNEL_NAME varchar(255), CLIENTKEY varchar(255), ENDPOINT blob(2G), CALLBACK_ENDPOINT blob(2G), REQUEST bigint, RESPONSE bigint, INSERT_DT timestamp, OPERATION varchar(255), STATE varchar(255), PROCESS bigint, PIID bigint, DIR char(255), PLINK_MODELID integer, PATTERN varchar(255), CORR_STATUS varchar(255), FAULT_TYPE varchar(255), FAULT_EXPL varchar(255), CALLEE varchar(255), PARTNERLINK bigint, PIPED_ID varchar(255), SUBSCRIBER_COUNT integer, INSERT_TIME timestamp, MLOCK integer not null, primary key (ID));
 create table BPEL_MEX_PROPS (MEX bigint not null, VALUE varchar(8000), NAME varchar(255) not null, primary key (MEX, NAME));
@@ -67,6 +70,7 @@ create index IDX_XMLDATA_SID on BPEL_XML_DATA (SCOPE_ID)  ;
 create index IDX_XMLDATA_NAME on BPEL_XML_DATA (NAME)  ;
 create index IDX_XMLDATA_NAME_SID on BPEL_XML_DATA (NAME, SCOPE_ID)  ;
 create index IDX_EVENT_IID on BPEL_EVENT (IID)  ;
+create index IDX_JACOB_STATE_DELTA_PIID on BPEL_JACOB_STATE_DELTA (PIID)  ;
 create index IDX_EVENT_PID on BPEL_EVENT (PID)  ;
 create index IDX_CORR_SET_NAME on BPEL_CORRELATION_SET (CORR_SET_NAME)  ;
 create index IDX_CORR_SET_SCOPE_ID on BPEL_CORRELATION_SET (SCOPE_ID)  ;
@@ -144,7 +144,8 @@ public class SessionManager {
                 .addClass(HBpelEvent.class)
                 .addClass(HFaultData.class)
                 .addClass(HActivityRecovery.class)
-                .addClass(HMessageExchangeProperty.class);
+                .addClass(HMessageExchangeProperty.class)
+                .addClass(HExecutionStateDelta.class);
     }
 
     public static TransactionManager getTransactionManager(Properties props) {
@@ -221,7 +221,8 @@ public class BpelDAOConnectionImpl implements BpelDAOConnection, FilteredInstanc
      */
     static void _insertBpelEvent(Session sess, BpelEvent event, ProcessDAO process, ProcessInstanceDAO instance) {
         HBpelEvent hevent = new HBpelEvent();
-        hevent.setTstamp(new Timestamp(System.currentTimeMillis()));
+        // events may be written some time after they occurred
+        hevent.setTstamp(new Timestamp(event.getTimestamp() != null ? event.getTimestamp().getTime() : System.currentTimeMillis()));
         hevent.setType(BpelEvent.eventName(event));
         hevent.setDetail(event.toString());
         if (process != null)
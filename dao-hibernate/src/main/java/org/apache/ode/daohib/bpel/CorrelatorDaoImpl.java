@@ -23,6 +23,7 @@ import java.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeyHash;
 import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.dao.*;
 import org.apache.ode.bpel.iapi.Scheduler;
@@ -141,10 +142,18 @@ class CorrelatorDaoImpl extends HibernateDao implements CorrelatorDAO {
     private String generateSelectorQuery(String header, List<CorrelationKeySet> subSets) {
         StringBuffer filterQuery = new StringBuffer(header);
 
+        // match on the hash, which is indexed, then on the key itself
         if( subSets.size() == 1 ) {
-            filterQuery.append(" and hs.correlationKey = :s0");
+            filterQuery.append(" and hs.correlationKeyHash = :h0 and hs.correlationKey = :s0");
         } else if( subSets.size() > 1 ) {
-            filterQuery.append(" and hs.correlationKey in(");
+            filterQuery.append(" and hs.correlationKeyHash in(");
+            for( int i = 0; i < subSets.size(); i++ ) {
+                if( i > 0 ) {
+                    filterQuery.append(", ");
+                }
+                filterQuery.append(":h").append(i);
+            }
+            filterQuery.append(") and hs.correlationKey in(");
             for( int i = 0; i < subSets.size(); i++ ) {
                 if( i > 0 ) {
                     filterQuery.append(", ");
@@ -190,6 +199,7 @@ class CorrelatorDaoImpl extends HibernateDao implements CorrelatorDAO {
         hsel.setIndex(idx);
         hsel.setLock(0);
         hsel.setCorrelationKey(correlationKeySet.toCanonicalString());
+        hsel.setCorrelationKeyHash(CorrelationKeyHash.hash(hsel.getCorrelationKey()));
         hsel.setInstance((HProcessInstance) ((ProcessInstanceDaoImpl) target).getHibernateObj());
         hsel.setProcessType(target.getProcess().getType().toString());
         hsel.setCorrelator(_hobj);
@@ -209,7 +219,9 @@ class CorrelatorDaoImpl extends HibernateDao implements CorrelatorDAO {
         entering("CorrelatorDaoImpl.checkRoute");
         Query q = getSession().getNamedQuery(HCorrelatorSelector.SELECT_MESSAGE_ROUTE);
         q.setEntity("corr",_hobj);
-        q.setString("ckey", correlationKeySet.toCanonicalString());
+        String ckey = correlationKeySet.toCanonicalString();
+        q.setLong("ckeyhash", CorrelationKeyHash.hash(ckey));
+        q.setString("ckey", ckey);
         q.setReadOnly(true);
         return q.list().isEmpty();
     }
@@ -259,16 +271,20 @@ class CorrelatorDaoImpl extends HibernateDao implements CorrelatorDAO {
         //Query q = getSession().createQuery(generateSelectorQuery(_sm.canJoinForUpdate() ? FLTR_SELECTORS : FLTR_SELECTORS_SUBQUERY, subSets));
         Query q = null;
         if(isCorrleationKeySetPreInitialized){
-            q = getSession().createQuery(FLTR_SELECTORS + " and hs.correlationKey = :s0");
+            String ckey = keySet.toCanonicalString();
+            q = getSession().createQuery(FLTR_SELECTORS + " and hs.correlationKeyHash = :h0 and hs.correlationKey = :s0");
             q.setEntity("correlator", getHibernateObj());
-            q.setString("s0", keySet.toCanonicalString());
+            q.setLong("h0", CorrelationKeyHash.hash(ckey));
+            q.setString("s0", ckey);
         } else {
             List<CorrelationKeySet> subSets = keySet.findSubSets();
             q = getSession().createQuery(generateSelectorQuery(FLTR_SELECTORS, subSets));
             q.setEntity("correlator", getHibernateObj());
 
             for( int i = 0; i < subSets.size(); i++ ) {
-                q.setString("s" + i, subSets.get(i).toCanonicalString());
+                String ckey = subSets.get(i).toCanonicalString();
+                q.setLong("h" + i, CorrelationKeyHash.hash(ckey));
+                q.setString("s" + i, ckey);
             }
         }
         // Make sure we obtain a lock for the selector we want to find.
@@ -30,6 +30,7 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.common.BpelEventFilter;
+import org.apache.ode.bpel.common.CorrelationKeyHash;
 import org.apache.ode.bpel.common.Filter;
 import org.apache.ode.bpel.common.InstanceFilter;
 import org.apache.ode.utils.ISO8601DateParser;
@@ -153,16 +154,20 @@ class CriteriaBuilder {
                         String namespace = propKey.substring(1, propKey.lastIndexOf("}"));
                         clauses.add(" csp" + i + ".name = :cspname" + i +
                                 " and csp" + i + ".namespace = :cspnamespace" + i +
+                                " and csp" + i + ".valueHash = :cspvaluehash" + i +
                                 " and csp" + i + ".value = :cspvalue" + i);
 
                         parameters.put("cspname" + i, propKey.substring(propKey.lastIndexOf("}") + 1, propKey.length()));
                         parameters.put("cspnamespace" + i, namespace);
+                        parameters.put("cspvaluehash" + i, CorrelationKeyHash.hash(value));
                         parameters.put("cspvalue" + i, value);
                     } else {
                         clauses.add(" csp" + i + ".name = :cspname" + i +
+                                " and csp" + i + ".valueHash = :cspvaluehash" + i +
                                 " and csp" + i + ".value = :cspvalue" + i);
 
                         parameters.put("cspname" + i, propKey);
+                        parameters.put("cspvaluehash" + i, CorrelationKeyHash.hash(value));
                         parameters.put("cspvalue" + i, value);
                     }
                 }
@@ -22,6 +22,7 @@ import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.dao.MessageRouteDAO;
 import org.apache.ode.bpel.dao.ProcessInstanceDAO;
 import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeyHash;
 import org.apache.ode.daohib.SessionManager;
 import org.apache.ode.daohib.bpel.hobj.HCorrelatorSelector;
 import org.apache.ode.daohib.bpel.hobj.HProcessInstance;
@@ -82,10 +83,12 @@ class MessageRouteDaoImpl extends HibernateDao implements MessageRouteDAO {
 
     public void setCorrelationKeySet(CorrelationKeySet keySet) {
         _selector.setCorrelationKey(keySet.toCanonicalString());
+        _selector.setCorrelationKeyHash(CorrelationKeyHash.hash(_selector.getCorrelationKey()));
     }
 
     public void setCorrelationKey(CorrelationKey key) {
          _selector.setCorrelationKey(key.toCanonicalString());
+         _selector.setCorrelationKeyHash(CorrelationKeyHash.hash(_selector.getCorrelationKey()));
      }
 
      public CorrelationKey getCorrelationKey() {
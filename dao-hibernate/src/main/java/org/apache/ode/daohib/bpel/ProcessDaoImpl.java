@@ -45,6 +45,7 @@ import org.apache.ode.daohib.bpel.hobj.HCorrelationSet;
 import org.apache.ode.daohib.bpel.hobj.HCorrelator;
 import org.apache.ode.daohib.bpel.hobj.HCorrelatorMessage;
 import org.apache.ode.daohib.bpel.hobj.HCorrelatorSelector;
+import org.apache.ode.daohib.bpel.hobj.HExecutionStateDelta;
 import org.apache.ode.daohib.bpel.hobj.HFaultData;
 import org.apache.ode.daohib.bpel.hobj.HMessage;
 import org.apache.ode.daohib.bpel.hobj.HMessageExchange;
@@ -239,6 +240,7 @@ public class ProcessDaoImpl extends HibernateDao implements ProcessDAO, Deferred
         for( HProcessInstance instance : instances ) {
             instanceIds.add(instance.getId());
         }
+        deleteByColumn(HExecutionStateDelta.class, "instance.id", instanceIds);
         deleteByIds(HProcessInstance.class, instanceIds);
     }
 
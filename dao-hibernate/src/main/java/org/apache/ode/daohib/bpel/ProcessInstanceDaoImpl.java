@@ -20,6 +20,7 @@ package org.apache.ode.daohib.bpel;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -51,6 +52,7 @@ import org.apache.ode.daohib.bpel.hobj.HCorrelationProperty;
 import org.apache.ode.daohib.bpel.hobj.HCorrelationSet;
 import org.apache.ode.daohib.bpel.hobj.HCorrelatorMessage;
 import org.apache.ode.daohib.bpel.hobj.HCorrelatorSelector;
+import org.apache.ode.daohib.bpel.hobj.HExecutionStateDelta;
 import org.apache.ode.daohib.bpel.hobj.HFaultData;
 import org.apache.ode.daohib.bpel.hobj.HMessage;
 import org.apache.ode.daohib.bpel.hobj.HMessageExchange;
@@ -159,9 +161,45 @@ public class ProcessInstanceDaoImpl extends HibernateDao implements ProcessInsta
     if (bytes.length > 0) {
       _instance.setJacobState(bytes);
     }
+    deleteExecutionStateDeltas();
     getSession().update(_instance);
   }
 
+  /**
+   * @see org.apache.ode.bpel.dao.ProcessInstanceDAO#appendExecutionStateDelta(byte[])
+   */
+  public void appendExecutionStateDelta(byte[] delta) {
+    entering("ProcessInstanceDaoImpl.appendExecutionStateDelta");
+    HExecutionStateDelta hdelta = new HExecutionStateDelta();
+    hdelta.setInstance(_instance);
+    hdelta.setSequence(_instance.getJacobStateDeltas());
+    hdelta.setData(delta);
+    getSession().save(hdelta);
+    _instance.setJacobStateDeltas(_instance.getJacobStateDeltas() + 1);
+    getSession().update(_instance);
+  }
+
+  /**
+   * @see org.apache.ode.bpel.dao.ProcessInstanceDAO#getExecutionStateDeltas()
+   */
+  @SuppressWarnings("unchecked")
+  public List<byte[]> getExecutionStateDeltas() {
+    entering("ProcessInstanceDaoImpl.getExecutionStateDeltas");
+    if (_instance.getJacobStateDeltas() == 0) return Collections.emptyList();
+
+    List<HExecutionStateDelta> deltas = getSession().getNamedQuery(HExecutionStateDelta.SELECT_DELTAS_BY_INSTANCE).setParameter("instance", _instance).list();
+    List<byte[]> ret = new ArrayList<byte[]>(deltas.size());
+    for (HExecutionStateDelta delta : deltas) ret.add(delta.getData());
+    return ret;
+  }
+
+  private void deleteExecutionStateDeltas() {
+    if (_instance.getJacobStateDeltas() > 0) {
+      deleteByColumn(HExecutionStateDelta.class, "instance.id", Collections.singletonList(_instance.getId()));
+      _instance.setJacobStateDeltas(0);
+    }
+  }
+
   /**
    * @see org.apache.ode.bpel.dao.ProcessInstanceDAO#getProcess()
    */
@@ -361,6 +399,7 @@ public class ProcessInstanceDaoImpl extends HibernateDao implements ProcessInsta
     if( _instance.getJacobState() != null ) {
         _instance.setJacobState(null);
     }
+    deleteExecutionStateDeltas();
 
     HProcessInstance[] instances = new HProcessInstance[] {_instance};
 
@@ -72,6 +72,16 @@ public class XmlDataDaoImpl extends HibernateDao implements XmlDataDAO {
         return _node;
     }
 
+    /**
+     * @see org.apache.ode.bpel.dao.XmlDataDAO#getUnparsedData()
+     */
+    public String getUnparsedData() {
+        entering("XmlDataDaoImpl.getUnparsedData");
+        if (_node != null || _data.isSimpleType() || _data.getData() == null || _data.getData().length == 0)
+            return null;
+        return new String(_data.getData());
+    }
+
     /**
      * @see org.apache.ode.bpel.dao.XmlDataDAO#remove()
      */
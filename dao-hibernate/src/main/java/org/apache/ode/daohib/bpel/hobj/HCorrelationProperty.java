@@ -22,6 +22,8 @@ package org.apache.ode.daohib.bpel.hobj;
 
 import javax.xml.namespace.QName;
 
+import org.apache.ode.bpel.common.CorrelationKeyHash;
+
 /**
  * Hibernate table-mapped class representing one valued property in
  * a correlation set.
@@ -34,6 +36,7 @@ public class HCorrelationProperty extends HObject {
     private String _name;
     private String _namespace;
     private String _value;
+    private Long _valueHash;
     private HCorrelationSet _correlationSet;
 
     public HCorrelationProperty() {
@@ -45,6 +48,7 @@ public class HCorrelationProperty extends HObject {
         _name = name;
         _namespace = namespace;
         _value = value;
+        _valueHash = CorrelationKeyHash.hash(value);
         _correlationSet = correlationSet;
         _correlationSet.getProperties().add(this);
     }
@@ -54,6 +58,7 @@ public class HCorrelationProperty extends HObject {
         _name = qname.getLocalPart();
         _namespace = qname.getNamespaceURI();
         _value = value;
+        _valueHash = CorrelationKeyHash.hash(value);
         _correlationSet = correlationSet;
         _correlationSet.getProperties().add(this);
     }
@@ -91,6 +96,18 @@ public class HCorrelationProperty extends HObject {
         _value = value;
     }
 
+    /**
+     * Hash of the value, properties are looked up on it.
+     * @hibernate.property column="VALUE_HASH"
+     */
+    public Long getValueHash() {
+        return _valueHash;
+    }
+
+    public void setValueHash(Long valueHash) {
+        _valueHash = valueHash;
+    }
+
     /**
      * @hibernate.many-to-one column="CORR_SET_ID" foreign-key="none"
      */
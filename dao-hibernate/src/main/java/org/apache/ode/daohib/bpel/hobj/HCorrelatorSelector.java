@@ -23,7 +23,7 @@ package org.apache.ode.daohib.bpel.hobj;
  * @hibernate.class table="BPEL_SELECTORS" lazy="true"
  * @hibernate.query name="SELECT_MESSAGE_ROUTE_IDS_BY_PROCESS" query="select id from HCorrelatorSelector as m where m.correlator in(select c from HCorrelator c where c.process = :process)"
  * @hibernate.query name="SELECT_MESSAGE_ROUTE_IDS_BY_INSTANCES" query="select id from HCorrelatorSelector as m where m.instance in (:instances)"
- * @hibernate.query name="SELECT_MESSAGE_ROUTE" query="select m.id from HCorrelatorSelector as m where m.correlator = :corr and m.correlationKey = :ckey"
+ * @hibernate.query name="SELECT_MESSAGE_ROUTE" query="select m.id from HCorrelatorSelector as m where m.correlator = :corr and m.correlationKeyHash = :ckeyhash and m.correlationKey = :ckey"
  */
 public class HCorrelatorSelector extends HObject {
     public static final String SELECT_MESSAGE_ROUTE_IDS_BY_PROCESS = "SELECT_MESSAGE_ROUTE_IDS_BY_PROCESS";
@@ -36,6 +36,7 @@ public class HCorrelatorSelector extends HObject {
     private HCorrelator _correlator;
     private String _correlatorId;
     private String _correlationKey;
+    private Long _correlationKeyHash;
     private String _processType;
     private String _routePolicy;
 
@@ -95,6 +96,18 @@ public class HCorrelatorSelector extends HObject {
         _correlationKey = correlationKey;
     }
 
+    /**
+     * Hash of the correlation key, selectors are looked up on it.
+     * @hibernate.property column="CORRELATION_KEY_HASH"
+     */
+    public Long getCorrelationKeyHash() {
+        return _correlationKeyHash;
+    }
+
+    public void setCorrelationKeyHash(Long correlationKeyHash) {
+        _correlationKeyHash = correlationKeyHash;
+    }
+
     /**
      * @hibernate.property column="PROC_TYPE" not-null="true"
      */
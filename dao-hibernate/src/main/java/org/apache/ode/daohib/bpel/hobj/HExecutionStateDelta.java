@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.daohib.bpel.hobj;
+
+/**
+ * Delta appended to the JACOB state of a process instance.
+ * @hibernate.class table="BPEL_JACOB_STATE_DELTA"
+ * @hibernate.query name="SELECT_DELTAS_BY_INSTANCE" query="from HExecutionStateDelta as d where d.instance = :instance order by d.sequence"
+ */
+public class HExecutionStateDelta extends HObject {
+    public final static String SELECT_DELTAS_BY_INSTANCE = "SELECT_DELTAS_BY_INSTANCE";
+
+    private HProcessInstance _instance;
+    private int _sequence;
+    private byte[] _data;
+
+    /**
+     * @hibernate.many-to-one column="PIID" foreign-key="none"
+     */
+    public HProcessInstance getInstance() {
+        return _instance;
+    }
+
+    public void setInstance(HProcessInstance instance) {
+        _instance = instance;
+    }
+
+    /**
+     * @hibernate.property column="SEQ"
+     */
+    public int getSequence() {
+        return _sequence;
+    }
+
+    public void setSequence(int sequence) {
+        _sequence = sequence;
+    }
+
+    /**
+     * @hibernate.property type="org.apache.ode.daohib.bpel.hobj.GZipDataType"
+     *
+     * @hibernate.column name="DATA"
+     */
+    public byte[] getData() {
+        return _data;
+    }
+
+    public void setData(byte[] data) {
+        _data = data;
+    }
+}
@@ -63,6 +63,8 @@ public class HProcessInstance extends HObject {
 
     private byte[] _jacobState;
 
+    private int _jacobStateDeltas;
+
     private short _previousState;
 
     private short _state;
@@ -119,6 +121,18 @@ public class HProcessInstance extends HObject {
         _jacobState = jacobState;
     }
 
+    /**
+     * Number of {@link HExecutionStateDelta}s appended to the JACOB state.
+     * @hibernate.property column="JACOB_STATE_DELTAS"
+     */
+    public int getJacobStateDeltas() {
+        return _jacobStateDeltas;
+    }
+
+    public void setJacobStateDeltas(int jacobStateDeltas) {
+        _jacobStateDeltas = jacobStateDeltas;
+    }
+
     /**
      * @hibernate.bag lazy="true" inverse="true"
      * @hibernate.collection-key column="IID" foreign-key="none"
@@ -21,9 +21,11 @@ CREATE TABLE ode_job (
   retryCount int,
   inMem int,
   detailsExt oid,
+  partitionId int,
 
   PRIMARY KEY(jobid));
 
 CREATE INDEX IDX_ODE_JOB_TS ON ode_job(ts);
 CREATE INDEX IDX_ODE_JOB_NODEID ON ode_job(nodeid);
+CREATE INDEX IDX_ODE_JOB_PARTITION ON ode_job(nodeid, partitionId, ts);
 
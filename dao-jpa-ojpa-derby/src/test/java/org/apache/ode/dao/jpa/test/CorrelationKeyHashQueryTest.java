@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.dao.jpa.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.transaction.TransactionManager;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.apache.ode.bpel.dao.CorrelatorDAO;
+import org.apache.ode.bpel.dao.MessageRouteDAO;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.apache.ode.dao.jpa.BPELDAOConnectionFactoryImpl;
+import org.apache.ode.dao.jpa.BPELDAOConnectionImpl;
+import org.apache.ode.il.EmbeddedGeronimoFactory;
+import org.apache.ode.utils.GUID;
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * Checks that looking message routes up by correlation key hash finds the same routes as
+ * looking them up by the canonical correlation key alone.
+ */
+public class CorrelationKeyHashQueryTest extends TestCase {
+
+    private static final String TEST_NS = "http://org.apache.ode.jpa.test";
+
+    TransactionManager _txm;
+    BPELDAOConnectionFactoryImpl factory;
+
+    @Override
+    protected void setUp() throws Exception {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + new GUID().toString()+";DB_CLOSE_DELAY=-1");
+        h2.setUser("sa");
+
+        _txm = new EmbeddedGeronimoFactory().getTransactionManager();
+
+        factory = new BPELDAOConnectionFactoryImpl();
+        factory.setDataSource(h2);
+        factory.setTransactionManager(_txm);
+        Properties props = new Properties();
+        props.put("openjpa.jdbc.SynchronizeMappings", "buildSchema(ForeignKeys=false)");
+        factory.init(props);
+
+        _txm.begin();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        _txm.rollback();
+        factory.shutdown();
+    }
+
+    public void testRouteLookupByHash() throws Exception {
+        BPELDAOConnectionImpl conn = (BPELDAOConnectionImpl) factory.getConnection();
+        ProcessDAO process = conn.createProcess(new QName(TEST_NS, "hashPID"), new QName(TEST_NS, "hashType"), "GUID1", 1);
+        CorrelatorDAO corr = process.addCorrelator("hashCorrelator");
+        ProcessInstanceDAO instance = process.createInstance(corr);
+
+        List<CorrelationKeySet> keySets = new ArrayList<CorrelationKeySet>();
+        for (int i = 0; i < 20; ++i) {
+            // single and multi-property keys, with values that only differ slightly
+            keySets.add(new CorrelationKeySet().add(new CorrelationKey("1", new String[] { "order-" + i })));
+            keySets.add(new CorrelationKeySet().add(new CorrelationKey("2", new String[] { "customer-" + i, "order-" + i })));
+            keySets.add(new CorrelationKeySet()
+                    .add(new CorrelationKey("1", new String[] { "order-" + i }))
+                    .add(new CorrelationKey("3", new String[] { "line~" + i })));
+        }
+        int index = 0;
+        for (CorrelationKeySet keySet : keySets) {
+            // routes to all, so that the lookup returns every matching route
+            corr.addRoute("group" + index, instance, index, keySet, "all");
+            ++index;
+        }
+        _txm.commit();
+        _txm.begin();
+
+        conn = (BPELDAOConnectionImpl) factory.getConnection();
+        corr = conn.getProcess(new QName(TEST_NS, "hashPID")).getCorrelator("hashCorrelator");
+
+        List<CorrelationKeySet> probes = new ArrayList<CorrelationKeySet>(keySets);
+        // matches the routes of several of its subsets
+        probes.add(new CorrelationKeySet()
+                .add(new CorrelationKey("1", new String[] { "order-3" }))
+                .add(new CorrelationKey("2", new String[] { "customer-3", "order-3" }))
+                .add(new CorrelationKey("3", new String[] { "line~3" })));
+        // doesn't match anything
+        probes.add(new CorrelationKeySet().add(new CorrelationKey("1", new String[] { "order-20" })));
+
+        int found = 0;
+        for (CorrelationKeySet probe : probes) {
+            Set<String> expected = routesByCanonicalKey(conn.getEntityManager(), corr, probe);
+            Set<String> actual = new HashSet<String>();
+            List<MessageRouteDAO> routes = corr.findRoute(probe);
+            if (routes != null) {
+                for (MessageRouteDAO route : routes)
+                    actual.add(route.getGroupId());
+            }
+            assertEquals("Routes of " + probe, expected, actual);
+            found += actual.size();
+        }
+        assertTrue(found > keySets.size());
+    }
+
+    private Set<String> routesByCanonicalKey(EntityManager em, CorrelatorDAO corr, CorrelationKeySet probe) {
+        List<CorrelationKeySet> subSets = probe.findSubSets();
+        Set<String> groups = new HashSet<String>();
+        for (CorrelationKeySet subSet : subSets) {
+            Query qry = em.createQuery("select route from MessageRouteDAOImpl as route "
+                    + "where route._correlator = :corr and route._correlationKey = :ckey");
+            qry.setParameter("corr", corr);
+            qry.setParameter("ckey", subSet.toCanonicalString());
+            for (Object route : qry.getResultList())
+                groups.add(((MessageRouteDAO) route).getGroupId());
+        }
+        return groups;
+    }
+}
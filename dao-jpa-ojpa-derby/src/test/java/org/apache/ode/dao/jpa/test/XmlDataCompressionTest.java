@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.dao.jpa.test;
+
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.dao.jpa.XmlDataCompression;
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Element;
+
+public class XmlDataCompressionTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        StringBuffer buf = new StringBuffer("<message>");
+        for (int i = 0; i < 1000; ++i)
+            buf.append("<part name=\"p").append(i).append("\">value \u00e9\u4e2d ").append(i).append("</part>");
+        buf.append("</message>");
+        String xml = buf.toString();
+
+        byte[] compressed = XmlDataCompression.compress(xml, Deflater.DEFAULT_COMPRESSION);
+        assertTrue(compressed.length < xml.length());
+        assertEquals(xml, XmlDataCompression.decompress(compressed));
+        assertEquals("", XmlDataCompression.decompress(XmlDataCompression.compress("", Deflater.BEST_SPEED)));
+    }
+
+    public void testBinaryXml() throws Exception {
+        Element elmt = DOMUtils.stringToDOM("<message><part><t:order xmlns:t=\"urn:t\"><t:id>1</t:id></t:order></part></message>");
+        String xml = DOMUtils.domToString(elmt);
+
+        byte[] binary = XmlDataCompression.encode(elmt, Integer.MAX_VALUE, Deflater.DEFAULT_COMPRESSION);
+        assertTrue(XmlDataCompression.isBinaryXml(binary));
+        assertEquals(xml, DOMUtils.domToString(XmlDataCompression.decodeElement(binary)));
+
+        byte[] deflated = XmlDataCompression.encode(elmt, 0, Deflater.DEFAULT_COMPRESSION);
+        assertTrue(XmlDataCompression.isBinaryXml(deflated));
+        assertEquals(xml, DOMUtils.domToString(XmlDataCompression.decodeElement(deflated)));
+
+        byte[] text = XmlDataCompression.compress(xml, Deflater.DEFAULT_COMPRESSION);
+        assertFalse(XmlDataCompression.isBinaryXml(text));
+        assertEquals(xml, DOMUtils.domToString(XmlDataCompression.decodeElement(text)));
+    }
+
+    public void testDisabledByDefault() throws Exception {
+        assertNull(XmlDataCompression.compress("<small/>"));
+        assertNull(XmlDataCompression.encode(DOMUtils.stringToDOM("<small/>")));
+        assertNull(XmlDataCompression.decompress(null));
+    }
+
+    public void testCorrupted() throws Exception {
+        byte[] compressed = XmlDataCompression.compress("<a>some data</a>", Deflater.DEFAULT_COMPRESSION);
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        try {
+            XmlDataCompression.decompress(truncated);
+            fail("Should have failed.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            XmlDataCompression.decompress(new byte[] { 42 });
+            fail("Should have failed.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -37,6 +37,7 @@ import javax.xml.namespace.QName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.common.BpelEventFilter;
+import org.apache.ode.bpel.common.CorrelationKeyHash;
 import org.apache.ode.bpel.common.Filter;
 import org.apache.ode.bpel.common.InstanceFilter;
 import org.apache.ode.bpel.common.ProcessState;
@@ -127,7 +128,8 @@ public class BPELDAOConnectionImpl implements BpelDAOConnection {
 
     public void insertBpelEvent(BpelEvent event, ProcessDAO process, ProcessInstanceDAO instance) {
         EventDAOImpl eventDao = new EventDAOImpl();
-        eventDao.setTstamp(new Timestamp(System.currentTimeMillis()));
+        // events may be written some time after they occurred
+        eventDao.setTstamp(new Timestamp(event.getTimestamp() != null ? event.getTimestamp().getTime() : System.currentTimeMillis()));
         eventDao.setType(BpelEvent.eventName(event));
         String evtStr = event.toString();
         eventDao.setDetail(evtStr.substring(0, Math.min(254, evtStr.length())));
@@ -242,10 +244,11 @@ public class BPELDAOConnectionImpl implements BpelDAOConnection {
                     // join to props for each prop
                     query.append(" inner join cs._props as csp"+i);
                     // add clause for prop key and value
+                    // spaces have to be escaped, might be better handled in InstanceFilter
+                    String value = props.get(propKey).replaceAll("&#32;", " ");
                     clauses.add(" csp"+i+".propertyKey = '"+propKey+
-                            "' and csp"+i+".propertyValue = '"+
-                            // spaces have to be escaped, might be better handled in InstanceFilter
-                            props.get(propKey).replaceAll("&#32;", " ")+"'");
+                            "' and csp"+i+".propertyValueHash = "+CorrelationKeyHash.hash(value)+
+                            " and csp"+i+".propertyValue = '"+value+"'");
                 }
             }
 
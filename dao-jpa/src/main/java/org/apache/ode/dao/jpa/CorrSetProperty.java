@@ -31,6 +31,9 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
+import org.apache.ode.bpel.common.CorrelationKeyHash;
+import org.apache.openjpa.persistence.jdbc.Index;
+
 /**
  * @author Matthieu Riou <mriou at apache dot org>
  */
@@ -50,6 +53,9 @@ public class CorrSetProperty {
     private String propertyKey;
     @Basic @Column(name="PROP_VALUE")
     private String propertyValue;
+    /** Hash of the value, properties are looked up on it. */
+    @Basic @Column(name="PROP_VALUE_HASH") @Index(name="IDX_CORSET_PROP_VALUE_HASH")
+    private Long propertyValueHash;
 
     @SuppressWarnings("unused")
     @Basic @Column(name="CORRSET_ID", insertable=false, updatable=false, nullable=true)
@@ -62,7 +68,7 @@ public class CorrSetProperty {
     }
     public CorrSetProperty(String propertyKey, String propertyValue) {
         this.propertyKey = propertyKey;
-        this.propertyValue = propertyValue;
+        setPropertyValue(propertyValue);
     }
 
     public String getPropertyKey() {
@@ -79,6 +85,7 @@ public class CorrSetProperty {
 
     public void setPropertyValue(String propertyValue) {
         this.propertyValue = propertyValue;
+        this.propertyValueHash = CorrelationKeyHash.hash(propertyValue);
     }
 
     public CorrelationSetDAOImpl getCorrSet() {
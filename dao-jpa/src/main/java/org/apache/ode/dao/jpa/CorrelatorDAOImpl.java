@@ -21,6 +21,7 @@ package org.apache.ode.dao.jpa;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.ode.bpel.common.CorrelationKeyHash;
 import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.dao.*;
 
@@ -107,10 +108,18 @@ public class CorrelatorDAOImpl extends OpenJPADAO implements CorrelatorDAO {
     private String generateSelectorQuery(String header, List<CorrelationKeySet> subSets) {
         StringBuffer filterQuery = new StringBuffer(header);
 
+        // match on the hash, which is indexed, then on the key itself
         if (subSets.size() == 1) {
-            filterQuery.append(" and route._correlationKey = :s0");
+            filterQuery.append(" and route._correlationKeyHash = :h0 and route._correlationKey = :s0");
         } else if (subSets.size() > 1) {
-            filterQuery.append(" and route._correlationKey in(");
+            filterQuery.append(" and route._correlationKeyHash in(");
+            for (int i = 0; i < subSets.size(); i++) {
+                if (i > 0) {
+                    filterQuery.append(", ");
+                }
+                filterQuery.append(":h").append(i);
+            }
+            filterQuery.append(") and route._correlationKey in(");
             for (int i = 0; i < subSets.size(); i++) {
                 if (i > 0) {
                     filterQuery.append(", ");
@@ -172,15 +181,19 @@ public class CorrelatorDAOImpl extends OpenJPADAO implements CorrelatorDAO {
         Query qry = null;
 
         if(isCorrleationKeySetPreInitialized){
-            qry = getEM().createQuery(ROUTE_BY_CKEY_HEADER + " and route._correlationKey = :s0");
+            String canonical = correlationKeySet.toCanonicalString();
+            qry = getEM().createQuery(ROUTE_BY_CKEY_HEADER + " and route._correlationKeyHash = :h0 and route._correlationKey = :s0");
             qry.setParameter("corr", this);
-            qry.setParameter("s0", correlationKeySet.toCanonicalString());
+            qry.setParameter("h0", CorrelationKeyHash.hash(canonical));
+            qry.setParameter("s0", canonical);
         } else {
             List<CorrelationKeySet> subSets = correlationKeySet.findSubSets();
             qry = getEM().createQuery(generateSelectorQuery(ROUTE_BY_CKEY_HEADER, subSets));
             qry.setParameter("corr", this);
             for (int i = 0; i < subSets.size(); i++) {
-                qry.setParameter("s" + i, subSets.get(i).toCanonicalString());
+                String canonical = subSets.get(i).toCanonicalString();
+                qry.setParameter("h" + i, CorrelationKeyHash.hash(canonical));
+                qry.setParameter("s" + i, canonical);
             }
         }
 
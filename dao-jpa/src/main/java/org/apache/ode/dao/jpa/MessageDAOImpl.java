@@ -63,6 +63,13 @@ public class MessageDAOImpl implements MessageDAO {
     @Lob
     @Column(name = "HEADER")
     private String _header;
+    /** Content of large messages when compression is enabled, see {@link XmlDataCompression}. */
+    @Lob
+    @Column(name = "COMPRESSED_DATA")
+    private byte[] _compressedData;
+    @Lob
+    @Column(name = "COMPRESSED_HEADER")
+    private byte[] _compressedHeader;
     @ManyToOne(fetch = FetchType.LAZY, cascade = { CascadeType.ALL })
     @Column(name = "MESSAGE_EXCHANGE_ID")
     private MessageExchangeDAOImpl _messageExchange;
@@ -76,11 +83,18 @@ public class MessageDAOImpl implements MessageDAO {
     }
 
     public Element getData() {
+        if (XmlDataCompression.isBinaryXml(_compressedData)) {
+            if (__log.isDebugEnabled()) {
+                __log.debug("getData " + _id + " (binary)");
+            }
+            return XmlDataCompression.decodeElement(_compressedData);
+        }
+        String data = _compressedData != null ? XmlDataCompression.decompress(_compressedData) : _data;
         if (__log.isDebugEnabled()) {
-            __log.debug("getData " + _id + " " + _data);
+            __log.debug("getData " + _id + " " + data);
         }
         try {
-            return _data == null ? null : DOMUtils.stringToDOM(_data);
+            return data == null ? null : DOMUtils.stringToDOM(data);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -93,16 +107,29 @@ public class MessageDAOImpl implements MessageDAO {
             }
             return;
         }
-        _data = DOMUtils.domToString(value);
+        _compressedData = XmlDataCompression.encode(value);
+        if (_compressedData != null) {
+            _data = null;
+            if (__log.isDebugEnabled()) {
+                __log.debug("setData " + _id + " (binary)");
+            }
+            return;
+        }
+        String data = DOMUtils.domToString(value);
+        _compressedData = XmlDataCompression.compress(data);
+        _data = _compressedData != null ? null : data;
 
         if (__log.isDebugEnabled()) {
-            __log.debug("setData " + _id + " " + _data);
+            __log.debug("setData " + _id + " " + data);
         }
     }
 
     public Element getHeader() {
+        if (XmlDataCompression.isBinaryXml(_compressedHeader))
+            return XmlDataCompression.decodeElement(_compressedHeader);
+        String header = _compressedHeader != null ? XmlDataCompression.decompress(_compressedHeader) : _header;
         try {
-            return _header == null ? null : DOMUtils.stringToDOM(_header);
+            return header == null ? null : DOMUtils.stringToDOM(header);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -111,7 +138,14 @@ public class MessageDAOImpl implements MessageDAO {
     public void setHeader(Element value) {
         if (value == null)
             return;
-        _header = DOMUtils.domToString(value);
+        _compressedHeader = XmlDataCompression.encode(value);
+        if (_compressedHeader != null) {
+            _header = null;
+            return;
+        }
+        String header = DOMUtils.domToString(value);
+        _compressedHeader = XmlDataCompression.compress(header);
+        _header = _compressedHeader != null ? null : header;
     }
 
     public MessageExchangeDAO getMessageExchange() {
@@ -20,6 +20,7 @@
 package org.apache.ode.dao.jpa;
 
 import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeyHash;
 import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.dao.MessageRouteDAO;
 import org.apache.ode.bpel.dao.ProcessInstanceDAO;
@@ -37,6 +38,8 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
+import org.apache.openjpa.persistence.jdbc.Index;
+
 @Entity
 @Table(name="ODE_MESSAGE_ROUTE")
 @NamedQueries ({
@@ -56,6 +59,9 @@ public class MessageRouteDAOImpl implements MessageRouteDAO {
     private int _index;
     @Basic @Column(name="CORRELATION_KEY")
     private String _correlationKey;
+    /** Hash of the correlation key, routes are looked up on it. */
+    @Basic @Column(name="CORRELATION_KEY_HASH") @Index(name="IDX_MESSAGE_ROUTE_CKEY_HASH")
+    private Long _correlationKeyHash;
     @Basic @Column(name="ROUTE_POLICY", length=16)
     private String _routePolicy;
 
@@ -72,7 +78,7 @@ public class MessageRouteDAOImpl implements MessageRouteDAO {
     public MessageRouteDAOImpl() {}
     public MessageRouteDAOImpl(CorrelationKeySet keySet, String groupId, int index,
                                ProcessInstanceDAOImpl processInst, CorrelatorDAOImpl correlator, String routePolicy) {
-        _correlationKey = keySet.toCanonicalString();
+        setCanonicalKey(keySet.toCanonicalString());
         _groupId = groupId;
         _index = index;
         _processInst = processInst;
@@ -89,7 +95,7 @@ public class MessageRouteDAOImpl implements MessageRouteDAO {
     }
 
     public void setCorrelationKey(CorrelationKey key) {
-        _correlationKey = key.toCanonicalString();
+        setCanonicalKey(key.toCanonicalString());
     }
 
     public String getGroupId() {
@@ -113,6 +119,11 @@ public class MessageRouteDAOImpl implements MessageRouteDAO {
     }
 
     public void setCorrelationKeySet(CorrelationKeySet keySet) {
-        _correlationKey = keySet.toCanonicalString();
+        setCanonicalKey(keySet.toCanonicalString());
+    }
+
+    private void setCanonicalKey(String correlationKey) {
+        _correlationKey = correlationKey;
+        _correlationKeyHash = CorrelationKeyHash.hash(correlationKey);
     }
 }
@@ -162,6 +162,7 @@ public class ProcessDAOImpl extends OpenJPADAO implements ProcessDAO {
         batchUpdateByIds(faultIds.iterator(), getEM().createNamedQuery(FaultDAOImpl.DELETE_FAULTS_BY_IDS), "ids");
         Collection instanceIds = getEM().createNamedQuery(ProcessInstanceDAOImpl.SELECT_INSTANCE_IDS_BY_PROCESS).setParameter("process", this).getResultList();
         batchUpdateByIds(instanceIds.iterator(), getEM().createNamedQuery(ActivityRecoveryDAOImpl.DELETE_ACTIVITY_RECOVERIES_BY_IDS), "ids");
+        batchUpdateByIds(instanceIds.iterator(), getEM().createNamedQuery(ExecutionStateDelta.DELETE_DELTAS_BY_INSTANCE_IDS), "ids");
         getEM().createNamedQuery(ProcessInstanceDAOImpl.DELETE_INSTANCES_BY_PROCESS).setParameter("process", this).executeUpdate();
     }
 
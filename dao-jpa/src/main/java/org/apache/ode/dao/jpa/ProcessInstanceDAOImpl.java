@@ -55,6 +55,7 @@ import javax.persistence.Table;
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -99,6 +100,8 @@ public class ProcessInstanceDAOImpl extends OpenJPADAO implements ProcessInstanc
     private short _previousState;
     @Lob @Column(name="EXECUTION_STATE")
     private byte[] _executionState;
+    @Basic @Column(name="EXECUTION_STATE_DELTAS")
+    private int _executionStateDeltas;
     @Basic @Column(name="SEQUENCE")
     private long _sequence;
     @Basic @Column(name="DATE_CREATED")
@@ -375,6 +378,24 @@ public class ProcessInstanceDAOImpl extends OpenJPADAO implements ProcessInstanc
 
     public void setExecutionState(byte[] execState) {
         _executionState = execState;
+        if (_executionStateDeltas > 0) {
+            getEM().createNamedQuery(ExecutionStateDelta.DELETE_DELTAS_BY_INSTANCE).setParameter("instance", this).executeUpdate();
+            _executionStateDeltas = 0;
+        }
+    }
+
+    public void appendExecutionStateDelta(byte[] delta) {
+        getEM().persist(new ExecutionStateDelta(this, _executionStateDeltas++, delta));
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<byte[]> getExecutionStateDeltas() {
+        if (_executionStateDeltas == 0) return Collections.emptyList();
+
+        List<ExecutionStateDelta> deltas = getEM().createNamedQuery(ExecutionStateDelta.SELECT_DELTAS_BY_INSTANCE).setParameter("instance", this).getResultList();
+        List<byte[]> ret = new ArrayList<byte[]>(deltas.size());
+        for (ExecutionStateDelta delta : deltas) ret.add(delta.getData());
+        return ret;
     }
 
     public void setFault(FaultDAO fault) {
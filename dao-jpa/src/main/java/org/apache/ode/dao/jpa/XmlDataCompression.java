@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.dao.jpa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.ode.utils.BinaryXmlCodec;
+import org.apache.ode.utils.DOMUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+/**
+ * Compressed and binary storage of the XML content of variables and messages.
+ *
+ * Values can be stored in a binary column instead of the character LOB, either deflated or in the
+ * binary XML format of {@link BinaryXmlCodec} (deflated too, when large enough), which saves
+ * serializing and parsing XML text. The first byte of the binary value identifies its format. Rows
+ * with no binary value (including all rows written before these formats were available) keep using
+ * the character LOB, so they are read as before.
+ *
+ * Configured with system properties:
+ * <ul>
+ * <li><code>org.apache.ode.dao.jpa.xmlFormat</code>: <code>text</code> (default) or <code>binary</code></li>
+ * <li><code>org.apache.ode.dao.jpa.compression</code>: <code>none</code> (default) or <code>deflate</code></li>
+ * <li><code>org.apache.ode.dao.jpa.compression.threshold</code>: minimum size in characters (or bytes,
+ * for the binary format) of compressed values, 4096 by default</li>
+ * <li><code>org.apache.ode.dao.jpa.compression.level</code>: deflate level, 1 (fastest) to 9 (smallest)</li>
+ * </ul>
+ */
+public final class XmlDataCompression {
+    private static final Logger __log = LoggerFactory.getLogger(XmlDataCompression.class);
+
+    public static final String PROP_FORMAT = "org.apache.ode.dao.jpa.xmlFormat";
+    public static final String PROP_ALGORITHM = "org.apache.ode.dao.jpa.compression";
+    public static final String PROP_THRESHOLD = "org.apache.ode.dao.jpa.compression.threshold";
+    public static final String PROP_LEVEL = "org.apache.ode.dao.jpa.compression.level";
+
+    static final byte NONE = 0;
+    static final byte DEFLATE = 1;
+    static final byte BINARY = 2;
+    static final byte BINARY_DEFLATE = 3;
+
+    private static final boolean BINARY_FORMAT = binaryFormat(System.getProperty(PROP_FORMAT, "text"));
+    private static final byte ALGORITHM = algorithm(System.getProperty(PROP_ALGORITHM, "none"));
+    private static final int THRESHOLD = Integer.getInteger(PROP_THRESHOLD, 4096);
+    private static final int LEVEL = Integer.getInteger(PROP_LEVEL, Deflater.DEFAULT_COMPRESSION);
+
+    private XmlDataCompression() {
+    }
+
+    private static boolean binaryFormat(String name) {
+        if ("binary".equalsIgnoreCase(name))
+            return true;
+        if (!"text".equalsIgnoreCase(name))
+            __log.warn("Unknown XML data format " + name + ", XML data will be stored as text.");
+        return false;
+    }
+
+    private static byte algorithm(String name) {
+        if ("none".equalsIgnoreCase(name))
+            return NONE;
+        if ("deflate".equalsIgnoreCase(name))
+            return DEFLATE;
+        __log.warn("Unknown XML data compression " + name + ", XML data will be stored uncompressed.");
+        return NONE;
+    }
+
+    /**
+     * Encode an element in binary form if the binary format is enabled.
+     * @return the encoded element, or null if it should be stored as text
+     */
+    public static byte[] encode(Element value) {
+        if (!BINARY_FORMAT)
+            return null;
+        return encode(value, ALGORITHM == DEFLATE ? THRESHOLD : Integer.MAX_VALUE, LEVEL);
+    }
+
+    /**
+     * Encode an element in binary form regardless of the configuration.
+     * @param threshold minimum size of the binary XML to get it deflated
+     */
+    public static byte[] encode(Element value, int threshold, int level) {
+        byte[] data = BinaryXmlCodec.encode(value);
+        if (data.length >= threshold)
+            return deflate(BINARY_DEFLATE, data, level);
+        byte[] result = new byte[data.length + 1];
+        result[0] = BINARY;
+        System.arraycopy(data, 0, result, 1, data.length);
+        return result;
+    }
+
+    /**
+     * @return true if the value has been stored with {@link #encode(Element)} and holds an element
+     */
+    public static boolean isBinaryXml(byte[] data) {
+        return data != null && data.length > 0 && (data[0] == BINARY || data[0] == BINARY_DEFLATE);
+    }
+
+    /**
+     * Restore an element stored in any of the binary formats.
+     */
+    public static Element decodeElement(byte[] data) {
+        switch (data.length == 0 ? NONE : data[0]) {
+        case BINARY:
+            return BinaryXmlCodec.decode(data, 1, data.length - 1);
+        case BINARY_DEFLATE:
+            byte[] binary = inflate(data);
+            return BinaryXmlCodec.decode(binary);
+        default:
+            try {
+                return DOMUtils.stringToDOM(decompress(data));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Compress a value if compression is enabled and the value is large enough.
+     * @return the compressed value, or null if the value should be stored as is
+     */
+    public static byte[] compress(String value) {
+        if (ALGORITHM == NONE || value == null || value.length() < THRESHOLD)
+            return null;
+        return compress(value, LEVEL);
+    }
+
+    /**
+     * Compress a value regardless of the configuration.
+     */
+    public static byte[] compress(String value, int level) {
+        try {
+            return deflate(DEFLATE, value.getBytes("UTF-8"), level);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Restore a value compressed with {@link #compress(String)}.
+     */
+    public static String decompress(byte[] data) {
+        if (data == null)
+            return null;
+        if (data.length == 0 || data[0] != DEFLATE)
+            throw new IllegalStateException("Unknown XML data compression " + (data.length == 0 ? "(empty)" : data[0]));
+        try {
+            return new String(inflate(data), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] deflate(byte format, byte[] data, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 16);
+            out.write(format);
+            byte[] buf = new byte[Math.min(data.length + 16, 8192)];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buf);
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflate a value, skipping its format byte.
+     */
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 1, data.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int len = inflater.inflate(buf);
+                if (len == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IllegalStateException("Truncated compressed XML data");
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed XML data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
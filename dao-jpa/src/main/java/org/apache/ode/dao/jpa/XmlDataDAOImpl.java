@@ -66,6 +66,9 @@ public class XmlDataDAOImpl implements XmlDataDAO {
     private Long _id;
     @Lob @Column(name="DATA")
     private String _data;
+    /** Content of large values when compression is enabled, see {@link XmlDataCompression}. */
+    @Lob @Column(name="COMPRESSED_DATA")
+    private byte[] _compressedData;
     @Transient
     private Node _node;
     @Basic @Column(name="IS_SIMPLE_TYPE")
@@ -89,20 +92,23 @@ public class XmlDataDAOImpl implements XmlDataDAO {
     }
 
     public Node get() {
-        if ( _node == null && _data != null ) {
+        if ( _node == null && XmlDataCompression.isBinaryXml(_compressedData) ) {
+           _node = XmlDataCompression.decodeElement(_compressedData);
+        } else if ( _node == null && !isNull() ) {
+           String data = getData();
            if(_isSimpleType){
                 Document d = DOMUtils.newDocument();
                 // we create a dummy wrapper element
                 // prevents some apps from complaining
                 // when text node is not actual child of document
                 Element e = d.createElement("text-node-wrapper");
-                Text tnode = d.createTextNode(_data);
+                Text tnode = d.createTextNode(data);
                 d.appendChild(e);
                 e.appendChild(tnode);
                 _node = tnode;
            }else{
               try{
-                  _node = DOMUtils.stringToDOM(_data);
+                  _node = DOMUtils.stringToDOM(data);
               }catch(Exception e){
                   throw new RuntimeException(e);
               }
@@ -112,6 +118,12 @@ public class XmlDataDAOImpl implements XmlDataDAO {
         return _node;
     }
 
+    public String getUnparsedData() {
+        if (_node != null || _isSimpleType || XmlDataCompression.isBinaryXml(_compressedData))
+            return null;
+        return getData();
+    }
+
     public String getName() {
         return _name;
     }
@@ -135,7 +147,7 @@ public class XmlDataDAOImpl implements XmlDataDAO {
     }
 
     public boolean isNull() {
-        return _data == null;
+        return _data == null && _compressedData == null;
     }
 
     public void remove() {
@@ -146,13 +158,28 @@ public class XmlDataDAOImpl implements XmlDataDAO {
         _node = val;
         if ( val instanceof Element ) {
             _isSimpleType = false;
-            _data = DOMUtils.domToString(val);
+            byte[] encoded = XmlDataCompression.encode((Element) val);
+            if (encoded != null) {
+                _compressedData = encoded;
+                _data = null;
+            } else {
+                setData(DOMUtils.domToString(val));
+            }
         } else if (_node != null) {
             _isSimpleType = true;
-            _data = _node.getNodeValue();
+            setData(_node.getNodeValue());
         }
     }
 
+    private String getData() {
+        return _compressedData != null ? XmlDataCompression.decompress(_compressedData) : _data;
+    }
+
+    private void setData(String data) {
+        _compressedData = XmlDataCompression.compress(data);
+        _data = _compressedData != null ? null : data;
+    }
+
     public void setProperty(String pname, String pvalue) {
         XmlDataProperty prop = getPropertyObject(pname);
         if (prop == null) {
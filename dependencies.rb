@@ -30,7 +30,8 @@ AXIS2_ALL           = [group("axis2-adb", "axis2-codegen", "axis2-kernel", "axis
                       "org.apache.axis2:axis2-transport-local:jar:1.7.6",
                       "org.apache.axis2:axis2-transport-tcp:jar:1.7.6",
                       "org.apache.axis2:axis2-transport-jms:jar:1.7.6",
-                      "org.apache.httpcomponents:httpcore:jar:4.4.4"]
+                      "org.apache.httpcomponents:httpcore:jar:4.4.4",
+                      "org.apache.httpcomponents:httpcore-nio:jar:4.4.4"]
 AXIS2_MODULES        = struct(
  :mods              => ["org.apache.rampart:rampart:mar:1.7.1",
                          "org.apache.rampart:rahas:mar:1.7.1",
@@ -104,6 +105,8 @@ JAXEN               = "jaxen:jaxen:jar:1.1.6"
 JBI                 = group("org.apache.servicemix.specs.jbi-api-1.0", :under=>"org.apache.servicemix.specs", :version=>"1.1.0")
 JENCKS              = "org.jencks:jencks:jar:all:2.2"
 JIBX                = "org.jibx:jibx-run:jar:1.2.1"
+JMH                 = ["org.openjdk.jmh:jmh-core:jar:1.37", "org.openjdk.jmh:jmh-generator-annprocess:jar:1.37",
+                       "net.sf.jopt-simple:jopt-simple:jar:5.0.4", "org.apache.commons:commons-math3:jar:3.6.1"]
 KARAF               = [
                         "org.apache.felix:org.osgi.core:jar:1.4.0",
                         "org.apache.felix:org.osgi.compendium:jar:1.4.0",
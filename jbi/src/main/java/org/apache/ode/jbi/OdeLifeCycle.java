@@ -25,7 +25,11 @@ import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
 import org.apache.ode.bpel.connector.BpelServerConnector;
 import org.apache.ode.bpel.dao.BpelDAOConnectionFactoryJDBC;
 import org.apache.ode.bpel.eapi.AbstractExtensionBundle;
+import org.apache.ode.bpel.engine.AsyncEventPersister;
 import org.apache.ode.bpel.engine.BpelServerImpl;
+import org.apache.ode.bpel.engine.CountLRUDehydrationPolicy;
+import org.apache.ode.bpel.engine.EventListenerQueue;
+import org.apache.ode.bpel.engine.MemoryBudgetDehydrationPolicy;
 import org.apache.ode.bpel.engine.ProcessAndInstanceManagementMBean;
 import org.apache.ode.bpel.extvar.jdbc.JdbcExternalVariableModule;
 import org.apache.ode.bpel.iapi.BpelEventListener;
@@ -255,15 +259,31 @@ public class OdeLifeCycle implements ComponentLifeCycle {
         _ode._store.loadAll();
 
         _ode._server.setInMemDaoConnectionFactory(new org.apache.ode.bpel.memdao.BpelDAOConnectionFactoryImpl(
-                _ode._scheduler, _ode._config.getInMemMexTtl()));
+                _ode._scheduler, _ode._config.getInMemMexTtl(), _ode._config.getInMemMexCapacity(),
+                _ode._config.getInMemMexCapacityTimeout()));
         _ode._server.setDaoConnectionFactory(_ode._daocf);
         _ode._server.setEndpointReferenceContext(_ode._eprContext);
         _ode._server.setMessageExchangeContext(_ode._mexContext);
         _ode._server.setBindingContext(new BindingContextImpl(_ode));
         _ode._server.setScheduler(_ode._scheduler);
+        if (_ode._config.isDehydrationEnabled() && _ode._config.getDehydrationBudget() > 0) {
+            MemoryBudgetDehydrationPolicy dehy = new MemoryBudgetDehydrationPolicy();
+            dehy.setBudget(_ode._config.getDehydrationBudget());
+            dehy.setProcessMaxAge(_ode._config.getDehydrationMaximumAge());
+            _ode._server.setDehydrationPolicy(dehy);
+        } else if (_ode._config.isDehydrationEnabled()) {
+            CountLRUDehydrationPolicy dehy = new CountLRUDehydrationPolicy();
+            dehy.setProcessMaxAge(_ode._config.getDehydrationMaximumAge());
+            dehy.setProcessMaxCount(_ode._config.getDehydrationMaximumCount());
+            _ode._server.setDehydrationPolicy(dehy);
+        }
     _ode._server.setConfigProperties(_ode._config.getProperties());
 
         _ode._server.init();
+        _ode._server.setInstanceCacheMaximumSize(_ode._config.getInstanceCacheMaximumSize());
+        _ode._server.setCorrelationRouteIndexEnabled(_ode._config.isCorrelationRouteIndexEnabled());
+        _ode._server.setEventPersistence(AsyncEventPersister.Durability.parse(_ode._config.getEventPersistence()),
+                _ode._config.getEventPersistenceQueueSize(), _ode._config.getEventPersistenceBatchSize());
     }
 
     private void registerExternalVariableModules() {
@@ -346,7 +366,9 @@ public class OdeLifeCycle implements ComponentLifeCycle {
         if (listenersStr != null) {
             for (String listenerCN : listenersStr.split("\\s*(,|;)\\s*")) {
                 try {
-                    _ode._server.registerBpelEventListener((BpelEventListener) Class.forName(listenerCN).newInstance());
+                    _ode._server.registerBpelEventListener((BpelEventListener) Class.forName(listenerCN).newInstance(),
+                            EventListenerQueue.Policy.parse(_ode._config.getEventListenerDispatch(listenerCN)),
+                            _ode._config.getEventListenerQueueSize());
                     __log.info(__msgs.msgBpelEventListenerRegistered(listenerCN));
                 } catch (Exception e) {
                     __log.warn("Couldn't register the event listener " + listenerCN + ", the class couldn't be "
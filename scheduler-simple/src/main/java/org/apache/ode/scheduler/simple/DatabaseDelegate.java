@@ -53,6 +53,16 @@ public interface DatabaseDelegate {
      */
     boolean deleteJob(String jobid, String nodeId) throws DatabaseException;
 
+    /**
+     * Delete a group of jobs from the database in as few round-trips as possible. This is used to
+     * acknowledge completed jobs in batches rather than one at a time.
+     * @param jobids job identifiers
+     * @param nodeId node identifier
+     * @return number of jobs actually deleted
+     * @throws DatabaseException in case of error
+     */
+    int deleteJobs(List<String> jobids, String nodeId) throws DatabaseException;
+
     /**
      * Return a list of unique nodes identifiers found in the database. This is used
      * to initialize the list of known nodes when a new node starts up.
@@ -72,6 +82,16 @@ public interface DatabaseDelegate {
      */
     List<Job> dequeueImmediate(String nodeId, long maxtime, int maxjobs) throws DatabaseException ;
 
+    /**
+     * Same as {@link #dequeueImmediate(String, long, int)}, restricted to the jobs of a single partition.
+     * Partition 0 also gets the jobs that have no partition or a partition out of range, for instance
+     * after the number of partitions was lowered.
+     *
+     * @param partition job partition, or -1 for all partitions
+     * @param partitions current number of partitions
+     */
+    List<Job> dequeueImmediate(String nodeId, int partition, int partitions, long maxtime, int maxjobs) throws DatabaseException ;
+
     /**
      * Assign a particular node identifier to a fraction of jobs in the database that do not have one,
      * and are up for execution within a certain time. Only a fraction of the jobs found are assigned
@@ -94,6 +114,20 @@ public interface DatabaseDelegate {
      */
     int updateAssignToNode(String nodeId, int x, int y, long maxtime) throws DatabaseException;
 
+    /**
+     * Same as {@link #updateAssignToNode(String, int, int, long)}, restricted to the jobs of a single partition.
+     * Partition 0 also gets the jobs that have no partition or a partition out of range.
+     *
+     * @param partition job partition, or -1 for all partitions
+     * @param partitions current number of partitions
+     */
+    int updateAssignToNode(String nodeId, int partition, int partitions, int x, int y, long maxtime) throws DatabaseException;
+
+    /**
+     * @return whether jobs can be stored and loaded by partition (older schemas lack the partition column)
+     */
+    boolean supportsPartitions();
+
     /**
      * Reassign jobs from one node to another.
      *
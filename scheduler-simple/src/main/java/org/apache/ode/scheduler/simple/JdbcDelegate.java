@@ -59,24 +59,62 @@ public class JdbcDelegate implements DatabaseDelegate {
 
     private static final String DELETE_JOB = "delete from ODE_JOB where jobid = ? and nodeid = ?";
 
+    private static final String DELETE_JOBS = "delete from ODE_JOB where nodeid = ? and jobid in ";
+
+    /** Maximum number of job ids bound in a single IN list (stays well below Oracle's 1000 limit). */
+    private static final int DELETE_JOBS_SLOTS = 100;
+
     private static final String UPDATE_REASSIGN = "update ODE_JOB set nodeid = ?, scheduled = 0 where nodeid = ?";
 
     private static final String UPDATE_JOB = "update ODE_JOB set ts = ?, retryCount = ? where jobid = ?";
 
-    private static final String UPGRADE_JOB_DEFAULT = "update ODE_JOB set nodeid = ? where nodeid is null "
-            + "and mod(ts,?) = ? and ts < ?";
+    private static final String UPGRADE_JOB = "update ODE_JOB set nodeid = ? where nodeid is null ";
+
+    /** Jobs of a single partition. */
+    private static final String PARTITION_FILTER = "and partitionId = ? ";
+
+    /** Jobs of partition 0, and of no partition or a partition out of range (bound to the number of partitions). */
+    private static final String PARTITION_SWEEP = "and (partitionId = ? or partitionId is null or partitionId >= ?) ";
+
+    private static final String ASSIGN_DEFAULT = "and mod(ts,?) = ? and ts < ?";
+
+    private static final String ASSIGN_DB2 = "and mod(ts,CAST(? AS BIGINT)) = ? and ts < ?";
+
+    private static final String ASSIGN_SQLSERVER = "and (ts % ?) = ? and ts < ?";
+
+    private static final String ASSIGN_SYBASE = "and convert(int, ts) % ? = ? and ts < ?";
+
+    private static final String ASSIGN_SYBASE12 = "and -1 <> ? and -1 <> ? and ts < ?";
+
+    private static final String UPGRADE_JOB_DEFAULT = UPGRADE_JOB + ASSIGN_DEFAULT;
+
+    private static final String UPGRADE_JOB_DB2 = UPGRADE_JOB + ASSIGN_DB2;
+
+    private static final String UPGRADE_JOB_SQLSERVER = UPGRADE_JOB + ASSIGN_SQLSERVER;
+
+    private static final String UPGRADE_JOB_SYBASE = UPGRADE_JOB + ASSIGN_SYBASE;
+
+    private static final String UPGRADE_JOB_SYBASE12 = UPGRADE_JOB + ASSIGN_SYBASE12;
 
-    private static final String UPGRADE_JOB_DB2 = "update ODE_JOB set nodeid = ? where nodeid is null "
-            + "and mod(ts,CAST(? AS BIGINT)) = ? and ts < ?";
+    private static final String UPGRADE_JOB_PARTITION_DEFAULT = UPGRADE_JOB + PARTITION_FILTER + ASSIGN_DEFAULT;
 
-    private static final String UPGRADE_JOB_SQLSERVER = "update ODE_JOB set nodeid = ? where nodeid is null "
-            + "and (ts % ?) = ? and ts < ?";
+    private static final String UPGRADE_JOB_PARTITION_DB2 = UPGRADE_JOB + PARTITION_FILTER + ASSIGN_DB2;
 
-    private static final String UPGRADE_JOB_SYBASE = "update ODE_JOB set nodeid = ? where nodeid is null "
-            + "and convert(int, ts) % ? = ? and ts < ?";
+    private static final String UPGRADE_JOB_PARTITION_SQLSERVER = UPGRADE_JOB + PARTITION_FILTER + ASSIGN_SQLSERVER;
 
-    private static final String UPGRADE_JOB_SYBASE12 = "update ODE_JOB set nodeid = ? where nodeid is null "
-            + "and -1 <> ? and -1 <> ? and ts < ?";
+    private static final String UPGRADE_JOB_PARTITION_SYBASE = UPGRADE_JOB + PARTITION_FILTER + ASSIGN_SYBASE;
+
+    private static final String UPGRADE_JOB_PARTITION_SYBASE12 = UPGRADE_JOB + PARTITION_FILTER + ASSIGN_SYBASE12;
+
+    private static final String UPGRADE_JOB_SWEEP_DEFAULT = UPGRADE_JOB + PARTITION_SWEEP + ASSIGN_DEFAULT;
+
+    private static final String UPGRADE_JOB_SWEEP_DB2 = UPGRADE_JOB + PARTITION_SWEEP + ASSIGN_DB2;
+
+    private static final String UPGRADE_JOB_SWEEP_SQLSERVER = UPGRADE_JOB + PARTITION_SWEEP + ASSIGN_SQLSERVER;
+
+    private static final String UPGRADE_JOB_SWEEP_SYBASE = UPGRADE_JOB + PARTITION_SWEEP + ASSIGN_SYBASE;
+
+    private static final String UPGRADE_JOB_SWEEP_SYBASE12 = UPGRADE_JOB + PARTITION_SWEEP + ASSIGN_SYBASE12;
 
     private static final String SAVE_JOB = "insert into ODE_JOB "
             + " (jobid, nodeid, ts, scheduled, transacted, "
@@ -103,9 +141,38 @@ public class JdbcDelegate implements DatabaseDelegate {
             + "?"
             + ")";
 
+    private static final String SAVE_JOB_PARTITIONED = "insert into ODE_JOB "
+            + " (jobid, nodeid, ts, scheduled, transacted, "
+            + "instanceId,"
+            + "mexId,"
+            + "processId,"
+            + "type,"
+            + "channel,"
+            + "correlatorId,"
+            + "correlationKeySet,"
+            + "retryCount,"
+            + "inMem,"
+            + "detailsExt,"
+            + "partitionId"
+            + ") values(?, ?, ?, ?, ?,"
+            + "?,"
+            + "?,"
+            + "?,"
+            + "?,"
+            + "?,"
+            + "?,"
+            + "?,"
+            + "?,"
+            + "?,"
+            + "?,"
+            + "?"
+            + ")";
+
+    private static final String PROBE_PARTITION = "select partitionId from ODE_JOB where 1 = 0";
+
     private static final String GET_NODEIDS = "select distinct nodeid from ODE_JOB";
 
-    private static final String SCHEDULE_IMMEDIATE = "select jobid, ts, transacted, scheduled, "
+    private static final String SELECT_JOB = "select jobid, ts, transacted, scheduled, "
         + "instanceId,"
         + "mexId,"
         + "processId,"
@@ -116,9 +183,17 @@ public class JdbcDelegate implements DatabaseDelegate {
         + "retryCount,"
         + "inMem,"
         + "detailsExt"
-        + " from ODE_JOB "
+        + " from ODE_JOB ";
+
+    private static final String SCHEDULE_IMMEDIATE = SELECT_JOB
             + "where nodeid = ? and ts < ? order by ts";
 
+    private static final String SCHEDULE_IMMEDIATE_PARTITION = SELECT_JOB
+            + "where nodeid = ? " + PARTITION_FILTER + "and ts < ? order by ts";
+
+    private static final String SCHEDULE_IMMEDIATE_SWEEP = SELECT_JOB
+            + "where nodeid = ? " + PARTITION_SWEEP + "and ts < ? order by ts";
+
 //  public Long instanceId;
 //  public String mexId;
 //  public String processId;
@@ -138,9 +213,17 @@ public class JdbcDelegate implements DatabaseDelegate {
 
     private Dialect _dialect;
 
+    /** Whether ODE_JOB has the partitionId column (older schemas don't). */
+    private boolean _partitioned;
+
     public JdbcDelegate(DataSource ds) {
         _ds = ds;
         _dialect = guessDialect();
+        _partitioned = probePartitionColumn();
+    }
+
+    public boolean supportsPartitions() {
+        return _partitioned;
     }
 
     public boolean deleteJob(String jobid, String nodeId) throws DatabaseException {
@@ -163,6 +246,70 @@ public class JdbcDelegate implements DatabaseDelegate {
         }
     }
 
+    public int deleteJobs(List<String> jobids, String nodeId) throws DatabaseException {
+        if (jobids.isEmpty())
+            return 0;
+        if (__log.isDebugEnabled())
+            __log.debug("deleteJobs " + jobids.size() + " jobs on node " + nodeId);
+
+        Connection con = null;
+        PreparedStatement ps = null;
+        int deleted = 0;
+        try {
+            con = getConnection();
+            int fullSlots = jobids.size() / DELETE_JOBS_SLOTS;
+            if (fullSlots > 0) {
+                // all full-size IN lists share one statement, executed as a single JDBC batch
+                ps = con.prepareStatement(DELETE_JOBS + inList(DELETE_JOBS_SLOTS));
+                for (int i = 0; i < fullSlots; ++i) {
+                    bindJobIds(ps, nodeId, jobids.subList(i * DELETE_JOBS_SLOTS, (i + 1) * DELETE_JOBS_SLOTS));
+                    ps.addBatch();
+                }
+                deleted += sumUpdateCounts(ps.executeBatch());
+                close(ps);
+                ps = null;
+            }
+            int remainder = jobids.size() % DELETE_JOBS_SLOTS;
+            if (remainder > 0) {
+                ps = con.prepareStatement(DELETE_JOBS + inList(remainder));
+                bindJobIds(ps, nodeId, jobids.subList(jobids.size() - remainder, jobids.size()));
+                deleted += ps.executeUpdate();
+            }
+            return deleted;
+        } catch (SQLException se) {
+            throw new DatabaseException(se);
+        } finally {
+            close(ps);
+            close(con);
+        }
+    }
+
+    private void bindJobIds(PreparedStatement ps, String nodeId, List<String> jobids) throws SQLException {
+        int i = 1;
+        ps.setString(i++, nodeId);
+        for (String jobid : jobids)
+            ps.setString(i++, jobid);
+    }
+
+    private int sumUpdateCounts(int[] counts) {
+        int sum = 0;
+        for (int c : counts) {
+            // some drivers report SUCCESS_NO_INFO (-2) for batched statements
+            if (c > 0) sum += c;
+        }
+        return sum;
+    }
+
+    private static String inList(int slots) {
+        StringBuilder buf = new StringBuilder(slots * 3 + 2);
+        buf.append('(');
+        for (int i = 0; i < slots; ++i) {
+            if (i > 0) buf.append(", ");
+            buf.append('?');
+        }
+        return buf.append(')').toString();
+    }
+
     public List<String> getNodeIds() throws DatabaseException {
         Connection con = null;
         PreparedStatement ps = null;
@@ -196,7 +343,7 @@ public class JdbcDelegate implements DatabaseDelegate {
         try {
             int i = 1;
             con = getConnection();
-            ps = con.prepareStatement(SAVE_JOB);
+            ps = con.prepareStatement(_partitioned ? SAVE_JOB_PARTITIONED : SAVE_JOB);
             ps.setString(i++, job.jobId);
             ps.setString(i++, nodeId);
             ps.setLong(i++, job.schedDate);
@@ -226,6 +373,9 @@ public class JdbcDelegate implements DatabaseDelegate {
                 }
                 ps.setBytes(i++, bos.toByteArray());
             }
+            if (_partitioned) {
+                ps.setInt(i++, job.partition);
+            }
 
             return ps.executeUpdate() == 1;
         } catch (SQLException se) {
@@ -272,16 +422,34 @@ public class JdbcDelegate implements DatabaseDelegate {
         else throw new IllegalStateException("Can't convert to integer " + o.getClass());
     }
 
-    @SuppressWarnings("unchecked")
     public List<Job> dequeueImmediate(String nodeId, long maxtime, int maxjobs) throws DatabaseException {
+        return dequeueImmediate(nodeId, -1, 1, maxtime, maxjobs);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Job> dequeueImmediate(String nodeId, int partition, int partitions, long maxtime, int maxjobs) throws DatabaseException {
         ArrayList<Job> ret = new ArrayList<Job>(maxjobs);
         Connection con = null;
         PreparedStatement ps = null;
         try {
+            int i = 1;
             con = getConnection();
-            ps = con.prepareStatement(SCHEDULE_IMMEDIATE);
-            ps.setString(1, nodeId);
-            ps.setLong(2, maxtime);
+            if (partition < 0) {
+                ps = con.prepareStatement(SCHEDULE_IMMEDIATE);
+                ps.setString(i++, nodeId);
+            } else if (partition == 0) {
+                checkPartitioned();
+                ps = con.prepareStatement(SCHEDULE_IMMEDIATE_SWEEP);
+                ps.setString(i++, nodeId);
+                ps.setInt(i++, partition);
+                ps.setInt(i++, partitions);
+            } else {
+                checkPartitioned();
+                ps = con.prepareStatement(SCHEDULE_IMMEDIATE_PARTITION);
+                ps.setString(i++, nodeId);
+                ps.setInt(i++, partition);
+            }
+            ps.setLong(i++, maxtime);
             ps.setMaxRows(maxjobs);
 
             ResultSet rs = ps.executeQuery();
@@ -342,6 +510,7 @@ public class JdbcDelegate implements DatabaseDelegate {
                 }
 
                 Job job = new Job(rs.getLong("ts"), rs.getString("jobid"), asBoolean(rs.getInt("transacted")), details);
+                if (partition >= 0) job.partition = partition;
                 ret.add(job);
             }
             rs.close();
@@ -375,27 +544,28 @@ public class JdbcDelegate implements DatabaseDelegate {
     }
 
     public int updateAssignToNode(String node, int i, int numNodes, long maxtime) throws DatabaseException {
+        return updateAssignToNode(node, -1, 1, i, numNodes, maxtime);
+    }
+
+    public int updateAssignToNode(String node, int partition, int partitions, int i, int numNodes, long maxtime) throws DatabaseException {
         if (__log.isDebugEnabled())
-            __log.debug("updateAsssignToNode node=" + node + " " + i + "/" + numNodes + " maxtime=" + maxtime);
+            __log.debug("updateAsssignToNode node=" + node + " partition=" + partition + "/" + partitions + " " + i + "/" + numNodes + " maxtime=" + maxtime);
         Connection con = null;
         PreparedStatement ps = null;
         try {
+            if (partition >= 0)
+                checkPartitioned();
+            int p = 1;
             con = getConnection();
-            if (_dialect == Dialect.SQLSERVER) {
-                ps = con.prepareStatement(UPGRADE_JOB_SQLSERVER);
-            } else if (_dialect == Dialect.DB2) {
-                ps = con.prepareStatement(UPGRADE_JOB_DB2);
-            } else if (_dialect == Dialect.SYBASE) {
-                ps = con.prepareStatement(UPGRADE_JOB_SYBASE);
-            } else if (_dialect == Dialect.SYBASE12) {
-                ps = con.prepareStatement(UPGRADE_JOB_SYBASE12);
-            } else {
-                ps = con.prepareStatement(UPGRADE_JOB_DEFAULT);
-            }
-            ps.setString(1, node);
-            ps.setInt(2, numNodes);
-            ps.setInt(3, i);
-            ps.setLong(4, maxtime);
+            ps = con.prepareStatement(getUpgradeStatement(partition));
+            ps.setString(p++, node);
+            if (partition >= 0)
+                ps.setInt(p++, partition);
+            if (partition == 0)
+                ps.setInt(p++, partitions);
+            ps.setInt(p++, numNodes);
+            ps.setInt(p++, i);
+            ps.setLong(p++, maxtime);
             return ps.executeUpdate();
         } catch (SQLException se) {
             throw new DatabaseException(se);
@@ -405,6 +575,39 @@ public class JdbcDelegate implements DatabaseDelegate {
         }
     }
 
+    private String getUpgradeStatement(int partition) {
+        if (partition < 0) {
+            switch (_dialect) {
+            case SQLSERVER: return UPGRADE_JOB_SQLSERVER;
+            case DB2: return UPGRADE_JOB_DB2;
+            case SYBASE: return UPGRADE_JOB_SYBASE;
+            case SYBASE12: return UPGRADE_JOB_SYBASE12;
+            default: return UPGRADE_JOB_DEFAULT;
+            }
+        } else if (partition == 0) {
+            switch (_dialect) {
+            case SQLSERVER: return UPGRADE_JOB_SWEEP_SQLSERVER;
+            case DB2: return UPGRADE_JOB_SWEEP_DB2;
+            case SYBASE: return UPGRADE_JOB_SWEEP_SYBASE;
+            case SYBASE12: return UPGRADE_JOB_SWEEP_SYBASE12;
+            default: return UPGRADE_JOB_SWEEP_DEFAULT;
+            }
+        } else {
+            switch (_dialect) {
+            case SQLSERVER: return UPGRADE_JOB_PARTITION_SQLSERVER;
+            case DB2: return UPGRADE_JOB_PARTITION_DB2;
+            case SYBASE: return UPGRADE_JOB_PARTITION_SYBASE;
+            case SYBASE12: return UPGRADE_JOB_PARTITION_SYBASE12;
+            default: return UPGRADE_JOB_PARTITION_DEFAULT;
+            }
+        }
+    }
+
+    private void checkPartitioned() throws DatabaseException {
+        if (!_partitioned)
+            throw new DatabaseException("ODE_JOB has no partitionId column; apply the schema update to use job partitions");
+    }
+
     private Connection getConnection() throws SQLException {
         Connection c = _ds.getConnection();
         DbIsolation.setIsolationLevel(c);
@@ -479,6 +682,27 @@ public class JdbcDelegate implements DatabaseDelegate {
         return d;
     }
 
+    private boolean probePartitionColumn() {
+        Connection con = null;
+        Statement s = null;
+        try {
+            con = getConnection();
+            s = con.createStatement();
+            s.executeQuery(PROBE_PARTITION).close();
+            return true;
+        } catch (SQLException e) {
+            __log.info("ODE_JOB has no partitionId column, job partitions are not available");
+            return false;
+        } finally {
+            try {
+                if (s != null) s.close();
+            } catch (SQLException e) {
+                __log.warn("Exception while closing statement", e);
+            }
+            close(con);
+        }
+    }
+
     public void acquireTransactionLocks() {
         Statement s = null;
         Connection c = null;
@@ -37,6 +37,8 @@ class Job extends Task {
     boolean transacted;
     JobDetails detail;
     boolean persisted = true;
+    /** Job partition, see {@link SimpleScheduler#partitionOf(JobDetails)}. */
+    int partition;
 
     public Job(long when, boolean transacted, JobDetails jobDetail) {
         this(when, new GUID().toString(),transacted,jobDetail);
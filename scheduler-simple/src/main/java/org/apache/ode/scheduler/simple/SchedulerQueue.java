@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.scheduler.simple;
+
+/**
+ * The "todo" queue of the scheduler: tasks wait in it until their scheduled time, then a dedicated
+ * thread hands them to the {@link TaskRunner}. Implementations only differ in how they keep the
+ * pending tasks.
+ *
+ * {@link #start()}, {@link #stop()} and {@link #clearTasks(Class)} are called by the scheduler
+ * life-cycle, never concurrently with each other.
+ */
+abstract class SchedulerQueue implements Runnable {
+
+    private volatile boolean _done;
+
+    private volatile Thread _thread;
+
+    void start() {
+        if (_thread != null)
+            return;
+
+        _done = false;
+        _thread = new Thread(this, "OdeScheduler");
+        _thread.start();
+    }
+
+    /**
+     * Shutdown the thread.
+     */
+    void stop() {
+        if (_thread == null)
+            return;
+
+        _done = true;
+        wakeup();
+
+        while (_thread != null)
+            try {
+                _thread.join();
+                _thread = null;
+            } catch (InterruptedException e) {
+                ;
+            }
+    }
+
+    boolean isDone() {
+        return _done;
+    }
+
+    /**
+     * @return true between {@link #start()} and {@link #stop()}
+     */
+    boolean isStarted() {
+        return _thread != null;
+    }
+
+    /**
+     * Wake up the scheduler thread, e.g. to notice it's been stopped.
+     */
+    abstract void wakeup();
+
+    /**
+     * Add a task to the queue.
+     */
+    abstract void enqueue(Task task);
+
+    /**
+     * Remove a task from the queue.
+     */
+    abstract void dequeue(Task task);
+
+    /**
+     * Get the number of tasks waiting in the queue.
+     */
+    abstract int size();
+
+    /**
+     * Remove the tasks of a given type from the queue.
+     * @param tasktype type of task
+     */
+    abstract void clearTasks(Class<? extends Task> tasktype);
+
+    /**
+     * Pop tasks off the queue as they become due, and send them to the task runner, until
+     * {@link #isDone()}.
+     */
+    public abstract void run();
+}
@@ -36,7 +36,7 @@ import org.apache.ode.utils.stl.MemberOfFunction;
  * @author Maciej Szefler ( m s z e f l e r @ g m a i l . c o m )
  *
  */
-class SchedulerThread implements Runnable {
+class SchedulerThread extends SchedulerQueue {
 
     private static final Logger __log = LoggerFactory.getLogger(SchedulerThread.class);
 
@@ -50,51 +50,22 @@ class SchedulerThread implements Runnable {
 
     private Condition _activity = _lock.newCondition();
 
-    private volatile boolean _done;
-
     private TaskRunner _taskrunner;
 
-    private Thread _thread;
-
     SchedulerThread(TaskRunner runner) {
         _todo = new PriorityBlockingQueue<Task>(TODO_QUEUE_INITIAL_CAPACITY,
                 new JobComparatorByDate());
         _taskrunner = runner;
     }
 
-    void start() {
-        if (_thread != null)
-            return;
-
-        _done = false;
-        _thread = new Thread(this, "OdeScheduler");
-        _thread.start();
-    }
-
-    /**
-     * Shutdown the thread.
-     */
-    void stop() {
-        if (_thread == null)
-            return;
-
-        _done = true;
+    @Override
+    void wakeup() {
         _lock.lock();
         try {
             _activity.signal();
         } finally {
             _lock.unlock();
-
         }
-
-        while (_thread != null)
-            try {
-                _thread.join();
-                _thread = null;
-            } catch (InterruptedException e) {
-                ;
-            }
-
     }
 
     /**
@@ -102,6 +73,7 @@ class SchedulerThread implements Runnable {
      *
      * @param job
      */
+    @Override
     void enqueue(Task task) {
         _lock.lock();
         try {
@@ -117,6 +89,7 @@ class SchedulerThread implements Runnable {
      *
      * @param job
      */
+    @Override
     void dequeue(Task task) {
         _lock.lock();
         try {
@@ -132,6 +105,7 @@ class SchedulerThread implements Runnable {
      *
      * @return
      */
+    @Override
     public int size() {
         return _todo.size();
     }
@@ -139,15 +113,16 @@ class SchedulerThread implements Runnable {
     /**
      * Pop items off the todo queue, and send them to the task runner for processing.
      */
+    @Override
     public void run() {
-        while (!_done) {
+        while (!isDone()) {
             _lock.lock();
             try {
                 long nextjob;
-                while ((nextjob = nextJobTime()) > 0 && !_done)
+                while ((nextjob = nextJobTime()) > 0 && !isDone())
                     _activity.await(nextjob, TimeUnit.MILLISECONDS);
 
-                if (!_done && nextjob == 0) {
+                if (!isDone() && nextjob == 0) {
                     Task task = _todo.take();
                     _taskrunner.runTask(task);
 
@@ -180,6 +155,7 @@ class SchedulerThread implements Runnable {
      * Remove the tasks of a given type from the list.
      * @param tasktype type of task
      */
+    @Override
     public void clearTasks(final Class<? extends Task> tasktype) {
         _lock.lock();
         try {
@@ -31,6 +31,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -97,7 +98,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
 
     volatile JobProcessor _polledRunnableProcessor;
 
-    private SchedulerThread _todo;
+    private SchedulerQueue _todo;
 
     private DatabaseDelegate _db;
 
@@ -122,12 +123,39 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         This prevents a race condition where a job is processed twice. This could happen if a LoadImediate tasks loads a job
         from the db before the job is processed but puts it in the _outstandingJobs map after the job was processed .
         In such a case the job is no longer in the _outstandingJobs map, and so it's queued again. */
-    private ConcurrentHashMap<String, Long> _processedSinceLastLoadTask = new ConcurrentHashMap<String, Long>();
+    private ArrayList<ConcurrentHashMap<String, Long>> _processedSinceLastLoadTask = new ArrayList<ConcurrentHashMap<String, Long>>();
+
+    /**
+     * Jobs that have been processed and committed but not yet deleted from the database. Only used when
+     * acknowledgements are batched (see {@link #_ackBatchSize}); these jobs must not be dispatched again
+     * even if a LoadImmediate task reads them from the db before they are flushed.
+     */
+    private ConcurrentHashMap<String, Long> _pendingAcks = new ConcurrentHashMap<String, Long>();
+
+    /** Guards against concurrent flushes of {@link #_pendingAcks}. */
+    private AtomicBoolean _flushingAcks = new AtomicBoolean();
+
+    /**
+     * Number of completed jobs acknowledged (i.e. deleted from the database) per round-trip. With the default
+     * of 1, each job is deleted inside its own transaction, which guarantees it is executed only once. Larger
+     * values remove the delete from the job transaction and acknowledge completed jobs in groups; a job that
+     * completed but was not yet acknowledged when the node fails will be executed again.
+     */
+    int _ackBatchSize = 1;
+
+    /** Maximum time a completed job waits for its acknowledgement when acknowledgements are batched. */
+    long _ackFlushInterval = 1000;
 
     private boolean _running;
 
-    /** Time for next upgrade. */
-    private AtomicLong _nextUpgrade = new AtomicLong();
+    /** Time for next upgrade, by partition. */
+    private ArrayList<AtomicLong> _nextUpgrade = new ArrayList<AtomicLong>();
+
+    /**
+     * Number of job partitions. Jobs are spread over partitions by instance id, and each partition is loaded
+     * and upgraded by its own tasks, so that job loading is not serialized on a single scan of the job table.
+     */
+    int _partitions = 1;
 
     private Random _random = new Random();
 
@@ -159,7 +187,18 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _immediateTransactionRetryLimit = getIntProperty(conf, "ode.scheduler.immediateTransactionRetryLimit", _immediateTransactionRetryLimit);
         _immediateTransactionRetryInterval = getLongProperty(conf, "ode.scheduler.immediateTransactionRetryInterval", _immediateTransactionRetryInterval);
 
-        _todo = new SchedulerThread(this);
+        _ackBatchSize = getIntProperty(conf, "ode.scheduler.ackBatchSize", _ackBatchSize);
+        _ackFlushInterval = getLongProperty(conf, "ode.scheduler.ackFlushInterval", _ackFlushInterval);
+
+        setPartitions(getIntProperty(conf, "ode.scheduler.partitions", _partitions));
+
+        if (Boolean.parseBoolean(conf.getProperty("ode.scheduler.timingWheel", "false"))) {
+            _todo = new TimingWheelSchedulerThread(this,
+                    getLongProperty(conf, "ode.scheduler.timingWheel.tick", TimingWheelSchedulerThread.DEFAULT_TICK),
+                    getIntProperty(conf, "ode.scheduler.timingWheel.size", TimingWheelSchedulerThread.DEFAULT_WHEEL_SIZE));
+        } else {
+            _todo = new SchedulerThread(this);
+        }
     }
 
     public void setPollIntervalForPolledRunnable(long pollIntervalForPolledRunnable) {
@@ -202,6 +241,26 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _tps = tps;
     }
 
+    public void setAckBatchSize(int ackBatchSize) {
+        _ackBatchSize = ackBatchSize;
+    }
+
+    public void setAckFlushInterval(long ackFlushInterval) {
+        _ackFlushInterval = ackFlushInterval;
+    }
+
+    public void setPartitions(int partitions) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("Number of job partitions must be positive, received: " + partitions);
+        _partitions = partitions;
+        _processedSinceLastLoadTask.clear();
+        _nextUpgrade.clear();
+        for (int i = 0; i < partitions; ++i) {
+            _processedSinceLastLoadTask.add(new ConcurrentHashMap<String, Long>());
+            _nextUpgrade.add(new AtomicLong());
+        }
+    }
+
     public void setTransactionManager(TransactionManager txm) {
         _txm = txm;
     }
@@ -221,6 +280,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
     public void cancelJob(String jobId) throws ContextException {
         _todo.dequeue(new Job(0, jobId, false, null));
         _outstandingJobs.remove(jobId);
+        _pendingAcks.remove(jobId);
         try {
             _db.deleteJob(jobId, _nodeId);
         } catch (DatabaseException e) {
@@ -378,6 +438,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
     }
 
     private String schedulePersistedJob(Job job, Date when, long ctime) throws ContextException {
+        job.partition = partitionOf(job.detail);
         boolean immediate = when.getTime() <= ctime + _immediateInterval;
         boolean nearfuture = !immediate && when.getTime() <= ctime + _nearFutureInterval;
         try {
@@ -465,8 +526,15 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _todo.clearTasks(UpgradeJobsTask.class);
         _todo.clearTasks(LoadImmediateTask.class);
         _todo.clearTasks(CheckStaleNodes.class);
-        _processedSinceLastLoadTask.clear();
+        _todo.clearTasks(FlushAcksTask.class);
+        clearProcessedSinceLastLoadTask();
         _outstandingJobs.clear();
+        _pendingAcks.clear();
+
+        if (_partitions > 1 && !_db.supportsPartitions()) {
+            __log.warn("The job table does not support partitions, ignoring " + _partitions + " configured partitions");
+            setPartitions(1);
+        }
 
         _knownNodes.clear();
         _staleNodes.clear();
@@ -477,7 +545,10 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         //for (String s : _knownNodes) _lastHeartBeat.put(s, now);
 
         // schedule immediate job loading for now!
-        _todo.enqueue(new LoadImmediateTask(now));
+        for (int i = 0; i < _partitions; ++i)
+            _todo.enqueue(new LoadImmediateTask(now, partitionIndex(i)));
+
+        if (isAckBatched()) _todo.enqueue(new FlushAcksTask(now + _ackFlushInterval));
 
         if(!_isClusterEnabled) enqueueTasksReadnodeIds(now);
 
@@ -501,8 +572,12 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _todo.clearTasks(UpgradeJobsTask.class);
         _todo.clearTasks(LoadImmediateTask.class);
         _todo.clearTasks(CheckStaleNodes.class);
-        _processedSinceLastLoadTask.clear();
+        _todo.clearTasks(FlushAcksTask.class);
+        // acknowledge whatever completed before we stopped, so it does not get executed again on restart
+        flushAcks();
+        clearProcessedSinceLastLoadTask();
         _outstandingJobs.clear();
+        _pendingAcks.clear();
 
         // disable because this is not the right way to do it
         // will be fixed by ODE-595
@@ -549,7 +624,35 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _todo.enqueue(new CheckStaleNodes(now + randomMean(_staleInterval)));
 
         // do the upgrade sometime (random) in the immediate interval.
-        _todo.enqueue(new UpgradeJobsTask(now + randomMean(_immediateInterval)));
+        for (int i = 0; i < _partitions; ++i)
+            _todo.enqueue(new UpgradeJobsTask(now + randomMean(_immediateInterval), partitionIndex(i)));
+    }
+
+    /**
+     * Partition of a job, computed from its instance id so that all the jobs of an instance share a partition.
+     */
+    int partitionOf(JobDetails details) {
+        if (_partitions <= 1 || details == null || details.instanceId == null)
+            return 0;
+        // instance ids are sequential, scramble them a bit before picking the partition
+        long h = details.instanceId.longValue() * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 33) % _partitions);
+    }
+
+    /**
+     * @return the partition argument for the database delegate, -1 to not filter by partition at all
+     */
+    private int partitionIndex(int partition) {
+        return _partitions > 1 ? partition : -1;
+    }
+
+    private ConcurrentHashMap<String, Long> processedSinceLastLoadTask(int partition) {
+        return _processedSinceLastLoadTask.get(Math.max(partition, 0));
+    }
+
+    private void clearProcessedSinceLastLoadTask() {
+        for (ConcurrentHashMap<String, Long> processed : _processedSinceLastLoadTask)
+            processed.clear();
     }
 
     class RunJob implements Callable<Void> {
@@ -567,10 +670,13 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                         job.detail.getRetryCount());
                 if (job.transacted) {
                     final boolean[] needRetry = new boolean[]{true};
+                    // runnable jobs re-insert themselves under the same id, so they always delete in-transaction
+                    final boolean deferAck = job.persisted && isAckBatched()
+                            && job.detail.getDetailsExt().get("runnable") == null;
                     try {
                         execTransaction(new Callable<Void>() {
                             public Void call() throws Exception {
-                                if (job.persisted)
+                                if (job.persisted && !deferAck)
                                     if (!_db.deleteJob(job.jobId, _nodeId))
                                         throw new JobNoLongerInDbException(job.jobId, _nodeId);
                                 try {
@@ -596,6 +702,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                                 return null;
                             }
                         });
+                        if (deferAck) acknowledge(job);
                     } catch (JobNoLongerInDbException jde) {
                         // This may happen if two node try to do the same job... we try to avoid
                         // it the synchronization is a best-effort but not perfect.
@@ -634,7 +741,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                 return null;
             } finally {
                 // the order of these 2 actions is crucial to avoid a race condition.
-                _processedSinceLastLoadTask.put(job.jobId, job.schedDate);
+                processedSinceLastLoadTask(job.partition).put(job.jobId, job.schedDate);
                 _outstandingJobs.remove(job.jobId);
             }
         }
@@ -736,7 +843,18 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
     }
 
     boolean doLoadImmediate() {
-        __log.debug("LOAD IMMEDIATE started");
+        boolean success = true;
+        for (int i = 0; i < _partitions; ++i)
+            success &= doLoadImmediate(partitionIndex(i));
+        return success;
+    }
+
+    /**
+     * Load the immediate jobs of a partition.
+     * @param partition the partition, -1 for all jobs
+     */
+    boolean doLoadImmediate(final int partition) {
+        if (__log.isDebugEnabled()) __log.debug("LOAD IMMEDIATE started" + (partition < 0 ? "" : " for partition " + partition));
 
         // don't load anything if we're already half-full;  we've got plenty to do already
         if (_outstandingJobs.size() > _todoLimit/2) return true;
@@ -744,7 +862,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         List<Job> jobs;
         try {
             // don't load more than we can chew
-            final int batch = Math.min((int) (_immediateInterval * _tps / 1000), _todoLimit-_outstandingJobs.size());
+            final int batch = Math.min((int) (_immediateInterval * _tps / 1000 / _partitions), _todoLimit-_outstandingJobs.size());
 
             // jobs might have been enqueued by #addTodoOnCommit meanwhile
             if (batch<=0) {
@@ -755,7 +873,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
             if (__log.isDebugEnabled()) __log.debug("loading "+batch+" jobs from db");
             jobs = execTransaction(new Callable<List<Job>>() {
                 public List<Job> call() throws Exception {
-                    return _db.dequeueImmediate(_nodeId, System.currentTimeMillis() + _immediateInterval, batch);
+                    return _db.dequeueImmediate(_nodeId, partition, _partitions, System.currentTimeMillis() + _immediateInterval, batch);
                 }
             });
             if (__log.isDebugEnabled()) __log.debug("loaded "+jobs.size()+" jobs from db");
@@ -783,7 +901,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
             }
 
             // clear only if the batch succeeded
-            _processedSinceLastLoadTask.clear();
+            processedSinceLastLoadTask(partition).clear();
             return true;
         } catch (Exception ex) {
             __log.error("Error loading immediate jobs from database.", ex);
@@ -794,8 +912,16 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
     }
 
     void enqueue(Job job) {
-        if (_processedSinceLastLoadTask.get(job.jobId) == null) {
+        if (_pendingAcks.containsKey(job.jobId)) {
+            if (__log.isDebugEnabled()) __log.debug("Job "+job.jobId+" is already processed (pending acknowledgement)");
+        } else if (processedSinceLastLoadTask(job.partition).get(job.jobId) == null) {
             if (_outstandingJobs.putIfAbsent(job.jobId, job.schedDate) == null) {
+                // the job may have completed between the two checks, it is marked processed before it stops being outstanding
+                if (processedSinceLastLoadTask(job.partition).get(job.jobId) != null) {
+                    _outstandingJobs.remove(job.jobId);
+                    if (__log.isDebugEnabled()) __log.debug("Job "+job.jobId+" is already processed (processed since last load)");
+                    return;
+                }
                 if (job.schedDate <= System.currentTimeMillis()) {
                     runTask(job);
                 } else {
@@ -809,8 +935,57 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         }
     }
 
+    boolean isAckBatched() {
+        return _ackBatchSize > 1;
+    }
+
+    /**
+     * Record a successfully processed job for deferred deletion; flush once a full batch is pending.
+     */
+    void acknowledge(Job job) {
+        _pendingAcks.put(job.jobId, job.schedDate);
+        if (_pendingAcks.size() >= _ackBatchSize) {
+            flushAcks();
+        }
+    }
+
+    /**
+     * Delete all processed jobs pending acknowledgement in a single transaction.
+     * @return false if the jobs could not be deleted (they will be retried on the next flush)
+     */
+    boolean flushAcks() {
+        if (_pendingAcks.isEmpty() || !_flushingAcks.compareAndSet(false, true))
+            return true;
+        try {
+            final List<String> jobIds = new ArrayList<String>(_pendingAcks.keySet());
+            int deleted = execTransaction(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return _db.deleteJobs(jobIds, _nodeId);
+                }
+            });
+            if (__log.isDebugEnabled()) __log.debug("acknowledged " + deleted + " of " + jobIds.size() + " completed jobs");
+            for (String jobId : jobIds) {
+                _pendingAcks.remove(jobId);
+            }
+            return true;
+        } catch (Exception ex) {
+            __log.error("Database error acknowledging completed jobs.", ex);
+            return false;
+        } finally {
+            _flushingAcks.set(false);
+        }
+    }
+
     boolean doUpgrade() {
-        __log.debug("UPGRADE started");
+        return doUpgrade(-1);
+    }
+
+    /**
+     * Upgrade the near future jobs of a partition.
+     * @param partition the partition, -1 for all jobs
+     */
+    boolean doUpgrade(final int partition) {
+        if (__log.isDebugEnabled()) __log.debug("UPGRADE started" + (partition < 0 ? "" : " for partition " + partition));
         final ArrayList<String> activeNodes;
 
         // for cluster mode
@@ -840,7 +1015,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                     int numNodes = activeNodes.size();
                     for (int i = 0; i < numNodes; ++i) {
                         String node = activeNodes.get(i);
-                        _db.updateAssignToNode(node, i, numNodes, maxtime);
+                        _db.updateAssignToNode(node, partition, _partitions, i, numNodes, maxtime);
                     }
                     return true;
                 }
@@ -911,19 +1086,23 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
     }
 
     private class LoadImmediateTask extends SchedulerTask {
-        LoadImmediateTask(long schedDate) {
+        /** Partition to load, -1 for all. */
+        final int partition;
+
+        LoadImmediateTask(long schedDate, int partition) {
             super(schedDate);
+            this.partition = partition;
         }
 
         public void run() {
             boolean success = false;
             try {
-                success = doLoadImmediate();
+                success = doLoadImmediate(partition);
             } finally {
                 if (success)
-                    _todo.enqueue(new LoadImmediateTask(System.currentTimeMillis() + (long) (_immediateInterval * .90)));
+                    _todo.enqueue(new LoadImmediateTask(System.currentTimeMillis() + (long) (_immediateInterval * .90), partition));
                 else
-                    _todo.enqueue(new LoadImmediateTask(System.currentTimeMillis() + 1000));
+                    _todo.enqueue(new LoadImmediateTask(System.currentTimeMillis() + 1000, partition));
             }
         }
 
@@ -935,34 +1114,39 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
      *
      */
     private class UpgradeJobsTask extends SchedulerTask {
-        UpgradeJobsTask(long schedDate) {
+        /** Partition to upgrade, -1 for all. */
+        final int partition;
+
+        UpgradeJobsTask(long schedDate, int partition) {
             super(schedDate);
+            this.partition = partition;
         }
 
         public void run() {
+            AtomicLong nextUpgrade = _nextUpgrade.get(Math.max(partition, 0));
             long ctime = System.currentTimeMillis();
-            long ntime = _nextUpgrade.get();
+            long ntime = nextUpgrade.get();
             if (__log.isDebugEnabled()) {
                 __log.debug("UPGRADE task for " + schedDate + " fired at " + ctime);
             }
 
             // We could be too early, this can happen if upgrade gets delayed due to another
             // node
-            if (_nextUpgrade.get() > System.currentTimeMillis()) {
+            if (nextUpgrade.get() > System.currentTimeMillis()) {
                 if (__log.isDebugEnabled()) {
                     __log.debug("UPGRADE skipped -- wait another " + (ntime - ctime) + "ms");
                 }
-                _todo.enqueue(new UpgradeJobsTask(ntime));
+                _todo.enqueue(new UpgradeJobsTask(ntime, partition));
                 return;
             }
 
             boolean success = false;
             try {
-              success = doUpgrade();
+              success = doUpgrade(partition);
             } finally {
                 long future = System.currentTimeMillis() + (success ? (long) (_nearFutureInterval * .50) : 1000);
-                _nextUpgrade.set(future);
-                _todo.enqueue(new UpgradeJobsTask(future));
+                nextUpgrade.set(future);
+                _todo.enqueue(new UpgradeJobsTask(future, partition));
                 if (__log.isDebugEnabled()) {
                     __log.debug("UPGRADE completed, success = " + success + "; next time in " + (future - ctime) + "ms");
                 }
@@ -970,6 +1154,24 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         }
     }
 
+    /**
+     * Periodically acknowledge completed jobs that did not fill a whole batch.
+     */
+    private class FlushAcksTask extends SchedulerTask {
+        FlushAcksTask(long schedDate) {
+            super(schedDate);
+        }
+
+        public void run() {
+            boolean success = false;
+            try {
+                success = flushAcks();
+            } finally {
+                _todo.enqueue(new FlushAcksTask(System.currentTimeMillis() + (success ? _ackFlushInterval : 1000)));
+            }
+        }
+    }
+
     /**
      * Check if any of the nodes in our cluster are stale.
      */
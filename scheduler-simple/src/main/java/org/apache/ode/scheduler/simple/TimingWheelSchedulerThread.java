@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of the "todo" queue based on a hierarchical timing wheel.
+ *
+ * Other threads never touch the wheel: enqueue, dequeue and clear requests are appended to a
+ * lock-free inbox which the scheduler thread drains before each pass, so producers never contend
+ * with each other or with the scheduler thread. While the scheduler is stopped, clearing tasks
+ * drains the inbox in the calling thread. Inserting and cancelling a task is O(1); only the
+ * first task of a bucket costs O(log n) in the (small) number of non-empty buckets, which are kept
+ * sorted by expiration.
+ *
+ * Tasks are never run before their scheduled time, and at most one tick after it. Tasks that expire
+ * in the same pass are run in the same order as with {@link SchedulerThread}.
+ */
+class TimingWheelSchedulerThread extends SchedulerQueue {
+
+    private static final Logger __log = LoggerFactory.getLogger(TimingWheelSchedulerThread.class);
+
+    static final long DEFAULT_TICK = 10;
+
+    static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /** Pending requests from other threads; only the scheduler thread consumes them. */
+    private final ConcurrentLinkedQueue<Op> _inbox = new ConcurrentLinkedQueue<Op>();
+
+    /** Time the scheduler thread is going to wake up by itself; producers only need to unpark it for earlier tasks. */
+    private volatile long _nextWakeup = Long.MAX_VALUE;
+
+    private volatile Thread _consumer;
+
+    private final AtomicInteger _size = new AtomicInteger();
+
+    private final TaskRunner _runner;
+
+    // State below is confined to the scheduler thread, or to the caller of clearTasks while the
+    // queue is stopped; starting and stopping the thread orders the two.
+
+    private final Wheel _wheel;
+
+    /**
+     * Expirations of the non-empty buckets. A bucket whose expiration changed is not looked up in
+     * the queue, its previous deadline is dropped when it gets polled.
+     */
+    private final PriorityQueue<Deadline> _deadlines = new PriorityQueue<Deadline>();
+
+    /** Entries in the wheel by task, to cancel them in constant time. */
+    private final HashMap<Task, Entry> _index = new HashMap<Task, Entry>();
+
+    private final ArrayList<Task> _expired = new ArrayList<Task>();
+
+    private final JobComparatorByDate _comparator = new JobComparatorByDate();
+
+    TimingWheelSchedulerThread(TaskRunner runner) {
+        this(runner, DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    TimingWheelSchedulerThread(TaskRunner runner, long tick, int wheelSize) {
+        if (tick <= 0 || wheelSize <= 1)
+            throw new IllegalArgumentException("Invalid timing wheel, tick=" + tick + " size=" + wheelSize);
+        _runner = runner;
+        _wheel = new Wheel(tick, wheelSize, System.currentTimeMillis());
+    }
+
+    @Override
+    void wakeup() {
+        Thread t = _consumer;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
+    @Override
+    void enqueue(Task task) {
+        _size.incrementAndGet();
+        _inbox.offer(new Op(Op.ADD, task, null));
+        if (task.schedDate < _nextWakeup)
+            wakeup();
+    }
+
+    @Override
+    void dequeue(Task task) {
+        // no need to wake up the scheduler, cancelled tasks are removed before anything gets run
+        _inbox.offer(new Op(Op.REMOVE, task, null));
+    }
+
+    @Override
+    public int size() {
+        return _size.get();
+    }
+
+    @Override
+    public void clearTasks(Class<? extends Task> tasktype) {
+        _inbox.offer(new Op(Op.CLEAR, null, tasktype));
+        // nobody's draining the inbox while the scheduler is stopped; tasks are expected to be gone on return
+        if (!isStarted())
+            drainInbox(System.currentTimeMillis());
+    }
+
+    @Override
+    public void run() {
+        _consumer = Thread.currentThread();
+        try {
+            while (!isDone()) {
+                long now = System.currentTimeMillis();
+                drainInbox(now);
+                advance(now);
+                runExpired();
+
+                _nextWakeup = nextExpiration();
+                // a producer may have missed the new wakeup time
+                if (!_inbox.isEmpty() || isDone()) {
+                    _nextWakeup = Long.MIN_VALUE;
+                    continue;
+                }
+                long wait = _nextWakeup - System.currentTimeMillis();
+                if (wait > 0)
+                    LockSupport.parkNanos(this, wait * 1000000L);
+                _nextWakeup = Long.MIN_VALUE;
+            }
+        } finally {
+            _consumer = null;
+            _nextWakeup = Long.MAX_VALUE;
+        }
+    }
+
+    private void drainInbox(long now) {
+        Op op;
+        while ((op = _inbox.poll()) != null) {
+            switch (op.type) {
+            case Op.ADD:
+                add(new Entry(op.task), now);
+                break;
+            case Op.REMOVE:
+                for (Entry e = _index.get(op.task); e != null; ) {
+                    Entry next = e.sameTask;
+                    remove(e);
+                    e = next;
+                }
+                if (_expired.remove(op.task))
+                    _size.decrementAndGet();
+                break;
+            case Op.CLEAR:
+                ArrayList<Entry> cleared = new ArrayList<Entry>();
+                for (Entry e : _index.values()) {
+                    for (; e != null; e = e.sameTask) {
+                        if (op.tasktype.isAssignableFrom(e.task.getClass()))
+                            cleared.add(e);
+                    }
+                }
+                for (Entry e : cleared)
+                    remove(e);
+                // tasks that expired but were not run yet
+                for (int i = _expired.size() - 1; i >= 0; --i) {
+                    if (op.tasktype.isAssignableFrom(_expired.get(i).getClass())) {
+                        _expired.remove(i);
+                        _size.decrementAndGet();
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    private void add(Entry e, long now) {
+        if (!_wheel.add(e, now)) {
+            _expired.add(e.task);
+            return;
+        }
+        Entry first = _index.put(e.task, e);
+        if (first != null) {
+            // same task scheduled more than once
+            e.sameTask = first;
+        }
+    }
+
+    private void remove(Entry e) {
+        e.bucket.unlink(e);
+        unindex(e);
+        _size.decrementAndGet();
+    }
+
+    private void unindex(Entry e) {
+        Entry first = _index.get(e.task);
+        if (first == e) {
+            if (e.sameTask == null) _index.remove(e.task);
+            else _index.put(e.task, e.sameTask);
+        } else {
+            for (Entry prev = first; prev != null; prev = prev.sameTask) {
+                if (prev.sameTask == e) {
+                    prev.sameTask = e.sameTask;
+                    break;
+                }
+            }
+        }
+        e.sameTask = null;
+    }
+
+    /**
+     * Move the wheel up to the current time: expired buckets of the lowest level are moved to the
+     * expired list, and those of the higher levels are cascaded down.
+     */
+    private void advance(long now) {
+        _wheel.advance(now);
+        Deadline d;
+        while ((d = _deadlines.peek()) != null && d.expiration <= now) {
+            _deadlines.poll();
+            Bucket b = d.bucket;
+            if (b.expiration != d.expiration)
+                continue;
+            b.expiration = -1;
+            for (Entry e = b.flush(); e != null; ) {
+                Entry next = e.next;
+                e.next = null;
+                unindex(e);
+                add(e, now);
+                e = next;
+            }
+        }
+    }
+
+    private void runExpired() {
+        if (_expired.isEmpty())
+            return;
+        ArrayList<Task> tasks = new ArrayList<Task>(_expired);
+        _expired.clear();
+        Collections.sort(tasks, _comparator);
+        for (Task task : tasks) {
+            _size.decrementAndGet();
+            try {
+                _runner.runTask(task);
+            } catch (RuntimeException ex) {
+                __log.error("Error running scheduler task " + task, ex);
+            }
+        }
+    }
+
+    private long nextExpiration() {
+        Deadline d;
+        while ((d = _deadlines.peek()) != null && d.bucket.expiration != d.expiration)
+            _deadlines.poll();
+        return d == null ? Long.MAX_VALUE : d.expiration;
+    }
+
+    /**
+     * One level of the wheel. Each level's tick is the full span of the level below.
+     */
+    private class Wheel {
+        final long tick;
+        final int size;
+        final long span;
+        final Bucket[] buckets;
+        long currentTime;
+        Wheel overflow;
+
+        Wheel(long tick, int size, long now) {
+            this.tick = tick;
+            this.size = size;
+            this.span = tick * size;
+            this.buckets = new Bucket[size];
+            for (int i = 0; i < size; ++i)
+                buckets[i] = new Bucket();
+            this.currentTime = now - (now % tick);
+        }
+
+        /**
+         * @return false if the entry is already expired
+         */
+        boolean add(Entry e, long now) {
+            long time = e.task.schedDate;
+            if (time <= now) {
+                return false;
+            } else if (time < currentTime + span) {
+                long slot = time / tick;
+                Bucket bucket = buckets[(int) (slot % size)];
+                bucket.link(e);
+                // the lowest level expires once the whole tick has passed, so that no task is run early;
+                // higher levels expire at the start of their tick and get cascaded down
+                long expiration = this == _wheel ? (slot + 1) * tick - 1 : slot * tick;
+                if (bucket.expiration != expiration) {
+                    bucket.expiration = expiration;
+                    _deadlines.add(new Deadline(expiration, bucket));
+                }
+                return true;
+            } else {
+                if (overflow == null)
+                    overflow = new Wheel(span, size, currentTime);
+                return overflow.add(e, now);
+            }
+        }
+
+        void advance(long now) {
+            if (now >= currentTime + tick) {
+                currentTime = now - (now % tick);
+                if (overflow != null)
+                    overflow.advance(currentTime);
+            }
+        }
+    }
+
+    private static class Bucket {
+        long expiration = -1;
+        Entry head;
+
+        void link(Entry e) {
+            e.bucket = this;
+            e.prev = null;
+            e.next = head;
+            if (head != null)
+                head.prev = e;
+            head = e;
+        }
+
+        void unlink(Entry e) {
+            if (e.prev != null) e.prev.next = e.next;
+            else head = e.next;
+            if (e.next != null) e.next.prev = e.prev;
+            e.prev = e.next = null;
+            e.bucket = null;
+        }
+
+        /**
+         * Empty the bucket.
+         * @return the entries that were in the bucket, linked by {@link Entry#next}
+         */
+        Entry flush() {
+            Entry e = head;
+            head = null;
+            for (Entry i = e; i != null; i = i.next) {
+                i.bucket = null;
+                i.prev = null;
+            }
+            return e;
+        }
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        final long expiration;
+        final Bucket bucket;
+
+        Deadline(long expiration, Bucket bucket) {
+            this.expiration = expiration;
+            this.bucket = bucket;
+        }
+
+        public int compareTo(Deadline o) {
+            return expiration < o.expiration ? -1 : (expiration == o.expiration ? 0 : 1);
+        }
+    }
+
+    private static class Entry {
+        final Task task;
+        Bucket bucket;
+        Entry prev;
+        Entry next;
+        /** Other entries for an equal task. */
+        Entry sameTask;
+
+        Entry(Task task) {
+            this.task = task;
+        }
+    }
+
+    private static class Op {
+        static final int ADD = 0;
+        static final int REMOVE = 1;
+        static final int CLEAR = 2;
+
+        final int type;
+        final Task task;
+        final Class<? extends Task> tasktype;
+
+        Op(int type, Task task, Class<? extends Task> tasktype) {
+            this.type = type;
+            this.task = task;
+            this.tasktype = tasktype;
+        }
+    }
+}
@@ -19,6 +19,8 @@
 
 package org.apache.ode.scheduler.simple;
 
+import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.namespace.QName;
@@ -141,6 +143,26 @@ public class JdbcDelegateTest extends Assert {
         assertEquals(1,_del.getNodeIds().size());
     }
     
+    @Test
+    public void testDeleteJobs() throws Exception {
+        // more than one full IN list plus a remainder
+        List<String> jobids = new ArrayList<String>();
+        for (int i = 0; i < 250; ++i) {
+            _del.insertJob(new Job(i, "j" + i, true, new Scheduler.JobDetails()), "n1", false);
+            jobids.add("j" + i);
+        }
+        _del.insertJob(new Job(300L, "k1", true, new Scheduler.JobDetails()), "n2", false);
+
+        // wrong nodeid, nothing deleted
+        assertEquals(0, _del.deleteJobs(jobids, "n2"));
+        // unknown ids are ignored
+        jobids.add("j1x");
+        assertEquals(250, _del.deleteJobs(jobids, "n1"));
+        assertEquals(0, _del.dequeueImmediate("n1", 10000L, 1000).size());
+        assertEquals(1, _del.dequeueImmediate("n2", 10000L, 1000).size());
+        assertEquals(0, _del.deleteJobs(new ArrayList<String>(), "n1"));
+    }
+
     @Test
     public void testUpgrade() throws Exception {
         for (int i = 0; i < 200; ++i)
@@ -158,6 +180,53 @@ public class JdbcDelegateTest extends Assert {
         assertEquals(n3,_del.dequeueImmediate("n3", 10000L, 1000).size());
     }
     
+    @Test
+    public void testPartitions() throws Exception {
+        assertTrue(_del.supportsPartitions());
+        for (int i = 0; i < 90; ++i) {
+            Job job = new Job(i, "j" + i, true, new Scheduler.JobDetails());
+            job.partition = i % 3;
+            _del.insertJob(job, null, false);
+        }
+
+        // only the jobs of partition 1 are assigned
+        assertEquals(30, _del.updateAssignToNode("n1", 1, 3, 0, 1, 100));
+        assertEquals(0, _del.dequeueImmediate("n1", 0, 3, 10000L, 1000).size());
+        List<Job> jobs = _del.dequeueImmediate("n1", 1, 3, 10000L, 1000);
+        assertEquals(30, jobs.size());
+        for (Job job : jobs)
+            assertEquals(1, job.partition);
+        assertEquals(30, _del.dequeueImmediate("n1", 10000L, 1000).size());
+    }
+
+    @Test
+    public void testPartitionsOutOfRange() throws Exception {
+        // jobs stored with 4 partitions, and jobs stored without a partition
+        for (int i = 0; i < 40; ++i) {
+            Job job = new Job(i, "j" + i, true, new Scheduler.JobDetails());
+            job.partition = i % 4;
+            _del.insertJob(job, i < 20 ? null : "n1", false);
+        }
+        Connection c = _ds._ds.getConnection();
+        try {
+            c.createStatement().executeUpdate("update ODE_JOB set partitionId = null where jobid in ('j3', 'j7', 'j23', 'j27')");
+        } finally {
+            c.close();
+        }
+
+        // loaded with 2 partitions, partition 0 sweeps the jobs of partitions 2 and 3 and those without a partition
+        assertEquals(5, _del.updateAssignToNode("n1", 1, 2, 0, 1, 100));
+        assertEquals(15, _del.updateAssignToNode("n1", 0, 2, 0, 1, 100));
+        List<Job> p0 = _del.dequeueImmediate("n1", 0, 2, 10000L, 1000);
+        List<Job> p1 = _del.dequeueImmediate("n1", 1, 2, 10000L, 1000);
+        assertEquals(30, p0.size());
+        assertEquals(10, p1.size());
+        for (Job job : p0)
+            assertEquals(0, job.partition);
+        for (Job job : p1)
+            assertEquals(1, job.partition);
+    }
+
     @Test
     public void testMigration() throws Exception {
         Scheduler.JobDetails j1 = new Scheduler.JobDetails();
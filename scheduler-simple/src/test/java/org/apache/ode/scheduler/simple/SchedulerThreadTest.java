@@ -43,7 +43,7 @@ import junit.framework.TestCase;
 public class SchedulerThreadTest extends Assert implements TaskRunner {
 
     static final long SCHED_TOLERANCE = 100;
-    SchedulerThread _st;
+    SchedulerQueue _st;
 
     List<TR> _tasks = new ArrayList<TR>(100);
     
@@ -104,6 +104,72 @@ public class SimpleSchedulerTest extends Assert implements JobProcessor {
         assertEquals(1, _jobs.size());
     }
     
+    @Test
+    public void testBatchedAcknowledgement() throws Exception {
+        _scheduler.setAckBatchSize(5);
+        _scheduler.setAckFlushInterval(200);
+        _scheduler.start();
+        _txm.begin();
+        try {
+            for (int i = 0; i < 12; ++i)
+                _scheduler.schedulePersistedJob(newDetail("123"), new Date());
+        } finally {
+            _txm.commit();
+        }
+        Thread.sleep(1000);
+        assertEquals(12, _jobs.size());
+        // all jobs acknowledged, including the incomplete last batch
+        assertEquals(0, _ds.delegate().dequeueImmediate("n1", System.currentTimeMillis() + 10000, 1000).size());
+    }
+
+    @Test
+    public void testPartitions() throws Exception {
+        _scheduler.setPartitions(4);
+        _scheduler.setNearFutureInterval(2000);
+        _scheduler.setImmediateInterval(1000);
+        _scheduler.start();
+        _txm.begin();
+        try {
+            for (long i = 0; i < 20; ++i) {
+                Scheduler.JobDetails jd = newDetail("123");
+                jd.setInstanceId(i);
+                // far future, so that every partition's upgrade and load tasks get involved
+                _scheduler.schedulePersistedJob(jd, new Date(System.currentTimeMillis() + 2500));
+            }
+        } finally {
+            _txm.commit();
+        }
+        Thread.sleep(5000);
+        assertEquals(20, _jobs.size());
+    }
+
+    @Test
+    public void testFewerPartitions() throws Exception {
+        _scheduler.setPartitions(4);
+        _scheduler.start();
+        _txm.begin();
+        try {
+            for (long i = 0; i < 20; ++i) {
+                Scheduler.JobDetails jd = newDetail("123");
+                jd.setInstanceId(i);
+                _scheduler.schedulePersistedJob(jd, new Date(System.currentTimeMillis() + 2000));
+            }
+        } finally {
+            _txm.commit();
+        }
+        _scheduler.shutdown();
+        assertEquals(0, _jobs.size());
+
+        // restarted with fewer partitions, the jobs of the partitions that are gone must still run
+        _scheduler = newScheduler("n1");
+        _scheduler.setPartitions(2);
+        _scheduler.setNearFutureInterval(2000);
+        _scheduler.setImmediateInterval(1000);
+        _scheduler.start();
+        Thread.sleep(4000);
+        assertEquals(20, _jobs.size());
+    }
+
     @Test
     public void testStartStop() throws Exception {
         _scheduler.start();
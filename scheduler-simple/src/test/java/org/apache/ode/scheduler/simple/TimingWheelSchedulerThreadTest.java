@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the {@link SchedulerThreadTest} tests against the timing wheel, plus a few specific ones.
+ */
+public class TimingWheelSchedulerThreadTest extends SchedulerThreadTest {
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        // small wheel, so that tasks a few seconds out go through the overflow levels
+        _st = new TimingWheelSchedulerThread(this, 10, 16);
+    }
+
+    @Test
+    public void testCascade() throws Exception {
+        _st.start();
+        long now = System.currentTimeMillis();
+        // first level spans 160ms, second 2.56s
+        long[] times = new long[] { now + 2900, now + 50, now + 700, now + 300 };
+        for (long t : times)
+            _st.enqueue(new Task(t));
+        Thread.sleep(3200);
+        assertEquals(4, _tasks.size());
+        for (int i = 0; i < 3; ++i)
+            assertTrue(_tasks.get(i).task.schedDate < _tasks.get(i + 1).task.schedDate);
+        for (TR tr : _tasks) {
+            assertTrue(tr.time >= tr.task.schedDate);
+            assertTrue(tr.time < tr.task.schedDate + SCHED_TOLERANCE / 2);
+        }
+        _st.stop();
+    }
+
+    @Test
+    public void testBucketReuse() throws Exception {
+        _st.start();
+        long now = System.currentTimeMillis();
+        // every bucket of the first level gets reused several times, with deadlines left behind
+        for (int i = 1; i <= 40; ++i)
+            _st.enqueue(new Task(now + i * 15));
+        Thread.sleep(1000);
+        assertEquals(40, _tasks.size());
+        for (int i = 0; i < 39; ++i)
+            assertTrue(_tasks.get(i).task.schedDate < _tasks.get(i + 1).task.schedDate);
+        for (TR tr : _tasks) {
+            assertTrue(tr.time >= tr.task.schedDate);
+            assertTrue(tr.time < tr.task.schedDate + SCHED_TOLERANCE / 2);
+        }
+        assertEquals(0, _st.size());
+        _st.stop();
+    }
+
+    @Test
+    public void testDequeue() throws Exception {
+        _st.start();
+        long now = System.currentTimeMillis();
+        _st.enqueue(new Job(now + 200, "j1", true, null));
+        _st.enqueue(new Job(now + 1500, "j2", true, null));
+        _st.enqueue(new Job(now + 250, "j3", true, null));
+        _st.dequeue(new Job(0, "j1", true, null));
+        _st.dequeue(new Job(0, "j2", true, null));
+        Thread.sleep(1800);
+        assertEquals(1, _tasks.size());
+        assertEquals("j3", ((Job) _tasks.get(0).task).jobId);
+        assertEquals(0, _st.size());
+        _st.stop();
+    }
+
+    @Test
+    public void testClearTasks() throws Exception {
+        long now = System.currentTimeMillis();
+        _st.enqueue(new Task(now + 100));
+        _st.enqueue(new Job(now + 100, "j1", true, null));
+        _st.enqueue(new Job(now + 5000, "j2", true, null));
+        _st.clearTasks(Job.class);
+        assertEquals(1, _st.size());
+        _st.start();
+        Thread.sleep(400);
+        assertEquals(1, _tasks.size());
+        assertFalse(_tasks.get(0).task instanceof Job);
+        _st.stop();
+    }
+}
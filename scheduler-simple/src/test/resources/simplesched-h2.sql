@@ -20,9 +20,11 @@ CREATE TABLE ODE_JOB (
   retryCount int,
   inMem int,
   detailsExt blob(4096),
+  partitionId int,
 
   PRIMARY KEY(jobid)
 );
 
 create index IDX_ODE_JOB_TS on ODE_JOB(ts);
-create index IDX_ODE_JOB_NODEID on ODE_JOB(nodeid);
\ No newline at end of file
+create index IDX_ODE_JOB_NODEID on ODE_JOB(nodeid);
+create index IDX_ODE_JOB_PARTITION on ODE_JOB(nodeid, partitionId, ts);
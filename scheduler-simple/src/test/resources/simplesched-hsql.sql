@@ -15,6 +15,7 @@ CREATE TABLE ode_job (
   retryCount int,
   inMem int,
   detailsExt blob(4096),
+  partitionId int,
 
   PRIMARY KEY(jobid));
 
@@ -0,0 +1,3 @@
+alter table ODE_JOB add partitionId int;
+update ODE_JOB set partitionId = 0;
+create index IDX_ODE_JOB_PARTITION on ODE_JOB(nodeid, partitionId, ts);
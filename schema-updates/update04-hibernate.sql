@@ -0,0 +1,5 @@
+-- Execution state deltas, Hibernate DAO
+alter table BPEL_INSTANCE add JACOB_STATE_DELTAS int;
+update BPEL_INSTANCE set JACOB_STATE_DELTAS = 0;
+create table BPEL_JACOB_STATE_DELTA (ID bigint not null, PIID bigint, SEQ int, DATA blob, INSERT_TIME timestamp, MLOCK int not null, primary key (ID));
+create index IDX_JACOB_STATE_DELTA_PIID on BPEL_JACOB_STATE_DELTA(PIID);
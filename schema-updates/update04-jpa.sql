@@ -0,0 +1,5 @@
+-- Execution state deltas, JPA DAO
+alter table ODE_PROCESS_INSTANCE add EXECUTION_STATE_DELTAS int;
+update ODE_PROCESS_INSTANCE set EXECUTION_STATE_DELTAS = 0;
+create table ODE_EXEC_STATE_DELTA (ID bigint not null, SEQ int, DATA blob, INSTANCE_ID bigint, primary key (ID));
+create index IDX_EXEC_STATE_DELTA_IID on ODE_EXEC_STATE_DELTA(INSTANCE_ID);
@@ -0,0 +1,4 @@
+-- Compressed XML data and messages, JPA DAO
+alter table ODE_XML_DATA add COMPRESSED_DATA blob;
+alter table ODE_MESSAGE add COMPRESSED_DATA blob;
+alter table ODE_MESSAGE add COMPRESSED_HEADER blob;
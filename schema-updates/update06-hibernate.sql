@@ -0,0 +1,5 @@
+-- Correlation key hashes, Hibernate DAO (existing rows are filled by the schema migration at startup)
+alter table BPEL_SELECTORS add CORRELATION_KEY_HASH bigint;
+alter table BPEL_CORRELATION_PROP add VALUE_HASH bigint;
+create index IDX_SELECTOR_CKEY_HASH on BPEL_SELECTORS(CORRELATION_KEY_HASH);
+create index IDX_CORPROP_VALUE_HASH on BPEL_CORRELATION_PROP(VALUE_HASH);
@@ -0,0 +1,5 @@
+-- Correlation key hashes, JPA DAO (existing rows are filled by the schema migration at startup)
+alter table ODE_MESSAGE_ROUTE add CORRELATION_KEY_HASH bigint;
+alter table ODE_CORSET_PROP add PROP_VALUE_HASH bigint;
+create index IDX_MESSAGE_ROUTE_CKEY_HASH on ODE_MESSAGE_ROUTE(CORRELATION_KEY_HASH);
+create index IDX_CORSET_PROP_VALUE_HASH on ODE_CORSET_PROP(PROP_VALUE_HASH);
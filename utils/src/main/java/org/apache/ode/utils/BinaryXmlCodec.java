@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * Compact binary encoding of a DOM element, much cheaper to produce and to read back than its
+ * textual form since no characters have to be escaped, parsed or checked.
+ *
+ * Names and short values are written once and then referred to by index, so repeated element names,
+ * namespaces and attribute values cost a few bytes each. Namespace declarations in scope on the
+ * element are kept, so that QName values in the content can still be resolved after decoding.
+ */
+public final class BinaryXmlCodec {
+
+    private static final byte VERSION = 1;
+
+    private static final int END = 0;
+    private static final int ELEMENT = 1;
+    private static final int TEXT = 2;
+    private static final int CDATA = 3;
+    private static final int COMMENT = 4;
+    private static final int PI = 5;
+
+    /** Strings up to this length are added to the dictionary. */
+    private static final int MAX_INTERNED_LENGTH = 64;
+
+    private BinaryXmlCodec() {
+    }
+
+    public static byte[] encode(Element element) {
+        Encoder enc = new Encoder();
+        enc.write(VERSION);
+        enc.writeElement(element, inScopeDeclarations(element));
+        return enc.toByteArray();
+    }
+
+    public static Element decode(byte[] data) {
+        return decode(data, 0, data.length);
+    }
+
+    public static Element decode(byte[] data, int offset, int length) {
+        Decoder dec = new Decoder(data, offset, offset + length);
+        int version = dec.read();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported binary XML version " + version);
+        Document doc = DOMUtils.newDocument();
+        if (dec.read() != ELEMENT)
+            throw new IllegalArgumentException("Binary XML doesn't start with an element");
+        dec.readElement(doc, doc);
+        return doc.getDocumentElement();
+    }
+
+    /**
+     * Namespace declarations of the ancestors of an element that are not overriden on the element itself.
+     */
+    private static List<Attr> inScopeDeclarations(Element element) {
+        List<Attr> decls = new ArrayList<Attr>();
+        Map<String, Boolean> seen = new HashMap<String, Boolean>();
+        for (Node n = element; n instanceof Element; n = n.getParentNode()) {
+            NamedNodeMap attrs = n.getAttributes();
+            for (int i = 0; i < attrs.getLength(); ++i) {
+                Attr attr = (Attr) attrs.item(i);
+                if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI()))
+                    continue;
+                if (seen.put(attr.getName(), Boolean.TRUE) == null && n != element)
+                    decls.add(attr);
+            }
+        }
+        return decls;
+    }
+
+    private static class Encoder {
+        byte[] buf = new byte[1024];
+        int len;
+        final Map<String, Integer> strings = new HashMap<String, Integer>();
+        final Map<NameKey, Integer> names = new HashMap<NameKey, Integer>();
+
+        void writeElement(Element element, List<Attr> extraAttrs) {
+            writeInt(ELEMENT);
+            writeName(element);
+            NamedNodeMap attrs = element.getAttributes();
+            writeInt(attrs.getLength() + extraAttrs.size());
+            for (Attr attr : extraAttrs) {
+                writeName(attr);
+                writeString(attr.getValue());
+            }
+            for (int i = 0; i < attrs.getLength(); ++i) {
+                Attr attr = (Attr) attrs.item(i);
+                writeName(attr);
+                writeString(attr.getValue());
+            }
+            writeChildren(element);
+            writeInt(END);
+        }
+
+        void writeChildren(Node parent) {
+            for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+                switch (n.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    writeElement((Element) n, new ArrayList<Attr>(0));
+                    break;
+                case Node.TEXT_NODE:
+                    writeInt(TEXT);
+                    writeString(n.getNodeValue());
+                    break;
+                case Node.CDATA_SECTION_NODE:
+                    writeInt(CDATA);
+                    writeString(n.getNodeValue());
+                    break;
+                case Node.COMMENT_NODE:
+                    writeInt(COMMENT);
+                    writeString(n.getNodeValue());
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    writeInt(PI);
+                    writeString(((ProcessingInstruction) n).getTarget());
+                    writeString(((ProcessingInstruction) n).getData());
+                    break;
+                case Node.ENTITY_REFERENCE_NODE:
+                    writeChildren(n);
+                    break;
+                }
+            }
+        }
+
+        void writeName(Node node) {
+            String ns = node.getNamespaceURI();
+            String local = node.getLocalName();
+            String prefix = node.getPrefix();
+            if (local == null) {
+                // DOM level 1 node
+                local = node.getNodeName();
+                prefix = null;
+            }
+            NameKey key = new NameKey(ns == null ? "" : ns, prefix == null ? "" : prefix, local);
+            Integer idx = names.get(key);
+            if (idx != null) {
+                writeInt(idx.intValue() + 1);
+            } else {
+                names.put(key, names.size());
+                writeInt(0);
+                writeString(key.ns);
+                writeString(key.prefix);
+                writeString(local);
+            }
+        }
+
+        void writeString(String s) {
+            if (s == null)
+                s = "";
+            Integer idx = s.length() <= MAX_INTERNED_LENGTH ? strings.get(s) : null;
+            if (idx != null) {
+                writeInt(idx.intValue() + 1);
+                return;
+            }
+            if (s.length() <= MAX_INTERNED_LENGTH)
+                strings.put(s, strings.size());
+            writeInt(0);
+            int n = s.length();
+            // very long strings don't fit the 3-byte length written below
+            if (3 * n >= 1 << 21) {
+                byte[] bytes;
+                try {
+                    bytes = s.getBytes("UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+                writeInt(bytes.length);
+                ensure(bytes.length);
+                System.arraycopy(bytes, 0, buf, len, bytes.length);
+                len += bytes.length;
+                return;
+            }
+            // the length is written before the bytes, with as many bytes as the longest possible encoding needs
+            int lenBytes = 3 * n < 1 << 7 ? 1 : (3 * n < 1 << 14 ? 2 : 3);
+            ensure(lenBytes + 3 * n);
+            int start = len + lenBytes;
+            int p = start;
+            for (int i = 0; i < n; ++i) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[p++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[p++] = (byte) (0xc0 | (c >> 6));
+                    buf[p++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[p++] = (byte) (0xf0 | (cp >> 18));
+                    buf[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[p++] = (byte) (0x80 | (cp & 0x3f));
+                } else {
+                    buf[p++] = (byte) (0xe0 | (c >> 12));
+                    buf[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[p++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            int byteLen = p - start;
+            for (int i = 1; i < lenBytes; ++i) {
+                buf[len++] = (byte) ((byteLen & 0x7f) | 0x80);
+                byteLen >>>= 7;
+            }
+            buf[len++] = (byte) byteLen;
+            len = p;
+        }
+
+        void writeInt(int v) {
+            ensure(5);
+            while ((v & ~0x7f) != 0) {
+                buf[len++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void write(int b) {
+            ensure(1);
+            buf[len++] = (byte) b;
+        }
+
+        void ensure(int n) {
+            if (len + n > buf.length) {
+                byte[] grown = new byte[Math.max(buf.length * 2, len + n)];
+                System.arraycopy(buf, 0, grown, 0, len);
+                buf = grown;
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[len];
+            System.arraycopy(buf, 0, result, 0, len);
+            return result;
+        }
+    }
+
+    private static class NameKey {
+        final String ns;
+        final String prefix;
+        final String local;
+        final int hash;
+
+        NameKey(String ns, String prefix, String local) {
+            this.ns = ns;
+            this.prefix = prefix;
+            this.local = local;
+            this.hash = (ns.hashCode() * 31 + prefix.hashCode()) * 31 + local.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NameKey))
+                return false;
+            NameKey k = (NameKey) o;
+            return hash == k.hash && local.equals(k.local) && ns.equals(k.ns) && prefix.equals(k.prefix);
+        }
+    }
+
+    private static class Decoder {
+        final byte[] data;
+        int pos;
+        final int end;
+        final List<String> strings = new ArrayList<String>();
+        final List<String[]> names = new ArrayList<String[]>();
+
+        Decoder(byte[] data, int offset, int end) {
+            this.data = data;
+            this.pos = offset;
+            this.end = end;
+        }
+
+        void readElement(Document doc, Node parent) {
+            String[] name = readName();
+            Element element = doc.createElementNS(name[0], name[1]);
+            parent.appendChild(element);
+            int attrCount = readInt();
+            for (int i = 0; i < attrCount; ++i) {
+                String[] attrName = readName();
+                element.setAttributeNS(attrName[0], attrName[1], readString());
+            }
+            while (true) {
+                int token = readInt();
+                switch (token) {
+                case END:
+                    return;
+                case ELEMENT:
+                    readElement(doc, element);
+                    break;
+                case TEXT:
+                    element.appendChild(doc.createTextNode(readString()));
+                    break;
+                case CDATA:
+                    element.appendChild(doc.createCDATASection(readString()));
+                    break;
+                case COMMENT:
+                    element.appendChild(doc.createComment(readString()));
+                    break;
+                case PI:
+                    String target = readString();
+                    element.appendChild(doc.createProcessingInstruction(target, readString()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Corrupted binary XML, unknown token " + token);
+                }
+            }
+        }
+
+        /**
+         * @return namespace (null if none) and qualified name
+         */
+        String[] readName() {
+            int idx = readInt();
+            if (idx > 0) {
+                if (idx > names.size())
+                    throw new IllegalArgumentException("Corrupted binary XML, unknown name " + idx);
+                return names.get(idx - 1);
+            }
+            String ns = readString();
+            String prefix = readString();
+            String local = readString();
+            String[] name = new String[] { ns.length() == 0 ? null : ns, prefix.length() == 0 ? local : prefix + ':' + local };
+            names.add(name);
+            return name;
+        }
+
+        String readString() {
+            int idx = readInt();
+            if (idx > 0) {
+                if (idx > strings.size())
+                    throw new IllegalArgumentException("Corrupted binary XML, unknown string " + idx);
+                return strings.get(idx - 1);
+            }
+            int len = readInt();
+            if (len < 0 || pos + len > end)
+                throw new IllegalArgumentException("Corrupted binary XML, truncated string");
+            String s = null;
+            char[] chars = new char[len];
+            for (int i = 0; i < len; ++i) {
+                byte b = data[pos + i];
+                if (b < 0) {
+                    chars = null;
+                    break;
+                }
+                chars[i] = (char) b;
+            }
+            if (chars != null) {
+                s = new String(chars);
+            } else {
+                try {
+                    s = new String(data, pos, len, "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            pos += len;
+            if (s.length() <= MAX_INTERNED_LENGTH)
+                strings.add(s);
+            return s;
+        }
+
+        int read() {
+            if (pos >= end)
+                throw new IllegalArgumentException("Corrupted binary XML, unexpected end of data");
+            return data[pos++] & 0xff;
+        }
+
+        int readInt() {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = read();
+                v |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new IllegalArgumentException("Corrupted binary XML, bad integer");
+        }
+    }
+}
@@ -57,6 +57,12 @@ public class Properties {
      */
     public static final String PROP_P2P_MEX_TIMEOUT = "p2p.mex.timeout";
 
+    /**
+     * Don't hold the receiving thread of requests that carry a non-anonymous WS-Addressing ReplyTo: they are
+     * acknowledged as soon as the process got them, and the response is sent to ReplyTo once it's available.
+     */
+    public static final String PROP_MEX_ASYNC_REPLY = "mex.async-reply";
+
     // its default value
     public static final int DEFAULT_MEX_TIMEOUT = 2 * 60 * 1000;
 
@@ -80,6 +86,13 @@ public class Properties {
      */
     public static final String PROP_ADDRESS = "address";
 
+    /**
+     * Send requests to a plain http endpoint over non-blocking sockets, so that pending invocations don't hold
+     * a thread. The Axis2 handler chain (modules, WS-Addressing headers) is bypassed; invocations that need a
+     * proxy, authentication, a security policy or stateful session headers still use the regular transport.
+     */
+    public static final String PROP_HTTP_NON_BLOCKING = "http.non-blocking";
+
     // Httpclient specific
     public static final String PROP_HTTP_MAX_REDIRECTS = HttpClientParams.MAX_REDIRECTS;
 
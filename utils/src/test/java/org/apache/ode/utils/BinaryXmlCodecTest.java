@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Test the {@link BinaryXmlCodec} class.
+ */
+public class BinaryXmlCodecTest extends TestCase {
+
+    private static final String XML = "<message xmlns=\"urn:d\" xmlns:t=\"urn:t\"><payload>"
+        + "<t:order a=\"1\" t:b=\"x&amp;y\">text &lt; <![CDATA[cd]]><!-- c --><?pi data?>"
+        + "<t:id>\u00e9\u4e2d\ud83d\ude00 42</t:id><t:id>\u00e9\u4e2d\ud83d\ude00 42</t:id>"
+        + "<t:ref>t:other</t:ref><plain xmlns=\"\">q</plain></t:order></payload></message>";
+
+    public void testRoundTrip() throws Exception {
+        Element elmt = DOMUtils.stringToDOM(XML);
+        Element decoded = BinaryXmlCodec.decode(BinaryXmlCodec.encode(elmt));
+        assertEquals(DOMUtils.domToString(elmt), DOMUtils.domToString(decoded));
+    }
+
+    public void testInScopeNamespaces() throws Exception {
+        Element elmt = DOMUtils.stringToDOM(XML);
+        Element order = DOMUtils.findChildByName(DOMUtils.getFirstChildElement(elmt), new QName("urn:t", "order"));
+        Element decoded = BinaryXmlCodec.decode(BinaryXmlCodec.encode(order));
+        assertEquals("urn:t", decoded.getNamespaceURI());
+        // the content refers to a namespace declared on an ancestor
+        assertEquals("urn:t", decoded.lookupNamespaceURI("t"));
+        assertEquals("urn:d", decoded.lookupNamespaceURI(null));
+    }
+
+    public void testLargeValues() throws Exception {
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 100000; ++i)
+            text.append("value ").append(i).append(' ');
+        Document doc = DOMUtils.newDocument();
+        Element elmt = doc.createElementNS("urn:x", "x:root");
+        doc.appendChild(elmt);
+        for (int i = 0; i < 100; ++i) {
+            Element item = doc.createElementNS("urn:x", "x:item");
+            item.setAttributeNS(null, "id", Integer.toString(i % 10));
+            item.appendChild(doc.createTextNode(i == 50 ? text.toString() : "short"));
+            elmt.appendChild(item);
+        }
+        byte[] encoded = BinaryXmlCodec.encode(elmt);
+        assertTrue(encoded.length < DOMUtils.domToString(elmt).length());
+        Element decoded = BinaryXmlCodec.decode(encoded);
+        assertEquals(DOMUtils.domToString(elmt), DOMUtils.domToString(decoded));
+    }
+
+    public void testCorrupted() throws Exception {
+        byte[] encoded = BinaryXmlCodec.encode(DOMUtils.stringToDOM(XML));
+        try {
+            BinaryXmlCodec.decode(encoded, 0, encoded.length / 2);
+            fail("Should have failed.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}